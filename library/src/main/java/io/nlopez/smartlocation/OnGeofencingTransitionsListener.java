@@ -0,0 +1,16 @@
+package io.nlopez.smartlocation;
+
+import java.util.List;
+
+import io.nlopez.smartlocation.geofencing.utils.TransitionGeofence;
+
+/**
+ * Receives the geofence transitions in batches, see
+ * {@link io.nlopez.smartlocation.geofencing.utils.TransitionDebouncer}.
+ */
+public interface OnGeofencingTransitionsListener {
+    /**
+     * @param transitions transitions in the order they were received, never empty
+     */
+    void onGeofenceTransitions(List<TransitionGeofence> transitions);
+}
@@ -7,6 +7,8 @@ import android.support.annotation.Nullable;
 
 import com.google.android.gms.location.DetectedActivity;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
@@ -19,9 +21,12 @@ import io.nlopez.smartlocation.geocoding.providers.AndroidGeocodingProvider;
 import io.nlopez.smartlocation.geofencing.GeofencingProvider;
 import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
 import io.nlopez.smartlocation.geofencing.providers.GeofencingGooglePlayServicesProvider;
+import io.nlopez.smartlocation.location.LocationHistory;
+import io.nlopez.smartlocation.location.LocationMultiplexer;
 import io.nlopez.smartlocation.location.LocationProvider;
 import io.nlopez.smartlocation.location.config.LocationParams;
 import io.nlopez.smartlocation.location.providers.LocationGooglePlayServicesWithFallbackProvider;
+import io.nlopez.smartlocation.location.track.TrackRecorder;
 import io.nlopez.smartlocation.location.utils.LocationState;
 import io.nlopez.smartlocation.utils.Logger;
 import io.nlopez.smartlocation.utils.LoggerFactory;
@@ -94,6 +99,12 @@ public class SmartLocation {
     }
 
     /**
+     * Geofences added through this handler are registered in Google Play Services, which only supports circles.
+     * Adding a {@link io.nlopez.smartlocation.geofencing.model.PolygonGeofenceModel} or a
+     * {@link io.nlopez.smartlocation.geofencing.model.CorridorGeofenceModel} throws an
+     * {@link IllegalArgumentException} naming the geofence; use {@link #geofencing(GeofencingProvider)} with a
+     * {@link io.nlopez.smartlocation.geofencing.providers.LocalGeofencingProvider} for them.
+     *
      * @return request handler for geofencing operations
      */
     public GeofencingControl geofencing() {
@@ -153,11 +164,15 @@ public class SmartLocation {
     public static class LocationControl {
 
         private static final Map<Context, LocationProvider> MAPPING = new WeakHashMap<>();
+        private static final Map<Context, Map<LocationProvider, LocationMultiplexer>> MULTIPLEXERS =
+                new WeakHashMap<>();
 
         private final SmartLocation smartLocation;
         private LocationParams params;
         private LocationProvider provider;
         private boolean oneFix;
+        private TrackRecorder trackRecorder;
+        private TrackRecordingListener trackRecordingListener;
 
         public LocationControl(@NonNull SmartLocation smartLocation, @NonNull LocationProvider locationProvider) {
             this.smartLocation = smartLocation;
@@ -189,6 +204,18 @@ public class SmartLocation {
             return this;
         }
 
+        /**
+         * Records every location received in the given track. The recorder is closed when stopping and not
+         * used again, call this again before starting for recording another session. If the track can not be
+         * written, the error is logged and the recording stops while the updates go on.
+         *
+         * @param trackRecorder recorder for the track, or null for not recording
+         */
+        public LocationControl track(@Nullable TrackRecorder trackRecorder) {
+            this.trackRecorder = trackRecorder;
+            return this;
+        }
+
         public LocationState state() {
             return LocationState.with(smartLocation.context);
         }
@@ -198,6 +225,13 @@ public class SmartLocation {
             return provider.getLastLocation();
         }
 
+        /**
+         * @return history with the last locations received by the providers shipped with the library
+         */
+        public LocationHistory history() {
+            return LocationHistory.getInstance();
+        }
+
         public LocationControl get() {
             return this;
         }
@@ -206,11 +240,112 @@ public class SmartLocation {
             if (provider == null) {
                 throw new RuntimeException("A provider must be initialized");
             }
+            if (trackRecorder != null) {
+                trackRecordingListener = new TrackRecordingListener(listener, trackRecorder, smartLocation.logger);
+                listener = trackRecordingListener;
+            }
             provider.start(listener, params, oneFix);
         }
 
+        /**
+         * Adds a listener to the updates of the provider with the current params, sharing a single
+         * registration with the rest of subscribers of the same context and provider. The provider runs with
+         * the most demanding params of all of them and every listener only receives the updates matching its
+         * own params. Subscriptions are not affected by {@link #track(TrackRecorder)}.
+         *
+         * @param listener listener for the updates
+         */
+        public void subscribe(@NonNull OnLocationUpdatedListener listener) {
+            if (provider == null) {
+                throw new RuntimeException("A provider must be initialized");
+            }
+            getMultiplexer().subscribe(listener, params, oneFix);
+        }
+
+        /**
+         * Removes a listener added with {@link #subscribe(OnLocationUpdatedListener)}, stopping the provider if
+         * it was the last one.
+         *
+         * @param listener listener to remove
+         */
+        public void unsubscribe(@NonNull OnLocationUpdatedListener listener) {
+            List<LocationMultiplexer> multiplexers;
+            synchronized (MULTIPLEXERS) {
+                Map<LocationProvider, LocationMultiplexer> byProvider = MULTIPLEXERS.get(smartLocation.context);
+                if (byProvider == null) {
+                    return;
+                }
+                multiplexers = new ArrayList<>(byProvider.values());
+            }
+            for (LocationMultiplexer multiplexer : multiplexers) {
+                multiplexer.unsubscribe(listener);
+            }
+        }
+
+        private LocationMultiplexer getMultiplexer() {
+            synchronized (MULTIPLEXERS) {
+                Map<LocationProvider, LocationMultiplexer> byProvider = MULTIPLEXERS.get(smartLocation.context);
+                if (byProvider == null) {
+                    byProvider = new IdentityHashMap<>();
+                    MULTIPLEXERS.put(smartLocation.context, byProvider);
+                }
+                LocationMultiplexer multiplexer = byProvider.get(provider);
+                if (multiplexer == null) {
+                    multiplexer = new LocationMultiplexer(provider);
+                    byProvider.put(provider, multiplexer);
+                }
+                return multiplexer;
+            }
+        }
+
         public void stop() {
             provider.stop();
+            if (trackRecordingListener != null) {
+                // Updates still on their way must not open a new segment
+                trackRecordingListener.recording = false;
+                trackRecordingListener = null;
+            }
+            if (trackRecorder != null) {
+                try {
+                    trackRecorder.close();
+                } catch (IllegalStateException e) {
+                    smartLocation.logger.e(e, "Unable to close the track");
+                }
+                trackRecorder = null;
+            }
+        }
+
+        private static class TrackRecordingListener implements OnLocationUpdatedListener {
+            private final OnLocationUpdatedListener listener;
+            private final TrackRecorder trackRecorder;
+            private final Logger logger;
+            private volatile boolean recording = true;
+
+            TrackRecordingListener(OnLocationUpdatedListener listener, TrackRecorder trackRecorder, Logger logger) {
+                this.listener = listener;
+                this.trackRecorder = trackRecorder;
+                this.logger = logger;
+            }
+
+            @Override
+            public void onLocationUpdated(Location location) {
+                if (recording) {
+                    try {
+                        trackRecorder.record(location);
+                    } catch (IllegalStateException e) {
+                        logger.e(e, "Unable to record the location, recording stopped");
+                        recording = false;
+                        try {
+                            trackRecorder.close();
+                        } catch (IllegalStateException closeException) {
+                            logger.e(closeException, "Unable to close the track");
+                        }
+                    }
+                }
+                if (listener != null) {
+                    listener.onLocationUpdated(location);
+                }
+            }
         }
     }
 
@@ -7,22 +7,51 @@ import android.support.annotation.VisibleForTesting;
 
 import com.google.android.gms.location.DetectedActivity;
 
-import io.nlopez.smartlocation.common.Store;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.nlopez.smartlocation.common.BatchStore;
+import io.nlopez.smartlocation.common.BinaryFileStore;
+import io.nlopez.smartlocation.common.StoreBackend;
 
 /**
  * Stores activities
  */
-public class ActivityStore implements Store<DetectedActivity> {
+public class ActivityStore implements BatchStore<DetectedActivity> {
 
     private static final String PREFERENCES_FILE = "ACTIVITY_STORE";
     private static final String PREFIX_ID = ActivityStore.class.getCanonicalName() + ".KEY";
     private static final String ACTIVITY_ID = "ACTIVITY";
     private static final String CONFIDENCE_ID = "CONFIDENCE";
 
+    private static StoreBackend defaultBackend = StoreBackend.SHARED_PREFERENCES;
+
     private SharedPreferences preferences;
+    private BinaryFileStore<DetectedActivity> binaryStore;
+    private boolean migrated;
 
     public ActivityStore(@NonNull Context context) {
+        this(context, defaultBackend);
+    }
+
+    public ActivityStore(@NonNull Context context, @NonNull StoreBackend backend) {
         preferences = context.getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
+        if (backend == StoreBackend.BINARY_FILE) {
+            binaryStore = BinaryFileStore.forFile(new File(context.getFilesDir(), PREFERENCES_FILE + ".bin"), CODEC);
+        }
+    }
+
+    /**
+     * Sets the backend that new stores will use. When switching to {@link StoreBackend#BINARY_FILE}, the
+     * activities saved in SharedPreferences are moved to the binary file the first time the store is used.
+     *
+     * @param backend persistence format, {@link StoreBackend#SHARED_PREFERENCES} by default
+     */
+    public static void setDefaultBackend(@NonNull StoreBackend backend) {
+        defaultBackend = backend;
     }
 
     @VisibleForTesting
@@ -32,14 +61,42 @@ public class ActivityStore implements Store<DetectedActivity> {
 
     @Override
     public void put(String id, DetectedActivity activity) {
+        if (binaryStore != null) {
+            getBinaryStore().put(id, activity);
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        writePreferences(editor, id, activity);
+        editor.apply();
+    }
+
+    @Override
+    public void putAll(Map<String, DetectedActivity> activities) {
+        if (binaryStore != null) {
+            getBinaryStore().putAll(activities);
+            return;
+        }
         SharedPreferences.Editor editor = preferences.edit();
+        for (Map.Entry<String, DetectedActivity> entry : activities.entrySet()) {
+            writePreferences(editor, entry.getKey(), entry.getValue());
+        }
+        editor.apply();
+    }
+
+    private void writePreferences(SharedPreferences.Editor editor, String id, DetectedActivity activity) {
         editor.putInt(getFieldKey(id, ACTIVITY_ID), activity.getType());
         editor.putInt(getFieldKey(id, CONFIDENCE_ID), activity.getConfidence());
-        editor.apply();
     }
 
     @Override
     public DetectedActivity get(String id) {
+        if (binaryStore != null) {
+            return getBinaryStore().get(id);
+        }
+        return readPreferences(id);
+    }
+
+    private DetectedActivity readPreferences(String id) {
         if (preferences != null && preferences.contains(getFieldKey(id, ACTIVITY_ID)) && preferences.contains(getFieldKey(id, CONFIDENCE_ID))) {
             int activity = preferences.getInt(getFieldKey(id, ACTIVITY_ID), DetectedActivity.UNKNOWN);
             int confidence = preferences.getInt(getFieldKey(id, CONFIDENCE_ID), 0);
@@ -49,16 +106,98 @@ public class ActivityStore implements Store<DetectedActivity> {
         }
     }
 
+    @Override
+    public Map<String, DetectedActivity> getAll() {
+        if (binaryStore != null) {
+            return getBinaryStore().getAll();
+        }
+        return readAllPreferences();
+    }
+
+    private Map<String, DetectedActivity> readAllPreferences() {
+        Map<String, DetectedActivity> activities = new HashMap<>();
+        String prefix = PREFIX_ID + "_";
+        String suffix = "_" + ACTIVITY_ID;
+        for (String key : preferences.getAll().keySet()) {
+            if (key.startsWith(prefix) && key.endsWith(suffix)) {
+                String id = key.substring(prefix.length(), key.length() - suffix.length());
+                DetectedActivity activity = readPreferences(id);
+                if (activity != null) {
+                    activities.put(id, activity);
+                }
+            }
+        }
+        return activities;
+    }
+
     @Override
     public void remove(String id) {
+        if (binaryStore != null) {
+            getBinaryStore().remove(id);
+            return;
+        }
         SharedPreferences.Editor editor = preferences.edit();
+        removePreferences(editor, id);
+        editor.apply();
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        if (binaryStore != null) {
+            getBinaryStore().removeAll(ids);
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String id : ids) {
+            removePreferences(editor, id);
+        }
+        editor.apply();
+    }
+
+    private void removePreferences(SharedPreferences.Editor editor, String id) {
         editor.remove(getFieldKey(id, ACTIVITY_ID));
         editor.remove(getFieldKey(id, CONFIDENCE_ID));
-        editor.apply();
+    }
+
+    private synchronized BinaryFileStore<DetectedActivity> getBinaryStore() {
+        if (!migrated) {
+            migrated = true;
+            if (!binaryStore.exists()) {
+                migrate();
+            }
+        }
+        return binaryStore;
+    }
+
+    private void migrate() {
+        Map<String, DetectedActivity> activities = readAllPreferences();
+        binaryStore.putAll(activities);
+        if (!activities.isEmpty()) {
+            preferences.edit().clear().apply();
+        }
     }
 
     private String getFieldKey(String id, String field) {
         return PREFIX_ID + "_" + id + "_" + field;
     }
 
+    private static final BinaryFileStore.Codec<DetectedActivity> CODEC = new BinaryFileStore.Codec<DetectedActivity>() {
+        @Override
+        public int getRecordSize() {
+            // type, confidence
+            return 4 + 4;
+        }
+
+        @Override
+        public void write(DetectedActivity activity, ByteBuffer buffer) {
+            buffer.putInt(activity.getType());
+            buffer.putInt(activity.getConfidence());
+        }
+
+        @Override
+        public DetectedActivity read(String id, ByteBuffer buffer) {
+            return new DetectedActivity(buffer.getInt(), buffer.getInt());
+        }
+    };
+
 }
@@ -23,6 +23,7 @@ import io.nlopez.smartlocation.OnActivityUpdatedListener;
 import io.nlopez.smartlocation.activity.ActivityProvider;
 import io.nlopez.smartlocation.activity.ActivityStore;
 import io.nlopez.smartlocation.activity.config.ActivityParams;
+import io.nlopez.smartlocation.utils.GoogleApiClientPool;
 import io.nlopez.smartlocation.utils.GooglePlayServicesListener;
 import io.nlopez.smartlocation.utils.Logger;
 
@@ -64,13 +65,7 @@ public class ActivityGooglePlayServicesProvider implements ActivityProvider, Goo
         activityStore = new ActivityStore(context);
 
         if (!shouldStart) {
-            this.client = new GoogleApiClient.Builder(context)
-                    .addApi(ActivityRecognition.API)
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    .build();
-
-            client.connect();
+            acquireClient();
         } else {
             logger.d("already started");
         }
@@ -84,18 +79,22 @@ public class ActivityGooglePlayServicesProvider implements ActivityProvider, Goo
         IntentFilter intentFilter = new IntentFilter(BROADCAST_INTENT_ACTION);
         context.registerReceiver(activityReceiver, intentFilter);
 
-        if (client.isConnected()) {
-            startUpdating(params);
-        } else if (stopped) {
+        if (stopped) {
             shouldStart = true;
-            client.connect();
+            acquireClient();
             stopped = false;
+        } else if (client.isConnected()) {
+            startUpdating(params);
         } else {
             shouldStart = true;
             logger.d("still not connected - scheduled start when connection is ok");
         }
     }
 
+    private void acquireClient() {
+        client = GoogleApiClientPool.getInstance().acquire(context, this, this, ActivityRecognition.API);
+    }
+
     private void startUpdating(ActivityParams params) {
         // TODO wait until the connection is done and retry
         if (client.isConnected()) {
@@ -111,7 +110,9 @@ public class ActivityGooglePlayServicesProvider implements ActivityProvider, Goo
         logger.d("stop");
         if (client.isConnected()) {
             ActivityRecognition.ActivityRecognitionApi.removeActivityUpdates(client, pendingIntent);
-            client.disconnect();
+        }
+        if (!stopped && client != null) {
+            GoogleApiClientPool.getInstance().release(client, this, this);
         }
         try {
             context.unregisterReceiver(activityReceiver);
@@ -0,0 +1,30 @@
+package io.nlopez.smartlocation.common;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Store able to read and write several values at once. Callers holding a plain {@link Store} can check for
+ * it and fall back to one call per value.
+ */
+public interface BatchStore<T> extends Store<T> {
+
+    /**
+     * @return every stored value, by key
+     */
+    Map<String, T> getAll();
+
+    /**
+     * Stores all the given values with a single write.
+     *
+     * @param values values to store, by key
+     */
+    void putAll(Map<String, T> values);
+
+    /**
+     * Removes all the given keys with a single write.
+     *
+     * @param keys keys to remove
+     */
+    void removeAll(Collection<String> keys);
+}
@@ -0,0 +1,334 @@
+package io.nlopez.smartlocation.common;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Key value storage that keeps all the records in a single binary file, using a fixed layout for the
+ * values described by a {@link Codec}.
+ * <p/>
+ * File layout (big endian): magic (int), version (short), record size (short), record count (int), and then
+ * for every record the id length (short), the UTF-8 id and the record itself. The file is read once into
+ * memory, and written as a whole to a temporary file that replaces the old one, so a crash while writing
+ * never leaves a half written store behind.
+ * <p/>
+ * Like {@link android.content.SharedPreferences.Editor#apply()}, changes are visible right away but written
+ * in a background thread shared by every store. Changes made while a write is pending are coalesced into it,
+ * and write errors are logged instead of thrown. Use {@link #awaitWrites()} to wait for the pending writes.
+ * <p/>
+ * Every instance keeps its own copy of the records, so two instances over the same file overwrite each
+ * other's changes. Use {@link #forFile(File, Codec)} to share a single instance per file.
+ */
+public class BinaryFileStore<T> implements BatchStore<T> {
+
+    private static final int MAGIC = 0x534c4253; // SLBS
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TAG = "BinaryFileStore";
+
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "SmartLocation-store");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final AtomicInteger pendingWrites = new AtomicInteger();
+    private static final Map<String, BinaryFileStore<?>> STORES = new HashMap<>();
+
+    private final File file;
+    private final Codec<T> codec;
+    private Map<String, byte[]> records;
+    private boolean writeScheduled;
+    private int writeCount;
+
+    public BinaryFileStore(@NonNull File file, @NonNull Codec<T> codec) {
+        this.file = file;
+        this.codec = codec;
+    }
+
+    /**
+     * Returns the store shared by every caller of the given file, creating it the first time.
+     *
+     * @param file  file backing the store
+     * @param codec codec of the records, must be the same for every caller of the file
+     * @return shared store of the file
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized <T> BinaryFileStore<T> forFile(@NonNull File file, @NonNull Codec<T> codec) {
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            path = file.getAbsolutePath();
+        }
+        BinaryFileStore<?> store = STORES.get(path);
+        if (store == null) {
+            store = new BinaryFileStore<>(file, codec);
+            STORES.put(path, store);
+        } else if (store.codec != codec) {
+            throw new IllegalArgumentException("Store " + path + " is already open with another codec");
+        }
+        return (BinaryFileStore<T>) store;
+    }
+
+    /**
+     * Forgets the shared stores, so the next {@link #forFile(File, Codec)} reads its file again as a new
+     * process would. Pending writes are awaited first.
+     */
+    @VisibleForTesting
+    public static synchronized void clearSharedStores() {
+        awaitWrites();
+        STORES.clear();
+    }
+
+    /**
+     * @return TRUE if the store file was already written, FALSE otherwise
+     */
+    public boolean exists() {
+        synchronized (this) {
+            if (writeScheduled) {
+                return true;
+            }
+        }
+        if (pendingWrites.get() > 0) {
+            awaitWrites();
+        }
+        return file.exists();
+    }
+
+    /**
+     * Blocks until the pending writes of every store are done. Must not be called from the writer thread.
+     */
+    public static void awaitWrites() {
+        try {
+            WRITER.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The task does nothing
+        }
+    }
+
+    /**
+     * @return number of times the file has been written
+     */
+    @VisibleForTesting
+    synchronized int getWriteCount() {
+        return writeCount;
+    }
+
+    @Override
+    public synchronized T get(String id) {
+        byte[] record = getRecords().get(id);
+        if (record == null) {
+            return null;
+        }
+        return codec.read(id, ByteBuffer.wrap(record));
+    }
+
+    @Override
+    public synchronized void put(String id, T value) {
+        getRecords().put(id, encode(value));
+        scheduleWrite();
+    }
+
+    @Override
+    public synchronized Map<String, T> getAll() {
+        Map<String, T> values = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> entry : getRecords().entrySet()) {
+            values.put(entry.getKey(), codec.read(entry.getKey(), ByteBuffer.wrap(entry.getValue())));
+        }
+        return values;
+    }
+
+    @Override
+    public synchronized void putAll(Map<String, T> values) {
+        Map<String, byte[]> current = getRecords();
+        for (Map.Entry<String, T> entry : values.entrySet()) {
+            current.put(entry.getKey(), encode(entry.getValue()));
+        }
+        scheduleWrite();
+    }
+
+    @Override
+    public synchronized void remove(String id) {
+        if (getRecords().remove(id) != null) {
+            scheduleWrite();
+        }
+    }
+
+    @Override
+    public synchronized void removeAll(Collection<String> ids) {
+        Map<String, byte[]> current = getRecords();
+        boolean changed = false;
+        for (String id : ids) {
+            changed |= current.remove(id) != null;
+        }
+        if (changed) {
+            scheduleWrite();
+        }
+    }
+
+    private byte[] encode(T value) {
+        ByteBuffer buffer = ByteBuffer.allocate(codec.getRecordSize());
+        codec.write(value, buffer);
+        return buffer.array();
+    }
+
+    private Map<String, byte[]> getRecords() {
+        if (records == null) {
+            records = new LinkedHashMap<>();
+            if (pendingWrites.get() > 0) {
+                // A previous store of the same file may not have written its changes yet
+                awaitWrites();
+            }
+            try {
+                read();
+            } catch (IOException e) {
+                records.clear();
+            }
+        }
+        return records;
+    }
+
+    private void read() throws IOException {
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            return;
+        }
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] content = new byte[(int) file.length()];
+            input.readFully(content);
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION
+                    || buffer.getShort() != codec.getRecordSize()) {
+                return;
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] id = new byte[buffer.getShort()];
+                buffer.get(id);
+                byte[] record = new byte[codec.getRecordSize()];
+                buffer.get(record);
+                records.put(new String(id, UTF_8), record);
+            }
+        } catch (RuntimeException e) {
+            // Truncated or corrupted file, keep whatever we could read
+        } finally {
+            input.close();
+        }
+    }
+
+    private void scheduleWrite() {
+        if (writeScheduled) {
+            return;
+        }
+        writeScheduled = true;
+        pendingWrites.incrementAndGet();
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write();
+                } finally {
+                    pendingWrites.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    private void write() {
+        List<String> ids;
+        List<byte[]> values;
+        synchronized (this) {
+            // Records are replaced, never modified, so copying the references is enough
+            writeScheduled = false;
+            writeCount++;
+            ids = new ArrayList<>(records.keySet());
+            values = new ArrayList<>(records.values());
+        }
+
+        int size = HEADER_SIZE;
+        List<byte[]> encodedIds = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            byte[] encodedId = id.getBytes(UTF_8);
+            encodedIds.add(encodedId);
+            size += 2 + encodedId.length + codec.getRecordSize();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) codec.getRecordSize());
+        buffer.putInt(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            byte[] id = encodedIds.get(i);
+            buffer.putShort((short) id.length);
+            buffer.put(id);
+            buffer.put(values.get(i));
+        }
+        buffer.flip();
+
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                FileChannel channel = output.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            } finally {
+                output.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            Log.e(TAG, "Unable to write " + file, e);
+        }
+    }
+
+    /**
+     * Fixed size binary representation of the stored values.
+     */
+    public interface Codec<T> {
+        /**
+         * @return size in bytes of every record
+         */
+        int getRecordSize();
+
+        void write(T value, ByteBuffer buffer);
+
+        T read(String id, ByteBuffer buffer);
+    }
+}
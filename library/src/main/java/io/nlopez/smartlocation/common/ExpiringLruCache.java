@@ -0,0 +1,129 @@
+package io.nlopez.smartlocation.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In memory cache bounded by number of entries, evicting the least recently used ones, whose entries expire
+ * after a time to live. Keeps hit, miss and eviction counters. Thread safe.
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final int maxSize;
+    private final long timeToLive;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxSize    max number of entries kept
+     * @param timeToLive time in milliseconds an entry is valid since it was stored, 0 for no expiration
+     */
+    public ExpiringLruCache(int maxSize, long timeToLive) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @return cached value, or null if missing or expired
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || isExpired(entry.time)) {
+            if (entry != null) {
+                entries.remove(key);
+            }
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        put(key, value, now());
+    }
+
+    /**
+     * Stores a value with the time it was obtained, for example when restoring it from disk.
+     *
+     * @param time time in milliseconds, same clock as {@link System#currentTimeMillis()}
+     */
+    public synchronized void put(K key, V value, long time) {
+        if (isExpired(time)) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, time));
+        if (entries.size() > maxSize) {
+            Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+            while (entries.size() > maxSize && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                evictions++;
+            }
+        }
+    }
+
+    public synchronized void remove(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    public boolean isExpired(long time) {
+        return timeToLive > 0 && now() - time >= timeToLive;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long time;
+
+        Entry(V value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+}
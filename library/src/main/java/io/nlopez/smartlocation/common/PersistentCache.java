@@ -0,0 +1,239 @@
+package io.nlopez.smartlocation.common;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk cache of binary values by string key, kept in an append-only file.
+ * <p/>
+ * The file is only read on the first access, not when creating the cache. Every put appends a record (time,
+ * key and value), and the file is rewritten without the stale, expired and exceeding records once it holds
+ * twice as many records as allowed. Failing to read or write the file is not an error for a cache, so I/O
+ * problems just result in misses.
+ */
+public class PersistentCache {
+
+    private static final int MAGIC = 0x534c5043; // SLPC
+    private static final int VERSION = 1;
+    private static final int MIN_COMPACTION_RECORDS = 64;
+
+    private final File file;
+    private final int maxEntries;
+    private final long timeToLive;
+
+    private LinkedHashMap<String, Record> records;
+    private int fileRecords;
+
+    /**
+     * @param file       file for the cache
+     * @param maxEntries max number of entries kept, the oldest ones are dropped first
+     * @param timeToLive time in milliseconds an entry is valid since it was stored, 0 for no expiration
+     */
+    public PersistentCache(@NonNull File file, int maxEntries, long timeToLive) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @return TRUE if the file was already read
+     */
+    public synchronized boolean isLoaded() {
+        return records != null;
+    }
+
+    @Nullable
+    public synchronized Record get(@NonNull String key) {
+        Record record = getRecords().get(key);
+        if (record == null) {
+            return null;
+        }
+        if (isExpired(record.time)) {
+            records.remove(key);
+            return null;
+        }
+        return record;
+    }
+
+    public synchronized void put(@NonNull String key, @NonNull byte[] value) {
+        Map<String, Record> current = getRecords();
+        Record record = new Record(value, now());
+        current.remove(key);
+        current.put(key, record);
+        trim();
+
+        if (fileRecords + 1 >= Math.max(MIN_COMPACTION_RECORDS, maxEntries * 2)) {
+            compact();
+            return;
+        }
+        try {
+            boolean newFile = !file.exists() || file.length() == 0;
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            try {
+                if (newFile) {
+                    writeHeader(output);
+                    fileRecords = 0;
+                }
+                writeRecord(output, key, record);
+                fileRecords++;
+            } finally {
+                output.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    public synchronized void clear() {
+        records = new LinkedHashMap<>();
+        fileRecords = 0;
+        file.delete();
+    }
+
+    public synchronized int size() {
+        return getRecords().size();
+    }
+
+    private Map<String, Record> getRecords() {
+        if (records == null) {
+            records = new LinkedHashMap<>();
+            boolean complete = load();
+            int loaded = fileRecords;
+            Iterator<Record> iterator = records.values().iterator();
+            while (iterator.hasNext()) {
+                if (isExpired(iterator.next().time)) {
+                    iterator.remove();
+                }
+            }
+            trim();
+            if (!complete || loaded > records.size() * 2 + MIN_COMPACTION_RECORDS) {
+                compact();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return TRUE if the whole file was read
+     */
+    private boolean load() {
+        fileRecords = 0;
+        if (!file.exists()) {
+            return true;
+        }
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    return false;
+                }
+                while (true) {
+                    long time;
+                    try {
+                        time = input.readLong();
+                    } catch (EOFException e) {
+                        return true;
+                    }
+                    String key = input.readUTF();
+                    byte[] value = new byte[input.readInt()];
+                    input.readFully(value);
+                    records.remove(key);
+                    records.put(key, new Record(value, time));
+                    fileRecords++;
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            // Torn or corrupted file, keep what we could read
+            return false;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void trim() {
+        Iterator<Record> iterator = records.values().iterator();
+        while (records.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private void compact() {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                writeHeader(output);
+                for (Map.Entry<String, Record> entry : records.entrySet()) {
+                    writeRecord(output, entry.getKey(), entry.getValue());
+                }
+            } finally {
+                output.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+            fileRecords = records.size();
+        } catch (IOException e) {
+            temp.delete();
+        }
+    }
+
+    private static void writeHeader(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+    }
+
+    private static void writeRecord(DataOutputStream output, String key, Record record) throws IOException {
+        output.writeLong(record.time);
+        output.writeUTF(key);
+        output.writeInt(record.value.length);
+        output.write(record.value);
+    }
+
+    private boolean isExpired(long time) {
+        return timeToLive > 0 && now() - time >= timeToLive;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Value stored and the time it was stored at.
+     */
+    public static class Record {
+        private final byte[] value;
+        private final long time;
+
+        Record(byte[] value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+
+        public long getTime() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package io.nlopez.smartlocation.common;
+
+/**
+ * Persistence formats available for the library stores.
+ */
+public enum StoreBackend {
+    /**
+     * One SharedPreferences entry per field of every record (default).
+     */
+    SHARED_PREFERENCES,
+    /**
+     * All the records of the store in a single binary file. See {@link BinaryFileStore}.
+     */
+    BINARY_FILE
+}
@@ -0,0 +1,31 @@
+package io.nlopez.smartlocation.geocoding.engine;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link GeocoderBackend} based on Android's Geocoder class.
+ */
+public class AndroidGeocoderBackend implements GeocoderBackend {
+
+    private final Geocoder geocoder;
+
+    public AndroidGeocoderBackend(Context context, Locale locale) {
+        geocoder = locale == null ? new Geocoder(context) : new Geocoder(context, locale);
+    }
+
+    @Override
+    public List<Address> getFromLocation(double latitude, double longitude, int maxResults) throws IOException {
+        return geocoder.getFromLocation(latitude, longitude, maxResults);
+    }
+
+    @Override
+    public List<Address> getFromLocationName(String name, int maxResults) throws IOException {
+        return geocoder.getFromLocationName(name, maxResults);
+    }
+}
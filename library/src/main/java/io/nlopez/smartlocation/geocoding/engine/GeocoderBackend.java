@@ -0,0 +1,16 @@
+package io.nlopez.smartlocation.geocoding.engine;
+
+import android.location.Address;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Blocking geocoder used by {@link GeocodingEngine}, with the same contract as {@link android.location.Geocoder}.
+ * Implementations are called from several worker threads at the same time.
+ */
+public interface GeocoderBackend {
+    List<Address> getFromLocation(double latitude, double longitude, int maxResults) throws IOException;
+
+    List<Address> getFromLocationName(String name, int maxResults) throws IOException;
+}
@@ -0,0 +1,320 @@
+package io.nlopez.smartlocation.geocoding.engine;
+
+import android.location.Address;
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.nlopez.smartlocation.OnGeocodingListener;
+import io.nlopez.smartlocation.OnReverseGeocodingListener;
+import io.nlopez.smartlocation.geocoding.utils.LocationAddress;
+import io.nlopez.smartlocation.location.utils.GeoHash;
+
+/**
+ * Runs geocoding lookups in parallel on a bounded pool of worker threads. Every result is delivered in the
+ * worker thread as soon as its lookup completes, so the listeners must be thread safe.
+ * <p/>
+ * Identical lookups requested while one is in flight (same name, or same location rounded to a geohash cell
+ * of about a meter, and same max results) are attached to it instead of calling the geocoder again, and
+ * every listener gets the result. An engine works with a single geocoder, so with a single locale.
+ * <p/>
+ * Lookups that fail (with any exception) or run for longer than the timeout are delivered with an empty result,
+ * the same way the Android geocoder reports network errors. The timeout starts when the geocoder is called, so
+ * the time spent waiting for a free worker does not count against it. Cancelled lookups are not delivered at all.
+ */
+public class GeocodingEngine {
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final long DEFAULT_TIMEOUT = 10000;
+
+    private static final String THREAD_NAME = "SmartLocation-Geocoder-";
+    private static final int LOCATION_KEY_PRECISION = 10;
+    private static final long KEEP_ALIVE = 30;
+
+    private final GeocoderBackend backend;
+    private final long timeout;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor timeoutExecutor;
+    private final Map<String, Operation> inFlight = new HashMap<>();
+
+    private long lookups;
+    private long coalesced;
+
+    public GeocodingEngine(@NonNull GeocoderBackend backend) {
+        this(backend, DEFAULT_CONCURRENCY, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param backend     geocoder doing the lookups
+     * @param concurrency max number of lookups running at the same time
+     * @param timeout     time in milliseconds after which a running lookup is given up, 0 for no timeout
+     */
+    public GeocodingEngine(@NonNull GeocoderBackend backend, int concurrency, long timeout) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.backend = backend;
+        this.timeout = timeout;
+        executor = new ThreadPoolExecutor(concurrency, concurrency, KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        timeoutExecutor = new ScheduledThreadPoolExecutor(1, new WorkerThreadFactory());
+        timeoutExecutor.setKeepAliveTime(KEEP_ALIVE, TimeUnit.SECONDS);
+        timeoutExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public void resolve(@NonNull String name, int maxResults, @NonNull OnGeocodingListener listener) {
+        resolve(null, name, maxResults, listener);
+    }
+
+    public void resolve(@NonNull Location location, int maxResults, @NonNull OnReverseGeocodingListener listener) {
+        resolve(null, location, maxResults, listener);
+    }
+
+    /**
+     * @param owner object the lookup is requested for, used for cancelling it with {@link #cancel(Object)}
+     */
+    public void resolve(Object owner, @NonNull String name, int maxResults, @NonNull OnGeocodingListener listener) {
+        attach("n|" + maxResults + "|" + name, new Attachment(owner, name, null, listener, null), maxResults);
+    }
+
+    /**
+     * @param owner object the lookup is requested for, used for cancelling it with {@link #cancel(Object)}
+     */
+    public void resolve(Object owner, @NonNull Location location, int maxResults,
+                        @NonNull OnReverseGeocodingListener listener) {
+        String cell = GeoHash.encode(location.getLatitude(), location.getLongitude(), LOCATION_KEY_PRECISION);
+        attach("l|" + maxResults + "|" + cell, new Attachment(owner, null, location, null, listener), maxResults);
+    }
+
+    /**
+     * Cancels the lookups requested for an owner. In flight operations shared with other owners keep running.
+     */
+    public synchronized void cancel(Object owner) {
+        Iterator<Operation> iterator = inFlight.values().iterator();
+        while (iterator.hasNext()) {
+            Operation operation = iterator.next();
+            Iterator<Attachment> attachments = operation.attachments.iterator();
+            while (attachments.hasNext()) {
+                if (attachments.next().owner == owner) {
+                    attachments.remove();
+                }
+            }
+            if (operation.attachments.isEmpty()) {
+                operation.cancel();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancels every pending or running lookup. Their listeners will not be called.
+     */
+    public synchronized void cancelAll() {
+        for (Operation operation : inFlight.values()) {
+            operation.cancel();
+        }
+        inFlight.clear();
+    }
+
+    /**
+     * Cancels every lookup and stops the worker threads. The engine can not be used afterwards.
+     */
+    public void shutdown() {
+        cancelAll();
+        executor.shutdownNow();
+        timeoutExecutor.shutdownNow();
+    }
+
+    /**
+     * @return number of geocoder operations not finished yet
+     */
+    public synchronized int getActiveCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return number of lookups requested
+     */
+    public synchronized long getLookupCount() {
+        return lookups;
+    }
+
+    /**
+     * @return number of lookups attached to an operation already in flight
+     */
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    private synchronized void attach(String key, Attachment attachment, int maxResults) {
+        lookups++;
+        Operation operation = inFlight.get(key);
+        if (operation != null) {
+            coalesced++;
+            operation.attachments.add(attachment);
+            return;
+        }
+
+        operation = new Operation(key, attachment.name, attachment.location, maxResults);
+        operation.attachments.add(attachment);
+        inFlight.put(key, operation);
+        operation.future = executor.submit(operation);
+    }
+
+    private synchronized List<Attachment> finish(Operation operation) {
+        if (inFlight.get(operation.key) == operation) {
+            inFlight.remove(operation.key);
+        }
+        return new ArrayList<>(operation.attachments);
+    }
+
+    private static class Attachment {
+        private final Object owner;
+        private final String name;
+        private final Location location;
+        private final OnGeocodingListener geocodingListener;
+        private final OnReverseGeocodingListener reverseGeocodingListener;
+
+        Attachment(Object owner, String name, Location location, OnGeocodingListener geocodingListener,
+                   OnReverseGeocodingListener reverseGeocodingListener) {
+            this.owner = owner;
+            this.name = name;
+            this.location = location;
+            this.geocodingListener = geocodingListener;
+            this.reverseGeocodingListener = reverseGeocodingListener;
+        }
+
+        void notifyListener(List<Address> addresses) {
+            if (name != null) {
+                ArrayList<LocationAddress> results = new ArrayList<>(addresses.size());
+                for (Address address : addresses) {
+                    results.add(new LocationAddress(address));
+                }
+                geocodingListener.onLocationResolved(name, results);
+            } else {
+                reverseGeocodingListener.onAddressResolved(location, new ArrayList<>(addresses));
+            }
+        }
+    }
+
+    private class Operation implements Runnable {
+        private final String key;
+        private final String name;
+        private final Location location;
+        private final int maxResults;
+        private final List<Attachment> attachments = new ArrayList<>();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile Future<?> future;
+        private volatile ScheduledFuture<?> timeoutFuture;
+
+        Operation(String key, String name, Location location, int maxResults) {
+            this.key = key;
+            this.name = name;
+            this.location = location;
+            this.maxResults = maxResults;
+        }
+
+        @Override
+        public void run() {
+            if (finished.get()) {
+                return;
+            }
+            if (timeout > 0) {
+                timeoutFuture = timeoutExecutor.schedule(new Timeout(this), timeout, TimeUnit.MILLISECONDS);
+            }
+            List<Address> addresses = null;
+            try {
+                if (name != null) {
+                    addresses = backend.getFromLocationName(name, maxResults);
+                } else {
+                    addresses = backend.getFromLocation(location.getLatitude(), location.getLongitude(), maxResults);
+                }
+            } catch (IOException e) {
+                addresses = null;
+            } catch (IllegalArgumentException e) {
+                addresses = null;
+            } finally {
+                // Any other failure of the geocoder is delivered as an empty result too, so waiters never hang
+                deliver(addresses != null ? addresses : Collections.<Address>emptyList());
+            }
+        }
+
+        void deliver(List<Address> addresses) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            List<Attachment> delivered = finish(this);
+            if (timeoutFuture != null) {
+                timeoutFuture.cancel(false);
+            }
+            notifyListeners(delivered, addresses);
+        }
+
+        void expire() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            List<Attachment> delivered = finish(this);
+            if (future != null) {
+                future.cancel(true);
+            }
+            notifyListeners(delivered, Collections.<Address>emptyList());
+        }
+
+        void cancel() {
+            if (finished.compareAndSet(false, true)) {
+                future.cancel(true);
+                if (timeoutFuture != null) {
+                    timeoutFuture.cancel(false);
+                }
+            }
+        }
+
+        private void notifyListeners(List<Attachment> delivered, List<Address> addresses) {
+            for (Attachment attachment : delivered) {
+                attachment.notifyListener(addresses);
+            }
+        }
+    }
+
+    private static class Timeout implements Runnable {
+        private final Operation operation;
+
+        Timeout(Operation operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public void run() {
+            operation.expire();
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private static final AtomicInteger COUNT = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, THREAD_NAME + COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package io.nlopez.smartlocation.geocoding.offline;
+
+/**
+ * Place stored in a {@link PlaceIndex}.
+ */
+public class Place {
+    private final String name;
+    private final String adminArea;
+    private final String countryCode;
+    private final double latitude;
+    private final double longitude;
+    private final int population;
+    private final double distance;
+
+    Place(String name, String adminArea, String countryCode, double latitude, double longitude, int population,
+          double distance) {
+        this.name = name;
+        this.adminArea = adminArea;
+        this.countryCode = countryCode;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.population = population;
+        this.distance = distance;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return name of the administrative area the place belongs to, or an empty string if unknown
+     */
+    public String getAdminArea() {
+        return adminArea;
+    }
+
+    /**
+     * @return ISO 3166 country code, or an empty string if unknown
+     */
+    public String getCountryCode() {
+        return countryCode;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public int getPopulation() {
+        return population;
+    }
+
+    /**
+     * @return distance in meters to the queried point, NaN for the places found by name
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    @Override
+    public String toString() {
+        return "Place{" + name + ", " + adminArea + ", " + countryCode + ", " + latitude + ", " + longitude + "}";
+    }
+}
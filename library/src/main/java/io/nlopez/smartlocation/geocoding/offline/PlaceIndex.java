@@ -0,0 +1,515 @@
+package io.nlopez.smartlocation.geocoding.offline;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.nlopez.smartlocation.geocoding.utils.NameNormalizer;
+import io.nlopez.smartlocation.location.utils.GeoDistance;
+
+/**
+ * Read only index of places, built with {@link PlaceIndexBuilder}. The file is memory mapped and queried in
+ * place, so the places are never loaded in the heap: finding the nearest places reads the cells around the
+ * queried point only, in growing windows until no unvisited cell can hold a nearer place. Every row of a
+ * window is a range of consecutive cell ids, so it costs two binary searches over the cell directory.
+ * <p/>
+ * Places are also found by name: normalized names are sorted, so the names starting with the typed text are a
+ * contiguous range found with binary searches, and misspelled names are found through a trigram index.
+ * <p/>
+ * Instances are thread safe.
+ */
+public class PlaceIndex implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * GeoDistance.EARTH_RADIUS;
+    private static final double MIN_SIMILARITY = 0.5;
+    private static final int MIN_FUZZY_LENGTH = 4;
+    private static final int MAX_FUZZY_TRIGRAMS = 255;
+
+    private final RandomAccessFile file;
+    private final ByteBuffer buffer;
+    private final double cellSize;
+    private final int rows;
+    private final int columns;
+    private final int placeCount;
+    private final int cellCount;
+    private final int nameCount;
+    private final int trigramCount;
+    private final int placesOffset;
+    private final int namesOffset;
+    private final int trigramsOffset;
+    private final int postingsOffset;
+    private final int stringsOffset;
+    private final ThreadLocal<byte[]> trigramCounts = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[nameCount];
+        }
+    };
+
+    private PlaceIndex(RandomAccessFile file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < PlaceIndexFormat.HEADER_SIZE || buffer.getInt(0) != PlaceIndexFormat.MAGIC) {
+            throw new IOException("Not a place index");
+        }
+        if (buffer.getInt(4) != PlaceIndexFormat.VERSION) {
+            throw new IOException("Unsupported place index version " + buffer.getInt(4));
+        }
+        cellSize = buffer.getInt(8) / PlaceIndexFormat.MICRO_DEGREES;
+        rows = buffer.getInt(12);
+        columns = buffer.getInt(16);
+        placeCount = buffer.getInt(20);
+        cellCount = buffer.getInt(24);
+        nameCount = buffer.getInt(32);
+        trigramCount = buffer.getInt(36);
+        placesOffset = PlaceIndexFormat.HEADER_SIZE + (cellCount + 1) * PlaceIndexFormat.CELL_SIZE;
+        namesOffset = placesOffset + placeCount * PlaceIndexFormat.PLACE_SIZE;
+        trigramsOffset = namesOffset + nameCount * PlaceIndexFormat.NAME_SIZE;
+        postingsOffset = trigramsOffset + trigramCount * PlaceIndexFormat.TRIGRAM_SIZE;
+        stringsOffset = postingsOffset + buffer.getInt(40) * 4;
+        if (stringsOffset + buffer.getInt(28) != buffer.capacity()) {
+            throw new IOException("Truncated place index");
+        }
+    }
+
+    /**
+     * Maps an index file. Keep in mind that files inside the APK assets can not be mapped, they have to be
+     * copied to the internal storage first.
+     */
+    public static PlaceIndex open(@NonNull File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return new PlaceIndex(randomAccessFile, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    public int size() {
+        return placeCount;
+    }
+
+    /**
+     * @param latitude    latitude of the queried point
+     * @param longitude   longitude of the queried point
+     * @param maxResults  max number of places returned
+     * @param maxDistance max distance in meters of the places returned
+     * @return nearest places, sorted by distance
+     */
+    public List<Place> nearest(double latitude, double longitude, int maxResults, double maxDistance) {
+        if (maxResults <= 0 || placeCount == 0) {
+            return Collections.emptyList();
+        }
+        maxResults = Math.min(maxResults, placeCount);
+        int[] best = new int[maxResults];
+        double[] bestDistances = new double[maxResults];
+        int found = 0;
+
+        int queryRow = PlaceIndexFormat.row(latitude, cellSize, rows);
+        int queryColumn = PlaceIndexFormat.column(longitude, cellSize, columns);
+
+        // Meters per cell, taken at the latitude farthest from the equator that can be within range, so the
+        // bound for stopping is never larger than the real distance
+        double spanDegrees = maxDistance / METERS_PER_DEGREE;
+        double farthestLatitude = Math.min(90, Math.abs(latitude) + spanDegrees + cellSize);
+        double cellMeters = cellSize * METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(farthestLatitude)), 1e-3);
+        // Rows farther than this can not have places within range. Clamped so huge distances do not overflow.
+        int rowSpan = (int) Math.min(rows, Math.ceil(spanDegrees / cellSize)) + 1;
+
+        // Windows of cells around the queried one, growing until no unvisited cell can hold a nearer place.
+        // Each window only scans the cells the previous one did not cover.
+        int previous = -1;
+        int radius = 0;
+        while (true) {
+            int rowRadius = Math.min(radius, rowSpan);
+            for (int row = Math.max(0, queryRow - rowRadius); row <= Math.min(rows - 1, queryRow + rowRadius); row++) {
+                int width = Math.min(columns, 2 * radius + 1);
+                int previousWidth = Math.abs(row - queryRow) <= previous ? Math.min(columns, 2 * previous + 1) : 0;
+                if (previousWidth == 0) {
+                    found = scanColumns(row, queryColumn - radius, width, latitude, longitude, maxDistance, best,
+                            bestDistances, found);
+                } else if (width == columns) {
+                    found = scanColumns(row, queryColumn + previous + 1, columns - previousWidth, latitude, longitude,
+                            maxDistance, best, bestDistances, found);
+                } else {
+                    found = scanColumns(row, queryColumn - radius, radius - previous, latitude, longitude,
+                            maxDistance, best, bestDistances, found);
+                    found = scanColumns(row, queryColumn + previous + 1, radius - previous, latitude, longitude,
+                            maxDistance, best, bestDistances, found);
+                }
+            }
+
+            // Unvisited cells are more than radius cells away from the queried one
+            double bound = radius * cellMeters;
+            boolean covered = radius >= rowSpan && 2 * radius + 1 >= columns;
+            if (covered || bound > maxDistance || (found == maxResults && bestDistances[found - 1] <= bound)) {
+                break;
+            }
+            previous = radius;
+            radius = Math.max(1, radius * 2);
+        }
+
+        List<Place> places = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            places.add(readPlace(best[i], bestDistances[i]));
+        }
+        return places;
+    }
+
+    /**
+     * Finds places by name, ignoring case and accents. Places named exactly like the query go first, then the
+     * ones with names starting with it and then, for queries of a few characters, the ones with similar names
+     * (misspellings). Ties are broken by population. Looking for misspellings takes a byte per indexed name
+     * in every thread searching.
+     *
+     * @param name       name or start of the name of the place
+     * @param maxResults max number of places returned
+     * @return matching places, with NaN distances
+     */
+    public List<Place> search(@NonNull String name, int maxResults) {
+        return newQuery().update(name).results(maxResults);
+    }
+
+    /**
+     * @return query for type-ahead searches, which narrows the previous matches when the text is extended
+     */
+    public NameQuery newQuery() {
+        return new NameQuery();
+    }
+
+    /**
+     * Search by name whose text is updated while the user types. When the new text starts with the previous
+     * one, the names are only searched within the range that matched the previous text.
+     * <p/>
+     * Instances are not thread safe.
+     */
+    public class NameQuery {
+        private byte[] prefix = new byte[0];
+        private int low = 0;
+        private int high = nameCount;
+        private String text = "";
+
+        private NameQuery() {
+        }
+
+        public NameQuery update(@NonNull String name) {
+            String normalized = NameNormalizer.normalize(name);
+            byte[] bytes = normalized.getBytes(UTF_8);
+            if (!startsWith(bytes, prefix)) {
+                low = 0;
+                high = nameCount;
+            }
+            low = lowerBound(low, high, bytes, false);
+            high = lowerBound(low, high, bytes, true);
+            prefix = bytes;
+            text = normalized;
+            return this;
+        }
+
+        /**
+         * @return number of names starting with the current text
+         */
+        public int getMatchCount() {
+            return high - low;
+        }
+
+        public List<Place> results(int maxResults) {
+            if (maxResults <= 0 || prefix.length == 0) {
+                return Collections.emptyList();
+            }
+            List<Place> places = new ArrayList<>(Math.min(maxResults, 16));
+
+            // Exact matches sort first in the range, by population
+            int name = low;
+            while (name < high && places.size() < maxResults && nameLength(name) == prefix.length) {
+                places.add(readPlace(namePlace(name), Double.NaN));
+                name++;
+            }
+
+            // Longer names, the most populated first
+            int[] best = new int[Math.min(maxResults - places.size(), high - name)];
+            int found = 0;
+            for (int candidate = name; candidate < high && best.length > 0; candidate++) {
+                int population = namePopulation(candidate);
+                if (found == best.length && population <= namePopulation(best[found - 1])) {
+                    continue;
+                }
+                int position = found == best.length ? found - 1 : found++;
+                while (position > 0 && namePopulation(best[position - 1]) < population) {
+                    best[position] = best[position - 1];
+                    position--;
+                }
+                best[position] = candidate;
+            }
+            for (int i = 0; i < found; i++) {
+                places.add(readPlace(namePlace(best[i]), Double.NaN));
+            }
+
+            if (places.size() < maxResults && text.length() >= MIN_FUZZY_LENGTH) {
+                addSimilar(text, low, high, maxResults - places.size(), places);
+            }
+            return places;
+        }
+    }
+
+    /**
+     * Adds the places with the names most similar to the query, by Dice coefficient of their trigrams. The
+     * names sharing trigrams with the query are counted in a per thread array with a counter per name, so
+     * finding them costs a pass over the posting lists of the trigrams of the query.
+     */
+    private void addSimilar(String text, int excludedLow, int excludedHigh, int maxResults, List<Place> places) {
+        long[] trigrams = PlaceIndexFormat.trigrams(text);
+        int queryTrigrams = trigrams.length;
+        if (queryTrigrams > MAX_FUZZY_TRIGRAMS) {
+            return;
+        }
+        // Names sharing less than a third of the trigrams of the query can not reach the min similarity
+        int minCommon = (queryTrigrams + 2) / 3;
+        byte[] counts = trigramCounts.get();
+        int[][] lists = new int[queryTrigrams][];
+        int[] candidates = new int[16];
+        int candidateCount = 0;
+        for (int i = 0; i < queryTrigrams; i++) {
+            lists[i] = readPostings(trigrams[i]);
+            for (int name : lists[i]) {
+                if (++counts[name] == minCommon) {
+                    if (candidateCount == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, candidateCount * 2);
+                    }
+                    candidates[candidateCount++] = name;
+                }
+            }
+        }
+
+        maxResults = Math.min(maxResults, candidateCount);
+        int[] best = new int[maxResults];
+        double[] bestScores = new double[maxResults];
+        int found = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            int candidate = candidates[i];
+            if (candidate >= excludedLow && candidate < excludedHigh) {
+                continue;
+            }
+            double score = 2.0 * (counts[candidate] & 0xff) / (queryTrigrams + nameTrigrams(candidate));
+            if (score < MIN_SIMILARITY || (found == maxResults && !better(score, candidate, bestScores[found - 1],
+                    best[found - 1]))) {
+                continue;
+            }
+            int position = found == maxResults ? found - 1 : found++;
+            while (position > 0 && better(score, candidate, bestScores[position - 1], best[position - 1])) {
+                best[position] = best[position - 1];
+                bestScores[position] = bestScores[position - 1];
+                position--;
+            }
+            best[position] = candidate;
+            bestScores[position] = score;
+        }
+        for (int[] list : lists) {
+            for (int name : list) {
+                counts[name] = 0;
+            }
+        }
+        for (int i = 0; i < found; i++) {
+            places.add(readPlace(namePlace(best[i]), Double.NaN));
+        }
+    }
+
+    /**
+     * @return names with a trigram, empty if it is not indexed
+     */
+    private int[] readPostings(long trigram) {
+        int low = 0;
+        int high = trigramCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = trigramsOffset + middle * PlaceIndexFormat.TRIGRAM_SIZE;
+            long value = buffer.getLong(offset);
+            if (value < trigram) {
+                low = middle + 1;
+            } else if (value > trigram) {
+                high = middle - 1;
+            } else {
+                int[] postings = new int[buffer.getInt(offset + 12)];
+                ByteBuffer view = buffer.duplicate();
+                view.position(postingsOffset + buffer.getInt(offset + 8) * 4);
+                view.asIntBuffer().get(postings);
+                return postings;
+            }
+        }
+        return new int[0];
+    }
+
+    private boolean better(double score, int name, double otherScore, int otherName) {
+        return score > otherScore || (score == otherScore && namePopulation(name) > namePopulation(otherName));
+    }
+
+    /**
+     * @param afterPrefix false for the first name in [low, high) not sorting before the prefix, true for the
+     *                    first one sorting after every name starting with it
+     */
+    private int lowerBound(int low, int high, byte[] prefix, boolean afterPrefix) {
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = comparePrefix(middle, prefix);
+            if (comparison < 0 || (afterPrefix && comparison == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the start of a normalized name with a prefix, 0 if the name starts with it.
+     */
+    private int comparePrefix(int name, byte[] prefix) {
+        int offset = stringsOffset + buffer.getInt(namesOffset + name * PlaceIndexFormat.NAME_SIZE);
+        int length = buffer.getShort(offset) & 0xffff;
+        int common = Math.min(length, prefix.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(offset + 2 + i) & 0xff) - (prefix[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length < prefix.length ? -1 : 0;
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int nameLength(int name) {
+        return buffer.getShort(stringsOffset + buffer.getInt(namesOffset + name * PlaceIndexFormat.NAME_SIZE))
+                & 0xffff;
+    }
+
+    private int namePlace(int name) {
+        return buffer.getInt(namesOffset + name * PlaceIndexFormat.NAME_SIZE + 4);
+    }
+
+    private int namePopulation(int name) {
+        return buffer.getInt(namesOffset + name * PlaceIndexFormat.NAME_SIZE + 8);
+    }
+
+    private int nameTrigrams(int name) {
+        return buffer.getInt(namesOffset + name * PlaceIndexFormat.NAME_SIZE + 12);
+    }
+
+    /**
+     * Scans the places of a range of columns of a row, wrapping around the antimeridian.
+     */
+    private int scanColumns(int row, int firstColumn, int count, double latitude, double longitude,
+                            double maxDistance, int[] best, double[] bestDistances, int found) {
+        if (count <= 0) {
+            return found;
+        }
+        int start = firstColumn % columns;
+        if (start < 0) {
+            start += columns;
+        }
+        int end = start + count;
+        if (end > columns) {
+            found = scanCells(row * columns + start, row * columns + columns, latitude, longitude, maxDistance, best,
+                    bestDistances, found);
+            start = 0;
+            end -= columns;
+        }
+        return scanCells(row * columns + start, row * columns + end, latitude, longitude, maxDistance, best,
+                bestDistances, found);
+    }
+
+    /**
+     * Scans the places of the cells with ids in [firstCell, endCell). Their places are contiguous.
+     */
+    private int scanCells(int firstCell, int endCell, double latitude, double longitude, double maxDistance,
+                          int[] best, double[] bestDistances, int found) {
+        int first = firstPlace(lowerBound(firstCell));
+        int last = firstPlace(lowerBound(endCell));
+        for (int place = first; place < last; place++) {
+            int offset = placesOffset + place * PlaceIndexFormat.PLACE_SIZE;
+            double placeLatitude = buffer.getInt(offset) / PlaceIndexFormat.MICRO_DEGREES;
+            double placeLongitude = buffer.getInt(offset + 4) / PlaceIndexFormat.MICRO_DEGREES;
+            double distance = GeoDistance.meters(latitude, longitude, placeLatitude, placeLongitude);
+            if (distance > maxDistance || (found == best.length && distance >= bestDistances[found - 1])) {
+                continue;
+            }
+            // Insertion in the sorted arrays of nearest places
+            int position = found == best.length ? found - 1 : found++;
+            while (position > 0 && bestDistances[position - 1] > distance) {
+                best[position] = best[position - 1];
+                bestDistances[position] = bestDistances[position - 1];
+                position--;
+            }
+            best[position] = place;
+            bestDistances[position] = distance;
+        }
+        return found;
+    }
+
+    /**
+     * @return index in the cell directory of the first cell with id equal or greater than the given one, the
+     * sentinel if there is none
+     */
+    private int lowerBound(int cell) {
+        int low = 0;
+        int high = cellCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (buffer.getInt(PlaceIndexFormat.HEADER_SIZE + middle * PlaceIndexFormat.CELL_SIZE) < cell) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int firstPlace(int directoryIndex) {
+        return buffer.getInt(PlaceIndexFormat.HEADER_SIZE + directoryIndex * PlaceIndexFormat.CELL_SIZE + 4);
+    }
+
+    private Place readPlace(int place, double distance) {
+        int offset = placesOffset + place * PlaceIndexFormat.PLACE_SIZE;
+        return new Place(readString(buffer.getInt(offset + 12)), readString(buffer.getInt(offset + 16)),
+                readString(buffer.getInt(offset + 20)), buffer.getInt(offset) / PlaceIndexFormat.MICRO_DEGREES,
+                buffer.getInt(offset + 4) / PlaceIndexFormat.MICRO_DEGREES, buffer.getInt(offset + 8), distance);
+    }
+
+    private String readString(int stringOffset) {
+        int offset = stringsOffset + stringOffset;
+        int length = buffer.getShort(offset) & 0xffff;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + 2 + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,329 @@
+package io.nlopez.smartlocation.geocoding.offline;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.nlopez.smartlocation.geocoding.utils.NameNormalizer;
+
+/**
+ * Builds the files read by {@link PlaceIndex}. It does not depend on Android, so it can also be run in the
+ * build machine from the command line:
+ * <pre>
+ * java io.nlopez.smartlocation.geocoding.offline.PlaceIndexBuilder places.csv places.idx [cell size]
+ * </pre>
+ * The CSV file has the columns name, admin area, country code, latitude, longitude and, optionally,
+ * population, with an optional header line starting with "name". Fields can be quoted.
+ */
+public class PlaceIndexBuilder {
+
+    public static final double DEFAULT_CELL_SIZE = 0.25;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<Entry> entries = new ArrayList<>();
+    private double cellSize = DEFAULT_CELL_SIZE;
+
+    /**
+     * @param cellSize size in degrees of the cells of the spatial index, between 0.01 and 10
+     */
+    public PlaceIndexBuilder setCellSize(double cellSize) {
+        if (cellSize < 0.01 || cellSize > 10) {
+            throw new IllegalArgumentException("cellSize must be between 0.01 and 10 degrees");
+        }
+        this.cellSize = cellSize;
+        return this;
+    }
+
+    public PlaceIndexBuilder add(String name, String adminArea, String countryCode, double latitude,
+                                 double longitude, int population) {
+        if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+            throw new IllegalArgumentException("Invalid coordinates for " + name + ": " + latitude + ", " + longitude);
+        }
+        entries.add(new Entry(name, adminArea != null ? adminArea : "", countryCode != null ? countryCode : "",
+                (int) Math.round(latitude * PlaceIndexFormat.MICRO_DEGREES),
+                (int) Math.round(longitude * PlaceIndexFormat.MICRO_DEGREES), population));
+        return this;
+    }
+
+    /**
+     * Adds every place of a CSV file.
+     *
+     * @throws IllegalArgumentException if a line can not be parsed
+     */
+    public PlaceIndexBuilder addCsv(Reader csv) throws IOException {
+        BufferedReader reader = new BufferedReader(csv);
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            if (line.trim().isEmpty() || (number == 1 && line.startsWith("name"))) {
+                continue;
+            }
+            List<String> fields = parseCsvLine(line);
+            if (fields.size() < 5) {
+                throw new IllegalArgumentException("Line " + number + ": expected at least 5 fields");
+            }
+            try {
+                int population = fields.size() > 5 && !fields.get(5).isEmpty() ? Integer.parseInt(fields.get(5)) : 0;
+                add(fields.get(0), fields.get(1), fields.get(2), Double.parseDouble(fields.get(3)),
+                        Double.parseDouble(fields.get(4)), population);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Line " + number + ": " + e.getMessage());
+            }
+        }
+        return this;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the index, replacing the file if it exists.
+     */
+    public void build(File file) throws IOException {
+        int cellSizeE6 = (int) Math.round(cellSize * PlaceIndexFormat.MICRO_DEGREES);
+        double gridSize = cellSizeE6 / PlaceIndexFormat.MICRO_DEGREES;
+        final int rows = PlaceIndexFormat.rows(gridSize);
+        final int columns = PlaceIndexFormat.columns(gridSize);
+
+        for (Entry entry : entries) {
+            int row = PlaceIndexFormat.row(entry.latitude / PlaceIndexFormat.MICRO_DEGREES, gridSize, rows);
+            int column = PlaceIndexFormat.column(entry.longitude / PlaceIndexFormat.MICRO_DEGREES, gridSize, columns);
+            entry.cell = row * columns + column;
+        }
+        List<Entry> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                if (lhs.cell != rhs.cell) {
+                    return lhs.cell < rhs.cell ? -1 : 1;
+                }
+                return lhs.population > rhs.population ? -1 : (lhs.population == rhs.population ? 0 : 1);
+            }
+        });
+
+        // Cell directory
+        List<int[]> cells = new ArrayList<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            if (i == 0 || sorted.get(i).cell != sorted.get(i - 1).cell) {
+                cells.add(new int[]{sorted.get(i).cell, i});
+            }
+        }
+
+        // Name directory, sorted by normalized name so that prefixes are contiguous ranges
+        final String[] normalized = new String[sorted.size()];
+        final byte[][] keys = new byte[sorted.size()][];
+        Integer[] names = new Integer[sorted.size()];
+        for (int i = 0; i < names.length; i++) {
+            normalized[i] = NameNormalizer.normalize(sorted.get(i).name);
+            keys[i] = normalized[i].getBytes(UTF_8);
+            names[i] = i;
+        }
+        final List<Entry> places = sorted;
+        Arrays.sort(names, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                int result = PlaceIndexFormat.compare(keys[lhs], keys[rhs]);
+                if (result != 0) {
+                    return result;
+                }
+                int lhsPopulation = places.get(lhs).population;
+                int rhsPopulation = places.get(rhs).population;
+                return lhsPopulation > rhsPopulation ? -1 : (lhsPopulation == rhsPopulation ? 0 : 1);
+            }
+        });
+
+        // Trigram postings, name indexes added in ascending order
+        Map<Long, Postings> postings = new HashMap<>();
+        int[] trigramCounts = new int[names.length];
+        int postingsCount = 0;
+        for (int i = 0; i < names.length; i++) {
+            long[] trigrams = PlaceIndexFormat.trigrams(normalized[names[i]]);
+            trigramCounts[i] = trigrams.length;
+            for (long trigram : trigrams) {
+                Postings list = postings.get(trigram);
+                if (list == null) {
+                    list = new Postings();
+                    postings.put(trigram, list);
+                }
+                list.add(i);
+            }
+            postingsCount += trigrams.length;
+        }
+        Long[] trigrams = postings.keySet().toArray(new Long[postings.size()]);
+        Arrays.sort(trigrams);
+
+        // String pool, shared between places and names
+        Map<String, Integer> offsets = new LinkedHashMap<>();
+        int stringsSize = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            Entry entry = sorted.get(i);
+            for (String value : Arrays.asList(entry.name, entry.adminArea, entry.countryCode, normalized[i])) {
+                if (!offsets.containsKey(value)) {
+                    int length = value.getBytes(UTF_8).length;
+                    if (length > PlaceIndexFormat.MAX_STRING_LENGTH) {
+                        throw new IllegalArgumentException("String too long: " + value.substring(0, 32) + "...");
+                    }
+                    offsets.put(value, stringsSize);
+                    stringsSize += 2 + length;
+                }
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            output.writeInt(PlaceIndexFormat.MAGIC);
+            output.writeInt(PlaceIndexFormat.VERSION);
+            output.writeInt(cellSizeE6);
+            output.writeInt(rows);
+            output.writeInt(columns);
+            output.writeInt(sorted.size());
+            output.writeInt(cells.size());
+            output.writeInt(stringsSize);
+            output.writeInt(names.length);
+            output.writeInt(trigrams.length);
+            output.writeInt(postingsCount);
+            output.writeInt(0);
+            for (int[] cell : cells) {
+                output.writeInt(cell[0]);
+                output.writeInt(cell[1]);
+            }
+            output.writeInt(Integer.MAX_VALUE);
+            output.writeInt(sorted.size());
+            for (Entry entry : sorted) {
+                output.writeInt(entry.latitude);
+                output.writeInt(entry.longitude);
+                output.writeInt(entry.population);
+                output.writeInt(offsets.get(entry.name));
+                output.writeInt(offsets.get(entry.adminArea));
+                output.writeInt(offsets.get(entry.countryCode));
+            }
+            for (int i = 0; i < names.length; i++) {
+                output.writeInt(offsets.get(normalized[names[i]]));
+                output.writeInt(names[i]);
+                output.writeInt(sorted.get(names[i]).population);
+                output.writeInt(trigramCounts[i]);
+            }
+            int first = 0;
+            for (Long trigram : trigrams) {
+                Postings list = postings.get(trigram);
+                output.writeLong(trigram);
+                output.writeInt(first);
+                output.writeInt(list.size);
+                first += list.size;
+            }
+            for (Long trigram : trigrams) {
+                Postings list = postings.get(trigram);
+                for (int i = 0; i < list.size; i++) {
+                    output.writeInt(list.values[i]);
+                }
+            }
+            for (String value : offsets.keySet()) {
+                byte[] bytes = value.getBytes(UTF_8);
+                output.writeShort(bytes.length);
+                output.write(bytes);
+            }
+        } finally {
+            output.close();
+        }
+        if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: PlaceIndexBuilder <places.csv> <output> [cell size in degrees]");
+            System.exit(1);
+        }
+        PlaceIndexBuilder builder = new PlaceIndexBuilder();
+        if (args.length > 2) {
+            builder.setCellSize(Double.parseDouble(args[2]));
+        }
+        Reader reader = new InputStreamReader(new FileInputStream(args[0]), UTF_8);
+        try {
+            builder.addCsv(reader);
+        } finally {
+            reader.close();
+        }
+        builder.build(new File(args[1]));
+        System.out.println("Indexed " + builder.size() + " places into " + args[1]);
+    }
+
+    private static class Postings {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    private static class Entry {
+        private final String name;
+        private final String adminArea;
+        private final String countryCode;
+        private final int latitude;
+        private final int longitude;
+        private final int population;
+        private int cell;
+
+        Entry(String name, String adminArea, String countryCode, int latitude, int longitude, int population) {
+            this.name = name;
+            this.adminArea = adminArea;
+            this.countryCode = countryCode;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.population = population;
+        }
+    }
+}
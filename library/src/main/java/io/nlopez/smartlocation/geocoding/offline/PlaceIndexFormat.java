@@ -0,0 +1,89 @@
+package io.nlopez.smartlocation.geocoding.offline;
+
+import java.util.Arrays;
+
+/**
+ * Layout of the files written by {@link PlaceIndexBuilder} and read by {@link PlaceIndex}. Every number is big
+ * endian.
+ * <pre>
+ * header     magic, version, cell size (micro degrees), rows, columns, places, cells, strings size, names,
+ *            trigrams, postings, reserved (ints)
+ * cells      (cells + 1) x (cell id, first place), sorted by cell id, the last one a sentinel
+ * places     places x (latitude, longitude (micro degrees), population, name, admin area, country (string
+ *            offsets)), sorted by cell id
+ * names      names x (normalized name (string offset), place, population, trigrams), sorted by the UTF-8 bytes
+ *            of the normalized name
+ * trigrams   trigrams x (trigram (long), first posting, postings), sorted by trigram
+ * postings   name indexes, ascending for every trigram
+ * strings    unsigned short length + UTF-8 bytes each
+ * </pre>
+ * Cells are the ones of a latitude/longitude grid, with id row * columns + column. Only the cells with
+ * places are stored. Names are normalized with {@link io.nlopez.smartlocation.geocoding.utils.NameNormalizer}
+ * and their trigrams are the ones of the name with two spaces before and one after.
+ */
+final class PlaceIndexFormat {
+    static final int MAGIC = 0x534c5049; // SLPI
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 48;
+    static final int CELL_SIZE = 8;
+    static final int PLACE_SIZE = 24;
+    static final int NAME_SIZE = 16;
+    static final int TRIGRAM_SIZE = 16;
+    static final double MICRO_DEGREES = 1e6;
+
+    static final int MAX_STRING_LENGTH = 0xffff;
+
+    private PlaceIndexFormat() {
+        throw new AssertionError("This should not be instantiated");
+    }
+
+    static int rows(double cellSize) {
+        return (int) Math.ceil(180 / cellSize);
+    }
+
+    static int columns(double cellSize) {
+        return (int) Math.ceil(360 / cellSize);
+    }
+
+    static int row(double latitude, double cellSize, int rows) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((latitude + 90) / cellSize)));
+    }
+
+    static int column(double longitude, double cellSize, int columns) {
+        int column = (int) Math.floor((longitude + 180) / cellSize) % columns;
+        return column < 0 ? column + columns : column;
+    }
+
+    /**
+     * @return distinct trigrams of a normalized name, sorted
+     */
+    static long[] trigrams(String normalized) {
+        String padded = "  " + normalized + " ";
+        long[] trigrams = new long[padded.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+        }
+        Arrays.sort(trigrams);
+        int count = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[count++] = trigrams[i];
+            }
+        }
+        return count == trigrams.length ? trigrams : Arrays.copyOf(trigrams, count);
+    }
+
+    /**
+     * Compares UTF-8 strings as unsigned bytes, which is code point order.
+     */
+    static int compare(byte[] lhs, byte[] rhs) {
+        int length = Math.min(lhs.length, rhs.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (lhs[i] & 0xff) - (rhs[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return lhs.length - rhs.length;
+    }
+}
@@ -8,40 +8,79 @@ import android.content.IntentFilter;
 import android.location.Address;
 import android.location.Geocoder;
 import android.location.Location;
+import android.support.annotation.VisibleForTesting;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.nlopez.smartlocation.OnGeocodingListener;
 import io.nlopez.smartlocation.OnReverseGeocodingListener;
 import io.nlopez.smartlocation.geocoding.GeocodingProvider;
+import io.nlopez.smartlocation.geocoding.engine.AndroidGeocoderBackend;
+import io.nlopez.smartlocation.geocoding.engine.GeocoderBackend;
+import io.nlopez.smartlocation.geocoding.engine.GeocodingEngine;
 import io.nlopez.smartlocation.geocoding.utils.LocationAddress;
+import io.nlopez.smartlocation.location.utils.MainThreadExecutor;
 import io.nlopez.smartlocation.utils.Logger;
 
 /**
  * Geocoding provider based on Android's Geocoder class.
+ * <p/>
+ * By default the lookups run in {@link AndroidGeocodingService} and the results come back through broadcasts.
+ * With {@link #setInProcess(boolean)} they run in an executor owned by the provider instead, and the results are
+ * handed to the listeners directly, without parceling them through the system. In both modes, lookups with the
+ * same locale, concurrency and timeout share one engine, so identical lookups running at the same time from
+ * different callers go to the geocoder only once.
+ * <p/>
+ * {@link #start(OnGeocodingListener, OnReverseGeocodingListener)} launches every lookup added since the last
+ * start, from any thread.
  */
 public class AndroidGeocodingProvider implements GeocodingProvider {
     private static final String BROADCAST_DIRECT_GEOCODING_ACTION = AndroidGeocodingProvider.class.getCanonicalName() + ".DIRECT_GEOCODE_ACTION";
     private static final String BROADCAST_REVERSE_GEOCODING_ACTION = AndroidGeocodingProvider.class.getCanonicalName() + ".REVERSE_GEOCODE_ACTION";
+    private static final String CANCEL_ACTION = AndroidGeocodingProvider.class.getCanonicalName() + ".CANCEL_ACTION";
     private static final String DIRECT_GEOCODING_ID = "direct";
     private static final String REVERSE_GEOCODING_ID = "reverse";
     private static final String LOCALE_ID = "locale";
     private static final String NAME_ID = "name";
     private static final String LOCATION_ID = "location";
     private static final String RESULT_ID = "result";
+    private static final String CONCURRENCY_ID = "concurrency";
+    private static final String TIMEOUT_ID = "timeout";
+    private static final String OWNER_ID = "owner";
+    private static final String SEQUENCE_ID = "sequence";
 
 
+    // Guarded by ENGINES
+    private static final Map<String, GeocodingEngine> ENGINES = new HashMap<>();
+    private static GeocoderBackend sharedBackend;
+    private static final AtomicInteger OWNERS = new AtomicInteger();
+
+    // Identifies the batches of this provider in the service and in the broadcasts
+    private final String owner = String.valueOf(OWNERS.incrementAndGet());
+    private volatile boolean serviceStarted;
+
     private Locale locale;
-    private OnGeocodingListener geocodingListener;
-    private OnReverseGeocodingListener reverseGeocodingListener;
-    private HashMap<String, Integer> fromNameList;
-    private HashMap<Location, Integer> fromLocationList;
+    private volatile OnGeocodingListener geocodingListener;
+    private volatile OnReverseGeocodingListener reverseGeocodingListener;
+    private final HashMap<String, Integer> fromNameList = new HashMap<>();
+    private final HashMap<Location, Integer> fromLocationList = new HashMap<>();
     private Context context;
     private Logger logger;
+    private int concurrency = GeocodingEngine.DEFAULT_CONCURRENCY;
+    private long timeout = GeocodingEngine.DEFAULT_TIMEOUT;
+    private boolean inProcess;
+    private Executor callbackExecutor;
+    private GeocoderBackend backend;
+    private volatile GeocodingEngine engine;
+    private volatile int generation;
 
     public AndroidGeocodingProvider() {
         this(Locale.getDefault());
@@ -53,13 +92,81 @@ public class AndroidGeocodingProvider implements GeocodingProvider {
             throw new RuntimeException("Locale is null");
         }
         this.locale = locale;
-        fromNameList = new HashMap<>();
-        fromLocationList = new HashMap<>();
         if (!Geocoder.isPresent()) {
             throw new RuntimeException("Android Geocoder not present. Please check if Geocoder.isPresent() before invoking the search");
         }
     }
 
+    /**
+     * @param concurrency max number of lookups of a batch resolved at the same time
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param timeout time in milliseconds after which a lookup is delivered with no results, 0 for no timeout
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Runs the lookups in this process instead of in {@link AndroidGeocodingService}, delivering the results
+     * without broadcasts. Must be called before starting.
+     */
+    public void setInProcess(boolean inProcess) {
+        this.inProcess = inProcess;
+    }
+
+    /**
+     * Sets the executor used for invoking the listeners in process mode. Defaults to the main thread, the same
+     * as with broadcasts.
+     *
+     * @param callbackExecutor executor for the listener calls
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    @VisibleForTesting
+    void setBackend(GeocoderBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Replaces the Android geocoder of the shared engines, the ones created before are shut down.
+     */
+    @VisibleForTesting
+    static void setSharedBackend(GeocoderBackend backend) {
+        synchronized (ENGINES) {
+            for (GeocodingEngine engine : ENGINES.values()) {
+                engine.shutdown();
+            }
+            ENGINES.clear();
+            sharedBackend = backend;
+        }
+    }
+
+    private static GeocodingEngine getSharedEngine(Context context, Locale locale, int concurrency, long timeout) {
+        synchronized (ENGINES) {
+            String key = locale + "|" + concurrency + "|" + timeout;
+            GeocodingEngine engine = ENGINES.get(key);
+            if (engine == null) {
+                GeocoderBackend backend = sharedBackend;
+                if (backend == null) {
+                    backend = new AndroidGeocoderBackend(context.getApplicationContext(), locale);
+                }
+                engine = new GeocodingEngine(backend, concurrency, timeout);
+                ENGINES.put(key, engine);
+            }
+            return engine;
+        }
+    }
+
     @Override
     public void init(Context context, Logger logger) {
         this.logger = logger;
@@ -67,23 +174,34 @@ public class AndroidGeocodingProvider implements GeocodingProvider {
     }
 
     @Override
-    public void addName(String name, int maxResults) {
+    public synchronized void addName(String name, int maxResults) {
         fromNameList.put(name, maxResults);
     }
 
     @Override
-    public void addLocation(Location location, int maxResults) {
+    public synchronized void addLocation(Location location, int maxResults) {
         fromLocationList.put(location, maxResults);
     }
 
     @Override
     public void start(OnGeocodingListener geocodingListener, OnReverseGeocodingListener reverseGeocodingListener) {
-        this.geocodingListener = geocodingListener;
-        this.reverseGeocodingListener = reverseGeocodingListener;
+        final HashMap<String, Integer> fromNameList;
+        final HashMap<Location, Integer> fromLocationList;
+        synchronized (this) {
+            fromNameList = new HashMap<>(this.fromNameList);
+            fromLocationList = new HashMap<>(this.fromLocationList);
+            this.fromNameList.clear();
+            this.fromLocationList.clear();
+        }
 
         if (fromNameList.isEmpty() && fromLocationList.isEmpty()) {
             logger.w("No direct geocoding or reverse geocoding points added");
+        } else if (inProcess) {
+            startInProcess(fromNameList, fromLocationList, geocodingListener, reverseGeocodingListener);
         } else {
+            this.geocodingListener = geocodingListener;
+            this.reverseGeocodingListener = reverseGeocodingListener;
+
             // Registering receivers for both possibilities
             final IntentFilter directFilter = new IntentFilter(BROADCAST_DIRECT_GEOCODING_ACTION);
             final IntentFilter reverseFilter = new IntentFilter(BROADCAST_REVERSE_GEOCODING_ACTION);
@@ -91,6 +209,9 @@ public class AndroidGeocodingProvider implements GeocodingProvider {
             // Launch service for processing the geocoder stuff in a background thread
             final Intent serviceIntent = new Intent(context, AndroidGeocodingService.class);
             serviceIntent.putExtra(LOCALE_ID, locale);
+            serviceIntent.putExtra(CONCURRENCY_ID, concurrency);
+            serviceIntent.putExtra(TIMEOUT_ID, timeout);
+            serviceIntent.putExtra(OWNER_ID, owner);
             if (!fromNameList.isEmpty()) {
                 context.registerReceiver(directReceiver, directFilter);
                 serviceIntent.putExtra(DIRECT_GEOCODING_ID, fromNameList);
@@ -100,15 +221,89 @@ public class AndroidGeocodingProvider implements GeocodingProvider {
                 serviceIntent.putExtra(REVERSE_GEOCODING_ID, fromLocationList);
             }
             context.startService(serviceIntent);
+            serviceStarted = true;
+        }
+    }
 
-            // Clear hashmaps so they don't stay added for next invocations
-            fromNameList.clear();
-            fromLocationList.clear();
+    private synchronized GeocodingEngine getEngine() {
+        if (engine == null) {
+            if (backend != null) {
+                engine = new GeocodingEngine(backend, concurrency, timeout);
+            } else {
+                engine = getSharedEngine(context, locale, concurrency, timeout);
+            }
+        }
+        if (callbackExecutor == null) {
+            callbackExecutor = new MainThreadExecutor();
+        }
+        return engine;
+    }
+
+    private void startInProcess(HashMap<String, Integer> fromNameList, HashMap<Location, Integer> fromLocationList,
+                                final OnGeocodingListener geocodingListener,
+                                final OnReverseGeocodingListener reverseGeocodingListener) {
+        final GeocodingEngine engine = getEngine();
+        final Executor callbackExecutor = this.callbackExecutor;
+        final int startGeneration = generation;
+        if (!fromNameList.isEmpty()) {
+            final OnGeocodingListener directListener = new OnGeocodingListener() {
+                @Override
+                public void onLocationResolved(final String name, final List<LocationAddress> results) {
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == startGeneration && geocodingListener != null) {
+                                geocodingListener.onLocationResolved(name, results);
+                            }
+                        }
+                    });
+                }
+            };
+            for (String name : fromNameList.keySet()) {
+                engine.resolve(this, name, fromNameList.get(name), directListener);
+            }
+        }
+        if (!fromLocationList.isEmpty()) {
+            final OnReverseGeocodingListener reverseListener = new OnReverseGeocodingListener() {
+                @Override
+                public void onAddressResolved(final Location original, final List<Address> results) {
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == startGeneration && reverseGeocodingListener != null) {
+                                reverseGeocodingListener.onAddressResolved(original, results);
+                            }
+                        }
+                    });
+                }
+            };
+            for (Location location : fromLocationList.keySet()) {
+                engine.resolve(this, location, fromLocationList.get(location), reverseListener);
+            }
         }
     }
 
     @Override
     public void stop() {
+        if (inProcess) {
+            // Results already handed to the callback executor are dropped too
+            generation++;
+            GeocodingEngine engine = this.engine;
+            if (engine != null) {
+                engine.cancel(this);
+            }
+            return;
+        }
+
+        // Cancels the lookups of this provider still queued or running, the service may be busy with other ones
+        if (serviceStarted) {
+            serviceStarted = false;
+            final Intent cancelIntent = new Intent(context, AndroidGeocodingService.class);
+            cancelIntent.setAction(CANCEL_ACTION);
+            cancelIntent.putExtra(OWNER_ID, owner);
+            context.startService(cancelIntent);
+        }
+
         try {
             context.unregisterReceiver(directReceiver);
         } catch (IllegalArgumentException e) {
@@ -125,7 +320,8 @@ public class AndroidGeocodingProvider implements GeocodingProvider {
     private BroadcastReceiver directReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            if (BROADCAST_DIRECT_GEOCODING_ACTION.equals(intent.getAction())) {
+            if (BROADCAST_DIRECT_GEOCODING_ACTION.equals(intent.getAction())
+                    && owner.equals(intent.getStringExtra(OWNER_ID))) {
                 logger.d("sending new direct geocoding response");
                 if (geocodingListener != null) {
                     final String name = intent.getStringExtra(NAME_ID);
@@ -139,7 +335,8 @@ public class AndroidGeocodingProvider implements GeocodingProvider {
     private BroadcastReceiver reverseReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            if (BROADCAST_REVERSE_GEOCODING_ACTION.equals(intent.getAction())) {
+            if (BROADCAST_REVERSE_GEOCODING_ACTION.equals(intent.getAction())
+                    && owner.equals(intent.getStringExtra(OWNER_ID))) {
                 logger.d("sending new reverse geocoding response");
                 if (reverseGeocodingListener != null) {
                     final Location location = intent.getParcelableExtra(LOCATION_ID);
@@ -151,76 +348,190 @@ public class AndroidGeocodingProvider implements GeocodingProvider {
     };
 
 
+    /**
+     * Resolves the lookups of every batch with the shared {@link GeocodingEngine} of its locale, concurrency and
+     * timeout, broadcasting each result as soon as it is available. Batches are handed to the engine as soon as
+     * they arrive, so identical lookups of batches running at the same time go to the geocoder only once, and
+     * the worker thread only waits for them to complete to keep the service alive. A cancel intent drops the
+     * lookups of its provider without touching the batches of other providers.
+     */
     public static class AndroidGeocodingService extends IntentService {
 
-        private Geocoder geocoder;
+        // Guarded by this
+        private int received;
+        private final Map<Integer, Batch> batches = new HashMap<>();
 
         public AndroidGeocodingService() {
             super(AndroidGeocodingService.class.getSimpleName());
         }
 
+        @Override
+        public int onStartCommand(Intent intent, int flags, int startId) {
+            if (intent != null) {
+                if (CANCEL_ACTION.equals(intent.getAction())) {
+                    cancel(intent.getStringExtra(OWNER_ID));
+                } else {
+                    submit(intent);
+                }
+            }
+            return super.onStartCommand(intent, flags, startId);
+        }
+
         @Override
         protected void onHandleIntent(Intent intent) {
-            final Locale locale = (Locale) intent.getSerializableExtra(LOCALE_ID);
+            if (intent == null || CANCEL_ACTION.equals(intent.getAction())) {
+                // Already handled when received
+                return;
+            }
+            final Batch batch;
+            synchronized (this) {
+                batch = batches.get(intent.getIntExtra(SEQUENCE_ID, 0));
+            }
+            if (batch == null) {
+                // Cancelled before getting here
+                return;
+            }
+            try {
+                batch.latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (this) {
+                    batches.remove(batch.sequence);
+                }
+            }
+        }
 
-            if (locale == null) {
-                geocoder = new Geocoder(this);
-            } else {
-                geocoder = new Geocoder(this, locale);
+        @Override
+        public void onDestroy() {
+            synchronized (this) {
+                for (Batch batch : batches.values()) {
+                    batch.cancel();
+                }
+                batches.clear();
             }
+            super.onDestroy();
+        }
 
+        /**
+         * Hands the lookups of a batch to the shared engine, tagging the intent with the batch sequence number.
+         */
+        void submit(Intent intent) {
+            final String owner = intent.getStringExtra(OWNER_ID);
+            final Locale locale = (Locale) intent.getSerializableExtra(LOCALE_ID);
+            final int concurrency = intent.getIntExtra(CONCURRENCY_ID, GeocodingEngine.DEFAULT_CONCURRENCY);
+            final long timeout = intent.getLongExtra(TIMEOUT_ID, GeocodingEngine.DEFAULT_TIMEOUT);
+
+            HashMap<String, Integer> nameList = null;
+            HashMap<Location, Integer> locationList = null;
             if (intent.hasExtra(DIRECT_GEOCODING_ID)) {
-                final HashMap<String, Integer> nameList = (HashMap<String, Integer>) intent.getSerializableExtra(DIRECT_GEOCODING_ID);
+                nameList = (HashMap<String, Integer>) intent.getSerializableExtra(DIRECT_GEOCODING_ID);
+            }
+            if (intent.hasExtra(REVERSE_GEOCODING_ID)) {
+                locationList = (HashMap<Location, Integer>) intent.getSerializableExtra(REVERSE_GEOCODING_ID);
+            }
+
+            final GeocodingEngine engine = getSharedEngine(this, locale, concurrency, timeout);
+            final Batch batch;
+            synchronized (this) {
+                batch = new Batch(++received, owner, engine,
+                        (nameList != null ? nameList.size() : 0) + (locationList != null ? locationList.size() : 0));
+                batches.put(batch.sequence, batch);
+            }
+            intent.putExtra(SEQUENCE_ID, batch.sequence);
+
+            if (nameList != null) {
+                final OnGeocodingListener directListener = new OnGeocodingListener() {
+                    @Override
+                    public void onLocationResolved(String name, List<LocationAddress> results) {
+                        try {
+                            if (!batch.cancelled) {
+                                sendDirectGeocodingBroadcast(owner, name, new ArrayList<>(results));
+                            }
+                        } finally {
+                            batch.latch.countDown();
+                        }
+                    }
+                };
                 for (String name : nameList.keySet()) {
-                    int maxResults = nameList.get(name);
-                    final ArrayList<LocationAddress> response = addressFromName(name, maxResults);
-                    sendDirectGeocodingBroadcast(name, response);
+                    engine.resolve(batch, name, nameList.get(name), directListener);
                 }
             }
 
-            if (intent.hasExtra(REVERSE_GEOCODING_ID)) {
-                final HashMap<Location, Integer> locationList = (HashMap<Location, Integer>) intent.getSerializableExtra(REVERSE_GEOCODING_ID);
+            if (locationList != null) {
+                final OnReverseGeocodingListener reverseListener = new OnReverseGeocodingListener() {
+                    @Override
+                    public void onAddressResolved(Location original, List<Address> results) {
+                        try {
+                            if (!batch.cancelled) {
+                                sendReverseGeocodingBroadcast(owner, original, new ArrayList<>(results));
+                            }
+                        } finally {
+                            batch.latch.countDown();
+                        }
+                    }
+                };
                 for (Location location : locationList.keySet()) {
-                    int maxResults = locationList.get(location);
-                    final ArrayList<Address> response = addressFromLocation(location, maxResults);
-                    sendReverseGeocodingBroadcast(location, response);
+                    engine.resolve(batch, location, locationList.get(location), reverseListener);
+                }
+            }
+        }
+
+        /**
+         * Cancels the batches of an owner, their listeners are not called and the worker thread stops waiting
+         * for them.
+         */
+        synchronized void cancel(String owner) {
+            Iterator<Batch> iterator = batches.values().iterator();
+            while (iterator.hasNext()) {
+                Batch batch = iterator.next();
+                if (owner != null && owner.equals(batch.owner)) {
+                    batch.cancel();
+                    iterator.remove();
                 }
             }
         }
 
-        private void sendDirectGeocodingBroadcast(String name, ArrayList<LocationAddress> results) {
+        private void sendDirectGeocodingBroadcast(String owner, String name, ArrayList<LocationAddress> results) {
             final Intent directIntent = new Intent(BROADCAST_DIRECT_GEOCODING_ACTION);
+            directIntent.putExtra(OWNER_ID, owner);
             directIntent.putExtra(NAME_ID, name);
             directIntent.putExtra(RESULT_ID, results);
             sendBroadcast(directIntent);
         }
 
-        private void sendReverseGeocodingBroadcast(Location location, ArrayList<Address> results) {
+        private void sendReverseGeocodingBroadcast(String owner, Location location, ArrayList<Address> results) {
             final Intent reverseIntent = new Intent(BROADCAST_REVERSE_GEOCODING_ACTION);
+            reverseIntent.putExtra(OWNER_ID, owner);
             reverseIntent.putExtra(LOCATION_ID, location);
             reverseIntent.putExtra(RESULT_ID, results);
             sendBroadcast(reverseIntent);
         }
 
-        private ArrayList<Address> addressFromLocation(Location location, int maxResults) {
-            try {
-                return new ArrayList<>(geocoder.getFromLocation(location.getLatitude(), location.getLongitude(), maxResults));
-            } catch (IOException ignored) {
+        /**
+         * Lookups of one intent, also used as their owner in the engine.
+         */
+        private static class Batch {
+            private final int sequence;
+            private final String owner;
+            private final GeocodingEngine engine;
+            private final CountDownLatch latch;
+            private volatile boolean cancelled;
+
+            Batch(int sequence, String owner, GeocodingEngine engine, int lookups) {
+                this.sequence = sequence;
+                this.owner = owner;
+                this.engine = engine;
+                this.latch = new CountDownLatch(lookups);
             }
-            return new ArrayList<>();
-        }
 
-        private ArrayList<LocationAddress> addressFromName(String name, int maxResults) {
-            try {
-                final List<Address> addresses = geocoder.getFromLocationName(name, maxResults);
-                final ArrayList<LocationAddress> result = new ArrayList<>();
-                for (Address address : addresses) {
-                    result.add(new LocationAddress(address));
+            void cancel() {
+                cancelled = true;
+                engine.cancel(this);
+                while (latch.getCount() > 0) {
+                    latch.countDown();
                 }
-                return result;
-            } catch (IOException ignored) {
             }
-            return new ArrayList<>();
         }
     }
 }
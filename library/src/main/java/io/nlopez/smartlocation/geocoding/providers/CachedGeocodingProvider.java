@@ -0,0 +1,550 @@
+package io.nlopez.smartlocation.geocoding.providers;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import io.nlopez.smartlocation.OnGeocodingListener;
+import io.nlopez.smartlocation.OnReverseGeocodingListener;
+import io.nlopez.smartlocation.common.ExpiringLruCache;
+import io.nlopez.smartlocation.common.PersistentCache;
+import io.nlopez.smartlocation.geocoding.GeocodingProvider;
+import io.nlopez.smartlocation.geocoding.utils.AddressCodec;
+import io.nlopez.smartlocation.geocoding.utils.LocationAddress;
+import io.nlopez.smartlocation.geocoding.utils.NameNormalizer;
+import io.nlopez.smartlocation.location.utils.GeoHash;
+import io.nlopez.smartlocation.location.utils.MainThreadExecutor;
+import io.nlopez.smartlocation.utils.Logger;
+
+/**
+ * Geocoding provider that caches the results of any other provider.
+ * <p/>
+ * Reverse geocoding results are cached by the geohash cell of the location (7 characters by default, about
+ * 150x150 meters), the locale and the max number of results, so locations close to each other share their
+ * addresses. The results are kept in an in memory LRU cache with a time to live, and optionally in a disk
+ * cache. Locations found in the cache are delivered when starting, without going to the wrapped provider.
+ * <p/>
+ * Direct geocoding results are cached by the normalized name (lower case, without diacritics and with its
+ * whitespace collapsed), the locale and the max number of results, in their own memory and disk caches.
+ * <p/>
+ * Empty results are not cached, since they are also what the Android geocoder returns on network errors.
+ * The disk caches are read on the first lookup that needs them, not when initializing the provider, and
+ * every disk access runs in the disk executor: lookups missing the memory cache are checked there when
+ * starting, and only the ones missing the disk cache too are added to the wrapped provider, which is then
+ * started from that executor. Cached results are delivered through the callback executor, the main thread by
+ * default, like the results of the Android provider.
+ */
+public class CachedGeocodingProvider implements GeocodingProvider {
+
+    public static final int DEFAULT_REVERSE_PRECISION = 7;
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_TIME_TO_LIVE = 24 * 60 * 60 * 1000;
+
+    private static final String REVERSE_CACHE_FILE = "smartlocation_reverse_geocoding.cache";
+    private static final String DIRECT_CACHE_FILE = "smartlocation_direct_geocoding.cache";
+
+    private static final Executor DISK_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "SmartLocation-cache");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final GeocodingProvider provider;
+    private final Locale locale;
+
+    private int reversePrecision = DEFAULT_REVERSE_PRECISION;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+    private boolean diskCacheEnabled;
+    private Executor diskExecutor = DISK_EXECUTOR;
+    private Executor callbackExecutor;
+
+    private Context context;
+    private Logger logger;
+    private ExpiringLruCache<String, List<Address>> reverseCache;
+    private PersistentCache reverseDiskCache;
+    private ExpiringLruCache<String, List<LocationAddress>> directCache;
+    private PersistentCache directDiskCache;
+
+    // Guarded by this
+    private List<Lookup> hitLookups = new ArrayList<>();
+    private List<Lookup> diskLookups = new ArrayList<>();
+    private final Map<String, List<Integer>> pendingReverse = new HashMap<>();
+    private final Map<String, List<Integer>> pendingDirect = new HashMap<>();
+    private boolean missed;
+    private long hits;
+    private long misses;
+
+    private volatile OnGeocodingListener geocodingListener;
+    private volatile OnReverseGeocodingListener reverseGeocodingListener;
+    private volatile int generation;
+
+    public CachedGeocodingProvider(@NonNull GeocodingProvider provider) {
+        this(provider, Locale.getDefault());
+    }
+
+    /**
+     * @param provider provider used on cache misses
+     * @param locale   locale the provider returns results in, part of the cache keys
+     */
+    public CachedGeocodingProvider(@NonNull GeocodingProvider provider, @NonNull Locale locale) {
+        this.provider = provider;
+        this.locale = locale;
+    }
+
+    /**
+     * @param precision geohash length of the cells locations are grouped in for reverse geocoding
+     */
+    public void setReversePrecision(int precision) {
+        if (precision < 1 || precision > GeoHash.MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between 1 and " + GeoHash.MAX_PRECISION);
+        }
+        this.reversePrecision = precision;
+    }
+
+    /**
+     * Sets the max entries and time to live of the caches. Must be called before adding any query.
+     */
+    public void setCacheLimits(int maxEntries, long timeToLive) {
+        if (reverseCache != null || directCache != null) {
+            throw new IllegalStateException("Cache limits must be set before using the provider");
+        }
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Keeps the results also in a file in the cache dir, so they survive the process. Must be called before
+     * adding any query.
+     */
+    public void setDiskCacheEnabled(boolean enabled) {
+        if (reverseCache != null || directCache != null) {
+            throw new IllegalStateException("The disk cache must be set before using the provider");
+        }
+        this.diskCacheEnabled = enabled;
+    }
+
+    /**
+     * Sets the executor reading and writing the disk caches. Defaults to a background thread shared by all the
+     * cached providers.
+     *
+     * @param diskExecutor executor for the disk accesses
+     */
+    public void setDiskExecutor(@NonNull Executor diskExecutor) {
+        this.diskExecutor = diskExecutor;
+    }
+
+    /**
+     * Sets the executor used for delivering the cached results. Defaults to the main thread.
+     *
+     * @param callbackExecutor executor for the listener calls
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    @Override
+    public void init(Context context, Logger logger) {
+        this.context = context;
+        this.logger = logger;
+        provider.init(context, logger);
+    }
+
+    @Override
+    public void addName(String name, int maxResults) {
+        String key = directKey(name, maxResults);
+        List<LocationAddress> results = getDirectCache().get(key);
+        synchronized (this) {
+            if (results != null) {
+                hits++;
+                hitLookups.add(Lookup.direct(name, maxResults, key, results));
+            } else if (directDiskCache != null) {
+                diskLookups.add(Lookup.direct(name, maxResults, key, null));
+            } else {
+                missDirect(name, maxResults);
+            }
+        }
+    }
+
+    @Override
+    public void addLocation(Location location, int maxResults) {
+        String key = reverseKey(location, maxResults);
+        List<Address> results = getReverseCache().get(key);
+        synchronized (this) {
+            if (results != null) {
+                hits++;
+                hitLookups.add(Lookup.reverse(location, maxResults, key, results));
+            } else if (reverseDiskCache != null) {
+                diskLookups.add(Lookup.reverse(location, maxResults, key, null));
+            } else {
+                missReverse(location, maxResults);
+            }
+        }
+    }
+
+    @Override
+    public void start(OnGeocodingListener geocodingListener, OnReverseGeocodingListener reverseGeocodingListener) {
+        this.geocodingListener = geocodingListener;
+        this.reverseGeocodingListener = reverseGeocodingListener;
+        if (callbackExecutor == null) {
+            callbackExecutor = new MainThreadExecutor();
+        }
+
+        final List<Lookup> cached;
+        final List<Lookup> disk;
+        final boolean startProvider;
+        synchronized (this) {
+            cached = hitLookups;
+            disk = diskLookups;
+            startProvider = missed || (cached.isEmpty() && disk.isEmpty());
+            hitLookups = new ArrayList<>();
+            diskLookups = new ArrayList<>();
+            missed = false;
+        }
+
+        final int started = generation;
+        if (disk.isEmpty()) {
+            if (startProvider) {
+                provider.start(directListener, reverseListener);
+            }
+            deliver(cached, started);
+            return;
+        }
+        deliver(cached, started);
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                lookUpDisk(disk, startProvider, started);
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        generation++;
+        provider.stop();
+        synchronized (this) {
+            diskLookups.clear();
+            pendingReverse.clear();
+            pendingDirect.clear();
+        }
+    }
+
+    /**
+     * @return number of queries answered from the memory or disk cache
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return number of queries that went to the wrapped provider
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return number of entries evicted from the memory cache
+     */
+    public long getEvictionCount() {
+        return (reverseCache != null ? reverseCache.getEvictionCount() : 0)
+                + (directCache != null ? directCache.getEvictionCount() : 0);
+    }
+
+    /**
+     * Runs in the disk executor: delivers the lookups found in the disk caches and sends the rest to the
+     * wrapped provider.
+     */
+    private void lookUpDisk(List<Lookup> lookups, boolean startProvider, int started) {
+        List<Lookup> found = new ArrayList<>();
+        List<Lookup> notFound = new ArrayList<>();
+        for (Lookup lookup : lookups) {
+            if (lookup.name != null) {
+                PersistentCache.Record record = directDiskCache.get(lookup.key);
+                List<Address> addresses = decode(record);
+                if (addresses != null) {
+                    List<LocationAddress> results = toLocationAddresses(addresses);
+                    directCache.put(lookup.key, results, record.getTime());
+                    found.add(Lookup.direct(lookup.name, lookup.maxResults, lookup.key, results));
+                } else {
+                    notFound.add(lookup);
+                }
+            } else {
+                PersistentCache.Record record = reverseDiskCache.get(lookup.key);
+                List<Address> results = decode(record);
+                if (results != null) {
+                    reverseCache.put(lookup.key, results, record.getTime());
+                    found.add(Lookup.reverse(lookup.location, lookup.maxResults, lookup.key, results));
+                } else {
+                    notFound.add(lookup);
+                }
+            }
+        }
+
+        if (started != generation) {
+            return;
+        }
+        synchronized (this) {
+            hits += found.size();
+            for (Lookup lookup : notFound) {
+                if (lookup.name != null) {
+                    missDirect(lookup.name, lookup.maxResults);
+                } else {
+                    missReverse(lookup.location, lookup.maxResults);
+                }
+            }
+            missed = false;
+        }
+        if (startProvider || !notFound.isEmpty()) {
+            provider.start(directListener, reverseListener);
+        }
+        deliver(found, started);
+    }
+
+    private void deliver(final List<Lookup> lookups, final int started) {
+        if (lookups.isEmpty()) {
+            return;
+        }
+        final OnGeocodingListener geocodingListener = this.geocodingListener;
+        final OnReverseGeocodingListener reverseGeocodingListener = this.reverseGeocodingListener;
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (started != generation) {
+                    return;
+                }
+                for (Lookup lookup : lookups) {
+                    if (lookup.name != null) {
+                        if (geocodingListener != null) {
+                            geocodingListener.onLocationResolved(lookup.name, lookup.directResults);
+                        }
+                    } else if (reverseGeocodingListener != null) {
+                        reverseGeocodingListener.onAddressResolved(lookup.location, lookup.reverseResults);
+                    }
+                }
+            }
+        });
+    }
+
+    private void missDirect(String name, int maxResults) {
+        misses++;
+        missed = true;
+        addPending(pendingDirect, name, maxResults);
+        provider.addName(name, maxResults);
+    }
+
+    private void missReverse(Location location, int maxResults) {
+        misses++;
+        missed = true;
+        addPending(pendingReverse, coordinatesKey(location), maxResults);
+        provider.addLocation(location, maxResults);
+    }
+
+    private static void addPending(Map<String, List<Integer>> pending, String key, int maxResults) {
+        List<Integer> requested = pending.get(key);
+        if (requested == null) {
+            requested = new ArrayList<>(1);
+            pending.put(key, requested);
+        }
+        requested.add(maxResults);
+    }
+
+    /**
+     * Takes the max results of a lookup answered by the wrapped provider.
+     *
+     * @return max results the results were requested with, or null if it is not known for sure, as when the
+     * same query is pending with several max results that could have returned that many results
+     */
+    private static Integer removePending(Map<String, List<Integer>> pending, String key, int resultCount) {
+        List<Integer> requested = pending.get(key);
+        if (requested == null) {
+            return null;
+        }
+        Integer match = null;
+        boolean ambiguous = false;
+        for (Integer maxResults : requested) {
+            if (maxResults < resultCount) {
+                continue;
+            }
+            if (match == null || maxResults < match) {
+                ambiguous = match != null;
+                match = maxResults;
+            } else if (maxResults > match) {
+                ambiguous = true;
+            }
+        }
+        if (match == null) {
+            match = requested.get(0);
+            ambiguous = true;
+        }
+        requested.remove(match);
+        if (requested.isEmpty()) {
+            pending.remove(key);
+        }
+        return ambiguous ? null : match;
+    }
+
+    private synchronized ExpiringLruCache<String, List<Address>> getReverseCache() {
+        if (reverseCache == null) {
+            reverseCache = new ExpiringLruCache<>(maxEntries, timeToLive);
+            if (diskCacheEnabled && context != null) {
+                reverseDiskCache = new PersistentCache(new File(context.getCacheDir(), REVERSE_CACHE_FILE),
+                        maxEntries * 4, timeToLive);
+            }
+        }
+        return reverseCache;
+    }
+
+    private synchronized ExpiringLruCache<String, List<LocationAddress>> getDirectCache() {
+        if (directCache == null) {
+            directCache = new ExpiringLruCache<>(maxEntries, timeToLive);
+            if (diskCacheEnabled && context != null) {
+                directDiskCache = new PersistentCache(new File(context.getCacheDir(), DIRECT_CACHE_FILE),
+                        maxEntries * 4, timeToLive);
+            }
+        }
+        return directCache;
+    }
+
+    private List<Address> decode(PersistentCache.Record record) {
+        if (record == null) {
+            return null;
+        }
+        try {
+            return AddressCodec.decode(record.getValue());
+        } catch (IOException e) {
+            if (logger != null) {
+                logger.w(e, "Unable to read cached geocoding results");
+            }
+            return null;
+        }
+    }
+
+    private String reverseKey(Location location, int maxResults) {
+        return GeoHash.encode(location.getLatitude(), location.getLongitude(), reversePrecision) + "|" + locale + "|"
+                + maxResults;
+    }
+
+    private String directKey(String name, int maxResults) {
+        return NameNormalizer.normalize(name) + "|" + locale + "|" + maxResults;
+    }
+
+    private static List<LocationAddress> toLocationAddresses(List<Address> addresses) {
+        List<LocationAddress> results = new ArrayList<>(addresses.size());
+        for (Address address : addresses) {
+            results.add(new LocationAddress(address));
+        }
+        return results;
+    }
+
+    private static String coordinatesKey(Location location) {
+        return location.getLatitude() + "," + location.getLongitude();
+    }
+
+    private final OnGeocodingListener directListener = new OnGeocodingListener() {
+        @Override
+        public void onLocationResolved(String name, List<LocationAddress> results) {
+            Integer maxResults = null;
+            if (name != null) {
+                synchronized (CachedGeocodingProvider.this) {
+                    maxResults = removePending(pendingDirect, name, results != null ? results.size() : 0);
+                }
+            }
+            if (maxResults != null && results != null && !results.isEmpty()) {
+                final String key = directKey(name, maxResults);
+                getDirectCache().put(key, results);
+                if (directDiskCache != null) {
+                    final List<Address> addresses = new ArrayList<>(results.size());
+                    for (LocationAddress result : results) {
+                        addresses.add(result.getAddress());
+                    }
+                    diskExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            directDiskCache.put(key, AddressCodec.encode(addresses));
+                        }
+                    });
+                }
+            }
+            OnGeocodingListener listener = geocodingListener;
+            if (listener != null) {
+                listener.onLocationResolved(name, results);
+            }
+        }
+    };
+
+    private final OnReverseGeocodingListener reverseListener = new OnReverseGeocodingListener() {
+        @Override
+        public void onAddressResolved(Location original, final List<Address> results) {
+            Integer maxResults = null;
+            if (original != null) {
+                synchronized (CachedGeocodingProvider.this) {
+                    maxResults = removePending(pendingReverse, coordinatesKey(original),
+                            results != null ? results.size() : 0);
+                }
+            }
+            if (maxResults != null && results != null && !results.isEmpty()) {
+                final String key = reverseKey(original, maxResults);
+                getReverseCache().put(key, results);
+                if (reverseDiskCache != null) {
+                    diskExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            reverseDiskCache.put(key, AddressCodec.encode(results));
+                        }
+                    });
+                }
+            }
+            OnReverseGeocodingListener listener = reverseGeocodingListener;
+            if (listener != null) {
+                listener.onAddressResolved(original, results);
+            }
+        }
+    };
+
+    /**
+     * Lookup added to the provider, with its results when they are already known.
+     */
+    private static class Lookup {
+        private final String name;
+        private final Location location;
+        private final int maxResults;
+        private final String key;
+        private final List<LocationAddress> directResults;
+        private final List<Address> reverseResults;
+
+        private Lookup(String name, Location location, int maxResults, String key,
+                       List<LocationAddress> directResults, List<Address> reverseResults) {
+            this.name = name;
+            this.location = location;
+            this.maxResults = maxResults;
+            this.key = key;
+            this.directResults = directResults;
+            this.reverseResults = reverseResults;
+        }
+
+        static Lookup direct(String name, int maxResults, String key, List<LocationAddress> results) {
+            return new Lookup(name, null, maxResults, key, results, null);
+        }
+
+        static Lookup reverse(Location location, int maxResults, String key, List<Address> results) {
+            return new Lookup(null, location, maxResults, key, null, results);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package io.nlopez.smartlocation.geocoding.providers;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import io.nlopez.smartlocation.OnGeocodingListener;
+import io.nlopez.smartlocation.OnReverseGeocodingListener;
+import io.nlopez.smartlocation.geocoding.GeocodingProvider;
+import io.nlopez.smartlocation.geocoding.offline.Place;
+import io.nlopez.smartlocation.geocoding.offline.PlaceIndex;
+import io.nlopez.smartlocation.geocoding.utils.LocationAddress;
+import io.nlopez.smartlocation.utils.Logger;
+
+/**
+ * Geocoding provider that works without network, resolving locations to the nearest places of a
+ * {@link PlaceIndex} bundled with the app and names to the places called like them. The results are
+ * delivered in the thread calling start.
+ * <p/>
+ * The addresses have the place name as feature name, locality and first address line, plus the admin area,
+ * country code and coordinates of the place. Names can be partial or misspelled, see
+ * {@link PlaceIndex#search(String, int)}.
+ */
+public class OfflineGeocodingProvider implements GeocodingProvider {
+
+    public static final double DEFAULT_MAX_DISTANCE = 50000;
+
+    private final File indexFile;
+    private final Locale locale;
+    private final Map<Location, Integer> fromLocationList = new LinkedHashMap<>();
+    private final Map<String, Integer> fromNameList = new LinkedHashMap<>();
+    private double maxDistance = DEFAULT_MAX_DISTANCE;
+    private PlaceIndex index;
+    private Logger logger;
+
+    public OfflineGeocodingProvider(@NonNull File indexFile) {
+        this(indexFile, Locale.getDefault());
+    }
+
+    /**
+     * @param indexFile file written by {@link io.nlopez.smartlocation.geocoding.offline.PlaceIndexBuilder}
+     * @param locale    locale of the returned addresses
+     */
+    public OfflineGeocodingProvider(@NonNull File indexFile, @NonNull Locale locale) {
+        this.indexFile = indexFile;
+        this.locale = locale;
+    }
+
+    /**
+     * @param maxDistance max distance in meters from the location to the places returned
+     */
+    public void setMaxDistance(double maxDistance) {
+        if (!(maxDistance > 0)) {
+            throw new IllegalArgumentException("maxDistance must be positive");
+        }
+        this.maxDistance = maxDistance;
+    }
+
+    @Override
+    public void init(Context context, Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public synchronized void addName(String name, int maxResults) {
+        fromNameList.put(name, maxResults);
+    }
+
+    @Override
+    public synchronized void addLocation(Location location, int maxResults) {
+        fromLocationList.put(location, maxResults);
+    }
+
+    @Override
+    public void start(OnGeocodingListener geocodingListener, OnReverseGeocodingListener reverseGeocodingListener) {
+        Map<String, Integer> names;
+        Map<Location, Integer> locations;
+        synchronized (this) {
+            names = new LinkedHashMap<>(fromNameList);
+            locations = new LinkedHashMap<>(fromLocationList);
+            fromNameList.clear();
+            fromLocationList.clear();
+        }
+
+        if (geocodingListener != null && !names.isEmpty()) {
+            PlaceIndex index = getIndex();
+            for (Map.Entry<String, Integer> entry : names.entrySet()) {
+                List<LocationAddress> results = new ArrayList<>();
+                if (index != null) {
+                    for (Address address : toAddresses(index.search(entry.getKey(), entry.getValue()))) {
+                        results.add(new LocationAddress(address));
+                    }
+                }
+                geocodingListener.onLocationResolved(entry.getKey(), results);
+            }
+        }
+
+        if (reverseGeocodingListener != null && !locations.isEmpty()) {
+            PlaceIndex index = getIndex();
+            for (Map.Entry<Location, Integer> entry : locations.entrySet()) {
+                Location location = entry.getKey();
+                List<Address> results = Collections.emptyList();
+                if (index != null) {
+                    results = toAddresses(index.nearest(location.getLatitude(), location.getLongitude(),
+                            entry.getValue(), maxDistance));
+                }
+                reverseGeocodingListener.onAddressResolved(location, results);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        fromNameList.clear();
+        fromLocationList.clear();
+    }
+
+    private synchronized PlaceIndex getIndex() {
+        if (index == null) {
+            try {
+                index = PlaceIndex.open(indexFile);
+            } catch (IOException e) {
+                if (logger != null) {
+                    logger.w(e, "Unable to open place index " + indexFile);
+                }
+            }
+        }
+        return index;
+    }
+
+    private List<Address> toAddresses(List<Place> places) {
+        List<Address> addresses = new ArrayList<>(places.size());
+        for (Place place : places) {
+            Address address = new Address(locale);
+            address.setFeatureName(place.getName());
+            address.setLocality(place.getName());
+            address.setAddressLine(0, place.getName());
+            if (!place.getAdminArea().isEmpty()) {
+                address.setAdminArea(place.getAdminArea());
+            }
+            if (!place.getCountryCode().isEmpty()) {
+                address.setCountryCode(place.getCountryCode());
+            }
+            address.setLatitude(place.getLatitude());
+            address.setLongitude(place.getLongitude());
+            addresses.add(address);
+        }
+        return addresses;
+    }
+}
@@ -0,0 +1,135 @@
+package io.nlopez.smartlocation.geocoding.utils;
+
+import android.location.Address;
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compact binary representation of lists of {@link Address}, for storing geocoding results on disk. Extras
+ * are not kept.
+ */
+public class AddressCodec {
+
+    private static final int VERSION = 1;
+
+    private AddressCodec() {
+    }
+
+    public static byte[] encode(@NonNull List<Address> addresses) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(addresses.size() * 128 + 4);
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeByte(VERSION);
+            output.writeShort(addresses.size());
+            for (Address address : addresses) {
+                write(output, address);
+            }
+        } catch (IOException e) {
+            // Not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static List<Address> decode(@NonNull byte[] data) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        if (input.readByte() != VERSION) {
+            throw new IOException("Unknown address encoding");
+        }
+        int size = input.readUnsignedShort();
+        List<Address> addresses = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            addresses.add(read(input));
+        }
+        return addresses;
+    }
+
+    private static void write(DataOutputStream output, Address address) throws IOException {
+        Locale locale = address.getLocale();
+        writeString(output, locale != null ? locale.getLanguage() : null);
+        writeString(output, locale != null ? locale.getCountry() : null);
+        writeString(output, locale != null ? locale.getVariant() : null);
+
+        int lines = address.getMaxAddressLineIndex() + 1;
+        output.writeShort(lines);
+        for (int i = 0; i < lines; i++) {
+            writeString(output, address.getAddressLine(i));
+        }
+        writeString(output, address.getFeatureName());
+        writeString(output, address.getAdminArea());
+        writeString(output, address.getSubAdminArea());
+        writeString(output, address.getLocality());
+        writeString(output, address.getSubLocality());
+        writeString(output, address.getThoroughfare());
+        writeString(output, address.getSubThoroughfare());
+        writeString(output, address.getPremises());
+        writeString(output, address.getPostalCode());
+        writeString(output, address.getCountryCode());
+        writeString(output, address.getCountryName());
+        writeString(output, address.getPhone());
+        writeString(output, address.getUrl());
+
+        output.writeBoolean(address.hasLatitude());
+        if (address.hasLatitude()) {
+            output.writeDouble(address.getLatitude());
+        }
+        output.writeBoolean(address.hasLongitude());
+        if (address.hasLongitude()) {
+            output.writeDouble(address.getLongitude());
+        }
+    }
+
+    private static Address read(DataInputStream input) throws IOException {
+        String language = readString(input);
+        String country = readString(input);
+        String variant = readString(input);
+        Locale locale = language == null ? Locale.getDefault()
+                : new Locale(language, country != null ? country : "", variant != null ? variant : "");
+        Address address = new Address(locale);
+
+        int lines = input.readUnsignedShort();
+        for (int i = 0; i < lines; i++) {
+            address.setAddressLine(i, readString(input));
+        }
+        address.setFeatureName(readString(input));
+        address.setAdminArea(readString(input));
+        address.setSubAdminArea(readString(input));
+        address.setLocality(readString(input));
+        address.setSubLocality(readString(input));
+        address.setThoroughfare(readString(input));
+        address.setSubThoroughfare(readString(input));
+        address.setPremises(readString(input));
+        address.setPostalCode(readString(input));
+        address.setCountryCode(readString(input));
+        address.setCountryName(readString(input));
+        address.setPhone(readString(input));
+        address.setUrl(readString(input));
+
+        if (input.readBoolean()) {
+            address.setLatitude(input.readDouble());
+        }
+        if (input.readBoolean()) {
+            address.setLongitude(input.readDouble());
+        }
+        return address;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+}
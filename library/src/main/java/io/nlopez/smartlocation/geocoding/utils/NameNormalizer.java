@@ -0,0 +1,25 @@
+package io.nlopez.smartlocation.geocoding.utils;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Normalization of place names for comparing them: lower case, without diacritics and with the whitespace
+ * trimmed and collapsed.
+ */
+public final class NameNormalizer {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private NameNormalizer() {
+        throw new AssertionError("This should not be instantiated");
+    }
+
+    public static String normalize(String name) {
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        String stripped = MARKS.matcher(decomposed).replaceAll("");
+        return WHITESPACE.matcher(stripped.trim()).replaceAll(" ").toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -5,13 +5,24 @@ import android.content.SharedPreferences;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
-import io.nlopez.smartlocation.common.Store;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.nlopez.smartlocation.common.BatchStore;
+import io.nlopez.smartlocation.common.BinaryFileStore;
+import io.nlopez.smartlocation.common.StoreBackend;
 import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
 
 /**
  * Created by mrm on 3/1/15.
+ * <p/>
+ * The geofences are also kept in an in-memory index by id, loaded from the backend the first time the store
+ * is used and updated on every write, so {@link #get(String)} does not touch the backend nor allocate.
  */
-public class GeofencingStore implements Store<GeofenceModel> {
+public class GeofencingStore implements BatchStore<GeofenceModel> {
 
     private static final String PREFERENCES_FILE = "GEOFENCING_STORE";
     private static final String PREFIX_ID = GeofencingStore.class.getCanonicalName() + ".KEY";
@@ -22,59 +33,221 @@ public class GeofencingStore implements Store<GeofenceModel> {
     private static final String EXPIRATION_ID = "EXPIRATION";
     private static final String LOITERING_DELAY_ID = "LOITERING_DELAY";
 
+    private static StoreBackend defaultBackend = StoreBackend.SHARED_PREFERENCES;
+
     private SharedPreferences preferences;
+    private BinaryFileStore<GeofenceModel> binaryStore;
+    private boolean migrated;
+    private Map<String, GeofenceModel> index;
 
     public GeofencingStore(@NonNull Context context) {
+        this(context, defaultBackend);
+    }
+
+    public GeofencingStore(@NonNull Context context, @NonNull StoreBackend backend) {
         preferences = context.getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
+        if (backend == StoreBackend.BINARY_FILE) {
+            binaryStore = BinaryFileStore.forFile(new File(context.getFilesDir(), PREFERENCES_FILE + ".bin"), CODEC);
+        }
+    }
+
+    /**
+     * Sets the backend that new stores will use. When switching to {@link StoreBackend#BINARY_FILE}, the
+     * geofences saved in SharedPreferences are moved to the binary file the first time the store is used.
+     *
+     * @param backend persistence format, {@link StoreBackend#SHARED_PREFERENCES} by default
+     */
+    public static void setDefaultBackend(@NonNull StoreBackend backend) {
+        defaultBackend = backend;
     }
 
     @VisibleForTesting
-    public void setPreferences(SharedPreferences preferences) {
+    public synchronized void setPreferences(SharedPreferences preferences) {
         this.preferences = preferences;
+        index = null;
     }
 
     @Override
     public void put(String id, GeofenceModel geofenceModel) {
+        synchronized (this) {
+            getIndex().put(id, geofenceModel);
+        }
+        if (binaryStore != null) {
+            getBinaryStore().put(id, geofenceModel);
+            return;
+        }
         SharedPreferences.Editor editor = preferences.edit();
+        writePreferences(editor, id, geofenceModel);
+        editor.apply();
+    }
+
+    @Override
+    public void putAll(Map<String, GeofenceModel> geofences) {
+        synchronized (this) {
+            getIndex().putAll(geofences);
+        }
+        if (binaryStore != null) {
+            getBinaryStore().putAll(geofences);
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        for (Map.Entry<String, GeofenceModel> entry : geofences.entrySet()) {
+            writePreferences(editor, entry.getKey(), entry.getValue());
+        }
+        editor.apply();
+    }
+
+    private void writePreferences(SharedPreferences.Editor editor, String id, GeofenceModel geofenceModel) {
         editor.putLong(getFieldKey(id, LATITUDE_ID), Double.doubleToLongBits(geofenceModel.getLatitude()));
         editor.putLong(getFieldKey(id, LONGITUDE_ID), Double.doubleToLongBits(geofenceModel.getLongitude()));
         editor.putFloat(getFieldKey(id, RADIUS_ID), geofenceModel.getRadius());
         editor.putInt(getFieldKey(id, TRANSITION_ID), geofenceModel.getTransition());
         editor.putLong(getFieldKey(id, EXPIRATION_ID), geofenceModel.getExpiration());
         editor.putInt(getFieldKey(id, LOITERING_DELAY_ID), geofenceModel.getLoiteringDelay());
-        editor.apply();
     }
 
     @Override
-    public GeofenceModel get(String id) {
-        if (preferences != null && preferences.contains(getFieldKey(id, LATITUDE_ID)) && preferences.contains(getFieldKey(id, LONGITUDE_ID))) {
-            GeofenceModel.Builder builder = new GeofenceModel.Builder(id);
-            builder.setLatitude(Double.longBitsToDouble(preferences.getLong(getFieldKey(id, LATITUDE_ID), 0)));
-            builder.setLongitude(Double.longBitsToDouble(preferences.getLong(getFieldKey(id, LONGITUDE_ID), 0)));
-            builder.setRadius(preferences.getFloat(getFieldKey(id, RADIUS_ID), 0));
-            builder.setTransition(preferences.getInt(getFieldKey(id, TRANSITION_ID), 0));
-            builder.setExpiration(preferences.getLong(getFieldKey(id, EXPIRATION_ID), 0));
-            builder.setLoiteringDelay(preferences.getInt(getFieldKey(id, LOITERING_DELAY_ID), 0));
-            return builder.build();
-        } else {
-            return null;
+    public synchronized GeofenceModel get(String id) {
+        return getIndex().get(id);
+    }
+
+    @Override
+    public synchronized Map<String, GeofenceModel> getAll() {
+        return new HashMap<>(getIndex());
+    }
+
+    private Map<String, GeofenceModel> getIndex() {
+        if (index == null) {
+            index = binaryStore != null ? new HashMap<>(getBinaryStore().getAll()) : readAllPreferences();
+        }
+        return index;
+    }
+
+    /**
+     * Reads every geofence from a single snapshot of the preferences.
+     */
+    private Map<String, GeofenceModel> readAllPreferences() {
+        Map<String, GeofenceModel> geofences = new HashMap<>();
+        if (preferences == null) {
+            return geofences;
         }
+        Map<String, ?> values = preferences.getAll();
+        String prefix = PREFIX_ID + "_";
+        String suffix = "_" + LATITUDE_ID;
+        for (String key : values.keySet()) {
+            if (key.startsWith(prefix) && key.endsWith(suffix)) {
+                String id = key.substring(prefix.length(), key.length() - suffix.length());
+                Object longitude = values.get(getFieldKey(id, LONGITUDE_ID));
+                if (!(values.get(key) instanceof Long) || !(longitude instanceof Long)) {
+                    continue;
+                }
+                geofences.put(id, new GeofenceModel.Builder(id)
+                        .setLatitude(Double.longBitsToDouble((Long) values.get(key)))
+                        .setLongitude(Double.longBitsToDouble((Long) longitude))
+                        .setRadius(getNumber(values, getFieldKey(id, RADIUS_ID)).floatValue())
+                        .setTransition(getNumber(values, getFieldKey(id, TRANSITION_ID)).intValue())
+                        .setExpiration(getNumber(values, getFieldKey(id, EXPIRATION_ID)).longValue())
+                        .setLoiteringDelay(getNumber(values, getFieldKey(id, LOITERING_DELAY_ID)).intValue())
+                        .build());
+            }
+        }
+        return geofences;
+    }
+
+    private static Number getNumber(Map<String, ?> values, String key) {
+        Object value = values.get(key);
+        return value instanceof Number ? (Number) value : 0;
     }
 
     @Override
     public void remove(String id) {
+        synchronized (this) {
+            getIndex().remove(id);
+        }
+        if (binaryStore != null) {
+            getBinaryStore().remove(id);
+            return;
+        }
         SharedPreferences.Editor editor = preferences.edit();
+        removePreferences(editor, id);
+        editor.apply();
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        synchronized (this) {
+            getIndex().keySet().removeAll(ids);
+        }
+        if (binaryStore != null) {
+            getBinaryStore().removeAll(ids);
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String id : ids) {
+            removePreferences(editor, id);
+        }
+        editor.apply();
+    }
+
+    private void removePreferences(SharedPreferences.Editor editor, String id) {
         editor.remove(getFieldKey(id, LATITUDE_ID));
         editor.remove(getFieldKey(id, LONGITUDE_ID));
         editor.remove(getFieldKey(id, RADIUS_ID));
         editor.remove(getFieldKey(id, TRANSITION_ID));
         editor.remove(getFieldKey(id, EXPIRATION_ID));
         editor.remove(getFieldKey(id, LOITERING_DELAY_ID));
-        editor.apply();
+    }
+
+    private synchronized BinaryFileStore<GeofenceModel> getBinaryStore() {
+        if (!migrated) {
+            migrated = true;
+            if (!binaryStore.exists()) {
+                migrate();
+            }
+        }
+        return binaryStore;
+    }
+
+    private void migrate() {
+        Map<String, GeofenceModel> geofences = readAllPreferences();
+        binaryStore.putAll(geofences);
+        if (!geofences.isEmpty()) {
+            preferences.edit().clear().apply();
+        }
     }
 
     private String getFieldKey(String id, String field) {
         return PREFIX_ID + "_" + id + "_" + field;
     }
 
+    private static final BinaryFileStore.Codec<GeofenceModel> CODEC = new BinaryFileStore.Codec<GeofenceModel>() {
+        @Override
+        public int getRecordSize() {
+            // latitude, longitude, radius, transition, expiration, loitering delay
+            return 8 + 8 + 4 + 4 + 8 + 4;
+        }
+
+        @Override
+        public void write(GeofenceModel geofenceModel, ByteBuffer buffer) {
+            buffer.putDouble(geofenceModel.getLatitude());
+            buffer.putDouble(geofenceModel.getLongitude());
+            buffer.putFloat(geofenceModel.getRadius());
+            buffer.putInt(geofenceModel.getTransition());
+            buffer.putLong(geofenceModel.getExpiration());
+            buffer.putInt(geofenceModel.getLoiteringDelay());
+        }
+
+        @Override
+        public GeofenceModel read(String id, ByteBuffer buffer) {
+            return new GeofenceModel.Builder(id)
+                    .setLatitude(buffer.getDouble())
+                    .setLongitude(buffer.getDouble())
+                    .setRadius(buffer.getFloat())
+                    .setTransition(buffer.getInt())
+                    .setExpiration(buffer.getLong())
+                    .setLoiteringDelay(buffer.getInt())
+                    .build();
+        }
+    };
+
 }
@@ -0,0 +1,202 @@
+package io.nlopez.smartlocation.geofencing.model;
+
+import java.util.Arrays;
+
+/**
+ * Geofence covering the points within a distance of a polyline, like a route, for the local geofencing
+ * providers.
+ * <p/>
+ * Segments are indexed in a uniform grid, each one listed in the cells its buffered bounding box overlaps,
+ * so a point only measures its distance to the segments of its cell.
+ */
+public class CorridorGeofenceModel extends ShapeGeofenceModel {
+
+    private static final int CELLS_PER_SEGMENT = 4;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final float distance;
+    private final double distance2;
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStarts;
+    private final int[] cellSegments;
+
+    private CorridorGeofenceModel(String id, Projection projection, double[] xs, double[] ys, float distance,
+                                  double[] bounds, long expiration, int transition, int loiteringDelay) {
+        super(id, projection, Projection.enclosingRadius(xs, ys, xs.length, distance), bounds[0], bounds[1],
+                bounds[2], bounds[3], expiration, transition, loiteringDelay);
+        this.xs = xs;
+        this.ys = ys;
+        this.distance = distance;
+        this.distance2 = (double) distance * distance;
+        this.minX = bounds[0];
+        this.minY = bounds[2];
+
+        int segments = xs.length - 1;
+        double width = bounds[1] - bounds[0];
+        double height = bounds[3] - bounds[2];
+        double size = Math.max(distance, Math.sqrt(width * height / segments));
+        while (Math.ceil(width / size) * Math.ceil(height / size) > CELLS_PER_SEGMENT * segments + 16) {
+            size *= 1.5;
+        }
+        cellSize = size;
+        columns = Math.max(1, (int) Math.ceil(width / size));
+        rows = Math.max(1, (int) Math.ceil(height / size));
+
+        cellStarts = new int[columns * rows + 1];
+        for (int segment = 0; segment < segments; segment++) {
+            forEachCell(segment, null);
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+        cellSegments = new int[cellStarts[columns * rows]];
+        int[] positions = Arrays.copyOf(cellStarts, columns * rows);
+        for (int segment = 0; segment < segments; segment++) {
+            forEachCell(segment, positions);
+        }
+    }
+
+    /**
+     * Counts the segment in the cells it overlaps or, with positions, stores it in them.
+     */
+    private void forEachCell(int segment, int[] positions) {
+        int firstColumn = column(Math.min(xs[segment], xs[segment + 1]) - distance);
+        int lastColumn = column(Math.max(xs[segment], xs[segment + 1]) + distance);
+        int firstRow = row(Math.min(ys[segment], ys[segment + 1]) - distance);
+        int lastRow = row(Math.max(ys[segment], ys[segment + 1]) + distance);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * columns + column;
+                if (positions == null) {
+                    cellStarts[cell + 1]++;
+                } else {
+                    cellSegments[positions[cell]++] = segment;
+                }
+            }
+        }
+    }
+
+    private int column(double x) {
+        return Math.max(0, Math.min(columns - 1, (int) ((x - minX) / cellSize)));
+    }
+
+    private int row(double y) {
+        return Math.max(0, Math.min(rows - 1, (int) ((y - minY) / cellSize)));
+    }
+
+    /**
+     * @return max distance in meters to the polyline of the points inside the geofence
+     */
+    public float getDistance() {
+        return distance;
+    }
+
+    public int getPointCount() {
+        return xs.length;
+    }
+
+    @Override
+    boolean containsProjected(double x, double y) {
+        int cell = row(y) * columns + column(x);
+        for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+            int segment = cellSegments[i];
+            if (segmentDistance2(x, y, xs[segment], ys[segment], xs[segment + 1], ys[segment + 1]) <= distance2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    double getProjectedEdgeDistance(double x, double y) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int segment = 0; segment < xs.length - 1; segment++) {
+            min = Math.min(min, segmentDistance2(x, y, xs[segment], ys[segment], xs[segment + 1], ys[segment + 1]));
+        }
+        return Math.sqrt(min) - distance;
+    }
+
+    public static class Builder {
+        private final String requestId;
+        private double[] latitudes = new double[16];
+        private double[] longitudes = new double[16];
+        private int size;
+        private float distance;
+        private long expiration;
+        private int transition;
+        private int loiteringDelay;
+
+        public Builder(String id) {
+            this.requestId = id;
+        }
+
+        public Builder addPoint(double latitude, double longitude) {
+            if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+                throw new IllegalArgumentException("Invalid point: " + latitude + ", " + longitude);
+            }
+            if (size == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, size * 2);
+                longitudes = Arrays.copyOf(longitudes, size * 2);
+            }
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            size++;
+            return this;
+        }
+
+        /**
+         * @param distance max distance in meters to the polyline, half the width of the corridor
+         */
+        public Builder setDistance(float distance) {
+            this.distance = distance;
+            return this;
+        }
+
+        public Builder setExpiration(long expiration) {
+            this.expiration = expiration;
+            return this;
+        }
+
+        public Builder setTransition(int transition) {
+            this.transition = transition;
+            return this;
+        }
+
+        public Builder setLoiteringDelay(int loiteringDelay) {
+            this.loiteringDelay = loiteringDelay;
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException if there are less than 2 points or the distance is not positive
+         */
+        public CorridorGeofenceModel build() {
+            if (size < 2) {
+                throw new IllegalStateException("A corridor needs at least 2 points");
+            }
+            if (!(distance > 0)) {
+                throw new IllegalStateException("The distance of a corridor must be positive");
+            }
+            Projection projection = new Projection(latitudes, longitudes, size);
+            double[] xs = new double[size];
+            double[] ys = new double[size];
+            double[] bounds = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY};
+            for (int i = 0; i < size; i++) {
+                xs[i] = projection.x(longitudes[i]);
+                ys[i] = projection.y(latitudes[i]);
+                bounds[0] = Math.min(bounds[0], xs[i] - distance);
+                bounds[1] = Math.max(bounds[1], xs[i] + distance);
+                bounds[2] = Math.min(bounds[2], ys[i] - distance);
+                bounds[3] = Math.max(bounds[3], ys[i] + distance);
+            }
+            return new CorridorGeofenceModel(requestId, projection, xs, ys, distance, bounds, expiration,
+                    transition, loiteringDelay);
+        }
+    }
+}
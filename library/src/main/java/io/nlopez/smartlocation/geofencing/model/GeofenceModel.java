@@ -2,8 +2,13 @@ package io.nlopez.smartlocation.geofencing.model;
 
 import com.google.android.gms.location.Geofence;
 
+import io.nlopez.smartlocation.location.utils.GeoDistance;
+
 /**
  * Created by mrm on 4/1/15.
+ * <p/>
+ * Circular geofence. Other shapes, only supported by the local geofencing providers, extend it with the
+ * circle that encloses them as latitude, longitude and radius.
  */
 public class GeofenceModel {
     private String requestId;
@@ -14,7 +19,7 @@ public class GeofenceModel {
     private int transition;
     private int loiteringDelay;
 
-    private GeofenceModel(String id, double latitude, double longitude, float radius, long expiration, int transition, int loiteringDelay) {
+    protected GeofenceModel(String id, double latitude, double longitude, float radius, long expiration, int transition, int loiteringDelay) {
         this.requestId = id;
         this.latitude = latitude;
         this.longitude = longitude;
@@ -52,6 +57,20 @@ public class GeofenceModel {
         return loiteringDelay;
     }
 
+    /**
+     * @return TRUE if the point is inside the geofence, FALSE otherwise
+     */
+    public boolean contains(double latitude, double longitude) {
+        return GeoDistance.meters(latitude, longitude, this.latitude, this.longitude) <= radius;
+    }
+
+    /**
+     * @return distance in meters from the point to the edge of the geofence, negative inside it
+     */
+    public double getEdgeDistance(double latitude, double longitude) {
+        return GeoDistance.meters(latitude, longitude, this.latitude, this.longitude) - radius;
+    }
+
     public Geofence toGeofence() {
         return new Geofence.Builder()
                 .setCircularRegion(latitude, longitude, radius)
@@ -0,0 +1,160 @@
+package io.nlopez.smartlocation.geofencing.model;
+
+import java.util.Arrays;
+
+/**
+ * Polygon geofence, for the local geofencing providers. The vertices can be given in either order, without
+ * repeating the first one at the end, and the polygon may be concave but should not intersect itself.
+ * <p/>
+ * Edges are indexed in horizontal slabs of the same height, so a point only tests the crossings of the edges
+ * overlapping its slab instead of every edge of the polygon.
+ */
+public class PolygonGeofenceModel extends ShapeGeofenceModel {
+
+    private static final int MAX_SLABS = 4096;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final double minY;
+    private final double slabHeight;
+    private final int[] slabStarts;
+    private final int[] slabEdges;
+
+    private PolygonGeofenceModel(String id, Projection projection, double[] xs, double[] ys, double[] bounds,
+                                 long expiration, int transition, int loiteringDelay) {
+        super(id, projection, Projection.enclosingRadius(xs, ys, xs.length, 0), bounds[0], bounds[1], bounds[2],
+                bounds[3], expiration, transition, loiteringDelay);
+        this.xs = xs;
+        this.ys = ys;
+        this.minY = bounds[2];
+
+        int edges = xs.length;
+        int slabs = Math.max(1, Math.min(MAX_SLABS, edges / 2));
+        slabHeight = Math.max(1e-9, (bounds[3] - bounds[2]) / slabs);
+        slabStarts = new int[slabs + 1];
+        for (int edge = 0; edge < edges; edge++) {
+            int next = edge + 1 == edges ? 0 : edge + 1;
+            int last = slab(Math.max(ys[edge], ys[next]));
+            for (int slab = slab(Math.min(ys[edge], ys[next])); slab <= last; slab++) {
+                slabStarts[slab + 1]++;
+            }
+        }
+        for (int slab = 0; slab < slabs; slab++) {
+            slabStarts[slab + 1] += slabStarts[slab];
+        }
+        slabEdges = new int[slabStarts[slabs]];
+        int[] positions = Arrays.copyOf(slabStarts, slabs);
+        for (int edge = 0; edge < edges; edge++) {
+            int next = edge + 1 == edges ? 0 : edge + 1;
+            int last = slab(Math.max(ys[edge], ys[next]));
+            for (int slab = slab(Math.min(ys[edge], ys[next])); slab <= last; slab++) {
+                slabEdges[positions[slab]++] = edge;
+            }
+        }
+    }
+
+    private int slab(double y) {
+        return Math.max(0, Math.min(slabStarts.length - 2, (int) ((y - minY) / slabHeight)));
+    }
+
+    public int getVertexCount() {
+        return xs.length;
+    }
+
+    @Override
+    boolean containsProjected(double x, double y) {
+        // Crossing number over the edges of the slab, which are all the ones spanning y
+        boolean inside = false;
+        int slab = slab(y);
+        int edges = xs.length;
+        for (int i = slabStarts[slab]; i < slabStarts[slab + 1]; i++) {
+            int edge = slabEdges[i];
+            int next = edge + 1 == edges ? 0 : edge + 1;
+            double y1 = ys[edge];
+            double y2 = ys[next];
+            if ((y1 > y) != (y2 > y) && x < (xs[next] - xs[edge]) * (y - y1) / (y2 - y1) + xs[edge]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    @Override
+    double getProjectedEdgeDistance(double x, double y) {
+        double min = Double.POSITIVE_INFINITY;
+        int edges = xs.length;
+        for (int edge = 0; edge < edges; edge++) {
+            int next = edge + 1 == edges ? 0 : edge + 1;
+            min = Math.min(min, segmentDistance2(x, y, xs[edge], ys[edge], xs[next], ys[next]));
+        }
+        double distance = Math.sqrt(min);
+        return containsProjected(x, y) ? -distance : distance;
+    }
+
+    public static class Builder {
+        private final String requestId;
+        private double[] latitudes = new double[16];
+        private double[] longitudes = new double[16];
+        private int size;
+        private long expiration;
+        private int transition;
+        private int loiteringDelay;
+
+        public Builder(String id) {
+            this.requestId = id;
+        }
+
+        public Builder addVertex(double latitude, double longitude) {
+            if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+                throw new IllegalArgumentException("Invalid vertex: " + latitude + ", " + longitude);
+            }
+            if (size == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, size * 2);
+                longitudes = Arrays.copyOf(longitudes, size * 2);
+            }
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            size++;
+            return this;
+        }
+
+        public Builder setExpiration(long expiration) {
+            this.expiration = expiration;
+            return this;
+        }
+
+        public Builder setTransition(int transition) {
+            this.transition = transition;
+            return this;
+        }
+
+        public Builder setLoiteringDelay(int loiteringDelay) {
+            this.loiteringDelay = loiteringDelay;
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException if there are less than 3 vertices
+         */
+        public PolygonGeofenceModel build() {
+            if (size < 3) {
+                throw new IllegalStateException("A polygon needs at least 3 vertices");
+            }
+            Projection projection = new Projection(latitudes, longitudes, size);
+            double[] xs = new double[size];
+            double[] ys = new double[size];
+            double[] bounds = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY};
+            for (int i = 0; i < size; i++) {
+                xs[i] = projection.x(longitudes[i]);
+                ys[i] = projection.y(latitudes[i]);
+                bounds[0] = Math.min(bounds[0], xs[i]);
+                bounds[1] = Math.max(bounds[1], xs[i]);
+                bounds[2] = Math.min(bounds[2], ys[i]);
+                bounds[3] = Math.max(bounds[3], ys[i]);
+            }
+            return new PolygonGeofenceModel(requestId, projection, xs, ys, bounds, expiration, transition,
+                    loiteringDelay);
+        }
+    }
+}
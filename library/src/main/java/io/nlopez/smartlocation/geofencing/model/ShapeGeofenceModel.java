@@ -0,0 +1,154 @@
+package io.nlopez.smartlocation.geofencing.model;
+
+import com.google.android.gms.location.Geofence;
+
+import io.nlopez.smartlocation.location.utils.GeoDistance;
+
+/**
+ * Base of the geofences that are not circles. The shape is kept in meters, projected on the plane tangent to
+ * the center of its bounding box, which is accurate for shapes up to a few hundred kilometers. The bounding
+ * box rejects most points before testing the shape itself.
+ * <p/>
+ * Only the local geofencing providers can evaluate these geofences. The Google Play Services providers reject
+ * them when adding, and {@link #toGeofence()} throws.
+ */
+public abstract class ShapeGeofenceModel extends GeofenceModel {
+
+    static final double METERS_PER_DEGREE = Math.toRadians(1) * GeoDistance.EARTH_RADIUS;
+
+    private final double metersPerLongitudeDegree;
+    private final double minX;
+    private final double maxX;
+    private final double minY;
+    private final double maxY;
+
+    ShapeGeofenceModel(String id, Projection projection, float radius, double minX, double maxX, double minY,
+                       double maxY, long expiration, int transition, int loiteringDelay) {
+        super(id, projection.latitude, projection.longitude, radius, expiration, transition, loiteringDelay);
+        this.metersPerLongitudeDegree = projection.metersPerLongitudeDegree;
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+    }
+
+    public double getMinLatitude() {
+        return getLatitude() + minY / METERS_PER_DEGREE;
+    }
+
+    public double getMaxLatitude() {
+        return getLatitude() + maxY / METERS_PER_DEGREE;
+    }
+
+    /**
+     * @return west edge of the bounding box, in [-180, 180), so it can be greater than the east edge when the
+     * shape crosses the antimeridian
+     */
+    public double getMinLongitude() {
+        return Projection.wrap(getLongitude() + minX / metersPerLongitudeDegree);
+    }
+
+    public double getMaxLongitude() {
+        return Projection.wrap(getLongitude() + maxX / metersPerLongitudeDegree);
+    }
+
+    @Override
+    public boolean contains(double latitude, double longitude) {
+        double y = (latitude - getLatitude()) * METERS_PER_DEGREE;
+        double x = Projection.wrap(longitude - getLongitude()) * metersPerLongitudeDegree;
+        return x >= minX && x <= maxX && y >= minY && y <= maxY && containsProjected(x, y);
+    }
+
+    @Override
+    public double getEdgeDistance(double latitude, double longitude) {
+        double y = (latitude - getLatitude()) * METERS_PER_DEGREE;
+        double x = Projection.wrap(longitude - getLongitude()) * metersPerLongitudeDegree;
+        return getProjectedEdgeDistance(x, y);
+    }
+
+    /**
+     * @return TRUE if the projected point is inside the shape, only called inside the bounding box
+     */
+    abstract boolean containsProjected(double x, double y);
+
+    /**
+     * @return distance in meters from the projected point to the edge of the shape, negative inside it
+     */
+    abstract double getProjectedEdgeDistance(double x, double y);
+
+    @Override
+    public Geofence toGeofence() {
+        throw new UnsupportedOperationException("Geofence " + getRequestId()
+                + " is not a circle, only circular geofences can be registered in Google Play Services");
+    }
+
+    /**
+     * Squared distance from a point to a segment.
+     */
+    static double segmentDistance2(double x, double y, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double length2 = dx * dx + dy * dy;
+        double t = length2 > 0 ? ((x - x1) * dx + (y - y1) * dy) / length2 : 0;
+        t = Math.max(0, Math.min(1, t));
+        double px = x1 + t * dx - x;
+        double py = y1 + t * dy - y;
+        return px * px + py * py;
+    }
+
+    /**
+     * Tangent plane centered in the bounding box of a list of coordinates.
+     */
+    static class Projection {
+        final double latitude;
+        final double longitude;
+        final double metersPerLongitudeDegree;
+
+        Projection(double[] latitudes, double[] longitudes, int size) {
+            double minLatitude = Double.POSITIVE_INFINITY;
+            double maxLatitude = Double.NEGATIVE_INFINITY;
+            double minLongitude = Double.POSITIVE_INFINITY;
+            double maxLongitude = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                // Longitudes relative to the first one, so shapes crossing the antimeridian stay contiguous
+                double longitude = wrap(longitudes[i] - longitudes[0]);
+                minLatitude = Math.min(minLatitude, latitudes[i]);
+                maxLatitude = Math.max(maxLatitude, latitudes[i]);
+                minLongitude = Math.min(minLongitude, longitude);
+                maxLongitude = Math.max(maxLongitude, longitude);
+            }
+            latitude = (minLatitude + maxLatitude) / 2;
+            longitude = wrap(longitudes[0] + (minLongitude + maxLongitude) / 2);
+            metersPerLongitudeDegree = METERS_PER_DEGREE * Math.max(1e-6, Math.cos(Math.toRadians(latitude)));
+        }
+
+        double x(double longitude) {
+            return wrap(longitude - this.longitude) * metersPerLongitudeDegree;
+        }
+
+        double y(double latitude) {
+            return (latitude - this.latitude) * METERS_PER_DEGREE;
+        }
+
+        /**
+         * @return radius of the circle around the center enclosing the given points, with some margin for the
+         * differences between the projection and the distances used by the spatial index
+         */
+        static float enclosingRadius(double[] xs, double[] ys, int size, double margin) {
+            double max = 0;
+            for (int i = 0; i < size; i++) {
+                max = Math.max(max, xs[i] * xs[i] + ys[i] * ys[i]);
+            }
+            return (float) ((Math.sqrt(max) + margin) * 1.01 + 1);
+        }
+
+        static double wrap(double longitude) {
+            if (longitude >= 180) {
+                return longitude - 360;
+            } else if (longitude < -180) {
+                return longitude + 360;
+            }
+            return longitude;
+        }
+    }
+}
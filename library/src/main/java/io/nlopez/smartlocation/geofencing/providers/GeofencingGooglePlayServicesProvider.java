@@ -12,6 +12,7 @@ import android.content.IntentSender;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 import android.support.v4.app.ActivityCompat;
 
 import com.google.android.gms.common.ConnectionResult;
@@ -24,13 +25,19 @@ import com.google.android.gms.location.LocationServices;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import io.nlopez.smartlocation.OnGeofencingTransitionListener;
+import io.nlopez.smartlocation.common.BatchStore;
+import io.nlopez.smartlocation.common.Store;
 import io.nlopez.smartlocation.geofencing.GeofencingProvider;
 import io.nlopez.smartlocation.geofencing.GeofencingStore;
 import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+import io.nlopez.smartlocation.geofencing.model.ShapeGeofenceModel;
 import io.nlopez.smartlocation.geofencing.utils.TransitionGeofence;
+import io.nlopez.smartlocation.utils.GoogleApiClientPool;
 import io.nlopez.smartlocation.utils.GooglePlayServicesListener;
 import io.nlopez.smartlocation.utils.Logger;
 
@@ -52,7 +59,7 @@ public class GeofencingGooglePlayServicesProvider implements GeofencingProvider,
     private GoogleApiClient client;
     private Logger logger;
     private OnGeofencingTransitionListener listener;
-    private GeofencingStore geofencingStore;
+    private Store<GeofenceModel> geofencingStore;
     private Context context;
     private PendingIntent pendingIntent;
     private boolean stopped = false;
@@ -75,13 +82,7 @@ public class GeofencingGooglePlayServicesProvider implements GeofencingProvider,
 
         geofencingStore = new GeofencingStore(context);
 
-        this.client = new GoogleApiClient.Builder(context)
-                .addApi(LocationServices.API)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .build();
-
-        client.connect();
+        client = GoogleApiClientPool.getInstance().acquire(context, this, this, LocationServices.API);
 
         pendingIntent = PendingIntent.getService(context, 0, new Intent(context, GeofencingService.class),
                 PendingIntent.FLAG_UPDATE_CURRENT);
@@ -94,13 +95,20 @@ public class GeofencingGooglePlayServicesProvider implements GeofencingProvider,
         addGeofences(wrapperList);
     }
 
+    /**
+     * @throws IllegalArgumentException if any of the geofences is a {@link ShapeGeofenceModel}, since Google Play
+     *                                  Services only supports circles. Nothing is added in that case.
+     */
     @Override
     public void addGeofences(List<GeofenceModel> geofenceList) {
+        requireCircular(geofenceList);
         List<Geofence> convertedGeofences = new ArrayList<>();
+        Map<String, GeofenceModel> geofences = new LinkedHashMap<>();
         for (GeofenceModel geofenceModel : geofenceList) {
-            geofencingStore.put(geofenceModel.getRequestId(), geofenceModel);
+            geofences.put(geofenceModel.getRequestId(), geofenceModel);
             convertedGeofences.add(geofenceModel.toGeofence());
         }
+        putAll(geofencingStore, geofences);
 
         if (client.isConnected()) {
             if (geofencesToAdd.size() > 0) {
@@ -136,9 +144,7 @@ public class GeofencingGooglePlayServicesProvider implements GeofencingProvider,
 
     @Override
     public void removeGeofences(List<String> geofenceIds) {
-        for (String id : geofenceIds) {
-            geofencingStore.remove(id);
-        }
+        removeAll(geofencingStore, geofenceIds);
 
         if (client.isConnected()) {
             if (geofencesToRemove.size() > 0) {
@@ -159,19 +165,19 @@ public class GeofencingGooglePlayServicesProvider implements GeofencingProvider,
         IntentFilter intentFilter = new IntentFilter(BROADCAST_INTENT_ACTION);
         context.registerReceiver(geofencingReceiver, intentFilter);
 
-        if (!client.isConnected()) {
-            logger.d("still not connected - scheduled start when connection is ok");
-        } else if (stopped) {
-            client.connect();
+        if (stopped) {
+            client = GoogleApiClientPool.getInstance().acquire(context, this, this, LocationServices.API);
             stopped = false;
+        } else if (!client.isConnected()) {
+            logger.d("still not connected - scheduled start when connection is ok");
         }
     }
 
     @Override
     public void stop() {
         logger.d("stop");
-        if (client.isConnected()) {
-            client.disconnect();
+        if (!stopped) {
+            GoogleApiClientPool.getInstance().release(client, this, this);
         }
         try {
             context.unregisterReceiver(geofencingReceiver);
@@ -235,22 +241,74 @@ public class GeofencingGooglePlayServicesProvider implements GeofencingProvider,
         public void onReceive(Context context, Intent intent) {
             if (BROADCAST_INTENT_ACTION.equals(intent.getAction()) && intent.hasExtra(GEOFENCES_EXTRA_ID)) {
                 logger.d("Received geofencing event");
-                final int transitionType = intent.getIntExtra(TRANSITION_EXTRA_ID, -1);
-                final List<String> geofencingIds = intent.getStringArrayListExtra(GEOFENCES_EXTRA_ID);
-                for (final String geofenceId : geofencingIds) {
-                    // Get GeofenceModel
-                    GeofenceModel geofenceModel = geofencingStore.get(geofenceId);
-                    if (geofenceModel != null) {
-                        listener.onGeofenceTransition(new TransitionGeofence(geofenceModel, transitionType));
-                    } else {
-                        logger.w("Tried to retrieve geofence " + geofenceId + " but it was not in the store");
-                    }
-
-                }
+                notifyTransitions(geofencingStore, listener, logger, intent.getIntExtra(TRANSITION_EXTRA_ID, -1),
+                        intent.getStringArrayListExtra(GEOFENCES_EXTRA_ID));
             }
         }
     };
 
+    /**
+     * Resolves the triggering geofences through the in-memory index of the store, without iterators, so the
+     * only allocation per geofence is the {@link TransitionGeofence} itself.
+     */
+    @VisibleForTesting
+    static void notifyTransitions(Store<GeofenceModel> geofencingStore, OnGeofencingTransitionListener listener,
+                                  Logger logger, int transitionType, List<String> geofencingIds) {
+        for (int i = 0; i < geofencingIds.size(); i++) {
+            String geofenceId = geofencingIds.get(i);
+            GeofenceModel geofenceModel = geofencingStore.get(geofenceId);
+            if (geofenceModel != null) {
+                listener.onGeofenceTransition(new TransitionGeofence(geofenceModel, transitionType));
+            } else {
+                logger.w("Tried to retrieve geofence " + geofenceId + " but it was not in the store");
+            }
+        }
+    }
+
+    /**
+     * Rejects the geofences Google Play Services can not register, before any of them reaches
+     * {@link GeofenceModel#toGeofence()}.
+     *
+     * @throws IllegalArgumentException naming the first geofence that is not a circle
+     */
+    static void requireCircular(List<GeofenceModel> geofenceList) {
+        for (GeofenceModel geofenceModel : geofenceList) {
+            if (geofenceModel instanceof ShapeGeofenceModel) {
+                throw new IllegalArgumentException("Geofence " + geofenceModel.getRequestId()
+                        + " is not a circle, only circular geofences can be registered in Google Play Services."
+                        + " Use LocalGeofencingProvider for polygons and corridors");
+            }
+        }
+    }
+
+    /**
+     * Stores the geofences with a single write when the store supports it, one by one otherwise.
+     */
+    @VisibleForTesting
+    static void putAll(Store<GeofenceModel> store, Map<String, GeofenceModel> geofences) {
+        if (store instanceof BatchStore) {
+            ((BatchStore<GeofenceModel>) store).putAll(geofences);
+            return;
+        }
+        for (Map.Entry<String, GeofenceModel> entry : geofences.entrySet()) {
+            store.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Removes the geofences with a single write when the store supports it, one by one otherwise.
+     */
+    @VisibleForTesting
+    static void removeAll(Store<GeofenceModel> store, List<String> geofenceIds) {
+        if (store instanceof BatchStore) {
+            ((BatchStore<GeofenceModel>) store).removeAll(geofenceIds);
+            return;
+        }
+        for (String id : geofenceIds) {
+            store.remove(id);
+        }
+    }
+
     public static class GeofencingService extends IntentService {
 
         public GeofencingService() {
@@ -0,0 +1,309 @@
+package io.nlopez.smartlocation.geofencing.providers;
+
+import android.content.Context;
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.location.Geofence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import io.nlopez.smartlocation.OnGeofencingTransitionListener;
+import io.nlopez.smartlocation.OnLocationUpdatedListener;
+import io.nlopez.smartlocation.geofencing.GeofencingProvider;
+import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+import io.nlopez.smartlocation.geofencing.utils.GeofenceIndex;
+import io.nlopez.smartlocation.geofencing.utils.ProximityBands;
+import io.nlopez.smartlocation.geofencing.utils.TransitionGeofence;
+import io.nlopez.smartlocation.location.LocationProvider;
+import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.location.providers.LocationGooglePlayServicesWithFallbackProvider;
+import io.nlopez.smartlocation.utils.Logger;
+
+/**
+ * Geofencing provider that evaluates the transitions itself from the location updates, instead of registering
+ * the fences in Google Play Services, so it is not limited to 100 fences per app. Fences are kept in a
+ * {@link GeofenceIndex}, so every fix only tests the fences around it.
+ * <p/>
+ * Enter, exit and dwell transitions are reported following the transition flags of every fence, dwell once
+ * the fixes have stayed inside for its loitering delay. Times are the ones of the fixes. Fences with an
+ * expiration are removed once it elapses; a zero or negative expiration never expires. The fences are only
+ * kept in memory and the transitions are delivered in the thread the fixes arrive in.
+ * <p/>
+ * With {@link #setProximityBands(ProximityBands)} the location updates are not requested with fixed params,
+ * but with the params of the band of the distance to the nearest fence boundary, so fixes are frequent close
+ * to the fences and sparse away from them.
+ */
+public class LocalGeofencingProvider implements GeofencingProvider, OnLocationUpdatedListener {
+
+    private final GeofenceIndex index = new GeofenceIndex();
+    private final Map<String, Long> expirations = new HashMap<>();
+    private final Map<String, FenceState> inside = new HashMap<>();
+    private final List<GeofenceModel> containing = new ArrayList<>();
+    private final List<GeofenceModel> nearest = new ArrayList<>();
+    private final LocationParams params;
+    private ProximityBands proximityBands;
+    private LocationParams currentParams;
+    private int band = -1;
+    private long paramsChanges;
+    private LocationProvider locationProvider;
+    private OnGeofencingTransitionListener listener;
+    private Logger logger;
+    private long nextExpiration = Long.MAX_VALUE;
+    private long generation;
+
+    public LocalGeofencingProvider() {
+        this(null, LocationParams.BEST_EFFORT);
+    }
+
+    /**
+     * @param locationProvider provider of the fixes, or null for
+     *                         {@link LocationGooglePlayServicesWithFallbackProvider}
+     * @param params           params of the location updates
+     */
+    public LocalGeofencingProvider(LocationProvider locationProvider, @NonNull LocationParams params) {
+        this.locationProvider = locationProvider;
+        this.params = params;
+    }
+
+    @Override
+    public void init(@NonNull Context context, Logger logger) {
+        this.logger = logger;
+        if (locationProvider == null) {
+            locationProvider = new LocationGooglePlayServicesWithFallbackProvider(context);
+        }
+        locationProvider.init(context, logger);
+    }
+
+    /**
+     * Adapts the location params to the distance to the nearest fence boundary. The updates start with the
+     * params given in the constructor and switch to the params of the band after the first fix.
+     *
+     * @param proximityBands bands to use, or null for always using the params given in the constructor
+     */
+    public synchronized void setProximityBands(ProximityBands proximityBands) {
+        this.proximityBands = proximityBands;
+        band = -1;
+    }
+
+    /**
+     * @return params of the location updates currently requested, or null if not started
+     */
+    public synchronized LocationParams getCurrentParams() {
+        return currentParams;
+    }
+
+    /**
+     * @return number of times the location updates have been requested again with other params
+     */
+    public synchronized long getParamsChangeCount() {
+        return paramsChanges;
+    }
+
+    @Override
+    public void start(OnGeofencingTransitionListener listener) {
+        synchronized (this) {
+            this.listener = listener;
+            currentParams = params;
+            band = -1;
+        }
+        locationProvider.start(this, params, false);
+    }
+
+    @Override
+    public void stop() {
+        locationProvider.stop();
+        synchronized (this) {
+            listener = null;
+            currentParams = null;
+            inside.clear();
+        }
+    }
+
+    @Override
+    public void addGeofence(GeofenceModel geofence) {
+        List<GeofenceModel> wrapperList = new ArrayList<>();
+        wrapperList.add(geofence);
+        addGeofences(wrapperList);
+    }
+
+    @Override
+    public synchronized void addGeofences(List<GeofenceModel> geofenceList) {
+        long now = System.currentTimeMillis();
+        for (GeofenceModel geofence : geofenceList) {
+            index.put(geofence);
+            inside.remove(geofence.getRequestId());
+            if (geofence.getExpiration() > 0) {
+                long expiration = now + geofence.getExpiration();
+                expirations.put(geofence.getRequestId(), expiration);
+                nextExpiration = Math.min(nextExpiration, expiration);
+            } else {
+                expirations.remove(geofence.getRequestId());
+            }
+        }
+    }
+
+    @Override
+    public void removeGeofence(String geofenceId) {
+        List<String> wrapperList = new ArrayList<>();
+        wrapperList.add(geofenceId);
+        removeGeofences(wrapperList);
+    }
+
+    @Override
+    public synchronized void removeGeofences(List<String> geofenceIds) {
+        for (String id : geofenceIds) {
+            index.remove(id);
+            inside.remove(id);
+            expirations.remove(id);
+        }
+    }
+
+    /**
+     * @return number of fences being evaluated
+     */
+    public synchronized int getGeofenceCount() {
+        return index.size();
+    }
+
+    /**
+     * Evaluates the transitions for a fix. Called by the location provider, but fixes from other sources can
+     * also be fed.
+     */
+    @Override
+    public void onLocationUpdated(Location location) {
+        List<TransitionGeofence> transitions = new ArrayList<>();
+        OnGeofencingTransitionListener listener;
+        LocationParams newParams = null;
+        synchronized (this) {
+            listener = this.listener;
+            if (listener == null) {
+                return;
+            }
+            evaluate(location, transitions);
+            if (proximityBands != null) {
+                newParams = selectParams(location);
+            }
+        }
+        if (newParams != null) {
+            locationProvider.start(this, newParams, false);
+        }
+        for (TransitionGeofence transition : transitions) {
+            listener.onGeofenceTransition(transition);
+        }
+    }
+
+    private void evaluate(Location location, List<TransitionGeofence> transitions) {
+        long time = location.getTime();
+        if (time >= nextExpiration) {
+            expire(time);
+        }
+
+        generation++;
+        containing.clear();
+        index.findContaining(location.getLatitude(), location.getLongitude(), containing);
+        for (GeofenceModel geofence : containing) {
+            FenceState state = inside.get(geofence.getRequestId());
+            if (state == null) {
+                state = new FenceState(geofence, time);
+                inside.put(geofence.getRequestId(), state);
+                if ((geofence.getTransition() & Geofence.GEOFENCE_TRANSITION_ENTER) != 0) {
+                    transitions.add(new TransitionGeofence(geofence, Geofence.GEOFENCE_TRANSITION_ENTER));
+                }
+            }
+            state.generation = generation;
+            if (!state.dwelled && (geofence.getTransition() & Geofence.GEOFENCE_TRANSITION_DWELL) != 0
+                    && time - state.enterTime >= geofence.getLoiteringDelay()) {
+                state.dwelled = true;
+                transitions.add(new TransitionGeofence(geofence, Geofence.GEOFENCE_TRANSITION_DWELL));
+            }
+        }
+
+        Iterator<FenceState> iterator = inside.values().iterator();
+        while (iterator.hasNext()) {
+            FenceState state = iterator.next();
+            if (state.generation != generation) {
+                iterator.remove();
+                if ((state.geofence.getTransition() & Geofence.GEOFENCE_TRANSITION_EXIT) != 0) {
+                    transitions.add(new TransitionGeofence(state.geofence, Geofence.GEOFENCE_TRANSITION_EXIT));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return params to request the updates with, or null if the current ones are still valid
+     */
+    private LocationParams selectParams(Location location) {
+        int newBand = proximityBands.getBand(boundaryDistance(location.getLatitude(), location.getLongitude()), band);
+        if (newBand == band) {
+            return null;
+        }
+        band = newBand;
+        LocationParams bandParams = proximityBands.getParams(newBand);
+        if (bandParams.equals(currentParams)) {
+            return null;
+        }
+        if (logger != null) {
+            logger.d("Switching to the location params of proximity band " + newBand);
+        }
+        currentParams = bandParams;
+        paramsChanges++;
+        return bandParams;
+    }
+
+    /**
+     * Distance to the nearest boundary, either of a fence containing the point (which are the ones found by
+     * the last evaluation) or of the nearest fence not containing it.
+     */
+    private double boundaryDistance(double latitude, double longitude) {
+        double distance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < containing.size(); i++) {
+            distance = Math.min(distance, -containing.get(i).getEdgeDistance(latitude, longitude));
+        }
+        nearest.clear();
+        index.findNearest(latitude, longitude, containing.size() + 1, nearest);
+        for (int i = 0; i < nearest.size(); i++) {
+            double edgeDistance = nearest.get(i).getEdgeDistance(latitude, longitude);
+            if (edgeDistance > 0) {
+                distance = Math.min(distance, edgeDistance);
+                break;
+            }
+        }
+        return Math.max(distance, 0);
+    }
+
+    private void expire(long time) {
+        nextExpiration = Long.MAX_VALUE;
+        Iterator<Map.Entry<String, Long>> iterator = expirations.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getValue() <= time) {
+                iterator.remove();
+                index.remove(entry.getKey());
+                inside.remove(entry.getKey());
+                if (logger != null) {
+                    logger.d("Geofence " + entry.getKey() + " expired");
+                }
+            } else {
+                nextExpiration = Math.min(nextExpiration, entry.getValue());
+            }
+        }
+    }
+
+    private static class FenceState {
+        private final GeofenceModel geofence;
+        private final long enterTime;
+        private boolean dwelled;
+        private long generation;
+
+        FenceState(GeofenceModel geofence, long enterTime) {
+            this.geofence = geofence;
+            this.enterTime = enterTime;
+        }
+    }
+}
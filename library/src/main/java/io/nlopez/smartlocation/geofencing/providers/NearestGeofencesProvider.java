@@ -0,0 +1,234 @@
+package io.nlopez.smartlocation.geofencing.providers;
+
+import android.content.Context;
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.nlopez.smartlocation.OnGeofencingTransitionListener;
+import io.nlopez.smartlocation.OnLocationUpdatedListener;
+import io.nlopez.smartlocation.geofencing.GeofencingProvider;
+import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+import io.nlopez.smartlocation.geofencing.utils.GeofenceIndex;
+import io.nlopez.smartlocation.location.LocationProvider;
+import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.location.providers.LocationGooglePlayServicesWithFallbackProvider;
+import io.nlopez.smartlocation.location.utils.GeoDistance;
+import io.nlopez.smartlocation.utils.Logger;
+
+/**
+ * Geofencing provider that accepts any number of fences but only registers the nearest ones in another
+ * provider, {@link GeofencingGooglePlayServicesProvider} by default, which is limited to 100 fences per app.
+ * <p/>
+ * The fences are kept in a {@link GeofenceIndex}. Whenever the user moves farther than the refresh distance
+ * from the place of the last ranking, the nearest fences (by distance to their edge) are ranked again and the
+ * registrations are swapped, with a single remove call for the fences that left the window and a single add
+ * call for the ones that entered it. Transitions are reported by the wrapped provider.
+ */
+public class NearestGeofencesProvider implements GeofencingProvider, OnLocationUpdatedListener {
+
+    public static final int DEFAULT_MAX_REGISTERED = 90;
+    public static final float DEFAULT_REFRESH_DISTANCE = 1000;
+
+    private final GeofencingProvider provider;
+    private final LocationParams params;
+    private final GeofenceIndex index = new GeofenceIndex();
+    private final Map<String, GeofenceModel> registered = new LinkedHashMap<>();
+    private LocationProvider locationProvider;
+    private int maxRegistered = DEFAULT_MAX_REGISTERED;
+    private float refreshDistance = DEFAULT_REFRESH_DISTANCE;
+    private Location anchor;
+    private long addedCount;
+    private long removedCount;
+
+    public NearestGeofencesProvider() {
+        this(new GeofencingGooglePlayServicesProvider(), null, LocationParams.BEST_EFFORT);
+    }
+
+    /**
+     * @param provider         provider the nearest fences are registered in
+     * @param locationProvider provider of the fixes used for ranking the fences, or null for
+     *                         {@link LocationGooglePlayServicesWithFallbackProvider}
+     * @param params           params of the location updates
+     */
+    public NearestGeofencesProvider(@NonNull GeofencingProvider provider, LocationProvider locationProvider,
+                                    @NonNull LocationParams params) {
+        this.provider = provider;
+        this.locationProvider = locationProvider;
+        this.params = params;
+    }
+
+    /**
+     * @param maxRegistered max number of fences registered in the wrapped provider at the same time
+     */
+    public synchronized void setMaxRegistered(int maxRegistered) {
+        if (maxRegistered <= 0) {
+            throw new IllegalArgumentException("maxRegistered must be positive");
+        }
+        this.maxRegistered = maxRegistered;
+        if (anchor != null) {
+            refresh(anchor);
+        }
+    }
+
+    /**
+     * @param refreshDistance distance in meters the user has to move for ranking the fences again
+     */
+    public synchronized void setRefreshDistance(float refreshDistance) {
+        this.refreshDistance = refreshDistance;
+    }
+
+    @Override
+    public void init(@NonNull Context context, Logger logger) {
+        if (locationProvider == null) {
+            locationProvider = new LocationGooglePlayServicesWithFallbackProvider(context);
+        }
+        provider.init(context, logger);
+        locationProvider.init(context, logger);
+    }
+
+    @Override
+    public void start(OnGeofencingTransitionListener listener) {
+        provider.start(listener);
+        locationProvider.start(this, params, false);
+    }
+
+    @Override
+    public void stop() {
+        locationProvider.stop();
+        provider.stop();
+    }
+
+    @Override
+    public void addGeofence(GeofenceModel geofence) {
+        List<GeofenceModel> wrapperList = new ArrayList<>();
+        wrapperList.add(geofence);
+        addGeofences(wrapperList);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the wrapped provider is a {@link GeofencingGooglePlayServicesProvider}
+     *                                  and any of the geofences is not a circle. Nothing is added in that case.
+     */
+    @Override
+    public synchronized void addGeofences(List<GeofenceModel> geofenceList) {
+        if (provider instanceof GeofencingGooglePlayServicesProvider) {
+            // Rejected now instead of when the fence becomes one of the nearest
+            GeofencingGooglePlayServicesProvider.requireCircular(geofenceList);
+        }
+        for (GeofenceModel geofence : geofenceList) {
+            index.put(geofence);
+        }
+        if (anchor != null) {
+            refresh(anchor);
+        }
+    }
+
+    @Override
+    public void removeGeofence(String geofenceId) {
+        List<String> wrapperList = new ArrayList<>();
+        wrapperList.add(geofenceId);
+        removeGeofences(wrapperList);
+    }
+
+    @Override
+    public synchronized void removeGeofences(List<String> geofenceIds) {
+        for (String id : geofenceIds) {
+            index.remove(id);
+        }
+        if (anchor != null) {
+            refresh(anchor);
+        } else {
+            List<String> removed = new ArrayList<>();
+            for (String id : geofenceIds) {
+                if (registered.remove(id) != null) {
+                    removed.add(id);
+                }
+            }
+            if (!removed.isEmpty()) {
+                removedCount += removed.size();
+                provider.removeGeofences(removed);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onLocationUpdated(Location location) {
+        if (anchor == null || GeoDistance.meters(anchor.getLatitude(), anchor.getLongitude(),
+                location.getLatitude(), location.getLongitude()) >= refreshDistance) {
+            refresh(location);
+        }
+    }
+
+    /**
+     * @return number of fences accepted
+     */
+    public synchronized int getGeofenceCount() {
+        return index.size();
+    }
+
+    /**
+     * @return fences currently registered in the wrapped provider
+     */
+    public synchronized List<GeofenceModel> getRegistered() {
+        return new ArrayList<>(registered.values());
+    }
+
+    /**
+     * @return number of fences registered in the wrapped provider since the creation
+     */
+    public synchronized long getAddedCount() {
+        return addedCount;
+    }
+
+    /**
+     * @return number of fences unregistered from the wrapped provider since the creation
+     */
+    public synchronized long getRemovedCount() {
+        return removedCount;
+    }
+
+    private void refresh(Location location) {
+        anchor = new Location(location);
+        List<GeofenceModel> nearest = new ArrayList<>(Math.min(maxRegistered, index.size()));
+        index.findNearest(location.getLatitude(), location.getLongitude(), maxRegistered, nearest);
+
+        Set<String> nearestIds = new HashSet<>();
+        List<GeofenceModel> added = new ArrayList<>();
+        for (GeofenceModel geofence : nearest) {
+            nearestIds.add(geofence.getRequestId());
+            // Fences replaced with the same id are registered again
+            if (registered.get(geofence.getRequestId()) != geofence) {
+                added.add(geofence);
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (String id : registered.keySet()) {
+            if (!nearestIds.contains(id)) {
+                removed.add(id);
+            }
+        }
+
+        // Removals first, so the wrapped provider never goes over the limit
+        if (!removed.isEmpty()) {
+            for (String id : removed) {
+                registered.remove(id);
+            }
+            removedCount += removed.size();
+            provider.removeGeofences(removed);
+        }
+        if (!added.isEmpty()) {
+            for (GeofenceModel geofence : added) {
+                registered.put(geofence.getRequestId(), geofence);
+            }
+            addedCount += added.size();
+            provider.addGeofences(added);
+        }
+    }
+}
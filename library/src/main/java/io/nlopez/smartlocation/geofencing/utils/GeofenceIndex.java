@@ -0,0 +1,371 @@
+package io.nlopez.smartlocation.geofencing.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+import io.nlopez.smartlocation.location.utils.GeoDistance;
+
+/**
+ * Spatial index of circular geofences, for finding the ones containing a point without testing all of them.
+ * <p/>
+ * Fences are kept in a hierarchy of latitude/longitude grids whose cell size doubles from level to level, each
+ * fence in the single cell that holds its center in the first level with cells larger than the fence. A fence
+ * containing a point is then in the cell of the point or in one of its neighbours at that level, so a query
+ * looks at 3x3 cells per level in use. Fences too large for any level are always tested.
+ * <p/>
+ * The nearest fences are found searching rings of cells of growing size around the point at every level in
+ * use, until no unvisited cell can hold a nearer fence, or scanning the cells of the level when they are fewer
+ * than the ones of the ring.
+ * <p/>
+ * Instances are not thread safe.
+ */
+public class GeofenceIndex {
+
+    // Cell size of the first level, in degrees (about 430 meters of latitude)
+    static final double BASE_CELL_SIZE = 1.0 / 256;
+    static final int LEVELS = 16;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * GeoDistance.EARTH_RADIUS;
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final Map<Long, Bucket> buckets = new HashMap<>();
+    private final Bucket unbounded = new Bucket();
+    private final int[] levelCounts = new int[LEVELS];
+    private final int[] bucketCounts = new int[LEVELS];
+    private GeofenceModel[] models = new GeofenceModel[16];
+    private long[] cells = new long[16];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+
+    public int size() {
+        return slots.size();
+    }
+
+    public GeofenceModel get(@NonNull String requestId) {
+        Integer slot = slots.get(requestId);
+        return slot != null ? models[slot] : null;
+    }
+
+    /**
+     * Adds a fence, replacing the one with the same request id if any.
+     */
+    public void put(@NonNull GeofenceModel geofence) {
+        remove(geofence.getRequestId());
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotCount == models.length) {
+                models = Arrays.copyOf(models, slotCount * 2);
+                cells = Arrays.copyOf(cells, slotCount * 2);
+            }
+            slot = slotCount++;
+        }
+        models[slot] = geofence;
+        slots.put(geofence.getRequestId(), slot);
+
+        int level = level(geofence);
+        if (level < 0) {
+            cells[slot] = -1;
+            unbounded.add(slot);
+            return;
+        }
+        long cell = cell(level, geofence.getLatitude(), geofence.getLongitude());
+        cells[slot] = cell;
+        Bucket bucket = buckets.get(cell);
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets.put(cell, bucket);
+            bucketCounts[level]++;
+        }
+        bucket.add(slot);
+        levelCounts[level]++;
+    }
+
+    /**
+     * @return the fence removed, or null if there was none with that request id
+     */
+    public GeofenceModel remove(@NonNull String requestId) {
+        Integer slot = slots.remove(requestId);
+        if (slot == null) {
+            return null;
+        }
+        GeofenceModel geofence = models[slot];
+        long cell = cells[slot];
+        if (cell < 0) {
+            unbounded.remove(slot);
+        } else {
+            Bucket bucket = buckets.get(cell);
+            bucket.remove(slot);
+            int level = (int) (cell >>> 58);
+            if (bucket.size == 0) {
+                buckets.remove(cell);
+                bucketCounts[level]--;
+            }
+            levelCounts[level]--;
+        }
+        models[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        return geofence;
+    }
+
+    public void clear() {
+        slots.clear();
+        buckets.clear();
+        unbounded.size = 0;
+        Arrays.fill(levelCounts, 0);
+        Arrays.fill(bucketCounts, 0);
+        Arrays.fill(models, null);
+        freeCount = 0;
+        slotCount = 0;
+    }
+
+    /**
+     * @return every fence indexed, in no particular order
+     */
+    public List<GeofenceModel> getAll() {
+        List<GeofenceModel> all = new ArrayList<>(slots.size());
+        for (int slot : slots.values()) {
+            all.add(models[slot]);
+        }
+        return all;
+    }
+
+    /**
+     * Adds to a list the fences containing a point.
+     *
+     * @param latitude  latitude of the point
+     * @param longitude longitude of the point
+     * @param result    list the fences are added to
+     */
+    public void findContaining(double latitude, double longitude, @NonNull List<GeofenceModel> result) {
+        for (int level = 0; level < LEVELS; level++) {
+            if (levelCounts[level] == 0) {
+                continue;
+            }
+            double cellSize = cellSize(level);
+            int rows = rows(cellSize);
+            int columns = columns(cellSize);
+            int row = row(latitude, cellSize, rows);
+            int column = column(longitude, cellSize, columns);
+            for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+                // Fewer than 3 columns would visit the same cell twice
+                for (int c = -1; c <= 1 && c < columns - 1; c++) {
+                    int wrapped = (column + c + columns) % columns;
+                    Bucket bucket = buckets.get(key(level, r, wrapped));
+                    if (bucket != null) {
+                        test(bucket, latitude, longitude, result);
+                    }
+                }
+            }
+        }
+        test(unbounded, latitude, longitude, result);
+    }
+
+    /**
+     * Adds to a list the fences nearest to a point, by distance to their edge (negative inside them).
+     *
+     * @param latitude   latitude of the point
+     * @param longitude  longitude of the point
+     * @param maxResults max number of fences added
+     * @param result     list the fences are added to, nearest first
+     */
+    public void findNearest(double latitude, double longitude, int maxResults, @NonNull List<GeofenceModel> result) {
+        if (maxResults <= 0 || slots.isEmpty()) {
+            return;
+        }
+        Nearest nearest = new Nearest(latitude, longitude, maxResults);
+        nearest.test(unbounded);
+        for (int level = 0; level < LEVELS; level++) {
+            if (levelCounts[level] > 0) {
+                findNearest(level, nearest);
+            }
+        }
+        for (int i = 0; i < nearest.found; i++) {
+            result.add(models[nearest.best[i]]);
+        }
+    }
+
+    private void findNearest(int level, Nearest nearest) {
+        double cellSize = cellSize(level);
+        double cellMeters = cellSize * METERS_PER_DEGREE;
+        int rows = rows(cellSize);
+        int columns = columns(cellSize);
+        int row = row(nearest.latitude, cellSize, rows);
+        int column = column(nearest.longitude, cellSize, columns);
+        for (int ring = 0; ; ring++) {
+            long ringCells = (long) (2 * ring + 1) * (2 * ring + 1);
+            if (ring > 0 && ringCells > bucketCounts[level]) {
+                scanLevel(level, row, column, ring - 1, columns, nearest);
+                return;
+            }
+            for (int r = Math.max(0, row - ring); r <= Math.min(rows - 1, row + ring); r++) {
+                // Only the first and last columns of the ring in the rows between the first and the last one
+                int step = Math.abs(r - row) == ring ? 1 : 2 * ring;
+                for (int c = -ring; c <= ring; c += step) {
+                    // Columns wrap around the antimeridian, so with rings wider than the grid several offsets
+                    // land in the same column: only the first one is visited. Inner cells were visited before.
+                    if (c - columns >= -ring || Math.max(Math.abs(r - row), columnDistance(c, columns)) != ring) {
+                        continue;
+                    }
+                    Bucket bucket = buckets.get(key(level, r, ((column + c) % columns + columns) % columns));
+                    if (bucket != null) {
+                        nearest.test(bucket);
+                    }
+                }
+            }
+            boolean covered = row - ring <= 0 && row + ring >= rows - 1 && 2 * ring + 1 >= columns;
+            // Unvisited fence centers are at least ring cells away, and fences are at most a cell wide
+            double farthestLatitude = Math.min(90, Math.abs(nearest.latitude) + (ring + 1) * cellSize);
+            double bound = (ring * Math.cos(Math.toRadians(farthestLatitude)) - 1) * cellMeters;
+            if (covered || (nearest.found == nearest.best.length && bound >= nearest.distances[nearest.found - 1])) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return distance in columns for an offset, the shortest way around the antimeridian
+     */
+    private static int columnDistance(int offset, int columns) {
+        int distance = Math.abs(offset) % columns;
+        return Math.min(distance, columns - distance);
+    }
+
+    /**
+     * Tests the cells of a level not visited by the rings up to the given one.
+     */
+    private void scanLevel(int level, int row, int column, int visitedRing, int columns, Nearest nearest) {
+        for (Map.Entry<Long, Bucket> entry : buckets.entrySet()) {
+            long cell = entry.getKey();
+            if ((int) (cell >>> 58) != level) {
+                continue;
+            }
+            int rowDistance = Math.abs((int) ((cell >>> 29) & 0x1fffffff) - row);
+            int columnDistance = columnDistance((int) (cell & 0x1fffffff) - column, columns);
+            if (Math.max(rowDistance, columnDistance) > visitedRing) {
+                nearest.test(entry.getValue());
+            }
+        }
+    }
+
+    private class Nearest {
+        private final double latitude;
+        private final double longitude;
+        private final int[] best;
+        private final double[] distances;
+        private int found;
+
+        Nearest(double latitude, double longitude, int maxResults) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            best = new int[maxResults];
+            distances = new double[maxResults];
+        }
+
+        void test(Bucket bucket) {
+            for (int i = 0; i < bucket.size; i++) {
+                int slot = bucket.slots[i];
+                GeofenceModel geofence = models[slot];
+                double distance = geofence.getEdgeDistance(latitude, longitude);
+                if (found == best.length && distance >= distances[found - 1]) {
+                    continue;
+                }
+                int position = found == best.length ? found - 1 : found++;
+                while (position > 0 && distances[position - 1] > distance) {
+                    best[position] = best[position - 1];
+                    distances[position] = distances[position - 1];
+                    position--;
+                }
+                best[position] = slot;
+                distances[position] = distance;
+            }
+        }
+    }
+
+    private void test(Bucket bucket, double latitude, double longitude, List<GeofenceModel> result) {
+        for (int i = 0; i < bucket.size; i++) {
+            GeofenceModel geofence = models[bucket.slots[i]];
+            if (geofence.contains(latitude, longitude)) {
+                result.add(geofence);
+            }
+        }
+    }
+
+    /**
+     * @return first level whose cells are larger than the fence in both axes, or -1 if there is none
+     */
+    static int level(GeofenceModel geofence) {
+        double latitudeSpan = geofence.getRadius() / METERS_PER_DEGREE;
+        double farthestLatitude = Math.min(90, Math.abs(geofence.getLatitude()) + latitudeSpan);
+        double cos = Math.cos(Math.toRadians(farthestLatitude));
+        double span = cos > 1e-9 ? Math.max(latitudeSpan, latitudeSpan / cos) : Double.POSITIVE_INFINITY;
+        for (int level = 0; level < LEVELS; level++) {
+            if (cellSize(level) >= span) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    private static double cellSize(int level) {
+        return BASE_CELL_SIZE * (1 << level);
+    }
+
+    private static int rows(double cellSize) {
+        return (int) Math.ceil(180 / cellSize);
+    }
+
+    private static int columns(double cellSize) {
+        return (int) Math.ceil(360 / cellSize);
+    }
+
+    private static int row(double latitude, double cellSize, int rows) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((latitude + 90) / cellSize)));
+    }
+
+    private static int column(double longitude, double cellSize, int columns) {
+        int column = (int) Math.floor((longitude + 180) / cellSize) % columns;
+        return column < 0 ? column + columns : column;
+    }
+
+    private static long cell(int level, double latitude, double longitude) {
+        double cellSize = cellSize(level);
+        return key(level, row(latitude, cellSize, rows(cellSize)), column(longitude, cellSize, columns(cellSize)));
+    }
+
+    private static long key(int level, int row, int column) {
+        return ((long) level << 58) | ((long) row << 29) | column;
+    }
+
+    private static class Bucket {
+        private int[] slots = new int[4];
+        private int size;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        void remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    return;
+                }
+            }
+        }
+    }
+}
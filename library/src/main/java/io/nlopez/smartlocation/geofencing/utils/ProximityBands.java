@@ -0,0 +1,110 @@
+package io.nlopez.smartlocation.geofencing.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.nlopez.smartlocation.location.config.LocationParams;
+
+/**
+ * Location params to use depending on the distance to the nearest geofence boundary, from the closest band to
+ * the farthest one, and the params used beyond the last band.
+ * <p/>
+ * Moving to a closer band happens as soon as the distance goes below its limit, while moving back to a farther
+ * band waits until the distance exceeds the limit by {@link #HYSTERESIS}, so the params do not flap around
+ * the limits. To avoid missing transitions, the limit of every band should be well above the distance of the
+ * params of the next band: with the {@link #DEFAULT} bands, a fix is taken every 500 meters beyond 1500
+ * meters, every 150 meters beyond 300 meters, and continuously closer than that.
+ */
+public class ProximityBands {
+
+    public static final double HYSTERESIS = 0.2;
+
+    public static final ProximityBands DEFAULT = new Builder()
+            .addBand(300, LocationParams.NAVIGATION)
+            .addBand(1500, LocationParams.BEST_EFFORT)
+            .setFarParams(LocationParams.LAZY)
+            .build();
+
+    private final double[] limits;
+    private final LocationParams[] params;
+
+    private ProximityBands(double[] limits, LocationParams[] params) {
+        this.limits = limits;
+        this.params = params;
+    }
+
+    /**
+     * @return number of bands, including the one beyond the last limit
+     */
+    public int getBandCount() {
+        return params.length;
+    }
+
+    public LocationParams getParams(int band) {
+        return params[band];
+    }
+
+    /**
+     * @param distance    distance in meters to the nearest geofence boundary
+     * @param currentBand band currently in use, or -1 if there is none yet
+     * @return band to use for the distance
+     */
+    public int getBand(double distance, int currentBand) {
+        int band = band(distance);
+        if (currentBand >= 0) {
+            while (band > currentBand && distance < limits[band - 1] * (1 + HYSTERESIS)) {
+                band--;
+            }
+        }
+        return band;
+    }
+
+    private int band(double distance) {
+        int band = 0;
+        while (band < limits.length && distance >= limits[band]) {
+            band++;
+        }
+        return band;
+    }
+
+    public static class Builder {
+        private final List<Double> limits = new ArrayList<>();
+        private final List<LocationParams> params = new ArrayList<>();
+        private LocationParams farParams = LocationParams.LAZY;
+
+        /**
+         * Adds a band, farther than the previous ones.
+         *
+         * @param limit  distance in meters to the nearest boundary up to which the params are used
+         * @param params params used in the band
+         */
+        public Builder addBand(float limit, @NonNull LocationParams params) {
+            if (!limits.isEmpty() && limit <= limits.get(limits.size() - 1)) {
+                throw new IllegalArgumentException("Bands must be added from the closest to the farthest");
+            }
+            limits.add((double) limit);
+            this.params.add(params);
+            return this;
+        }
+
+        /**
+         * @param farParams params used beyond the last band, {@link LocationParams#LAZY} by default
+         */
+        public Builder setFarParams(@NonNull LocationParams farParams) {
+            this.farParams = farParams;
+            return this;
+        }
+
+        public ProximityBands build() {
+            double[] limitArray = new double[limits.size()];
+            for (int i = 0; i < limitArray.length; i++) {
+                limitArray[i] = limits.get(i);
+            }
+            LocationParams[] paramsArray = params.toArray(new LocationParams[params.size() + 1]);
+            paramsArray[paramsArray.length - 1] = farParams;
+            return new ProximityBands(limitArray, paramsArray);
+        }
+    }
+}
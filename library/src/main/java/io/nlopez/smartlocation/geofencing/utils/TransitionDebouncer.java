@@ -0,0 +1,457 @@
+package io.nlopez.smartlocation.geofencing.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.location.Geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.nlopez.smartlocation.OnGeofencingTransitionListener;
+import io.nlopez.smartlocation.OnGeofencingTransitionsListener;
+
+/**
+ * Transition stage to put in front of the app logic, for example as the listener of
+ * {@code SmartLocation.with(context).geofencing().start(listener)}, that removes the flapping of the
+ * transitions near the fence boundaries and delivers them in batches.
+ * <p/>
+ * <ul>
+ * <li>Transitions are coalesced during a window, that starts with the first transition received after an
+ * idle period, and then delivered together in a single {@link OnGeofencingTransitionsListener} call.</li>
+ * <li>An exit received before the fence has been entered for the minimum dwell time is held until that time
+ * is reached. An enter of the same fence in the meantime cancels both, so the listener never sees them.</li>
+ * <li>An enter followed by an exit inside the same window cancel each other too, and repeated enters or
+ * exits of a fence are dropped.</li>
+ * </ul>
+ * The state of every fence is kept in primitive arrays addressed by an open addressing table of the fence
+ * ids, so a transition does not allocate besides growing the table. Times use the
+ * {@link SystemClock#elapsedRealtime()} clock and, unless the window is 0, the listener is invoked in the thread
+ * of the looper, also for transitions that are already due when another one arrives. Only the explicit
+ * {@link #flush(long)} and {@link #flushAll()} calls deliver in the calling thread.
+ */
+public class TransitionDebouncer implements OnGeofencingTransitionListener {
+
+    public static final long DEFAULT_WINDOW = 2000;
+    public static final long DEFAULT_MIN_DWELL_TIME = 30000;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final byte INSIDE = 1;
+
+    private final OnGeofencingTransitionsListener listener;
+    private final Looper looper;
+    private Handler handler;
+    private long window = DEFAULT_WINDOW;
+    private long minDwellTime = DEFAULT_MIN_DWELL_TIME;
+
+    // Fence table, the arrays are indexed by slot
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private byte[] states = new byte[INITIAL_CAPACITY];
+    private long[] enterTimes = new long[INITIAL_CAPACITY];
+    private long[] dueTimes = new long[INITIAL_CAPACITY];
+    private long[] dwellDueTimes = new long[INITIAL_CAPACITY];
+    private int[] flaps = new int[INITIAL_CAPACITY];
+    private TransitionGeofence[] pending = new TransitionGeofence[INITIAL_CAPACITY];
+    private TransitionGeofence[] pendingDwells = new TransitionGeofence[INITIAL_CAPACITY];
+    private int fences;
+
+    // Slots with a pending transition, in arrival order. Dwells are stored as the slot + capacity
+    private int[] queue = new int[INITIAL_CAPACITY];
+    private int queueSize;
+    private long windowEnd = Long.MIN_VALUE;
+    private long scheduledFlush = Long.MAX_VALUE;
+
+    private long received;
+    private long delivered;
+    private long batches;
+    private long suppressedFlaps;
+    private long deferredExits;
+    private long duplicates;
+
+    /**
+     * @param listener listener of the batches, invoked in the main thread
+     */
+    public TransitionDebouncer(@NonNull OnGeofencingTransitionsListener listener) {
+        this(listener, Looper.getMainLooper());
+    }
+
+    /**
+     * @param listener listener of the batches
+     * @param looper   looper in which the batches are delivered
+     */
+    public TransitionDebouncer(@NonNull OnGeofencingTransitionsListener listener, @NonNull Looper looper) {
+        this.listener = listener;
+        this.looper = looper;
+    }
+
+    /**
+     * @param window time in milliseconds the transitions are coalesced before delivering them, 0 for delivering
+     *               every transition right away in the thread it is received in
+     */
+    public synchronized void setWindow(long window) {
+        this.window = Math.max(0, window);
+    }
+
+    public synchronized long getWindow() {
+        return window;
+    }
+
+    /**
+     * @param minDwellTime time in milliseconds a fence must stay entered before an exit counts
+     */
+    public synchronized void setMinDwellTime(long minDwellTime) {
+        this.minDwellTime = Math.max(0, minDwellTime);
+    }
+
+    public synchronized long getMinDwellTime() {
+        return minDwellTime;
+    }
+
+    @Override
+    public void onGeofenceTransition(TransitionGeofence transitionGeofence) {
+        onGeofenceTransition(transitionGeofence, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Processes a transition received at the given time.
+     *
+     * @param time time in milliseconds, same clock as {@link SystemClock#elapsedRealtime()}
+     */
+    public void onGeofenceTransition(@NonNull TransitionGeofence transitionGeofence, long time) {
+        long nextFlush;
+        boolean immediate;
+        synchronized (this) {
+            received++;
+            if (time >= windowEnd) {
+                windowEnd = time + window;
+            }
+            int slot = slot(transitionGeofence.getGeofenceModel().getRequestId());
+            switch (transitionGeofence.getTransitionType()) {
+                case Geofence.GEOFENCE_TRANSITION_ENTER:
+                    enter(slot, transitionGeofence, time);
+                    break;
+                case Geofence.GEOFENCE_TRANSITION_EXIT:
+                    exit(slot, transitionGeofence);
+                    break;
+                default:
+                    if (pendingDwells[slot] != null) {
+                        duplicates++;
+                    } else {
+                        pendingDwells[slot] = transitionGeofence;
+                        dwellDueTimes[slot] = windowEnd;
+                        enqueue(slot + ids.length);
+                    }
+                    break;
+            }
+            nextFlush = nextDueTime();
+            immediate = window == 0;
+        }
+        if (nextFlush <= time && immediate) {
+            flush(time);
+        } else if (nextFlush != Long.MAX_VALUE) {
+            schedule(nextFlush, time);
+        }
+    }
+
+    private void enter(int slot, TransitionGeofence transitionGeofence, long time) {
+        TransitionGeofence current = pending[slot];
+        if (current != null && current.getTransitionType() == Geofence.GEOFENCE_TRANSITION_EXIT) {
+            // Came back before the exit was delivered, the listener still thinks we are inside
+            pending[slot] = null;
+            flaps[slot]++;
+            suppressedFlaps++;
+        } else if (current != null || (states[slot] & INSIDE) != 0) {
+            duplicates++;
+        } else {
+            pending[slot] = transitionGeofence;
+            dueTimes[slot] = windowEnd;
+            enterTimes[slot] = time;
+            enqueue(slot);
+        }
+    }
+
+    private void exit(int slot, TransitionGeofence transitionGeofence) {
+        TransitionGeofence current = pending[slot];
+        if (current != null && current.getTransitionType() == Geofence.GEOFENCE_TRANSITION_ENTER) {
+            // Left before the enter was delivered
+            pending[slot] = null;
+            flaps[slot]++;
+            suppressedFlaps++;
+        } else if (current != null || (states[slot] & INSIDE) == 0) {
+            duplicates++;
+        } else {
+            long dwellEnd = enterTimes[slot] + minDwellTime;
+            if (dwellEnd > windowEnd) {
+                deferredExits++;
+            }
+            pending[slot] = transitionGeofence;
+            dueTimes[slot] = Math.max(windowEnd, dwellEnd);
+            enqueue(slot);
+        }
+    }
+
+    /**
+     * Delivers the transitions that are due at the given time. The listener is invoked in the calling thread.
+     *
+     * @param time time in milliseconds, same clock as {@link SystemClock#elapsedRealtime()}
+     */
+    public void flush(long time) {
+        List<TransitionGeofence> batch = new ArrayList<>();
+        long nextFlush;
+        synchronized (this) {
+            scheduledFlush = Long.MAX_VALUE;
+            collect(batch, time);
+            nextFlush = nextDueTime();
+        }
+        if (nextFlush != Long.MAX_VALUE) {
+            schedule(nextFlush, time);
+        }
+        if (!batch.isEmpty()) {
+            listener.onGeofenceTransitions(batch);
+        }
+    }
+
+    /**
+     * Delivers every pending transition right away, including the exits held by the minimum dwell time. The
+     * listener is invoked in the calling thread, not in the looper one.
+     */
+    public void flushAll() {
+        flush(Long.MAX_VALUE);
+    }
+
+    private void collect(List<TransitionGeofence> batch, long time) {
+        int capacity = ids.length;
+        int kept = 0;
+        for (int i = 0; i < queueSize; i++) {
+            int entry = queue[i];
+            if (entry >= capacity) {
+                int slot = entry - capacity;
+                if (pendingDwells[slot] != null && dwellDueTimes[slot] <= time) {
+                    batch.add(pendingDwells[slot]);
+                    pendingDwells[slot] = null;
+                } else if (pendingDwells[slot] != null) {
+                    queue[kept++] = entry;
+                }
+                continue;
+            }
+            TransitionGeofence transition = pending[entry];
+            if (transition == null) {
+                continue;
+            }
+            if (dueTimes[entry] > time) {
+                queue[kept++] = entry;
+                continue;
+            }
+            pending[entry] = null;
+            if (transition.getTransitionType() == Geofence.GEOFENCE_TRANSITION_ENTER) {
+                states[entry] |= INSIDE;
+            } else {
+                states[entry] &= ~INSIDE;
+            }
+            batch.add(transition);
+        }
+        queueSize = kept;
+        if (!batch.isEmpty()) {
+            delivered += batch.size();
+            batches++;
+        }
+    }
+
+    private long nextDueTime() {
+        long next = Long.MAX_VALUE;
+        int capacity = ids.length;
+        for (int i = 0; i < queueSize; i++) {
+            int entry = queue[i];
+            if (entry >= capacity) {
+                next = Math.min(next, dwellDueTimes[entry - capacity]);
+            } else if (pending[entry] != null) {
+                next = Math.min(next, dueTimes[entry]);
+            }
+        }
+        return next;
+    }
+
+    private void schedule(long due, long now) {
+        Handler target;
+        synchronized (this) {
+            if (due >= scheduledFlush) {
+                return;
+            }
+            scheduledFlush = due;
+            if (handler == null) {
+                handler = new Handler(looper);
+            }
+            target = handler;
+        }
+        target.removeCallbacks(flushRunnable);
+        target.postDelayed(flushRunnable, Math.max(0, due - now));
+    }
+
+    private void enqueue(int entry) {
+        if (queueSize == queue.length) {
+            queue = Arrays.copyOf(queue, queueSize * 2);
+        }
+        queue[queueSize++] = entry;
+    }
+
+    private int slot(String id) {
+        int mask = ids.length - 1;
+        int slot = mix(id.hashCode()) & mask;
+        while (ids[slot] != null) {
+            if (ids[slot].equals(id)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if ((fences + 1) * 4 > ids.length * 3) {
+            grow();
+            return slot(id);
+        }
+        ids[slot] = id;
+        fences++;
+        return slot;
+    }
+
+    private void grow() {
+        int oldCapacity = ids.length;
+        String[] oldIds = ids;
+        byte[] oldStates = states;
+        long[] oldEnterTimes = enterTimes;
+        long[] oldDueTimes = dueTimes;
+        long[] oldDwellDueTimes = dwellDueTimes;
+        int[] oldFlaps = flaps;
+        TransitionGeofence[] oldPending = pending;
+        TransitionGeofence[] oldPendingDwells = pendingDwells;
+
+        int capacity = oldCapacity * 2;
+        ids = new String[capacity];
+        states = new byte[capacity];
+        enterTimes = new long[capacity];
+        dueTimes = new long[capacity];
+        dwellDueTimes = new long[capacity];
+        flaps = new int[capacity];
+        pending = new TransitionGeofence[capacity];
+        pendingDwells = new TransitionGeofence[capacity];
+        int[] moved = new int[oldCapacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldCapacity; i++) {
+            if (oldIds[i] == null) {
+                continue;
+            }
+            int slot = mix(oldIds[i].hashCode()) & mask;
+            while (ids[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            ids[slot] = oldIds[i];
+            states[slot] = oldStates[i];
+            enterTimes[slot] = oldEnterTimes[i];
+            dueTimes[slot] = oldDueTimes[i];
+            dwellDueTimes[slot] = oldDwellDueTimes[i];
+            flaps[slot] = oldFlaps[i];
+            pending[slot] = oldPending[i];
+            pendingDwells[slot] = oldPendingDwells[i];
+            moved[i] = slot;
+        }
+        for (int i = 0; i < queueSize; i++) {
+            int entry = queue[i];
+            queue[i] = entry >= oldCapacity ? moved[entry - oldCapacity] + capacity : moved[entry];
+        }
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return number of times the given fence flapped, an enter and an exit that cancelled each other
+     */
+    public synchronized int getFlapCount(@NonNull String id) {
+        int mask = ids.length - 1;
+        int slot = mix(id.hashCode()) & mask;
+        while (ids[slot] != null) {
+            if (ids[slot].equals(id)) {
+                return flaps[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * @return number of fences with state
+     */
+    public synchronized int getFenceCount() {
+        return fences;
+    }
+
+    public synchronized long getReceivedCount() {
+        return received;
+    }
+
+    public synchronized long getDeliveredCount() {
+        return delivered;
+    }
+
+    /**
+     * @return number of listener calls
+     */
+    public synchronized long getBatchCount() {
+        return batches;
+    }
+
+    /**
+     * @return number of enter and exit pairs that were not delivered because they cancelled each other
+     */
+    public synchronized long getSuppressedFlapCount() {
+        return suppressedFlaps;
+    }
+
+    /**
+     * @return number of exits that were held until the minimum dwell time was reached
+     */
+    public synchronized long getDeferredExitCount() {
+        return deferredExits;
+    }
+
+    /**
+     * @return number of transitions dropped because they repeated the state of the fence
+     */
+    public synchronized long getDuplicateCount() {
+        return duplicates;
+    }
+
+    /**
+     * Forgets the state of every fence and the pending transitions, keeping the counters.
+     */
+    public synchronized void clear() {
+        Arrays.fill(ids, null);
+        Arrays.fill(states, (byte) 0);
+        Arrays.fill(flaps, 0);
+        Arrays.fill(pending, null);
+        Arrays.fill(pendingDwells, null);
+        fences = 0;
+        queueSize = 0;
+        windowEnd = Long.MIN_VALUE;
+        if (handler != null) {
+            handler.removeCallbacks(flushRunnable);
+        }
+        scheduledFlush = Long.MAX_VALUE;
+    }
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long due;
+            synchronized (TransitionDebouncer.this) {
+                due = scheduledFlush;
+            }
+            // Never flushes earlier than the time it was posted for, the handler clock is not the elapsed one
+            long now = SystemClock.elapsedRealtime();
+            flush(due != Long.MAX_VALUE ? Math.max(now, due) : now);
+        }
+    };
+}
@@ -0,0 +1,230 @@
+package io.nlopez.smartlocation.location;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+/**
+ * Fixed capacity history of the last locations received by the providers. Every field is kept in its own
+ * primitive array inside a ring buffer, so recording a fix or querying the history does not allocate.
+ * <p/>
+ * Indexes go from 0 (oldest) to {@link #size()} - 1 (newest) and are only valid until the next fix is
+ * added; synchronize on the history instance when a query spans several calls. Fixes are kept in time
+ * order, which is what the time queries rely on: a fix older than the newest one (as happens when mixing
+ * GPS and network fixes, or with several providers) is inserted in its place, and dropped if it is older
+ * than every fix of a full history.
+ */
+public class LocationHistory {
+
+    public static final int DEFAULT_CAPACITY = 512;
+
+    private static LocationHistory instance;
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private float[] accuracies;
+    private float[] speeds;
+    private float[] bearings;
+    private long[] times;
+    private int head;
+    private int size;
+
+    public LocationHistory(int capacity) {
+        allocate(capacity);
+    }
+
+    /**
+     * @return history shared by the providers shipped with the library
+     */
+    public static synchronized LocationHistory getInstance() {
+        if (instance == null) {
+            instance = new LocationHistory(DEFAULT_CAPACITY);
+        }
+        return instance;
+    }
+
+    private void allocate(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        accuracies = new float[capacity];
+        speeds = new float[capacity];
+        bearings = new float[capacity];
+        times = new long[capacity];
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Changes the number of fixes kept, discarding the current ones.
+     *
+     * @param capacity max number of fixes kept
+     */
+    public synchronized void setCapacity(int capacity) {
+        allocate(capacity);
+    }
+
+    public synchronized int getCapacity() {
+        return times.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    public void add(@NonNull Location location) {
+        add(location.getLatitude(), location.getLongitude(), location.getAccuracy(), location.getSpeed(),
+                location.getBearing(), location.getTime());
+    }
+
+    public synchronized void add(double latitude, double longitude, float accuracy, float speed, float bearing,
+                                 long time) {
+        int index = size;
+        if (size > 0 && time < times[slot(size - 1)]) {
+            index = indexOfLastAtOrBefore(time) + 1;
+            if (index == 0 && size == times.length) {
+                return;
+            }
+        }
+        if (size == times.length) {
+            head = (head + 1) % times.length;
+            size--;
+            index--;
+        }
+        for (int i = size; i > index; i--) {
+            int to = (head + i) % times.length;
+            int from = (head + i - 1) % times.length;
+            latitudes[to] = latitudes[from];
+            longitudes[to] = longitudes[from];
+            accuracies[to] = accuracies[from];
+            speeds[to] = speeds[from];
+            bearings[to] = bearings[from];
+            times[to] = times[from];
+        }
+        int slot = (head + index) % times.length;
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        accuracies[slot] = accuracy;
+        speeds[slot] = speed;
+        bearings[slot] = bearing;
+        times[slot] = time;
+        size++;
+    }
+
+    public synchronized double getLatitude(int index) {
+        return latitudes[slot(index)];
+    }
+
+    public synchronized double getLongitude(int index) {
+        return longitudes[slot(index)];
+    }
+
+    public synchronized float getAccuracy(int index) {
+        return accuracies[slot(index)];
+    }
+
+    public synchronized float getSpeed(int index) {
+        return speeds[slot(index)];
+    }
+
+    public synchronized float getBearing(int index) {
+        return bearings[slot(index)];
+    }
+
+    public synchronized long getTime(int index) {
+        return times[slot(index)];
+    }
+
+    /**
+     * Copies a fix into an existing location object.
+     *
+     * @param index    index of the fix
+     * @param location location that will be overwritten
+     */
+    public synchronized void copyTo(int index, @NonNull Location location) {
+        int slot = slot(index);
+        location.setLatitude(latitudes[slot]);
+        location.setLongitude(longitudes[slot]);
+        location.setAccuracy(accuracies[slot]);
+        location.setSpeed(speeds[slot]);
+        location.setBearing(bearings[slot]);
+        location.setTime(times[slot]);
+    }
+
+    /**
+     * @param index index of the fix
+     * @return new location with the data of the fix
+     */
+    public Location get(int index) {
+        Location location = new Location(LocationStore.PROVIDER);
+        copyTo(index, location);
+        return location;
+    }
+
+    /**
+     * @param time time in milliseconds, same clock as {@link Location#getTime()}
+     * @return index of the fix closest in time, or -1 if the history is empty
+     */
+    public synchronized int indexOfNearest(long time) {
+        if (size == 0) {
+            return -1;
+        }
+        int index = indexOfFirstAtOrAfter(time);
+        if (index == size) {
+            return size - 1;
+        }
+        if (index > 0 && time - times[slot(index - 1)] <= times[slot(index)] - time) {
+            return index - 1;
+        }
+        return index;
+    }
+
+    /**
+     * @param time time in milliseconds
+     * @return index of the first fix taken at or after the given time, or {@link #size()} if there is none
+     */
+    public synchronized int indexOfFirstAtOrAfter(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[slot(middle)] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param time time in milliseconds
+     * @return index of the last fix taken at or before the given time, or -1 if there is none
+     */
+    public synchronized int indexOfLastAtOrBefore(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[slot(middle)] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + size);
+        }
+        return (head + index) % times.length;
+    }
+}
@@ -0,0 +1,227 @@
+package io.nlopez.smartlocation.location;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import io.nlopez.smartlocation.OnLocationUpdatedListener;
+import io.nlopez.smartlocation.location.config.LocationAccuracy;
+import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.location.filter.LocationFilter;
+import io.nlopez.smartlocation.location.filter.LocationFilters;
+import io.nlopez.smartlocation.location.utils.GeoDistance;
+
+/**
+ * Shares a single provider registration between several listeners, each one with its own params.
+ * <p/>
+ * The provider is started with the most demanding params of all the subscribers (highest accuracy, smallest
+ * interval and distance, and the looper of the first subscriber) and restarted whenever they change. Every
+ * subscriber only receives the fixes that satisfy its own interval and distance, in its own callback
+ * executor, and after running its own filters over a copy of the fix. The provider is stopped when the last
+ * subscriber leaves. Single update subscribers stop receiving fixes after the first one, and are removed
+ * (restarting or stopping the provider if needed) in a later message of the callback looper, never from
+ * inside the provider callback.
+ * <p/>
+ * Starting the provider directly while it has subscribers replaces the shared registration.
+ */
+public class LocationMultiplexer implements OnLocationUpdatedListener {
+
+    // Fixes arriving slightly earlier than the interval of a subscriber are still delivered to it
+    private static final float INTERVAL_TOLERANCE = 0.1f;
+
+    private final LocationProvider provider;
+    private final Map<OnLocationUpdatedListener, Subscription> subscriptions = new LinkedHashMap<>();
+    private volatile Subscription[] snapshot = new Subscription[0];
+    private LocationParams mergedParams;
+
+    public LocationMultiplexer(@NonNull LocationProvider provider) {
+        this.provider = provider;
+    }
+
+    public LocationProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Adds a subscriber, or updates its params if it was already subscribed.
+     *
+     * @param listener     listener for the updates
+     * @param params       params for this listener
+     * @param singleUpdate TRUE for unsubscribing the listener after the first fix delivered
+     */
+    public synchronized void subscribe(@NonNull OnLocationUpdatedListener listener, @NonNull LocationParams params,
+                                       boolean singleUpdate) {
+        subscriptions.put(listener, new Subscription(listener, params, singleUpdate));
+        update();
+    }
+
+    public synchronized void unsubscribe(@NonNull OnLocationUpdatedListener listener) {
+        Subscription subscription = subscriptions.remove(listener);
+        if (subscription != null) {
+            subscription.active = false;
+            update();
+        }
+    }
+
+    private synchronized void remove(List<Subscription> finished) {
+        boolean changed = false;
+        for (Subscription subscription : finished) {
+            if (subscriptions.get(subscription.listener) == subscription) {
+                subscriptions.remove(subscription.listener);
+                changed = true;
+            }
+        }
+        if (changed) {
+            update();
+        }
+    }
+
+    public synchronized int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return params the provider is running with, or null if there are no subscribers
+     */
+    public synchronized LocationParams getMergedParams() {
+        return mergedParams;
+    }
+
+    private void update() {
+        snapshot = subscriptions.values().toArray(new Subscription[subscriptions.size()]);
+        if (subscriptions.isEmpty()) {
+            mergedParams = null;
+            provider.stop();
+            return;
+        }
+        LocationParams params = merge();
+        if (!params.equals(mergedParams)) {
+            mergedParams = params;
+            provider.start(this, params, false);
+        }
+    }
+
+    private LocationParams merge() {
+        LocationAccuracy accuracy = null;
+        long interval = Long.MAX_VALUE;
+        float distance = Float.MAX_VALUE;
+        LocationParams.Builder builder = new LocationParams.Builder();
+        boolean first = true;
+        for (Subscription subscription : subscriptions.values()) {
+            LocationParams params = subscription.params;
+            if (first) {
+                builder.setLooper(params.getLooper());
+                first = false;
+            }
+            if (accuracy == null || (params.getAccuracy() != null && params.getAccuracy().compareTo(accuracy) > 0)) {
+                accuracy = params.getAccuracy();
+            }
+            interval = Math.min(interval, params.getInterval());
+            distance = Math.min(distance, params.getDistance());
+        }
+        return builder.setAccuracy(accuracy).setInterval(interval).setDistance(distance).build();
+    }
+
+    @Override
+    public void onLocationUpdated(Location location) {
+        Subscription[] current = snapshot;
+        List<Subscription> finished = null;
+        for (Subscription subscription : current) {
+            if (subscription.active && !subscription.done && subscription.shouldDeliver(location)) {
+                subscription.deliver(location);
+                if (subscription.singleUpdate && subscription.hasLast) {
+                    subscription.done = true;
+                    if (finished == null) {
+                        finished = new ArrayList<>();
+                    }
+                    finished.add(subscription);
+                }
+            }
+        }
+        if (finished != null) {
+            postRemove(finished);
+        }
+    }
+
+    private void postRemove(final List<Subscription> finished) {
+        Looper looper = Looper.myLooper();
+        new Handler(looper != null ? looper : Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                remove(finished);
+            }
+        });
+    }
+
+    private static class Subscription {
+        private final OnLocationUpdatedListener listener;
+        private final LocationParams params;
+        private final boolean singleUpdate;
+        private final List<LocationFilter> filters;
+        private volatile boolean active = true;
+
+        // Only touched from the provider looper
+        private boolean done;
+        private boolean hasLast;
+        private long lastTime;
+        private double lastLatitude;
+        private double lastLongitude;
+
+        Subscription(OnLocationUpdatedListener listener, LocationParams params, boolean singleUpdate) {
+            this.listener = listener;
+            this.params = params;
+            this.singleUpdate = singleUpdate;
+            filters = LocationFilters.create(params);
+        }
+
+        boolean shouldDeliver(Location location) {
+            if (!hasLast) {
+                return true;
+            }
+            long elapsed = location.getTime() - lastTime;
+            if (elapsed >= 0 && elapsed < params.getInterval() * (1 - INTERVAL_TOLERANCE)) {
+                return false;
+            }
+            return params.getDistance() <= 0 || GeoDistance.meters(lastLatitude, lastLongitude,
+                    location.getLatitude(), location.getLongitude()) >= params.getDistance();
+        }
+
+        void deliver(Location location) {
+            final Location fix;
+            if (filters.isEmpty()) {
+                fix = location;
+            } else {
+                fix = new Location(location);
+                if (!LocationFilters.accept(filters, fix)) {
+                    return;
+                }
+            }
+
+            hasLast = true;
+            lastTime = fix.getTime();
+            lastLatitude = fix.getLatitude();
+            lastLongitude = fix.getLongitude();
+
+            Executor executor = params.getCallbackExecutor();
+            if (executor == null) {
+                listener.onLocationUpdated(fix);
+            } else {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (active) {
+                            listener.onLocationUpdated(fix);
+                        }
+                    }
+                });
+            }
+        }
+    }
+}
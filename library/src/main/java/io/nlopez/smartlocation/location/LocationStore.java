@@ -1,17 +1,34 @@
 package io.nlopez.smartlocation.location;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.location.Location;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
-import io.nlopez.smartlocation.common.Store;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import io.nlopez.smartlocation.common.BatchStore;
+import io.nlopez.smartlocation.common.BinaryFileStore;
+import io.nlopez.smartlocation.common.StoreBackend;
+import io.nlopez.smartlocation.location.utils.BackgroundLooper;
 
 /**
  * Created by mrm on 3/1/15.
  */
-public class LocationStore implements Store<Location> {
+public class LocationStore implements BatchStore<Location> {
 
     public static final String PROVIDER = "LocationStore";
 
@@ -26,10 +43,70 @@ public class LocationStore implements Store<Location> {
     private static final String TIME_ID = "TIME";
     private static final String BEARING_ID = "BEARING";
 
+    private static final String[] FIELDS = {PROVIDER_ID, LATITUDE_ID, LONGITUDE_ID, ACCURACY_ID, ALTITUDE_ID, SPEED_ID,
+            TIME_ID, BEARING_ID};
+    private static final int PROVIDER_KEY = 0;
+    private static final int LATITUDE_KEY = 1;
+    private static final int LONGITUDE_KEY = 2;
+    private static final int ACCURACY_KEY = 3;
+    private static final int ALTITUDE_KEY = 4;
+    private static final int SPEED_KEY = 5;
+    private static final int TIME_KEY = 6;
+    private static final int BEARING_KEY = 7;
+
+    private static final String[] PROVIDER_CODES = {PROVIDER, LocationManager.GPS_PROVIDER,
+            LocationManager.NETWORK_PROVIDER, LocationManager.PASSIVE_PROVIDER, "fused"};
+
+    private static long defaultFlushInterval = 0;
+    private static StoreBackend defaultBackend = StoreBackend.SHARED_PREFERENCES;
+
+    // Stores with a flush interval, flushed when the app goes to background. Weak so that the stores of
+    // providers that are not used anymore can be collected.
+    private static final Map<LocationStore, Boolean> coalescingStores = new WeakHashMap<>();
+    private static boolean trimCallbacksRegistered;
+
+    private final Map<String, String[]> fieldKeys = new HashMap<>();
+    private final Map<String, Location> pending = new HashMap<>();
+    private final Map<String, Location> spareLocations = new HashMap<>();
+    private final Context applicationContext;
     private SharedPreferences preferences;
+    private BinaryFileStore<Location> binaryStore;
+    private boolean migrated;
+    private long flushInterval;
+    private long lastFlush;
+    private boolean flushScheduled;
+    private Handler flushHandler;
 
     public LocationStore(@NonNull Context context) {
+        this(context, defaultBackend);
+    }
+
+    public LocationStore(@NonNull Context context, @NonNull StoreBackend backend) {
         preferences = context.getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
+        applicationContext = context.getApplicationContext();
+        if (backend == StoreBackend.BINARY_FILE) {
+            binaryStore = BinaryFileStore.forFile(new File(context.getFilesDir(), PREFERENCES_FILE + ".bin"), CODEC);
+        }
+        setFlushInterval(defaultFlushInterval);
+    }
+
+    /**
+     * Sets the backend that new stores will use. When switching to {@link StoreBackend#BINARY_FILE}, the
+     * locations saved in SharedPreferences are moved to the binary file the first time the store is used.
+     *
+     * @param backend persistence format, {@link StoreBackend#SHARED_PREFERENCES} by default
+     */
+    public static void setDefaultBackend(@NonNull StoreBackend backend) {
+        defaultBackend = backend;
+    }
+
+    /**
+     * Sets the flush interval that new stores will use. See {@link #setFlushInterval(long)}.
+     *
+     * @param millis minimum time between writes, 0 (default) for writing every location as it comes
+     */
+    public static void setDefaultFlushInterval(long millis) {
+        defaultFlushInterval = millis;
     }
 
     @VisibleForTesting
@@ -37,32 +114,116 @@ public class LocationStore implements Store<Location> {
         this.preferences = preferences;
     }
 
+    /**
+     * Sets the coalescing mode of the store. With a positive interval, the locations are kept in memory and
+     * written at most once per interval (and whenever {@link #flush()} is called or the app goes to background).
+     *
+     * @param millis minimum time between writes, 0 for writing every location as it comes
+     */
+    public void setFlushInterval(long millis) {
+        if (millis <= 0) {
+            unregisterCoalescing(this);
+            flush();
+        } else {
+            registerCoalescing(applicationContext, this);
+        }
+        synchronized (this) {
+            flushInterval = millis;
+        }
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
     @Override
     public void put(String id, Location location) {
-        SharedPreferences.Editor editor = preferences.edit();
-        editor.putString(getFieldKey(id, PROVIDER_ID), location.getProvider());
-        editor.putLong(getFieldKey(id, LATITUDE_ID), Double.doubleToLongBits(location.getLatitude()));
-        editor.putLong(getFieldKey(id, LONGITUDE_ID), Double.doubleToLongBits(location.getLongitude()));
-        editor.putFloat(getFieldKey(id, ACCURACY_ID), location.getAccuracy());
-        editor.putLong(getFieldKey(id, ALTITUDE_ID), Double.doubleToLongBits(location.getAltitude()));
-        editor.putFloat(getFieldKey(id, SPEED_ID), location.getSpeed());
-        editor.putLong(getFieldKey(id, TIME_ID), location.getTime());
-        editor.putFloat(getFieldKey(id, BEARING_ID), location.getBearing());
-        editor.apply();
+        boolean flushNow;
+        synchronized (this) {
+            if (flushInterval <= 0) {
+                flushNow = false;
+            } else {
+                Location copy = pending.get(id);
+                if (copy == null) {
+                    copy = spareLocations.remove(id);
+                }
+                if (copy == null) {
+                    copy = new Location(location);
+                } else {
+                    copy.set(location);
+                }
+                pending.put(id, copy);
+
+                long elapsed = SystemClock.elapsedRealtime() - lastFlush;
+                flushNow = elapsed >= flushInterval;
+                if (!flushNow && !flushScheduled) {
+                    flushScheduled = true;
+                    getFlushHandler().postDelayed(flushRunnable, flushInterval - elapsed);
+                }
+                if (!flushNow) {
+                    return;
+                }
+            }
+        }
+        if (flushNow) {
+            flush();
+        } else {
+            write(id, location);
+        }
     }
 
     @Override
     public Location get(String id) {
-        if (preferences != null && preferences.contains(getFieldKey(id, LATITUDE_ID)) && preferences.contains(
-                getFieldKey(id, LONGITUDE_ID))) {
-            Location location = new Location(preferences.getString(PROVIDER_ID, PROVIDER));
-            location.setLatitude(Double.longBitsToDouble(preferences.getLong(getFieldKey(id, LATITUDE_ID), 0)));
-            location.setLongitude(Double.longBitsToDouble(preferences.getLong(getFieldKey(id, LONGITUDE_ID), 0)));
-            location.setAccuracy(preferences.getFloat(getFieldKey(id, ACCURACY_ID), 0));
-            location.setAltitude(Double.longBitsToDouble(preferences.getLong(getFieldKey(id, ALTITUDE_ID), 0)));
-            location.setSpeed(preferences.getFloat(getFieldKey(id, SPEED_ID), 0));
-            location.setTime(preferences.getLong(getFieldKey(id, TIME_ID), 0));
-            location.setBearing(preferences.getFloat(getFieldKey(id, BEARING_ID), 0));
+        synchronized (this) {
+            Location location = pending.get(id);
+            if (location != null) {
+                return new Location(location);
+            }
+        }
+        if (binaryStore != null) {
+            return getBinaryStore().get(id);
+        }
+        return readPreferences(id);
+    }
+
+    @Override
+    public Map<String, Location> getAll() {
+        Map<String, Location> locations = binaryStore != null ? getBinaryStore().getAll() : readAllPreferences();
+        synchronized (this) {
+            for (Map.Entry<String, Location> entry : pending.entrySet()) {
+                locations.put(entry.getKey(), new Location(entry.getValue()));
+            }
+        }
+        return locations;
+    }
+
+    private Map<String, Location> readAllPreferences() {
+        Map<String, Location> locations = new HashMap<>();
+        String prefix = PREFIX_ID + "_";
+        String suffix = "_" + LATITUDE_ID;
+        for (String key : preferences.getAll().keySet()) {
+            if (key.startsWith(prefix) && key.endsWith(suffix)) {
+                String id = key.substring(prefix.length(), key.length() - suffix.length());
+                Location location = readPreferences(id);
+                if (location != null) {
+                    locations.put(id, location);
+                }
+            }
+        }
+        return locations;
+    }
+
+    private Location readPreferences(String id) {
+        String[] keys = getFieldKeys(id);
+        if (preferences != null && preferences.contains(keys[LATITUDE_KEY]) && preferences.contains(keys[LONGITUDE_KEY])) {
+            Location location = new Location(preferences.getString(keys[PROVIDER_KEY], PROVIDER));
+            location.setLatitude(Double.longBitsToDouble(preferences.getLong(keys[LATITUDE_KEY], 0)));
+            location.setLongitude(Double.longBitsToDouble(preferences.getLong(keys[LONGITUDE_KEY], 0)));
+            location.setAccuracy(preferences.getFloat(keys[ACCURACY_KEY], 0));
+            location.setAltitude(Double.longBitsToDouble(preferences.getLong(keys[ALTITUDE_KEY], 0)));
+            location.setSpeed(preferences.getFloat(keys[SPEED_KEY], 0));
+            location.setTime(preferences.getLong(keys[TIME_KEY], 0));
+            location.setBearing(preferences.getFloat(keys[BEARING_KEY], 0));
             return location;
         } else {
             return null;
@@ -71,20 +232,240 @@ public class LocationStore implements Store<Location> {
 
     @Override
     public void remove(String id) {
+        synchronized (this) {
+            pending.remove(id);
+        }
+        if (binaryStore != null) {
+            getBinaryStore().remove(id);
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        removePreferences(editor, id);
+        editor.apply();
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        synchronized (this) {
+            pending.keySet().removeAll(ids);
+        }
+        if (binaryStore != null) {
+            getBinaryStore().removeAll(ids);
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String id : ids) {
+            removePreferences(editor, id);
+        }
+        editor.apply();
+    }
+
+    private void removePreferences(SharedPreferences.Editor editor, String id) {
+        for (String key : getFieldKeys(id)) {
+            editor.remove(key);
+        }
+    }
+
+    /**
+     * Writes all the given locations at once, skipping the coalescing.
+     */
+    @Override
+    public void putAll(Map<String, Location> locations) {
+        synchronized (this) {
+            pending.keySet().removeAll(locations.keySet());
+        }
+        writeAll(locations);
+    }
+
+    /**
+     * Writes the locations kept in memory, if any.
+     */
+    public void flush() {
+        Map<String, Location> toWrite;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            lastFlush = SystemClock.elapsedRealtime();
+            toWrite = new HashMap<>(pending);
+            pending.clear();
+        }
+        writeAll(toWrite);
+        synchronized (this) {
+            spareLocations.putAll(toWrite);
+        }
+    }
+
+    private void write(String id, Location location) {
+        if (binaryStore != null) {
+            getBinaryStore().put(id, location);
+            return;
+        }
         SharedPreferences.Editor editor = preferences.edit();
-        editor.remove(getFieldKey(id, PROVIDER_ID));
-        editor.remove(getFieldKey(id, LATITUDE_ID));
-        editor.remove(getFieldKey(id, LONGITUDE_ID));
-        editor.remove(getFieldKey(id, ACCURACY_ID));
-        editor.remove(getFieldKey(id, ALTITUDE_ID));
-        editor.remove(getFieldKey(id, SPEED_ID));
-        editor.remove(getFieldKey(id, TIME_ID));
-        editor.remove(getFieldKey(id, BEARING_ID));
+        writePreferences(editor, id, location);
         editor.apply();
     }
 
+    private void writeAll(Map<String, Location> locations) {
+        if (binaryStore != null) {
+            getBinaryStore().putAll(locations);
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        for (Map.Entry<String, Location> entry : locations.entrySet()) {
+            writePreferences(editor, entry.getKey(), entry.getValue());
+        }
+        editor.apply();
+    }
+
+    private void writePreferences(SharedPreferences.Editor editor, String id, Location location) {
+        String[] keys = getFieldKeys(id);
+        editor.putString(keys[PROVIDER_KEY], location.getProvider());
+        editor.putLong(keys[LATITUDE_KEY], Double.doubleToLongBits(location.getLatitude()));
+        editor.putLong(keys[LONGITUDE_KEY], Double.doubleToLongBits(location.getLongitude()));
+        editor.putFloat(keys[ACCURACY_KEY], location.getAccuracy());
+        editor.putLong(keys[ALTITUDE_KEY], Double.doubleToLongBits(location.getAltitude()));
+        editor.putFloat(keys[SPEED_KEY], location.getSpeed());
+        editor.putLong(keys[TIME_KEY], location.getTime());
+        editor.putFloat(keys[BEARING_KEY], location.getBearing());
+    }
+
+    private synchronized BinaryFileStore<Location> getBinaryStore() {
+        if (!migrated) {
+            migrated = true;
+            if (!binaryStore.exists()) {
+                migrate();
+            }
+        }
+        return binaryStore;
+    }
+
+    private void migrate() {
+        Map<String, Location> locations = readAllPreferences();
+        binaryStore.putAll(locations);
+        if (!locations.isEmpty()) {
+            preferences.edit().clear().apply();
+        }
+    }
+
+    private static synchronized void registerCoalescing(Context applicationContext, LocationStore store) {
+        coalescingStores.put(store, Boolean.TRUE);
+        if (!trimCallbacksRegistered && applicationContext != null) {
+            applicationContext.registerComponentCallbacks(TRIM_CALLBACKS);
+            trimCallbacksRegistered = true;
+        }
+    }
+
+    private static synchronized void unregisterCoalescing(LocationStore store) {
+        coalescingStores.remove(store);
+    }
+
+    @VisibleForTesting
+    static synchronized boolean isCoalescing(LocationStore store) {
+        return coalescingStores.containsKey(store);
+    }
+
+    @VisibleForTesting
+    static void flushCoalescingStores() {
+        List<LocationStore> stores;
+        synchronized (LocationStore.class) {
+            stores = new ArrayList<>(coalescingStores.keySet());
+        }
+        for (LocationStore store : stores) {
+            store.flush();
+        }
+    }
+
+    private synchronized Handler getFlushHandler() {
+        if (flushHandler == null) {
+            flushHandler = new Handler(BackgroundLooper.get());
+        }
+        return flushHandler;
+    }
+
+    private synchronized String[] getFieldKeys(String id) {
+        String[] keys = fieldKeys.get(id);
+        if (keys == null) {
+            keys = new String[FIELDS.length];
+            for (int i = 0; i < FIELDS.length; i++) {
+                keys[i] = getFieldKey(id, FIELDS[i]);
+            }
+            fieldKeys.put(id, keys);
+        }
+        return keys;
+    }
+
     private String getFieldKey(String id, String field) {
         return PREFIX_ID + "_" + id + "_" + field;
     }
 
+    private static final BinaryFileStore.Codec<Location> CODEC = new BinaryFileStore.Codec<Location>() {
+        @Override
+        public int getRecordSize() {
+            // provider code, latitude, longitude, altitude, accuracy, speed, bearing, time
+            return 1 + 8 + 8 + 8 + 4 + 4 + 4 + 8;
+        }
+
+        @Override
+        public void write(Location location, ByteBuffer buffer) {
+            byte providerCode = 0;
+            for (int i = 1; i < PROVIDER_CODES.length; i++) {
+                if (PROVIDER_CODES[i].equals(location.getProvider())) {
+                    providerCode = (byte) i;
+                }
+            }
+            buffer.put(providerCode);
+            buffer.putDouble(location.getLatitude());
+            buffer.putDouble(location.getLongitude());
+            buffer.putDouble(location.getAltitude());
+            buffer.putFloat(location.getAccuracy());
+            buffer.putFloat(location.getSpeed());
+            buffer.putFloat(location.getBearing());
+            buffer.putLong(location.getTime());
+        }
+
+        @Override
+        public Location read(String id, ByteBuffer buffer) {
+            int providerCode = buffer.get();
+            Location location = new Location(providerCode > 0 && providerCode < PROVIDER_CODES.length
+                    ? PROVIDER_CODES[providerCode] : PROVIDER);
+            location.setLatitude(buffer.getDouble());
+            location.setLongitude(buffer.getDouble());
+            location.setAltitude(buffer.getDouble());
+            location.setAccuracy(buffer.getFloat());
+            location.setSpeed(buffer.getFloat());
+            location.setBearing(buffer.getFloat());
+            location.setTime(buffer.getLong());
+            return location;
+        }
+    };
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (LocationStore.this) {
+                flushScheduled = false;
+            }
+            flush();
+        }
+    };
+
+    private static final ComponentCallbacks2 TRIM_CALLBACKS = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                flushCoalescingStores();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+
+        }
+
+        @Override
+        public void onLowMemory() {
+            flushCoalescingStores();
+        }
+    };
 }
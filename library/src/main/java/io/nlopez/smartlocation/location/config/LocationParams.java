@@ -1,5 +1,14 @@
 package io.nlopez.smartlocation.location.config;
 
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import io.nlopez.smartlocation.location.filter.LocationFilter;
+
 /**
  * Created by mrm on 2/1/15.
  */
@@ -12,11 +21,18 @@ public class LocationParams {
     private long interval;
     private float distance;
     private LocationAccuracy accuracy;
+    private Looper looper;
+    private Executor callbackExecutor;
+    private List<LocationFilter.Factory> filterFactories;
 
-    LocationParams(LocationAccuracy accuracy, long interval, float distance) {
+    LocationParams(LocationAccuracy accuracy, long interval, float distance, Looper looper, Executor callbackExecutor,
+                   List<LocationFilter.Factory> filterFactories) {
         this.interval = interval;
         this.distance = distance;
         this.accuracy = accuracy;
+        this.looper = looper;
+        this.callbackExecutor = callbackExecutor;
+        this.filterFactories = filterFactories;
     }
 
     public long getInterval() {
@@ -31,6 +47,27 @@ public class LocationParams {
         return accuracy;
     }
 
+    /**
+     * @return looper in which the location updates will be received, or null for the main looper
+     */
+    public Looper getLooper() {
+        return looper;
+    }
+
+    /**
+     * @return executor used for invoking the listener, or null for invoking it directly in the looper thread
+     */
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * @return factories of the filters run over every fix before delivering it, in order
+     */
+    public List<LocationFilter.Factory> getFilterFactories() {
+        return filterFactories;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -38,7 +75,8 @@ public class LocationParams {
 
         LocationParams that = (LocationParams) o;
 
-        return Float.compare(that.distance, distance) == 0 && interval == that.interval && accuracy == that.accuracy;
+        return Float.compare(that.distance, distance) == 0 && interval == that.interval && accuracy == that.accuracy
+                && looper == that.looper && callbackExecutor == that.callbackExecutor && filterFactories.equals(that.filterFactories);
 
     }
 
@@ -47,6 +85,9 @@ public class LocationParams {
         int result = (int) (interval ^ (interval >>> 32));
         result = 31 * result + (distance != +0.0f ? Float.floatToIntBits(distance) : 0);
         result = 31 * result + accuracy.hashCode();
+        result = 31 * result + (looper != null ? looper.hashCode() : 0);
+        result = 31 * result + (callbackExecutor != null ? callbackExecutor.hashCode() : 0);
+        result = 31 * result + filterFactories.hashCode();
         return result;
     }
 
@@ -54,6 +95,9 @@ public class LocationParams {
         private LocationAccuracy accuracy;
         private long interval;
         private float distance;
+        private Looper looper;
+        private Executor callbackExecutor;
+        private final List<LocationFilter.Factory> filterFactories = new ArrayList<>();
 
         public Builder setAccuracy(LocationAccuracy accuracy) {
             this.accuracy = accuracy;
@@ -70,8 +114,48 @@ public class LocationParams {
             return this;
         }
 
+        /**
+         * Sets the looper in which the providers will receive the location updates (and store them). Use
+         * {@link io.nlopez.smartlocation.location.utils.BackgroundLooper#get()} for keeping that work out of
+         * the main thread. Defaults to the main looper.
+         *
+         * @param looper looper for receiving the updates
+         */
+        public Builder setLooper(Looper looper) {
+            this.looper = looper;
+            return this;
+        }
+
+        /**
+         * Sets the executor used for invoking the listener. Use
+         * {@link io.nlopez.smartlocation.location.utils.MainThreadExecutor} for getting the callbacks back in
+         * the main thread when receiving the updates in a background looper. By default the listener is
+         * invoked directly in the looper thread.
+         *
+         * @param callbackExecutor executor for the listener calls
+         */
+        public Builder setCallbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * Adds a filter run over every fix before delivering it to the listener, for example a
+         * {@link io.nlopez.smartlocation.location.filter.KalmanLocationFilter.Factory}. Every provider
+         * creates its own instance of the filter when it starts.
+         *
+         * @param filterFactory factory of the filter to add after the ones already added
+         */
+        public Builder addFilter(LocationFilter.Factory filterFactory) {
+            filterFactories.add(filterFactory);
+            return this;
+        }
+
         public LocationParams build() {
-            return new LocationParams(accuracy, interval, distance);
+            List<LocationFilter.Factory> factoryList = filterFactories.isEmpty()
+                    ? Collections.<LocationFilter.Factory>emptyList()
+                    : Collections.unmodifiableList(new ArrayList<>(filterFactories));
+            return new LocationParams(accuracy, interval, distance, looper, callbackExecutor, factoryList);
         }
     }
 }
@@ -0,0 +1,178 @@
+package io.nlopez.smartlocation.location.filter;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import io.nlopez.smartlocation.location.config.LocationParams;
+
+/**
+ * Smooths latitude and longitude with a constant velocity Kalman filter, weighting every fix by its
+ * accuracy. The accuracy of the fix is replaced by the estimated one.
+ * <p/>
+ * Positions are tracked in meters over a local plane around a reference point, which moves along with the
+ * user. Both axes share the same covariance since the measurement noise is isotropic, so the whole state is
+ * kept in a few fields and filtering a fix does not allocate.
+ */
+public class KalmanLocationFilter implements LocationFilter {
+
+    public static final double DEFAULT_ACCELERATION_NOISE = 1;
+
+    private static final double METERS_PER_DEGREE = 111319.49;
+    private static final double MIN_ACCURACY = 1;
+    private static final double INITIAL_VELOCITY_VARIANCE = 100;
+    private static final double MAX_REFERENCE_DISTANCE = 10000;
+    private static final long MAX_TIME_GAP = 60 * 1000;
+
+    private final double accelerationVariance;
+
+    private boolean initialized;
+    private long lastTime;
+    private double referenceLatitude;
+    private double referenceLongitude;
+    private double metersPerDegreeLongitude;
+
+    // State: position and velocity in meters for both axes
+    private double x;
+    private double y;
+    private double velocityX;
+    private double velocityY;
+
+    // Covariance shared by both axes: [[p00, p01], [p01, p11]]
+    private double p00;
+    private double p01;
+    private double p11;
+
+    public KalmanLocationFilter() {
+        this(DEFAULT_ACCELERATION_NOISE);
+    }
+
+    /**
+     * @param accelerationNoise standard deviation of the acceleration in m/s2, higher values follow the fixes
+     *                          more closely
+     */
+    public KalmanLocationFilter(double accelerationNoise) {
+        if (accelerationNoise <= 0) {
+            throw new IllegalArgumentException("accelerationNoise must be positive");
+        }
+        this.accelerationVariance = accelerationNoise * accelerationNoise;
+    }
+
+    @Override
+    public void reset(@NonNull LocationParams params) {
+        initialized = false;
+    }
+
+    @Override
+    public boolean accept(@NonNull Location location) {
+        double accuracy = Math.max(MIN_ACCURACY, location.hasAccuracy() ? location.getAccuracy() : MIN_ACCURACY);
+        double variance = accuracy * accuracy;
+        long time = location.getTime();
+
+        if (!initialized || time < lastTime || time - lastTime > MAX_TIME_GAP) {
+            initialize(location, variance);
+            return true;
+        }
+
+        predict((time - lastTime) / 1000.0);
+        lastTime = time;
+
+        double measuredX = (location.getLongitude() - referenceLongitude) * metersPerDegreeLongitude;
+        double measuredY = (location.getLatitude() - referenceLatitude) * METERS_PER_DEGREE;
+        update(measuredX, measuredY, variance);
+
+        location.setLatitude(referenceLatitude + y / METERS_PER_DEGREE);
+        location.setLongitude(referenceLongitude + x / metersPerDegreeLongitude);
+        location.setAccuracy((float) Math.sqrt(p00));
+
+        if (Math.abs(x) > MAX_REFERENCE_DISTANCE || Math.abs(y) > MAX_REFERENCE_DISTANCE) {
+            setReference(location.getLatitude(), location.getLongitude());
+            x = 0;
+            y = 0;
+        }
+        return true;
+    }
+
+    private void initialize(Location location, double variance) {
+        initialized = true;
+        lastTime = location.getTime();
+        setReference(location.getLatitude(), location.getLongitude());
+        x = 0;
+        y = 0;
+        velocityX = 0;
+        velocityY = 0;
+        p00 = variance;
+        p01 = 0;
+        p11 = INITIAL_VELOCITY_VARIANCE;
+    }
+
+    private void setReference(double latitude, double longitude) {
+        referenceLatitude = latitude;
+        referenceLongitude = longitude;
+        metersPerDegreeLongitude = Math.max(1, METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+    }
+
+    private void predict(double dt) {
+        x += velocityX * dt;
+        y += velocityY * dt;
+
+        double dt2 = dt * dt;
+        p00 += 2 * dt * p01 + dt2 * p11 + accelerationVariance * dt2 * dt2 / 4;
+        p01 += dt * p11 + accelerationVariance * dt2 * dt / 2;
+        p11 += accelerationVariance * dt2;
+    }
+
+    private void update(double measuredX, double measuredY, double variance) {
+        double s = p00 + variance;
+        double gainPosition = p00 / s;
+        double gainVelocity = p01 / s;
+
+        double innovationX = measuredX - x;
+        double innovationY = measuredY - y;
+        x += gainPosition * innovationX;
+        y += gainPosition * innovationY;
+        velocityX += gainVelocity * innovationX;
+        velocityY += gainVelocity * innovationY;
+
+        p11 -= gainVelocity * p01;
+        p01 -= gainPosition * p01;
+        p00 -= gainPosition * p00;
+    }
+
+    /**
+     * Creates a new filter for every provider start. Factories with the same acceleration noise are equal.
+     */
+    public static class Factory implements LocationFilter.Factory {
+        private final double accelerationNoise;
+
+        public Factory() {
+            this(DEFAULT_ACCELERATION_NOISE);
+        }
+
+        /**
+         * @param accelerationNoise see {@link KalmanLocationFilter#KalmanLocationFilter(double)}
+         */
+        public Factory(double accelerationNoise) {
+            if (accelerationNoise <= 0) {
+                throw new IllegalArgumentException("accelerationNoise must be positive");
+            }
+            this.accelerationNoise = accelerationNoise;
+        }
+
+        @NonNull
+        @Override
+        public LocationFilter create() {
+            return new KalmanLocationFilter(accelerationNoise);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Factory && Double.compare(((Factory) o).accelerationNoise, accelerationNoise) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(accelerationNoise);
+            return (int) (bits ^ (bits >>> 32));
+        }
+    }
+}
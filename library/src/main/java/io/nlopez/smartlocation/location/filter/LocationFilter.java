@@ -0,0 +1,41 @@
+package io.nlopez.smartlocation.location.filter;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import io.nlopez.smartlocation.location.config.LocationParams;
+
+/**
+ * Stage run by the providers over every fix before delivering it to the listener (and storing it). Filters
+ * are added to the params through their {@link Factory} with {@link LocationParams.Builder#addFilter(Factory)}
+ * and run in the order they were added.
+ * <p/>
+ * Filters keep state between fixes, so the providers create their own instances every time they start and
+ * the same params can be shared between providers.
+ */
+public interface LocationFilter {
+
+    /**
+     * Called when the provider starts, before any fix is filtered.
+     *
+     * @param params params the provider was started with
+     */
+    void reset(@NonNull LocationParams params);
+
+    /**
+     * Filters a fix. The location can be modified in place.
+     *
+     * @param location fix received by the provider
+     * @return TRUE for delivering the fix, FALSE for dropping it
+     */
+    boolean accept(@NonNull Location location);
+
+    /**
+     * Creates the filter instances used by the providers. Kept in {@link LocationParams}, so it should not
+     * hold the state of the filters.
+     */
+    interface Factory {
+        @NonNull
+        LocationFilter create();
+    }
+}
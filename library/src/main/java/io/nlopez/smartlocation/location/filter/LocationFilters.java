@@ -0,0 +1,48 @@
+package io.nlopez.smartlocation.location.filter;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.nlopez.smartlocation.location.config.LocationParams;
+
+/**
+ * Helpers for running the filters of {@link LocationParams} in the providers.
+ */
+public class LocationFilters {
+
+    private LocationFilters() {
+    }
+
+    /**
+     * @return new instances of the filters of the params, already reset
+     */
+    public static List<LocationFilter> create(@NonNull LocationParams params) {
+        List<LocationFilter.Factory> factories = params.getFilterFactories();
+        if (factories.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<LocationFilter> filters = new ArrayList<>(factories.size());
+        for (int i = 0; i < factories.size(); i++) {
+            LocationFilter filter = factories.get(i).create();
+            filter.reset(params);
+            filters.add(filter);
+        }
+        return filters;
+    }
+
+    /**
+     * @return TRUE if every filter accepted the location, FALSE as soon as one drops it
+     */
+    public static boolean accept(@NonNull List<LocationFilter> filters, @NonNull Location location) {
+        for (int i = 0; i < filters.size(); i++) {
+            if (!filters.get(i).accept(location)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
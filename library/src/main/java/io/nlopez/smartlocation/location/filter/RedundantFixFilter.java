@@ -0,0 +1,148 @@
+package io.nlopez.smartlocation.location.filter;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.location.utils.GeoDistance;
+
+/**
+ * Drops fixes that don't add anything to the last one delivered: fixes received before the interval of the
+ * params has elapsed, that moved less than the distance of the params (or the accuracy radius of the last
+ * fix, if bigger) and whose accuracy did not improve materially.
+ * <p/>
+ * Counts the fixes delivered and suppressed since it was created, which can be read from any thread. The
+ * {@link Factory} added to the params also counts the ones of all the filters it created.
+ */
+public class RedundantFixFilter implements LocationFilter {
+
+    public static final float DEFAULT_ACCURACY_IMPROVEMENT = 0.25f;
+
+    private final float accuracyImprovement;
+    private final Factory factory;
+
+    private long interval;
+    private float distance;
+
+    private boolean hasLast;
+    private double lastLatitude;
+    private double lastLongitude;
+    private float lastAccuracy;
+    private long lastTime;
+
+    private volatile long delivered;
+    private volatile long suppressed;
+
+    public RedundantFixFilter() {
+        this(DEFAULT_ACCURACY_IMPROVEMENT);
+    }
+
+    /**
+     * @param accuracyImprovement fraction by which the accuracy radius has to shrink for delivering a fix
+     *                            that would be dropped otherwise
+     */
+    public RedundantFixFilter(float accuracyImprovement) {
+        this(accuracyImprovement, null);
+    }
+
+    private RedundantFixFilter(float accuracyImprovement, Factory factory) {
+        checkAccuracyImprovement(accuracyImprovement);
+        this.accuracyImprovement = accuracyImprovement;
+        this.factory = factory;
+    }
+
+    private static void checkAccuracyImprovement(float accuracyImprovement) {
+        if (accuracyImprovement < 0 || accuracyImprovement >= 1) {
+            throw new IllegalArgumentException("accuracyImprovement must be between 0 and 1");
+        }
+    }
+
+    @Override
+    public void reset(@NonNull LocationParams params) {
+        interval = params.getInterval();
+        distance = params.getDistance();
+        hasLast = false;
+    }
+
+    @Override
+    public boolean accept(@NonNull Location location) {
+        float accuracy = location.hasAccuracy() ? location.getAccuracy() : 0;
+        if (hasLast && isRedundant(location, accuracy)) {
+            suppressed++;
+            if (factory != null) {
+                factory.suppressed.incrementAndGet();
+            }
+            return false;
+        }
+
+        hasLast = true;
+        lastLatitude = location.getLatitude();
+        lastLongitude = location.getLongitude();
+        lastAccuracy = accuracy;
+        lastTime = location.getTime();
+        delivered++;
+        if (factory != null) {
+            factory.delivered.incrementAndGet();
+        }
+        return true;
+    }
+
+    private boolean isRedundant(Location location, float accuracy) {
+        long elapsed = location.getTime() - lastTime;
+        if (elapsed < 0 || elapsed >= interval) {
+            return false;
+        }
+        if (accuracy > 0 && accuracy < lastAccuracy * (1 - accuracyImprovement)) {
+            return false;
+        }
+        double moved = GeoDistance.meters(lastLatitude, lastLongitude, location.getLatitude(),
+                location.getLongitude());
+        return moved <= Math.max(distance, lastAccuracy);
+    }
+
+    public long getDeliveredCount() {
+        return delivered;
+    }
+
+    public long getSuppressedCount() {
+        return suppressed;
+    }
+
+    /**
+     * Creates a new filter for every provider start, counting the fixes delivered and suppressed by all of
+     * them.
+     */
+    public static class Factory implements LocationFilter.Factory {
+        private final float accuracyImprovement;
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong suppressed = new AtomicLong();
+
+        public Factory() {
+            this(DEFAULT_ACCURACY_IMPROVEMENT);
+        }
+
+        /**
+         * @param accuracyImprovement see {@link RedundantFixFilter#RedundantFixFilter(float)}
+         */
+        public Factory(float accuracyImprovement) {
+            checkAccuracyImprovement(accuracyImprovement);
+            this.accuracyImprovement = accuracyImprovement;
+        }
+
+        @NonNull
+        @Override
+        public LocationFilter create() {
+            return new RedundantFixFilter(accuracyImprovement, this);
+        }
+
+        public long getDeliveredCount() {
+            return delivered.get();
+        }
+
+        public long getSuppressedCount() {
+            return suppressed.get();
+        }
+    }
+}
@@ -22,10 +22,18 @@ import com.google.android.gms.location.LocationSettingsRequest;
 import com.google.android.gms.location.LocationSettingsResult;
 import com.google.android.gms.location.LocationSettingsStatusCodes;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
 import io.nlopez.smartlocation.OnLocationUpdatedListener;
+import io.nlopez.smartlocation.location.LocationHistory;
 import io.nlopez.smartlocation.location.LocationStore;
 import io.nlopez.smartlocation.location.ServiceLocationProvider;
 import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.location.filter.LocationFilter;
+import io.nlopez.smartlocation.location.filter.LocationFilters;
+import io.nlopez.smartlocation.utils.GoogleApiClientPool;
 import io.nlopez.smartlocation.utils.GooglePlayServicesListener;
 import io.nlopez.smartlocation.utils.Logger;
 import io.nlopez.smartlocation.utils.ServiceConnectionListener;
@@ -46,6 +54,9 @@ public class LocationGooglePlayServicesProvider implements ServiceLocationProvid
     private boolean stopped = false;
     private LocationStore locationStore;
     private LocationRequest locationRequest;
+    private Looper looper;
+    private Executor callbackExecutor;
+    private List<LocationFilter> filters = Collections.emptyList();
     private Context context;
     private GooglePlayServicesListener googlePlayServicesListener;
     private ServiceConnectionListener serviceListener;
@@ -76,18 +87,16 @@ public class LocationGooglePlayServicesProvider implements ServiceLocationProvid
         locationStore = new LocationStore(context);
 
         if (!shouldStart) {
-            this.client = new GoogleApiClient.Builder(context)
-                    .addApi(LocationServices.API)
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    .build();
-
-            client.connect();
+            acquireClient();
         } else {
             logger.d("already started");
         }
     }
 
+    private void acquireClient() {
+        client = GoogleApiClientPool.getInstance().acquire(context, this, this, LocationServices.API);
+    }
+
     private LocationRequest createRequest(LocationParams params, boolean singleUpdate) {
         LocationRequest request = LocationRequest.create()
                 .setFastestInterval(params.getInterval())
@@ -123,13 +132,16 @@ public class LocationGooglePlayServicesProvider implements ServiceLocationProvid
             logger.d("Listener is null, you sure about this?");
         }
         locationRequest = createRequest(params, singleUpdate);
+        looper = params.getLooper() != null ? params.getLooper() : Looper.getMainLooper();
+        callbackExecutor = params.getCallbackExecutor();
+        filters = LocationFilters.create(params);
 
-        if (client.isConnected()) {
-            startUpdating(locationRequest);
-        } else if (stopped) {
+        if (stopped) {
             shouldStart = true;
-            client.connect();
+            acquireClient();
             stopped = false;
+        } else if (client.isConnected()) {
+            startUpdating(locationRequest);
         } else {
             shouldStart = true;
             logger.d("still not connected - scheduled start when connection is ok");
@@ -155,7 +167,7 @@ public class LocationGooglePlayServicesProvider implements ServiceLocationProvid
                 return;
             }
 
-            LocationServices.FusedLocationApi.requestLocationUpdates(client, request, this, Looper.getMainLooper()).setResultCallback(this);
+            LocationServices.FusedLocationApi.requestLocationUpdates(client, request, this, looper).setResultCallback(this);
         } else {
             logger.w("startUpdating executed without the GoogleApiClient being connected!!");
         }
@@ -171,7 +183,12 @@ public class LocationGooglePlayServicesProvider implements ServiceLocationProvid
         logger.d("stop");
         if (client.isConnected()) {
             LocationServices.FusedLocationApi.removeLocationUpdates(client, this);
-            client.disconnect();
+        }
+        if (!stopped && client != null) {
+            GoogleApiClientPool.getInstance().release(client, this, this);
+        }
+        if (locationStore != null) {
+            locationStore.flush();
         }
         fulfilledCheckLocationSettings = false;
         shouldStart = false;
@@ -253,17 +270,37 @@ public class LocationGooglePlayServicesProvider implements ServiceLocationProvid
     @Override
     public void onLocationChanged(Location location) {
         logger.d("onLocationChanged", location);
-
-        if (listener != null) {
-            listener.onLocationUpdated(location);
+        if (!LocationFilters.accept(filters, location)) {
+            logger.d("Location filtered out");
+            return;
         }
 
+        notifyListener(location);
+        LocationHistory.getInstance().add(location);
+
         if (locationStore != null) {
             logger.d("Stored in SharedPreferences");
             locationStore.put(GMS_ID, location);
         }
     }
 
+    private void notifyListener(final Location location) {
+        final OnLocationUpdatedListener currentListener = listener;
+        if (currentListener == null) {
+            return;
+        }
+        if (callbackExecutor == null) {
+            currentListener.onLocationUpdated(location);
+        } else {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    currentListener.onLocationUpdated(location);
+                }
+            });
+        }
+    }
+
     @Override
     public void onResult(Status status) {
         if (status.isSuccess()) {
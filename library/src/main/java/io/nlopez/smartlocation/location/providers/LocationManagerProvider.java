@@ -11,11 +11,18 @@ import android.os.Bundle;
 import android.os.Looper;
 import android.support.v4.app.ActivityCompat;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
 import io.nlopez.smartlocation.OnLocationUpdatedListener;
 import io.nlopez.smartlocation.location.LocationProvider;
+import io.nlopez.smartlocation.location.LocationHistory;
 import io.nlopez.smartlocation.location.LocationStore;
 import io.nlopez.smartlocation.location.config.LocationAccuracy;
 import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.location.filter.LocationFilter;
+import io.nlopez.smartlocation.location.filter.LocationFilters;
 import io.nlopez.smartlocation.utils.Logger;
 
 /**
@@ -26,6 +33,8 @@ public class LocationManagerProvider implements LocationProvider, LocationListen
 
     private LocationManager locationManager;
     private OnLocationUpdatedListener listener;
+    private Executor callbackExecutor;
+    private List<LocationFilter> filters = Collections.emptyList();
     private LocationStore locationStore;
     private Logger logger;
     private Context mContext;
@@ -47,6 +56,9 @@ public class LocationManagerProvider implements LocationProvider, LocationListen
         }
 
         Criteria criteria = getProvider(params);
+        Looper looper = params.getLooper() != null ? params.getLooper() : Looper.getMainLooper();
+        callbackExecutor = params.getCallbackExecutor();
+        filters = LocationFilters.create(params);
 
         if (singleUpdate) {
             if (ActivityCompat.checkSelfPermission(mContext, Manifest.permission.ACCESS_FINE_LOCATION)
@@ -60,15 +72,18 @@ public class LocationManagerProvider implements LocationProvider, LocationListen
 
                 return;
             }
-            locationManager.requestSingleUpdate(criteria, this, Looper.getMainLooper());
+            locationManager.requestSingleUpdate(criteria, this, looper);
         } else {
             locationManager.requestLocationUpdates(
-                    params.getInterval(), params.getDistance(), criteria, this, Looper.getMainLooper());
+                    params.getInterval(), params.getDistance(), criteria, this, looper);
         }
     }
 
     @Override
     public void stop() {
+        if (locationStore != null) {
+            locationStore.flush();
+        }
         if (ActivityCompat.checkSelfPermission(mContext, Manifest.permission.ACCESS_FINE_LOCATION)
                 != PackageManager.PERMISSION_GRANTED && ActivityCompat.checkSelfPermission(mContext,
                 Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
@@ -150,15 +165,35 @@ public class LocationManagerProvider implements LocationProvider, LocationListen
     @Override
     public void onLocationChanged(Location location) {
         logger.d("onLocationChanged", location);
-        if (listener != null) {
-            listener.onLocationUpdated(location);
+        if (!LocationFilters.accept(filters, location)) {
+            logger.d("Location filtered out");
+            return;
         }
+        notifyListener(location);
+        LocationHistory.getInstance().add(location);
         if (locationStore != null) {
             logger.d("Stored in SharedPreferences");
             locationStore.put(LOCATIONMANAGERPROVIDER_ID, location);
         }
     }
 
+    private void notifyListener(final Location location) {
+        final OnLocationUpdatedListener currentListener = listener;
+        if (currentListener == null) {
+            return;
+        }
+        if (callbackExecutor == null) {
+            currentListener.onLocationUpdated(location);
+        } else {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    currentListener.onLocationUpdated(location);
+                }
+            });
+        }
+    }
+
     @Override
     public void onStatusChanged(String provider, int status, Bundle extras) {
 
@@ -0,0 +1,315 @@
+package io.nlopez.smartlocation.location.track;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact encoding for sequences of locations, meant for storing and exporting tracks.
+ * <p/>
+ * Coordinates are quantised to a number of decimal digits and written as the difference with the previous
+ * fix, and times as the difference between consecutive time deltas (so fixes taken at a regular interval
+ * take a single byte). Every value is written as a zig-zag varint. Accuracy, altitude, speed and bearing are
+ * optional and quantised to meters, meters, tenths of m/s and degrees. A typical driving trace at 1Hz takes
+ * around 4 bytes per fix with the default settings.
+ * <p/>
+ * The stream starts with a header holding the version, the precision and the optional fields included, so
+ * a {@link Decoder} only needs the stream.
+ */
+public class TrackCodec {
+
+    public static final int DEFAULT_PRECISION = 5;
+    public static final int MAX_PRECISION = 7;
+    public static final String PROVIDER = "track";
+
+    private static final int VERSION = 1;
+    private static final int FLAG_ACCURACY = 1;
+    private static final int FLAG_ALTITUDE = 1 << 1;
+    private static final int FLAG_SPEED = 1 << 2;
+    private static final int FLAG_BEARING = 1 << 3;
+
+    // Max size of an encoded fix: 4 varlongs (time, latitude, longitude, altitude) plus 3 varints
+    private static final int MAX_FIX_SIZE = 4 * 10 + 3 * 5;
+
+    private final int precision;
+    private final int flags;
+
+    TrackCodec(int precision, int flags) {
+        this.precision = precision;
+        this.flags = flags;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public Encoder newEncoder(@NonNull OutputStream output) throws IOException {
+        return new Encoder(output, precision, flags);
+    }
+
+    public static Decoder newDecoder(@NonNull InputStream input) throws IOException {
+        return new Decoder(input);
+    }
+
+    public byte[] encode(@NonNull List<Location> locations) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(locations.size() * 8 + 3);
+        try {
+            Encoder encoder = newEncoder(output);
+            for (Location location : locations) {
+                encoder.write(location);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return output.toByteArray();
+    }
+
+    public static List<Location> decode(@NonNull byte[] data) throws IOException {
+        List<Location> locations = new ArrayList<>();
+        Decoder decoder = newDecoder(new ByteArrayInputStream(data));
+        Location location = new Location(PROVIDER);
+        while (decoder.read(location)) {
+            locations.add(location);
+            location = new Location(PROVIDER);
+        }
+        return locations;
+    }
+
+    private static double scale(int precision) {
+        double scale = 1;
+        for (int i = 0; i < precision; i++) {
+            scale *= 10;
+        }
+        return scale;
+    }
+
+    /**
+     * Writes locations to a stream. Not thread safe.
+     */
+    public static class Encoder {
+        private final OutputStream output;
+        private final int flags;
+        private final double scale;
+        private final byte[] scratch = new byte[MAX_FIX_SIZE];
+
+        private int position;
+        private long previousTime;
+        private long previousTimeDelta;
+        private long previousLatitude;
+        private long previousLongitude;
+        private long previousAltitude;
+
+        Encoder(OutputStream output, int precision, int flags) throws IOException {
+            this.output = output;
+            this.flags = flags;
+            this.scale = scale(precision);
+            output.write(VERSION);
+            output.write(precision);
+            output.write(flags);
+        }
+
+        public void write(@NonNull Location location) throws IOException {
+            position = 0;
+
+            long timeDelta = location.getTime() - previousTime;
+            writeSigned(timeDelta - previousTimeDelta);
+            previousTime = location.getTime();
+            previousTimeDelta = timeDelta;
+
+            long latitude = Math.round(location.getLatitude() * scale);
+            long longitude = Math.round(location.getLongitude() * scale);
+            writeSigned(latitude - previousLatitude);
+            writeSigned(longitude - previousLongitude);
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+
+            if ((flags & FLAG_ACCURACY) != 0) {
+                writeUnsigned(Math.max(0, Math.round(location.getAccuracy())));
+            }
+            if ((flags & FLAG_ALTITUDE) != 0) {
+                long altitude = Math.round(location.getAltitude());
+                writeSigned(altitude - previousAltitude);
+                previousAltitude = altitude;
+            }
+            if ((flags & FLAG_SPEED) != 0) {
+                writeUnsigned(Math.max(0, Math.round(location.getSpeed() * 10)));
+            }
+            if ((flags & FLAG_BEARING) != 0) {
+                writeUnsigned((Math.round(location.getBearing()) % 360 + 360) % 360);
+            }
+
+            output.write(scratch, 0, position);
+        }
+
+        private void writeSigned(long value) {
+            writeUnsigned((value << 1) ^ (value >> 63));
+        }
+
+        private void writeUnsigned(long value) {
+            while ((value & ~0x7FL) != 0) {
+                scratch[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            scratch[position++] = (byte) value;
+        }
+    }
+
+    /**
+     * Reads locations from a stream written by an {@link Encoder}. Not thread safe.
+     */
+    public static class Decoder {
+        private static final int BUFFER_SIZE = 4096;
+
+        private final InputStream input;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private final int flags;
+        private final double scale;
+
+        private int position;
+        private int limit;
+        private long previousTime;
+        private long previousTimeDelta;
+        private long previousLatitude;
+        private long previousLongitude;
+        private long previousAltitude;
+
+        Decoder(InputStream input) throws IOException {
+            this.input = input;
+            if (readByte() != VERSION) {
+                throw new IOException("Unknown track encoding");
+            }
+            int precision = readByte();
+            if (precision < 0 || precision > MAX_PRECISION) {
+                throw new IOException("Invalid precision " + precision);
+            }
+            scale = scale(precision);
+            flags = readByte();
+        }
+
+        /**
+         * Reads the next fix.
+         *
+         * @param location location that will be overwritten with the fix
+         * @return TRUE if a fix was read, FALSE if the end of the stream was reached
+         */
+        public boolean read(@NonNull Location location) throws IOException {
+            if (position == limit && !refill()) {
+                return false;
+            }
+
+            long timeDelta = previousTimeDelta + readSigned();
+            previousTime += timeDelta;
+            previousTimeDelta = timeDelta;
+            location.setTime(previousTime);
+
+            previousLatitude += readSigned();
+            previousLongitude += readSigned();
+            location.setLatitude(previousLatitude / scale);
+            location.setLongitude(previousLongitude / scale);
+
+            if ((flags & FLAG_ACCURACY) != 0) {
+                location.setAccuracy(readUnsigned());
+            }
+            if ((flags & FLAG_ALTITUDE) != 0) {
+                previousAltitude += readSigned();
+                location.setAltitude(previousAltitude);
+            }
+            if ((flags & FLAG_SPEED) != 0) {
+                location.setSpeed(readUnsigned() / 10f);
+            }
+            if ((flags & FLAG_BEARING) != 0) {
+                location.setBearing(readUnsigned());
+            }
+            return true;
+        }
+
+        private boolean refill() throws IOException {
+            int read = input.read(buffer);
+            while (read == 0) {
+                read = input.read(buffer);
+            }
+            if (read < 0) {
+                return false;
+            }
+            position = 0;
+            limit = read;
+            return true;
+        }
+
+        private int readByte() throws IOException {
+            if (position == limit && !refill()) {
+                throw new EOFException("Truncated track");
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        private long readSigned() throws IOException {
+            long value = readUnsigned();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readUnsigned() throws IOException {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (shift > 63) {
+                    throw new IOException("Malformed varint");
+                }
+                b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+
+    public static class Builder {
+        private int precision = DEFAULT_PRECISION;
+        private int flags = FLAG_ACCURACY;
+
+        /**
+         * @param precision number of decimal digits kept for latitude and longitude, 5 is about a meter
+         */
+        public Builder setPrecision(int precision) {
+            if (precision < 0 || precision > MAX_PRECISION) {
+                throw new IllegalArgumentException("precision must be between 0 and " + MAX_PRECISION);
+            }
+            this.precision = precision;
+            return this;
+        }
+
+        public Builder setAccuracy(boolean enabled) {
+            return setFlag(FLAG_ACCURACY, enabled);
+        }
+
+        public Builder setAltitude(boolean enabled) {
+            return setFlag(FLAG_ALTITUDE, enabled);
+        }
+
+        public Builder setSpeed(boolean enabled) {
+            return setFlag(FLAG_SPEED, enabled);
+        }
+
+        public Builder setBearing(boolean enabled) {
+            return setFlag(FLAG_BEARING, enabled);
+        }
+
+        private Builder setFlag(int flag, boolean enabled) {
+            flags = enabled ? flags | flag : flags & ~flag;
+            return this;
+        }
+
+        public TrackCodec build() {
+            return new TrackCodec(precision, flags);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package io.nlopez.smartlocation.location.track;
+
+import android.location.Location;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Binary layout shared by {@link TrackRecorder} and {@link TrackReader}.
+ * <p/>
+ * Every segment starts with a header (magic, version and record size) followed by fixed size records (big
+ * endian): time (long), latitude, longitude and altitude (double), accuracy, speed and bearing (float) and
+ * the CRC32 of all the previous bytes of the record.
+ */
+final class TrackFormat {
+
+    static final int MAGIC = 0x534c5452; // SLTR
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int PAYLOAD_SIZE = 44;
+    static final int RECORD_SIZE = PAYLOAD_SIZE + 4;
+
+    static final String SEGMENT_SUFFIX = ".trk";
+
+    private TrackFormat() {
+    }
+
+    static File segmentFile(File directory, int index) {
+        return new File(directory, String.format(Locale.US, "%08d", index) + SEGMENT_SUFFIX);
+    }
+
+    static int segmentIndex(File segment) {
+        String name = segment.getName();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return segments in the directory, sorted from oldest to newest
+     */
+    static File[] listSegments(File directory) {
+        File[] segments = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX) && segmentIndex(file) >= 0;
+            }
+        });
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    static void writeHeader(ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) RECORD_SIZE);
+    }
+
+    static boolean readHeader(ByteBuffer buffer) {
+        return buffer.getInt() == MAGIC && buffer.getShort() == VERSION && buffer.getShort() == RECORD_SIZE;
+    }
+
+    /**
+     * Writes a record in the current position of a heap buffer.
+     */
+    static void writeRecord(ByteBuffer buffer, CRC32 crc, Location location) {
+        int start = buffer.position();
+        buffer.putLong(location.getTime());
+        buffer.putDouble(location.getLatitude());
+        buffer.putDouble(location.getLongitude());
+        buffer.putDouble(location.getAltitude());
+        buffer.putFloat(location.getAccuracy());
+        buffer.putFloat(location.getSpeed());
+        buffer.putFloat(location.getBearing());
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, PAYLOAD_SIZE);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * @return TRUE if the record in the current position of the heap buffer is intact, without moving it
+     */
+    static boolean isValidRecord(ByteBuffer buffer, CRC32 crc) {
+        int start = buffer.position();
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, PAYLOAD_SIZE);
+        return buffer.getInt(start + PAYLOAD_SIZE) == (int) crc.getValue();
+    }
+
+    /**
+     * Reads the record in the current position of the buffer into the given location.
+     */
+    static void readRecord(ByteBuffer buffer, Location location) {
+        location.setTime(buffer.getLong());
+        location.setLatitude(buffer.getDouble());
+        location.setLongitude(buffer.getDouble());
+        location.setAltitude(buffer.getDouble());
+        location.setAccuracy(buffer.getFloat());
+        location.setSpeed(buffer.getFloat());
+        location.setBearing(buffer.getFloat());
+        buffer.getInt();
+    }
+
+    /**
+     * Reads from the channel until the buffer is full or the end of the file is reached.
+     */
+    static void fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Scans a segment, checking every record.
+     *
+     * @return length of the segment up to the end of the last intact record, or 0 if its header is not valid
+     */
+    static long validLength(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+        channel.position(0);
+        buffer.clear();
+        buffer.limit(HEADER_SIZE);
+        fill(channel, buffer);
+        buffer.flip();
+        if (buffer.remaining() < HEADER_SIZE || !readHeader(buffer)) {
+            return 0;
+        }
+        long length = HEADER_SIZE;
+        buffer.clear();
+        while (true) {
+            fill(channel, buffer);
+            buffer.flip();
+            if (buffer.remaining() < RECORD_SIZE) {
+                return length;
+            }
+            while (buffer.remaining() >= RECORD_SIZE) {
+                if (!isValidRecord(buffer, crc)) {
+                    return length;
+                }
+                buffer.position(buffer.position() + RECORD_SIZE);
+                length += RECORD_SIZE;
+            }
+            buffer.compact();
+        }
+    }
+}
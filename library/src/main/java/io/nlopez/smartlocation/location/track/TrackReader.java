@@ -0,0 +1,94 @@
+package io.nlopez.smartlocation.location.track;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Streams the fixes of a track written by {@link TrackRecorder}, from oldest to newest. Only a small buffer
+ * of records is kept in memory, and the fixes are copied into a location supplied by the caller, so reading
+ * a track does not allocate per fix.
+ * <p/>
+ * Reading a segment stops at the first torn or corrupted record.
+ */
+public class TrackReader implements Closeable {
+
+    private static final int BUFFER_RECORDS = 256;
+
+    private final File[] segments;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_RECORDS * TrackFormat.RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private int nextSegment;
+    private FileInputStream input;
+    private FileChannel channel;
+
+    public TrackReader(@NonNull File directory) {
+        segments = TrackFormat.listSegments(directory);
+    }
+
+    /**
+     * Reads the next fix of the track.
+     *
+     * @param location location that will be overwritten with the fix
+     * @return TRUE if a fix was read, FALSE if the end of the track was reached
+     */
+    public boolean next(@NonNull Location location) throws IOException {
+        while (true) {
+            if (channel == null && !openNextSegment()) {
+                return false;
+            }
+            if (buffer.remaining() < TrackFormat.RECORD_SIZE) {
+                buffer.compact();
+                TrackFormat.fill(channel, buffer);
+                buffer.flip();
+            }
+            if (buffer.remaining() >= TrackFormat.RECORD_SIZE && TrackFormat.isValidRecord(buffer, crc)) {
+                TrackFormat.readRecord(buffer, location);
+                return true;
+            }
+            closeSegment();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+        nextSegment = segments.length;
+    }
+
+    private boolean openNextSegment() throws IOException {
+        while (nextSegment < segments.length) {
+            input = new FileInputStream(segments[nextSegment++]);
+            channel = input.getChannel();
+            buffer.clear();
+            buffer.limit(TrackFormat.HEADER_SIZE);
+            TrackFormat.fill(channel, buffer);
+            buffer.flip();
+            if (buffer.remaining() == TrackFormat.HEADER_SIZE && TrackFormat.readHeader(buffer)) {
+                return true;
+            }
+            closeSegment();
+        }
+        return false;
+    }
+
+    private void closeSegment() throws IOException {
+        buffer.clear().limit(0);
+        channel = null;
+        if (input != null) {
+            try {
+                input.close();
+            } finally {
+                input = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package io.nlopez.smartlocation.location.track;
+
+import android.location.Location;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Records locations in an append-only binary log, split in segments inside a directory.
+ * <p/>
+ * Fixes are buffered in memory and appended to the current segment through a {@link FileChannel} when the
+ * buffer fills up, and the segment is synced to disk at most once per sync interval (and on
+ * {@link #flush()}). A new segment is started every time the recorder is opened and whenever the current
+ * one exceeds the max size or duration. When opening, a torn record left at the end of the last segment by
+ * a process death is truncated.
+ * <p/>
+ * Use it with {@link io.nlopez.smartlocation.SmartLocation.LocationControl#track(TrackRecorder)} and read the
+ * track back with {@link #reader()}.
+ */
+public class TrackRecorder {
+
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 1024 * 1024;
+    public static final long DEFAULT_MAX_SEGMENT_DURATION = 60 * 60 * 1000;
+    public static final long DEFAULT_SYNC_INTERVAL = 10 * 1000;
+
+    private static final int BUFFER_RECORDS = 64;
+
+    private final File directory;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_RECORDS * TrackFormat.RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private long maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+    private long maxSegmentDuration = DEFAULT_MAX_SEGMENT_DURATION;
+    private long syncInterval = DEFAULT_SYNC_INTERVAL;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private int segmentIndex = -1;
+    private long segmentSize;
+    private long segmentStartTime;
+    private long lastSync;
+
+    public TrackRecorder(@NonNull File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param maxSegmentSize max size in bytes of every segment
+     */
+    public synchronized void setMaxSegmentSize(long maxSegmentSize) {
+        if (maxSegmentSize < TrackFormat.HEADER_SIZE + TrackFormat.RECORD_SIZE) {
+            throw new IllegalArgumentException("maxSegmentSize is too small to hold a record");
+        }
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * @param maxSegmentDuration max time in milliseconds between the first and the last fix of a segment
+     */
+    public synchronized void setMaxSegmentDuration(long maxSegmentDuration) {
+        this.maxSegmentDuration = maxSegmentDuration;
+    }
+
+    /**
+     * @param syncInterval min time in milliseconds between syncs to disk, 0 for syncing every fix
+     */
+    public synchronized void setSyncInterval(long syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Appends a fix to the track.
+     *
+     * @param location location to record
+     */
+    public synchronized void record(@NonNull Location location) {
+        try {
+            if (channel != null && segmentSize > TrackFormat.HEADER_SIZE
+                    && (segmentSize + TrackFormat.RECORD_SIZE > maxSegmentSize
+                    || location.getTime() - segmentStartTime >= maxSegmentDuration)) {
+                closeSegment();
+            }
+            if (channel == null) {
+                openSegment();
+            }
+            if (segmentSize == TrackFormat.HEADER_SIZE) {
+                segmentStartTime = location.getTime();
+            }
+
+            if (buffer.remaining() < TrackFormat.RECORD_SIZE) {
+                writeBuffer();
+            }
+            TrackFormat.writeRecord(buffer, crc, location);
+            segmentSize += TrackFormat.RECORD_SIZE;
+
+            long now = SystemClock.elapsedRealtime();
+            if (now - lastSync >= syncInterval) {
+                writeBuffer();
+                channel.force(false);
+                lastSync = now;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to record location in " + directory, e);
+        }
+    }
+
+    /**
+     * Writes the buffered fixes and syncs the current segment to disk.
+     */
+    public synchronized void flush() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            writeBuffer();
+            channel.force(false);
+            lastSync = SystemClock.elapsedRealtime();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to flush track in " + directory, e);
+        }
+    }
+
+    /**
+     * Flushes and closes the current segment. Recording again afterwards starts a new segment.
+     */
+    public synchronized void close() {
+        try {
+            closeSegment();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to close track in " + directory, e);
+        }
+    }
+
+    /**
+     * Closes the recorder and deletes all the segments of the track.
+     */
+    public synchronized void clear() {
+        close();
+        for (File segment : TrackFormat.listSegments(directory)) {
+            segment.delete();
+        }
+        segmentIndex = -1;
+    }
+
+    /**
+     * @return reader over the fixes written so far, call {@link #flush()} first for including the buffered ones
+     */
+    public TrackReader reader() {
+        return new TrackReader(directory);
+    }
+
+    private void openSegment() throws IOException {
+        if (segmentIndex < 0) {
+            segmentIndex = recover();
+        }
+        segmentIndex++;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        file = new RandomAccessFile(TrackFormat.segmentFile(directory, segmentIndex), "rw");
+        channel = file.getChannel();
+        channel.truncate(0);
+
+        buffer.clear();
+        TrackFormat.writeHeader(buffer);
+        segmentSize = TrackFormat.HEADER_SIZE;
+        lastSync = SystemClock.elapsedRealtime();
+    }
+
+    private void closeSegment() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            writeBuffer();
+            channel.force(false);
+        } finally {
+            file.close();
+            file = null;
+            channel = null;
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Truncates the torn records at the end of the last segment, if any.
+     *
+     * @return index of the last segment, -1 if there are none
+     */
+    private int recover() throws IOException {
+        File[] segments = TrackFormat.listSegments(directory);
+        if (segments.length == 0) {
+            return -1;
+        }
+        File last = segments[segments.length - 1];
+        RandomAccessFile input = new RandomAccessFile(last, "rw");
+        try {
+            FileChannel lastChannel = input.getChannel();
+            long length = TrackFormat.validLength(lastChannel, buffer, crc);
+            if (length < lastChannel.size()) {
+                lastChannel.truncate(length);
+                lastChannel.force(false);
+            }
+        } finally {
+            buffer.clear();
+            input.close();
+        }
+        return TrackFormat.segmentIndex(last);
+    }
+}
@@ -0,0 +1,31 @@
+package io.nlopez.smartlocation.location.utils;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Shared background thread for receiving location updates outside the UI thread. The thread is
+ * started the first time its looper is requested and lives for the rest of the process.
+ */
+public class BackgroundLooper {
+
+    private static final String THREAD_NAME = "SmartLocation";
+
+    private static HandlerThread thread;
+
+    private BackgroundLooper() {
+        throw new AssertionError("This should not be instantiated");
+    }
+
+    /**
+     * @return looper of the shared background thread, starting it if needed
+     */
+    public static synchronized Looper get() {
+        if (thread == null) {
+            thread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+        }
+        return thread.getLooper();
+    }
+}
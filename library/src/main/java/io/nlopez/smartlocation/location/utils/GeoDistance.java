@@ -0,0 +1,46 @@
+package io.nlopez.smartlocation.location.utils;
+
+/**
+ * Distance calculations between coordinates on a spherical Earth.
+ */
+public class GeoDistance {
+
+    public static final double EARTH_RADIUS = 6371008.8;
+
+    // Below this span (in degrees) the equirectangular approximation is within 0.1% of haversine
+    private static final double APPROXIMATION_MAX_DELTA = 1;
+
+    private GeoDistance() {
+    }
+
+    /**
+     * Distance in meters between two points, using the equirectangular approximation for nearby points
+     * and haversine for the rest.
+     */
+    public static double meters(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double deltaLongitude = Math.abs(longitude2 - longitude1);
+        if (deltaLongitude > 180) {
+            deltaLongitude = 360 - deltaLongitude;
+        }
+        if (Math.abs(latitude2 - latitude1) < APPROXIMATION_MAX_DELTA && deltaLongitude < APPROXIMATION_MAX_DELTA
+                && Math.abs(latitude1) < 80) {
+            return equirectangular(latitude1, latitude2, deltaLongitude);
+        }
+        return haversine(latitude1, longitude1, latitude2, longitude2);
+    }
+
+    static double equirectangular(double latitude1, double latitude2, double deltaLongitude) {
+        double x = Math.toRadians(deltaLongitude) * Math.cos(Math.toRadians((latitude1 + latitude2) / 2));
+        double y = Math.toRadians(latitude2 - latitude1);
+        return EARTH_RADIUS * Math.sqrt(x * x + y * y);
+    }
+
+    public static double haversine(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double sinLatitude = Math.sin((phi2 - phi1) / 2);
+        double sinLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double h = sinLatitude * sinLatitude + Math.cos(phi1) * Math.cos(phi2) * sinLongitude * sinLongitude;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+}
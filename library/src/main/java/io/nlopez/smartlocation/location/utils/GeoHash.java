@@ -0,0 +1,57 @@
+package io.nlopez.smartlocation.location.utils;
+
+/**
+ * Geohash encoding of coordinates, used for quantising locations into cells. Every character adds 5 bits of
+ * precision: 7 characters are cells of about 150x150 meters, 8 characters about 40x20 meters.
+ */
+public class GeoHash {
+
+    public static final int MAX_PRECISION = 12;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private GeoHash() {
+    }
+
+    /**
+     * @param precision number of characters of the hash, between 1 and {@link #MAX_PRECISION}
+     * @return geohash of the cell containing the coordinates
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        if (precision < 1 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between 1 and " + MAX_PRECISION);
+        }
+        double minLatitude = -90;
+        double maxLatitude = 90;
+        double minLongitude = -180;
+        double maxLongitude = 180;
+        char[] hash = new char[precision];
+        boolean evenBit = true;
+        for (int i = 0; i < precision; i++) {
+            int index = 0;
+            for (int bit = 0; bit < 5; bit++) {
+                index <<= 1;
+                if (evenBit) {
+                    double middle = (minLongitude + maxLongitude) / 2;
+                    if (longitude >= middle) {
+                        index |= 1;
+                        minLongitude = middle;
+                    } else {
+                        maxLongitude = middle;
+                    }
+                } else {
+                    double middle = (minLatitude + maxLatitude) / 2;
+                    if (latitude >= middle) {
+                        index |= 1;
+                        minLatitude = middle;
+                    } else {
+                        maxLatitude = middle;
+                    }
+                }
+                evenBit = !evenBit;
+            }
+            hash[i] = BASE32[index];
+        }
+        return new String(hash);
+    }
+}
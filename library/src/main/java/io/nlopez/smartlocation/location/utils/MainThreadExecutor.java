@@ -0,0 +1,21 @@
+package io.nlopez.smartlocation.location.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor that posts every command to the main thread. Useful as callback executor when the
+ * location updates are received in a background looper but the listener touches the UI.
+ */
+public class MainThreadExecutor implements Executor {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        handler.post(command);
+    }
+}
@@ -0,0 +1,231 @@
+package io.nlopez.smartlocation.utils;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.Api;
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process wide registry of connected {@link GoogleApiClient}, shared by the providers using the same set of
+ * APIs.
+ * <p/>
+ * Every user acquires the client with its connection callbacks, which get called when the client connects
+ * (right away if it's already connected), and releases it when done. The client is connected by the first
+ * user and disconnected after an idle grace period once the last one releases it, so providers stopping and
+ * starting again in a short time keep the connection.
+ */
+public class GoogleApiClientPool {
+
+    public static final long DEFAULT_IDLE_TIMEOUT = 5000;
+
+    private static GoogleApiClientPool instance;
+
+    private final Map<Set<Api<?>>, Entry> entries = new HashMap<>();
+    private final Map<GoogleApiClient, Entry> entriesByClient = new HashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private ClientFactory clientFactory = new DefaultClientFactory();
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    private int clientsCreated;
+    private int connects;
+    private int acquires;
+    private int connections;
+    private long totalConnectTime;
+
+    @VisibleForTesting
+    GoogleApiClientPool() {
+    }
+
+    public static synchronized GoogleApiClientPool getInstance() {
+        if (instance == null) {
+            instance = new GoogleApiClientPool();
+        }
+        return instance;
+    }
+
+    /**
+     * @param idleTimeout time in milliseconds a client stays connected without users
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    @VisibleForTesting
+    public synchronized void setClientFactory(@NonNull ClientFactory clientFactory) {
+        this.clientFactory = clientFactory;
+    }
+
+    /**
+     * Gets the client for the given APIs, connecting it if needed.
+     *
+     * @param context         context used for building the client, the application context is kept
+     * @param callbacks       callbacks registered in the client until it's released
+     * @param failedListener  listener registered in the client until it's released
+     * @param apis            APIs used
+     * @return shared client, it must not be connected or disconnected directly
+     */
+    @SafeVarargs
+    public final synchronized GoogleApiClient acquire(@NonNull Context context,
+                                                      @NonNull GoogleApiClient.ConnectionCallbacks callbacks,
+                                                      @NonNull GoogleApiClient.OnConnectionFailedListener failedListener,
+                                                      @NonNull Api<? extends Api.ApiOptions.NotRequiredOptions>... apis) {
+        Set<Api<?>> key = new HashSet<Api<?>>(Arrays.asList(apis));
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            Context applicationContext = context.getApplicationContext();
+            entry.client = clientFactory.create(applicationContext != null ? applicationContext : context, apis,
+                    entry, entry);
+            entries.put(key, entry);
+            entriesByClient.put(entry.client, entry);
+            clientsCreated++;
+        }
+        acquires++;
+        entry.references++;
+        handler.removeCallbacks(entry);
+
+        // Called right away by the client if it's already connected
+        entry.client.registerConnectionCallbacks(callbacks);
+        entry.client.registerConnectionFailedListener(failedListener);
+        if (!entry.client.isConnected() && !entry.client.isConnecting()) {
+            connects++;
+            entry.connectStart = SystemClock.elapsedRealtime();
+            entry.client.connect();
+        }
+        return entry.client;
+    }
+
+    /**
+     * Releases a client acquired with {@link #acquire(Context, GoogleApiClient.ConnectionCallbacks,
+     * GoogleApiClient.OnConnectionFailedListener, Api[])}, unregistering the callbacks.
+     */
+    public synchronized void release(@NonNull GoogleApiClient client,
+                                     @NonNull GoogleApiClient.ConnectionCallbacks callbacks,
+                                     @NonNull GoogleApiClient.OnConnectionFailedListener failedListener) {
+        client.unregisterConnectionCallbacks(callbacks);
+        client.unregisterConnectionFailedListener(failedListener);
+        Entry entry = entriesByClient.get(client);
+        if (entry == null || entry.references == 0) {
+            return;
+        }
+        entry.references--;
+        if (entry.references == 0) {
+            handler.postDelayed(entry, idleTimeout);
+        }
+    }
+
+    /**
+     * @return number of clients built
+     */
+    public synchronized int getClientCount() {
+        return clientsCreated;
+    }
+
+    /**
+     * @return number of times a client was asked to connect
+     */
+    public synchronized int getConnectCount() {
+        return connects;
+    }
+
+    /**
+     * @return number of times a client was acquired, i.e. the connections needed without the pool
+     */
+    public synchronized int getAcquireCount() {
+        return acquires;
+    }
+
+    /**
+     * @return average time in milliseconds from asking a client to connect until it's connected
+     */
+    public synchronized long getAverageConnectTime() {
+        return connections == 0 ? 0 : totalConnectTime / connections;
+    }
+
+    public synchronized void resetMetrics() {
+        clientsCreated = 0;
+        connects = 0;
+        acquires = 0;
+        connections = 0;
+        totalConnectTime = 0;
+    }
+
+    private synchronized void onEntryConnected(Entry entry) {
+        if (entry.connectStart > 0) {
+            connections++;
+            totalConnectTime += SystemClock.elapsedRealtime() - entry.connectStart;
+            entry.connectStart = 0;
+        }
+    }
+
+    private synchronized void onEntryIdle(Entry entry) {
+        if (entry.references == 0 && (entry.client.isConnected() || entry.client.isConnecting())) {
+            entry.client.disconnect();
+        }
+    }
+
+    private class Entry implements Runnable, GoogleApiClient.ConnectionCallbacks,
+            GoogleApiClient.OnConnectionFailedListener {
+        private GoogleApiClient client;
+        private int references;
+        private long connectStart;
+
+        @Override
+        public void run() {
+            onEntryIdle(this);
+        }
+
+        @Override
+        public void onConnected(Bundle bundle) {
+            onEntryConnected(this);
+        }
+
+        @Override
+        public void onConnectionSuspended(int cause) {
+        }
+
+        @Override
+        public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
+            synchronized (GoogleApiClientPool.this) {
+                connectStart = 0;
+            }
+        }
+    }
+
+    /**
+     * Builds the clients of the pool.
+     */
+    public interface ClientFactory {
+        GoogleApiClient create(Context context, Api<? extends Api.ApiOptions.NotRequiredOptions>[] apis,
+                               GoogleApiClient.ConnectionCallbacks callbacks,
+                               GoogleApiClient.OnConnectionFailedListener failedListener);
+    }
+
+    private static class DefaultClientFactory implements ClientFactory {
+        @Override
+        public GoogleApiClient create(Context context, Api<? extends Api.ApiOptions.NotRequiredOptions>[] apis,
+                                      GoogleApiClient.ConnectionCallbacks callbacks,
+                                      GoogleApiClient.OnConnectionFailedListener failedListener) {
+            GoogleApiClient.Builder builder = new GoogleApiClient.Builder(context);
+            for (Api<? extends Api.ApiOptions.NotRequiredOptions> api : apis) {
+                builder.addApi(api);
+            }
+            return builder.addConnectionCallbacks(callbacks)
+                    .addOnConnectionFailedListener(failedListener)
+                    .build();
+        }
+    }
+}
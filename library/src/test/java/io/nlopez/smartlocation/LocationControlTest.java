@@ -1,21 +1,27 @@
 package io.nlopez.smartlocation;
 
 import android.content.Context;
+import android.location.Location;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.location.track.TrackRecorder;
 import io.nlopez.smartlocation.util.MockLocationProvider;
 import io.nlopez.smartlocation.utils.Logger;
 
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
@@ -98,6 +104,77 @@ public class LocationControlTest {
         verify(mockProvider).stop();
     }
 
+    @Test
+    public void test_location_control_track() {
+        TrackRecorder trackRecorder = mock(TrackRecorder.class);
+        SmartLocation.LocationControl locationControl = createLocationControl();
+        locationControl.track(trackRecorder);
+        locationControl.start(locationUpdatedListener);
+
+        ArgumentCaptor<OnLocationUpdatedListener> captor = ArgumentCaptor.forClass(OnLocationUpdatedListener.class);
+        verify(mockProvider).start(captor.capture(), eq(DEFAULT_PARAMS), eq(DEFAULT_SINGLE_UPDATE));
+        Location location = new Location("test");
+        captor.getValue().onLocationUpdated(location);
+        verify(trackRecorder).record(location);
+        verify(locationUpdatedListener).onLocationUpdated(location);
+
+        locationControl.stop();
+        verify(trackRecorder).close();
+
+        // The track is closed for good, late updates are not recorded
+        captor.getValue().onLocationUpdated(location);
+        verify(trackRecorder).record(location);
+        verify(locationUpdatedListener, times(2)).onLocationUpdated(location);
+    }
+
+    @Test
+    public void test_location_control_track_without_listener() {
+        TrackRecorder trackRecorder = mock(TrackRecorder.class);
+        SmartLocation.LocationControl locationControl = createLocationControl();
+        locationControl.track(trackRecorder);
+        locationControl.start(null);
+
+        ArgumentCaptor<OnLocationUpdatedListener> captor = ArgumentCaptor.forClass(OnLocationUpdatedListener.class);
+        verify(mockProvider).start(captor.capture(), eq(DEFAULT_PARAMS), eq(DEFAULT_SINGLE_UPDATE));
+        Location location = new Location("test");
+        captor.getValue().onLocationUpdated(location);
+        verify(trackRecorder).record(location);
+    }
+
+    @Test
+    public void test_location_control_track_errors_stop_recording() {
+        TrackRecorder trackRecorder = mock(TrackRecorder.class);
+        doThrow(new IllegalStateException("disk full")).when(trackRecorder).record(any(Location.class));
+        SmartLocation.LocationControl locationControl = createLocationControl();
+        locationControl.track(trackRecorder);
+        locationControl.start(locationUpdatedListener);
+
+        ArgumentCaptor<OnLocationUpdatedListener> captor = ArgumentCaptor.forClass(OnLocationUpdatedListener.class);
+        verify(mockProvider).start(captor.capture(), eq(DEFAULT_PARAMS), eq(DEFAULT_SINGLE_UPDATE));
+        Location location = new Location("test");
+        captor.getValue().onLocationUpdated(location);
+        captor.getValue().onLocationUpdated(location);
+        verify(trackRecorder).record(location);
+        verify(trackRecorder).close();
+        verify(locationUpdatedListener, times(2)).onLocationUpdated(location);
+    }
+
+    @Test
+    public void test_location_control_subscribe() {
+        SmartLocation.LocationControl locationControl = createLocationControl();
+        OnLocationUpdatedListener otherListener = mock(OnLocationUpdatedListener.class);
+
+        locationControl.subscribe(locationUpdatedListener);
+        locationControl.config(LocationParams.NAVIGATION).subscribe(otherListener);
+        verify(mockProvider, times(2)).start(any(OnLocationUpdatedListener.class), any(LocationParams.class),
+                eq(false));
+
+        locationControl.unsubscribe(locationUpdatedListener);
+        verify(mockProvider, never()).stop();
+        locationControl.unsubscribe(otherListener);
+        verify(mockProvider).stop();
+    }
+
     private SmartLocation.LocationControl createLocationControl() {
         Context context = RuntimeEnvironment.application.getApplicationContext();
         SmartLocation smartLocation = new SmartLocation.Builder(context).logging(false).preInitialize(false).build();
@@ -0,0 +1,156 @@
+package io.nlopez.smartlocation.common;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Tests {@link BinaryFileStore}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BinaryFileStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = new File(folder.getRoot(), "store.bin");
+    }
+
+    @Test
+    public void test_binary_store_full_cycle() {
+        BinaryFileStore<Long> store = new BinaryFileStore<>(file, new LongCodec());
+        Assert.assertFalse(store.exists());
+        Assert.assertNull(store.get("a"));
+
+        store.put("a", 1L);
+        store.put("b", 2L);
+        Assert.assertTrue(store.exists());
+        Assert.assertEquals(Long.valueOf(1), store.get("a"));
+
+        store.remove("a");
+        Assert.assertNull(store.get("a"));
+        Assert.assertEquals(Long.valueOf(2), store.get("b"));
+        BinaryFileStore.awaitWrites();
+        Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void test_binary_store_reloads_from_disk() {
+        BinaryFileStore<Long> store = new BinaryFileStore<>(file, new LongCodec());
+        Map<String, Long> values = new HashMap<>();
+        values.put("a", 1L);
+        values.put("\u00f1", Long.MAX_VALUE);
+        store.putAll(values);
+
+        BinaryFileStore<Long> reloaded = new BinaryFileStore<>(file, new LongCodec());
+        Assert.assertEquals(Long.valueOf(1), reloaded.get("a"));
+        Assert.assertEquals(Long.valueOf(Long.MAX_VALUE), reloaded.get("\u00f1"));
+    }
+
+    @Test
+    public void test_binary_store_batch_operations() {
+        BinaryFileStore<Long> store = new BinaryFileStore<>(file, new LongCodec());
+        Map<String, Long> values = new HashMap<>();
+        for (long i = 0; i < 10; i++) {
+            values.put("key" + i, i);
+        }
+        store.putAll(values);
+        store.removeAll(Arrays.asList("key1", "key3", "missing"));
+
+        Map<String, Long> reloaded = new BinaryFileStore<>(file, new LongCodec()).getAll();
+        Assert.assertEquals(8, reloaded.size());
+        Assert.assertNull(reloaded.get("key3"));
+        Assert.assertEquals(Long.valueOf(9), reloaded.get("key9"));
+    }
+
+    @Test
+    public void test_binary_store_ignores_corrupted_file() throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+        output.close();
+
+        BinaryFileStore<Long> store = new BinaryFileStore<>(file, new LongCodec());
+        Assert.assertNull(store.get("a"));
+        store.put("a", 3L);
+        Assert.assertEquals(Long.valueOf(3), new BinaryFileStore<>(file, new LongCodec()).get("a"));
+    }
+
+    @Test
+    public void test_binary_store_coalesces_writes() {
+        BinaryFileStore<Long> store = new BinaryFileStore<>(file, new LongCodec());
+        for (long i = 0; i < 1000; i++) {
+            store.put("a", i);
+        }
+        BinaryFileStore.awaitWrites();
+        Assert.assertTrue(store.getWriteCount() < 1000);
+        Assert.assertEquals(Long.valueOf(999), new BinaryFileStore<>(file, new LongCodec()).get("a"));
+    }
+
+    @Test
+    public void test_binary_store_is_shared_per_file() {
+        LongCodec codec = new LongCodec();
+        BinaryFileStore<Long> first = BinaryFileStore.forFile(file, codec);
+        BinaryFileStore<Long> second = BinaryFileStore.forFile(new File(folder.getRoot(), "./store.bin"), codec);
+        Assert.assertSame(first, second);
+        first.put("a", 1L);
+        second.put("b", 2L);
+
+        BinaryFileStore.clearSharedStores();
+        BinaryFileStore<Long> reloaded = BinaryFileStore.forFile(file, codec);
+        Assert.assertNotSame(first, reloaded);
+        Assert.assertEquals(Long.valueOf(1), reloaded.get("a"));
+        Assert.assertEquals(Long.valueOf(2), reloaded.get("b"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_binary_store_rejects_another_codec_for_the_same_file() {
+        BinaryFileStore.forFile(file, new LongCodec());
+        BinaryFileStore.forFile(file, new LongCodec());
+    }
+
+    @Test
+    public void test_binary_store_write_errors_are_not_thrown() {
+        File missing = new File(new File(folder.getRoot(), "missing"), "store.bin");
+        BinaryFileStore<Long> store = new BinaryFileStore<>(missing, new LongCodec());
+        store.put("a", 1L);
+        BinaryFileStore.awaitWrites();
+        Assert.assertEquals(Long.valueOf(1), store.get("a"));
+        Assert.assertFalse(missing.exists());
+    }
+
+    private static class LongCodec implements BinaryFileStore.Codec<Long> {
+        @Override
+        public int getRecordSize() {
+            return 8;
+        }
+
+        @Override
+        public void write(Long value, ByteBuffer buffer) {
+            buffer.putLong(value);
+        }
+
+        @Override
+        public Long read(String id, ByteBuffer buffer) {
+            return buffer.getLong();
+        }
+    }
+}
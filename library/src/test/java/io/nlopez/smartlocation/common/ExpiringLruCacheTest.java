@@ -0,0 +1,61 @@
+package io.nlopez.smartlocation.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Tests {@link ExpiringLruCache}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ExpiringLruCacheTest {
+
+    @Test
+    public void test_lru_evicts_least_recently_used() {
+        TestCache cache = new TestCache(2, 0);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+
+        cache.put("c", 3);
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        Assert.assertEquals(Integer.valueOf(3), cache.get("c"));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertEquals(3, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void test_entries_expire() {
+        TestCache cache = new TestCache(10, 1000);
+        cache.put("a", 1);
+        cache.time = 999;
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+
+        cache.time = 1000;
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(0, cache.size());
+
+        cache.put("b", 2, -5000);
+        Assert.assertNull(cache.get("b"));
+    }
+
+    private static class TestCache extends ExpiringLruCache<String, Integer> {
+        private long time;
+
+        TestCache(int maxSize, long timeToLive) {
+            super(maxSize, timeToLive);
+        }
+
+        @Override
+        protected long now() {
+            return time;
+        }
+    }
+}
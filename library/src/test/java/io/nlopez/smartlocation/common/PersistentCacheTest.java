@@ -0,0 +1,108 @@
+package io.nlopez.smartlocation.common;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Tests {@link PersistentCache}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PersistentCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setup() {
+        file = new File(folder.getRoot(), "cache.bin");
+    }
+
+    @Test
+    public void test_persistent_cache_loads_lazily_and_reloads() {
+        PersistentCache cache = new TestCache(file, 10, 0);
+        cache.put("a", new byte[]{1, 2});
+        cache.put("\u00f1", new byte[0]);
+        cache.put("a", new byte[]{3});
+
+        PersistentCache reloaded = new TestCache(file, 10, 0);
+        Assert.assertFalse(reloaded.isLoaded());
+        Assert.assertArrayEquals(new byte[]{3}, reloaded.get("a").getValue());
+        Assert.assertTrue(reloaded.isLoaded());
+        Assert.assertArrayEquals(new byte[0], reloaded.get("\u00f1").getValue());
+        Assert.assertNull(reloaded.get("b"));
+        Assert.assertEquals(2, reloaded.size());
+    }
+
+    @Test
+    public void test_persistent_cache_drops_expired_and_oldest() {
+        TestCache cache = new TestCache(file, 2, 1000);
+        cache.put("a", new byte[]{1});
+        cache.time = 500;
+        cache.put("b", new byte[]{2});
+        cache.put("c", new byte[]{3});
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(500, cache.get("b").getTime());
+
+        TestCache reloaded = new TestCache(file, 2, 1000);
+        reloaded.time = 1600;
+        Assert.assertNull(reloaded.get("b"));
+        Assert.assertEquals(0, reloaded.size());
+    }
+
+    @Test
+    public void test_persistent_cache_compacts_file() {
+        PersistentCache cache = new TestCache(file, 1, 0);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key", new byte[16]);
+        }
+        Assert.assertTrue(file.length() < 200 * 30);
+        Assert.assertEquals(1, new TestCache(file, 1, 0).size());
+    }
+
+    @Test
+    public void test_persistent_cache_survives_torn_file() throws IOException {
+        PersistentCache cache = new TestCache(file, 10, 0);
+        cache.put("a", new byte[]{1});
+        cache.put("b", new byte[]{2, 2, 2, 2});
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 2);
+        raf.close();
+
+        PersistentCache reloaded = new TestCache(file, 10, 0);
+        Assert.assertArrayEquals(new byte[]{1}, reloaded.get("a").getValue());
+        Assert.assertNull(reloaded.get("b"));
+
+        reloaded.put("c", new byte[]{3});
+        PersistentCache again = new TestCache(file, 10, 0);
+        Assert.assertArrayEquals(new byte[]{3}, again.get("c").getValue());
+        Assert.assertEquals(2, again.size());
+    }
+
+    private static class TestCache extends PersistentCache {
+        private long time;
+
+        TestCache(File file, int maxEntries, long timeToLive) {
+            super(file, maxEntries, timeToLive);
+        }
+
+        @Override
+        protected long now() {
+            return time;
+        }
+    }
+}
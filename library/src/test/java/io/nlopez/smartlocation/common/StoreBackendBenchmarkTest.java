@@ -0,0 +1,76 @@
+package io.nlopez.smartlocation.common;
+
+import android.content.Context;
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.location.LocationStore;
+import io.nlopez.smartlocation.util.CountingSharedPreferences;
+
+/**
+ * Measures reads and writes of {@link LocationStore} with both backends. Keep in mind that Robolectric
+ * SharedPreferences live in memory, so the bytes per write are the relevant figure for the XML file.
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class StoreBackendBenchmarkTest {
+
+    private static final String ID = "GMS";
+    private static final int WRITES = 200;
+    private static final int READS = 2000;
+
+    @Test
+    public void test_binary_backend_writes_less_bytes() {
+        Context context = RuntimeEnvironment.application;
+        CountingSharedPreferences preferences = new CountingSharedPreferences(
+                context.getSharedPreferences("benchmark_backend", Context.MODE_PRIVATE));
+        LocationStore preferencesStore = new LocationStore(context, StoreBackend.SHARED_PREFERENCES);
+        preferencesStore.setPreferences(preferences);
+        LocationStore binaryStore = new LocationStore(context, StoreBackend.BINARY_FILE);
+
+        long preferencesWrite = writes(preferencesStore);
+        long binaryWrite = writes(binaryStore);
+        long preferencesRead = reads(preferencesStore);
+        long binaryRead = reads(binaryStore);
+
+        long preferencesBytes = preferences.getBytesWritten() / WRITES;
+        BinaryFileStore.awaitWrites();
+        long binaryBytes = new File(context.getFilesDir(), "LOCATION_STORE.bin").length();
+
+        System.out.println(String.format("shared preferences: %d writes/s, %d reads/s, %d bytes/write",
+                preferencesWrite, preferencesRead, preferencesBytes));
+        System.out.println(String.format("binary file:        %d writes/s, %d reads/s, %d bytes/write",
+                binaryWrite, binaryRead, binaryBytes));
+
+        Assert.assertTrue(binaryBytes > 0);
+        Assert.assertTrue(binaryBytes * 4 < preferencesBytes);
+    }
+
+    private long writes(LocationStore store) {
+        Location location = new Location("gps");
+        location.setLatitude(39.4745312);
+        location.setLongitude(-0.3580658);
+        long start = System.nanoTime();
+        for (int i = 0; i < WRITES; i++) {
+            location.setTime(i);
+            store.put(ID, location);
+        }
+        return WRITES * 1000000000L / Math.max(1, System.nanoTime() - start);
+    }
+
+    private long reads(LocationStore store) {
+        long start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            Assert.assertEquals(WRITES - 1, store.get(ID).getTime());
+        }
+        return READS * 1000000000L / Math.max(1, System.nanoTime() - start);
+    }
+}
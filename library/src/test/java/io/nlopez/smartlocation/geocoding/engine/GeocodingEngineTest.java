@@ -0,0 +1,323 @@
+package io.nlopez.smartlocation.geocoding.engine;
+
+import android.location.Address;
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnGeocodingListener;
+import io.nlopez.smartlocation.OnReverseGeocodingListener;
+import io.nlopez.smartlocation.geocoding.utils.LocationAddress;
+
+/**
+ * Tests {@link GeocodingEngine}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GeocodingEngineTest {
+
+    private static final int LOOKUPS = 24;
+    private static final long LATENCY = 100;
+
+    @Test
+    public void test_parallel_lookups_are_faster() throws InterruptedException {
+        SlowGeocoder serialGeocoder = new SlowGeocoder(LATENCY);
+        SlowGeocoder parallelGeocoder = new SlowGeocoder(LATENCY);
+        long serial = resolveAll(serialGeocoder, 1);
+        long parallel = resolveAll(parallelGeocoder, 8);
+        System.out.println(String.format("%d reverse lookups of %d ms: %d ms serial, %d ms with 8 workers",
+                LOOKUPS, LATENCY, serial, parallel));
+
+        Assert.assertEquals(LOOKUPS, serialGeocoder.calls.get());
+        Assert.assertEquals(LOOKUPS, parallelGeocoder.calls.get());
+        Assert.assertEquals(1, serialGeocoder.maxRunning.get());
+        Assert.assertTrue(parallelGeocoder.maxRunning.get() > 1);
+        Assert.assertTrue(parallelGeocoder.maxRunning.get() <= 8);
+    }
+
+    @Test
+    public void test_results_are_delivered_as_they_complete() throws InterruptedException {
+        SlowGeocoder geocoder = new SlowGeocoder(0);
+        geocoder.delays.put("slow", 500L);
+        GeocodingEngine engine = new GeocodingEngine(geocoder, 2, 0);
+        final List<String> names = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(2);
+        OnGeocodingListener listener = new OnGeocodingListener() {
+            @Override
+            public void onLocationResolved(String name, List<LocationAddress> results) {
+                names.add(name);
+                Assert.assertEquals(1, results.size());
+                latch.countDown();
+            }
+        };
+
+        engine.resolve("slow", 1, listener);
+        engine.resolve("fast", 1, listener);
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        Assert.assertEquals("fast", names.get(0));
+        Assert.assertEquals("slow", names.get(1));
+        engine.shutdown();
+    }
+
+    @Test
+    public void test_timeout_delivers_empty_result() throws InterruptedException {
+        GeocodingEngine engine = new GeocodingEngine(new SlowGeocoder(5000), 1, 100);
+        final List<List<Address>> delivered = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        engine.resolve(new Location("test"), 1, new OnReverseGeocodingListener() {
+            @Override
+            public void onAddressResolved(Location original, List<Address> results) {
+                delivered.add(results);
+                latch.countDown();
+            }
+        });
+
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue(delivered.get(0).isEmpty());
+        Assert.assertEquals(0, engine.getActiveCount());
+        engine.shutdown();
+    }
+
+    @Test
+    public void test_timeout_does_not_count_queued_time() throws InterruptedException {
+        // 10 lookups of 50 ms in a single worker take 500 ms, but each one runs for less than the timeout
+        GeocodingEngine engine = new GeocodingEngine(new SlowGeocoder(50), 1, 200);
+        final List<List<Address>> delivered = Collections.synchronizedList(new ArrayList<List<Address>>());
+        final CountDownLatch latch = new CountDownLatch(10);
+        OnReverseGeocodingListener listener = new OnReverseGeocodingListener() {
+            @Override
+            public void onAddressResolved(Location original, List<Address> results) {
+                delivered.add(results);
+                latch.countDown();
+            }
+        };
+
+        for (int i = 0; i < 10; i++) {
+            Location location = new Location("test");
+            location.setLatitude(i);
+            engine.resolve(location, 1, listener);
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (List<Address> results : delivered) {
+            Assert.assertEquals(1, results.size());
+        }
+        engine.shutdown();
+    }
+
+    @Test
+    public void test_geocoder_errors_deliver_empty_result() throws InterruptedException {
+        SlowGeocoder geocoder = new SlowGeocoder(0);
+        geocoder.failures.add("broken");
+        GeocodingEngine engine = new GeocodingEngine(geocoder, 1, 0);
+        final List<List<LocationAddress>> delivered = Collections.synchronizedList(
+                new ArrayList<List<LocationAddress>>());
+        final CountDownLatch latch = new CountDownLatch(2);
+        OnGeocodingListener listener = new OnGeocodingListener() {
+            @Override
+            public void onLocationResolved(String name, List<LocationAddress> results) {
+                delivered.add(results);
+                latch.countDown();
+            }
+        };
+
+        engine.resolve("broken", 1, listener);
+        engine.resolve("fine", 1, listener);
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue(delivered.get(0).isEmpty());
+        Assert.assertEquals(1, delivered.get(1).size());
+        Assert.assertEquals(0, engine.getActiveCount());
+        engine.shutdown();
+    }
+
+    @Test
+    public void test_cancelled_lookups_are_not_delivered() throws InterruptedException {
+        SlowGeocoder geocoder = new SlowGeocoder(200);
+        GeocodingEngine engine = new GeocodingEngine(geocoder, 2, 0);
+        final AtomicInteger delivered = new AtomicInteger();
+        OnReverseGeocodingListener listener = new OnReverseGeocodingListener() {
+            @Override
+            public void onAddressResolved(Location original, List<Address> results) {
+                delivered.incrementAndGet();
+            }
+        };
+
+        for (int i = 0; i < 10; i++) {
+            Location location = new Location("test");
+            location.setLatitude(i);
+            engine.resolve(location, 1, listener);
+        }
+        Assert.assertEquals(10, engine.getActiveCount());
+        engine.cancelAll();
+        Assert.assertEquals(0, engine.getActiveCount());
+
+        Thread.sleep(500);
+        Assert.assertEquals(0, delivered.get());
+        Assert.assertTrue(geocoder.calls.get() < 10);
+        engine.shutdown();
+    }
+
+    @Test
+    public void test_identical_lookups_share_one_call() throws InterruptedException {
+        SlowGeocoder geocoder = new SlowGeocoder(200);
+        GeocodingEngine engine = new GeocodingEngine(geocoder, 4, 0);
+        final List<Location> originals = Collections.synchronizedList(new ArrayList<Location>());
+        final CountDownLatch latch = new CountDownLatch(6);
+        OnReverseGeocodingListener listener = new OnReverseGeocodingListener() {
+            @Override
+            public void onAddressResolved(Location original, List<Address> results) {
+                originals.add(original);
+                Assert.assertEquals(1, results.size());
+                latch.countDown();
+            }
+        };
+
+        List<Location> requested = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Location location = new Location("test");
+            location.setLatitude(39.474531);
+            location.setLongitude(-0.358066);
+            requested.add(location);
+            engine.resolve(location, 1, listener);
+        }
+        Location other = new Location("test");
+        other.setLatitude(39.474531);
+        other.setLongitude(-0.358066);
+        engine.resolve(other, 3, listener);
+
+        Assert.assertEquals(2, engine.getActiveCount());
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        Assert.assertEquals(2, geocoder.calls.get());
+        Assert.assertEquals(6, engine.getLookupCount());
+        Assert.assertEquals(4, engine.getCoalescedCount());
+        Assert.assertTrue(originals.containsAll(requested));
+        Assert.assertTrue(originals.contains(other));
+        engine.shutdown();
+    }
+
+    @Test
+    public void test_cancel_owner_keeps_shared_lookups() throws InterruptedException {
+        SlowGeocoder geocoder = new SlowGeocoder(200);
+        GeocodingEngine engine = new GeocodingEngine(geocoder, 4, 0);
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(1);
+        Object first = new Object();
+        Object second = new Object();
+
+        engine.resolve(first, "Big Ben", 1, new OnGeocodingListener() {
+            @Override
+            public void onLocationResolved(String name, List<LocationAddress> results) {
+                delivered.add("first");
+            }
+        });
+        engine.resolve(second, "Big Ben", 1, new OnGeocodingListener() {
+            @Override
+            public void onLocationResolved(String name, List<LocationAddress> results) {
+                delivered.add("second");
+                latch.countDown();
+            }
+        });
+        engine.resolve(first, "Tower Bridge", 1, new OnGeocodingListener() {
+            @Override
+            public void onLocationResolved(String name, List<LocationAddress> results) {
+                delivered.add("first");
+            }
+        });
+
+        engine.cancel(first);
+        Assert.assertEquals(1, engine.getActiveCount());
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        Assert.assertEquals(Collections.singletonList("second"), delivered);
+        engine.shutdown();
+    }
+
+    private long resolveAll(SlowGeocoder geocoder, int concurrency) throws InterruptedException {
+        GeocodingEngine engine = new GeocodingEngine(geocoder, concurrency, 0);
+        final CountDownLatch latch = new CountDownLatch(LOOKUPS);
+        OnReverseGeocodingListener listener = new OnReverseGeocodingListener() {
+            @Override
+            public void onAddressResolved(Location original, List<Address> results) {
+                latch.countDown();
+            }
+        };
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < LOOKUPS; i++) {
+            Location location = new Location("test");
+            location.setLatitude(40 + i * 0.01);
+            engine.resolve(location, 1, listener);
+        }
+        Assert.assertTrue(latch.await(LOOKUPS * LATENCY * 2, TimeUnit.MILLISECONDS));
+        long elapsed = System.currentTimeMillis() - start;
+        engine.shutdown();
+        return elapsed;
+    }
+
+    private static class SlowGeocoder implements GeocoderBackend {
+        private final long delay;
+        private final Map<String, Long> delays = new ConcurrentHashMap<>();
+        private final Set<String> failures = Collections.synchronizedSet(new HashSet<String>());
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        SlowGeocoder(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public List<Address> getFromLocation(double latitude, double longitude, int maxResults) throws IOException {
+            sleep(delay);
+            Address address = new Address(Locale.US);
+            address.setLatitude(latitude);
+            address.setLongitude(longitude);
+            return Collections.singletonList(address);
+        }
+
+        @Override
+        public List<Address> getFromLocationName(String name, int maxResults) throws IOException {
+            Long nameDelay = delays.get(name);
+            sleep(nameDelay != null ? nameDelay : delay);
+            if (failures.contains(name)) {
+                throw new IllegalStateException("Geocoder failed");
+            }
+            Address address = new Address(Locale.US);
+            address.setAddressLine(0, name);
+            return Collections.singletonList(address);
+        }
+
+        private void sleep(long time) throws IOException {
+            calls.incrementAndGet();
+            int current = running.incrementAndGet();
+            int max = maxRunning.get();
+            while (current > max && !maxRunning.compareAndSet(max, current)) {
+                max = maxRunning.get();
+            }
+            try {
+                Thread.sleep(time);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+}
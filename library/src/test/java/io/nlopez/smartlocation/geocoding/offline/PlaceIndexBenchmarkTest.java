@@ -0,0 +1,85 @@
+package io.nlopez.smartlocation.geocoding.offline;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Measures nearest place queries of {@link PlaceIndex} over a synthetic dataset the size of a world cities
+ * one, with the places clustered like real ones and queries both near them and in the middle of nowhere.
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PlaceIndexBenchmarkTest {
+
+    private static final int PLACES = 200000;
+    private static final int CLUSTERS = 2000;
+    private static final int QUERIES = 20000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_nearest_query_is_sub_millisecond() throws IOException {
+        Random random = new Random(42);
+        double[] centers = new double[CLUSTERS * 2];
+        for (int i = 0; i < CLUSTERS; i++) {
+            centers[i * 2] = random.nextDouble() * 120 - 60;
+            centers[i * 2 + 1] = random.nextDouble() * 360 - 180;
+        }
+        PlaceIndexBuilder builder = new PlaceIndexBuilder();
+        for (int i = 0; i < PLACES; i++) {
+            int cluster = random.nextInt(CLUSTERS);
+            double latitude = Math.max(-90, Math.min(90, centers[cluster * 2] + random.nextGaussian()));
+            double longitude = wrap(centers[cluster * 2 + 1] + random.nextGaussian());
+            builder.add("Place " + i, "Area " + cluster, "XX", latitude, longitude, random.nextInt(100000));
+        }
+        File file = folder.newFile("world.idx");
+        builder.build(file);
+
+        PlaceIndex index = PlaceIndex.open(file);
+        double[] queries = new double[QUERIES * 2];
+        for (int i = 0; i < QUERIES; i++) {
+            if (i % 2 == 0) {
+                int cluster = random.nextInt(CLUSTERS);
+                queries[i * 2] = centers[cluster * 2] + random.nextGaussian();
+                queries[i * 2 + 1] = wrap(centers[cluster * 2 + 1] + random.nextGaussian());
+            } else {
+                queries[i * 2] = random.nextDouble() * 170 - 85;
+                queries[i * 2 + 1] = random.nextDouble() * 360 - 180;
+            }
+        }
+
+        // Warm up
+        int found = query(index, queries);
+        long start = System.nanoTime();
+        found += query(index, queries);
+        long elapsed = System.nanoTime() - start;
+        index.close();
+
+        System.out.println(String.format("%d places, %d bytes: %d ns/query, %d%% found", PLACES, file.length(),
+                elapsed / QUERIES, found * 50 / QUERIES));
+        Assert.assertTrue(found > QUERIES / 2);
+    }
+
+    private static int query(PlaceIndex index, double[] queries) {
+        int found = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            found += index.nearest(queries[i * 2], queries[i * 2 + 1], 1, 50000).size();
+        }
+        return found;
+    }
+
+    private static double wrap(double longitude) {
+        return longitude >= 180 ? longitude - 360 : (longitude < -180 ? longitude + 360 : longitude);
+    }
+}
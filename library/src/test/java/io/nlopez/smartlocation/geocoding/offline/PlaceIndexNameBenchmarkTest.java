@@ -0,0 +1,146 @@
+package io.nlopez.smartlocation.geocoding.offline;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Measures searches by name of {@link PlaceIndex} over a synthetic gazetteer of a million places, with names
+ * made of random syllables: exact names, names typed one character at a time and misspelled names.
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PlaceIndexNameBenchmarkTest {
+
+    private static final int PLACES = 1000000;
+    private static final int QUERIES = 2000;
+    private static final String[] SYLLABLES = {"ba", "be", "bi", "bo", "ca", "ce", "co", "da", "de", "do", "fa", "fe",
+            "ga", "go", "ha", "la", "le", "li", "lo", "ma", "me", "mi", "mo", "na", "ne", "ni", "no", "pa", "pe", "po",
+            "ra", "re", "ri", "ro", "sa", "se", "si", "so", "ta", "te", "ti", "to", "va", "ve", "vi", "za", "zo", "ar",
+            "el", "en", "or", "an", "in", "us", "ville", "burg", "ford", "ton", "stad", "polis"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_search_throughput() throws IOException {
+        Random random = new Random(42);
+        String[] queries = new String[QUERIES];
+        PlaceIndexBuilder builder = new PlaceIndexBuilder();
+        for (int i = 0; i < PLACES; i++) {
+            String name = name(random);
+            if (i % (PLACES / QUERIES) == 0) {
+                queries[i / (PLACES / QUERIES)] = name;
+            }
+            builder.add(name, "", "XX", random.nextDouble() * 170 - 85, random.nextDouble() * 360 - 180,
+                    (int) (1000000 * Math.pow(random.nextDouble(), 8)));
+        }
+        File file = folder.newFile("gazetteer.idx");
+        builder.build(file);
+        PlaceIndex index = PlaceIndex.open(file);
+
+        String[] misspelled = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            misspelled[i] = misspell(queries[i], random);
+        }
+
+        // Warm up
+        exact(index, queries);
+        typeAhead(index, queries);
+        similar(index, queries, misspelled);
+
+        long start = System.nanoTime();
+        int found = exact(index, queries);
+        long exactElapsed = System.nanoTime() - start;
+        start = System.nanoTime();
+        int keystrokes = typeAhead(index, queries);
+        long typeAheadElapsed = System.nanoTime() - start;
+        start = System.nanoTime();
+        int corrected = similar(index, queries, misspelled);
+        long similarElapsed = System.nanoTime() - start;
+        index.close();
+
+        System.out.println(String.format("%d places, %d bytes: %d exact queries/s, %d keystrokes/s, "
+                        + "%d misspelled queries/s (%d%% corrected)", PLACES, file.length(),
+                QUERIES * 1000000000L / exactElapsed, keystrokes * 1000000000L / typeAheadElapsed,
+                QUERIES * 1000000000L / similarElapsed, corrected * 100 / QUERIES));
+        Assert.assertEquals(QUERIES, found);
+        Assert.assertTrue(corrected > QUERIES / 3);
+        Assert.assertTrue(typeAheadElapsed / keystrokes < 1000000);
+    }
+
+    private static int exact(PlaceIndex index, String[] queries) {
+        int found = 0;
+        for (String query : queries) {
+            if (index.search(query, 5).get(0).getName().equals(query)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static int typeAhead(PlaceIndex index, String[] queries) {
+        int keystrokes = 0;
+        for (String query : queries) {
+            PlaceIndex.NameQuery nameQuery = index.newQuery();
+            for (int length = 1; length <= query.length(); length++) {
+                nameQuery.update(query.substring(0, length)).results(5);
+                keystrokes++;
+            }
+        }
+        return keystrokes;
+    }
+
+    private static int similar(PlaceIndex index, String[] queries, String[] misspelled) {
+        int corrected = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            for (Place place : index.search(misspelled[i], 5)) {
+                if (place.getName().equals(queries[i])) {
+                    corrected++;
+                    break;
+                }
+            }
+        }
+        return corrected;
+    }
+
+    private static String name(Random random) {
+        StringBuilder name = new StringBuilder();
+        int syllables = 2 + random.nextInt(3);
+        for (int i = 0; i < syllables; i++) {
+            name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+        return name.toString();
+    }
+
+    /**
+     * Replaces, drops or swaps a character after the first one.
+     */
+    private static String misspell(String name, Random random) {
+        char[] chars = name.toLowerCase().toCharArray();
+        int position = 1 + random.nextInt(chars.length - 2);
+        switch (random.nextInt(3)) {
+            case 0:
+                chars[position] = (char) ('a' + random.nextInt(26));
+                return new String(chars);
+            case 1:
+                return new String(chars, 0, position) + new String(chars, position + 1, chars.length - position - 1);
+            default:
+                char swapped = chars[position];
+                chars[position] = chars[position + 1];
+                chars[position + 1] = swapped;
+                return new String(chars);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package io.nlopez.smartlocation.geocoding.offline;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Tests {@link PlaceIndex} and {@link PlaceIndexBuilder}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PlaceIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PlaceIndex index;
+
+    @Before
+    public void setup() throws IOException {
+        index = PlaceIndex.open(buildFixture(folder.newFile("places.idx"), PlaceIndexBuilder.DEFAULT_CELL_SIZE));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+    }
+
+    public static File buildFixture(File file, double cellSize) throws IOException {
+        Reader reader = new InputStreamReader(PlaceIndexTest.class.getResourceAsStream("/places.csv"), "UTF-8");
+        try {
+            new PlaceIndexBuilder().setCellSize(cellSize).addCsv(reader).build(file);
+        } finally {
+            reader.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void test_nearest_place() {
+        Assert.assertEquals(18, index.size());
+
+        List<Place> places = index.nearest(39.4745, -0.3583, 1, 50000);
+        Assert.assertEquals(1, places.size());
+        Place place = places.get(0);
+        Assert.assertEquals("Val\u00e8ncia", place.getName());
+        Assert.assertEquals("Comunitat Valenciana", place.getAdminArea());
+        Assert.assertEquals("ES", place.getCountryCode());
+        Assert.assertEquals(39.4699, place.getLatitude(), 1e-6);
+        Assert.assertEquals(791413, place.getPopulation());
+        Assert.assertEquals(1610, place.getDistance(), 50);
+    }
+
+    @Test
+    public void test_nearest_places_sorted_by_distance() {
+        List<Place> places = index.nearest(40.42, -3.70, 3, 100000);
+        Assert.assertEquals(3, places.size());
+        Assert.assertEquals("Madrid", places.get(0).getName());
+        Assert.assertEquals("Getafe", places.get(1).getName());
+        Assert.assertEquals("Alcobendas", places.get(2).getName());
+        Assert.assertTrue(places.get(1).getDistance() < places.get(2).getDistance());
+    }
+
+    @Test
+    public void test_max_distance_limits_results() {
+        Assert.assertTrue(index.nearest(30, -40, 1, 50000).isEmpty());
+        Assert.assertEquals(3, index.nearest(40.42, -3.70, 10, 30000).size());
+
+        List<Place> places = index.nearest(30, -40, 1, 5000000);
+        Assert.assertEquals(1, places.size());
+        Assert.assertEquals("Lisboa", places.get(0).getName());
+    }
+
+    @Test
+    public void test_unbounded_queries_return_every_place() {
+        for (double maxDistance : new double[]{Double.POSITIVE_INFINITY, Double.MAX_VALUE, 1e12}) {
+            List<Place> places = index.nearest(40.42, -3.70, Integer.MAX_VALUE, maxDistance);
+            Assert.assertEquals(index.size(), places.size());
+            Assert.assertEquals("Madrid", places.get(0).getName());
+        }
+        Assert.assertEquals(1, index.search("VALENCIA", Integer.MAX_VALUE).size());
+        Assert.assertFalse(index.search("barcelna", Integer.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void test_nearest_across_antimeridian() {
+        List<Place> places = index.nearest(-16.85, -179.99, 1, 50000);
+        Assert.assertEquals("Taveuni", places.get(0).getName());
+        Assert.assertTrue(places.get(0).getDistance() < 5000);
+    }
+
+    @Test
+    public void test_quoted_and_empty_fields() {
+        Assert.assertEquals("Washington, D.C.", index.nearest(38.9, -77.03, 1, 5000).get(0).getName());
+        Assert.assertEquals("", index.nearest(-77.84, 166.68, 1, 5000).get(0).getAdminArea());
+    }
+
+    @Test
+    public void test_nearest_matches_full_scan() {
+        for (double latitude = -85; latitude <= 85; latitude += 5.1) {
+            for (double longitude = -180; longitude < 180; longitude += 7.7) {
+                List<Place> all = index.nearest(latitude, longitude, index.size(), 2.1e7);
+                Assert.assertEquals(index.size(), all.size());
+                List<Place> expected = new ArrayList<>();
+                for (Place place : all) {
+                    if (place.getDistance() <= 1000000 && expected.size() < 2) {
+                        expected.add(place);
+                    }
+                }
+                Assert.assertEquals(expected.toString(), index.nearest(latitude, longitude, 2, 1000000).toString());
+            }
+        }
+    }
+
+    @Test
+    public void test_results_do_not_depend_on_cell_size() throws IOException {
+        for (double cellSize : new double[]{0.01, 0.1, 1, 10}) {
+            PlaceIndex other = PlaceIndex.open(buildFixture(folder.newFile("places_" + cellSize + ".idx"), cellSize));
+            for (double latitude = -85; latitude <= 85; latitude += 7.3) {
+                for (double longitude = -180; longitude < 180; longitude += 11.9) {
+                    Assert.assertEquals(index.nearest(latitude, longitude, 2, 1000000).toString(),
+                            other.nearest(latitude, longitude, 2, 1000000).toString());
+                }
+            }
+            other.close();
+        }
+    }
+
+    @Test
+    public void test_search_ignores_case_and_accents() {
+        List<Place> places = index.search("VALENCIA", 5);
+        Assert.assertEquals(1, places.size());
+        Assert.assertEquals("Val\u00e8ncia", places.get(0).getName());
+        Assert.assertTrue(Double.isNaN(places.get(0).getDistance()));
+        Assert.assertEquals("Washington, D.C.", index.search(" washington,  d.c.", 1).get(0).getName());
+    }
+
+    @Test
+    public void test_search_prefix_sorted_by_population() {
+        List<Place> places = index.search("L", 5);
+        Assert.assertEquals(3, places.size());
+        Assert.assertEquals("London", places.get(0).getName());
+        Assert.assertEquals("Lisboa", places.get(1).getName());
+        Assert.assertEquals("Longyearbyen", places.get(2).getName());
+        Assert.assertEquals(2, index.search("l", 2).size());
+        Assert.assertTrue(index.search("xyz", 5).isEmpty());
+        Assert.assertTrue(index.search("", 5).isEmpty());
+    }
+
+    @Test
+    public void test_search_exact_match_first() throws IOException {
+        File file = folder.newFile("names.idx");
+        new PlaceIndexBuilder()
+                .add("Granadilla", "", "ES", 28.1, -16.6, 50000)
+                .add("Granada", "", "ES", 37.2, -3.6, 1000)
+                .add("Granada", "", "NI", 11.9, -85.9, 500)
+                .build(file);
+        PlaceIndex names = PlaceIndex.open(file);
+        List<Place> places = names.search("granada", 5);
+        names.close();
+        Assert.assertEquals(3, places.size());
+        Assert.assertEquals("ES", places.get(0).getCountryCode());
+        Assert.assertEquals("Granada", places.get(0).getName());
+        Assert.assertEquals("NI", places.get(1).getCountryCode());
+        Assert.assertEquals("Granadilla", places.get(2).getName());
+    }
+
+    @Test
+    public void test_search_misspelled_name() {
+        List<Place> places = index.search("barcelna", 5);
+        Assert.assertEquals(1, places.size());
+        Assert.assertEquals("Barcelona", places.get(0).getName());
+        Assert.assertEquals("Sevilla", index.search("sevila", 1).get(0).getName());
+        Assert.assertEquals("Zaragoza", index.search("zaragosa", 1).get(0).getName());
+        Assert.assertTrue(index.search("qwertyuiop", 5).isEmpty());
+    }
+
+    @Test
+    public void test_search_prefix_before_misspelled() {
+        List<Place> places = index.search("lond", 5);
+        Assert.assertEquals("London", places.get(0).getName());
+        for (int i = 1; i < places.size(); i++) {
+            Assert.assertFalse("London".equals(places.get(i).getName()));
+        }
+    }
+
+    @Test
+    public void test_incremental_query() {
+        PlaceIndex.NameQuery query = index.newQuery();
+        Assert.assertEquals(3, query.update("l").getMatchCount());
+        Assert.assertEquals(2, query.update("lo").getMatchCount());
+        Assert.assertEquals(2, query.update("lon").getMatchCount());
+        Assert.assertEquals(1, query.update("lond").getMatchCount());
+        Assert.assertEquals("London", query.update("London").results(1).get(0).getName());
+        Assert.assertEquals(0, query.update("londonx").getMatchCount());
+        Assert.assertEquals(1, query.update("lis").getMatchCount());
+        Assert.assertEquals("Lisboa", query.results(1).get(0).getName());
+        Assert.assertEquals(3, query.update("l").getMatchCount());
+    }
+
+    @Test
+    public void test_incremental_query_matches_search() {
+        String[] texts = {"m", "ma", "mad", "madr", "madrid", "madrid ", "b", "ba", "bar", "barce", "barcelna"};
+        PlaceIndex.NameQuery query = index.newQuery();
+        for (String text : texts) {
+            Assert.assertEquals(index.search(text, 3).toString(), query.update(text).results(3).toString());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_invalid_csv_line() throws IOException {
+        new PlaceIndexBuilder().addCsv(new StringReader("Madrid,,ES,not a number,-3.7"));
+    }
+
+    @Test(expected = IOException.class)
+    public void test_open_invalid_file() throws IOException {
+        PlaceIndex.open(folder.newFile("empty.idx"));
+    }
+}
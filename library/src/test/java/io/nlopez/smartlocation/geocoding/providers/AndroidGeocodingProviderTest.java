@@ -0,0 +1,281 @@
+package io.nlopez.smartlocation.geocoding.providers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Address;
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnGeocodingListener;
+import io.nlopez.smartlocation.OnReverseGeocodingListener;
+import io.nlopez.smartlocation.geocoding.engine.GeocoderBackend;
+import io.nlopez.smartlocation.geocoding.utils.LocationAddress;
+import io.nlopez.smartlocation.utils.Logger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests {@link AndroidGeocodingProvider}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AndroidGeocodingProviderTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private Context context;
+    private AndroidGeocodingProvider provider;
+    private FakeBackend backend;
+
+    @Before
+    public void setup() {
+        context = mock(Context.class);
+        backend = new FakeBackend();
+        provider = new AndroidGeocodingProvider(Locale.US);
+        provider.init(context, mock(Logger.class));
+        provider.setInProcess(true);
+        provider.setCallbackExecutor(DIRECT);
+        provider.setBackend(backend);
+    }
+
+    @Test
+    public void test_in_process_mode_sends_no_broadcasts() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(3);
+        provider.addName("Estadi de Mestalla", 1);
+        provider.addLocation(location(39.4745, -0.3583), 1);
+        provider.addLocation(location(51.5007, -0.1246), 2);
+        provider.start(new OnGeocodingListener() {
+            @Override
+            public void onLocationResolved(String name, List<LocationAddress> results) {
+                Assert.assertEquals("Estadi de Mestalla", results.get(0).getAddress().getFeatureName());
+                latch.countDown();
+            }
+        }, new OnReverseGeocodingListener() {
+            @Override
+            public void onAddressResolved(Location original, List<Address> results) {
+                Assert.assertEquals(original.getLatitude(), results.get(0).getLatitude(), 0);
+                latch.countDown();
+            }
+        });
+
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        verify(context, never()).startService(any(Intent.class));
+        verify(context, never()).sendBroadcast(any(Intent.class));
+        verify(context, never()).registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class));
+    }
+
+    @Test
+    public void test_in_process_stop_drops_pending_results() throws InterruptedException {
+        backend.latch = new CountDownLatch(1);
+        final CountDownLatch delivered = new CountDownLatch(1);
+        provider.addLocation(location(39.4745, -0.3583), 1);
+        provider.start(null, new OnReverseGeocodingListener() {
+            @Override
+            public void onAddressResolved(Location original, List<Address> results) {
+                delivered.countDown();
+            }
+        });
+
+        provider.stop();
+        backend.latch.countDown();
+        Assert.assertFalse(delivered.await(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void test_lookups_added_from_other_threads_are_started() throws InterruptedException {
+        final int threads = 8;
+        final int lookups = 50;
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch added = new CountDownLatch(threads);
+        final CountDownLatch done = new CountDownLatch(threads * lookups);
+        final Set<String> delivered = Collections.synchronizedSet(new HashSet<String>());
+        final OnGeocodingListener listener = new OnGeocodingListener() {
+            @Override
+            public void onLocationResolved(String name, List<LocationAddress> results) {
+                delivered.add(name);
+                done.countDown();
+            }
+        };
+
+        for (int t = 0; t < threads; t++) {
+            final String prefix = "thread " + t + " ";
+            final boolean starting = t % 2 == 0;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ready.countDown();
+                    try {
+                        ready.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < lookups; i++) {
+                        provider.addName(prefix + i, 1);
+                    }
+                    if (starting) {
+                        provider.start(listener, null);
+                    }
+                    added.countDown();
+                }
+            }).start();
+        }
+
+        // Whatever the threads left pending is started from this one
+        Assert.assertTrue(added.await(5, TimeUnit.SECONDS));
+        provider.start(listener, null);
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(threads * lookups, delivered.size());
+    }
+
+    @Test
+    public void test_service_stop_cancels_only_own_batches() {
+        AndroidGeocodingProvider first = new AndroidGeocodingProvider(Locale.US);
+        first.init(context, mock(Logger.class));
+        AndroidGeocodingProvider second = new AndroidGeocodingProvider(Locale.US);
+        second.init(context, mock(Logger.class));
+        final List<String> resolved = new ArrayList<>();
+        OnGeocodingListener listener = new OnGeocodingListener() {
+            @Override
+            public void onLocationResolved(String name, List<LocationAddress> results) {
+                resolved.add(name);
+            }
+        };
+
+        first.addName("Estadi de Mestalla", 1);
+        first.start(listener, null);
+        second.addName("Big Ben", 1);
+        second.start(null, null);
+        ArgumentCaptor<Intent> intents = ArgumentCaptor.forClass(Intent.class);
+        verify(context, times(2)).startService(intents.capture());
+        String firstOwner = intents.getAllValues().get(0).getStringExtra("owner");
+        String secondOwner = intents.getAllValues().get(1).getStringExtra("owner");
+        Assert.assertNotNull(firstOwner);
+        Assert.assertNotEquals(firstOwner, secondOwner);
+
+        // Results of the other provider are ignored
+        ArgumentCaptor<BroadcastReceiver> receivers = ArgumentCaptor.forClass(BroadcastReceiver.class);
+        verify(context, times(2)).registerReceiver(receivers.capture(), any(IntentFilter.class));
+        Intent result = new Intent(AndroidGeocodingProvider.class.getCanonicalName() + ".DIRECT_GEOCODE_ACTION");
+        result.putExtra("name", "Big Ben");
+        result.putExtra("owner", secondOwner);
+        receivers.getAllValues().get(0).onReceive(context, result);
+        Assert.assertTrue(resolved.isEmpty());
+        result.putExtra("name", "Estadi de Mestalla");
+        result.putExtra("owner", firstOwner);
+        receivers.getAllValues().get(0).onReceive(context, result);
+        Assert.assertEquals(Collections.singletonList("Estadi de Mestalla"), resolved);
+
+        first.stop();
+        verify(context, never()).stopService(any(Intent.class));
+        verify(context, times(3)).startService(intents.capture());
+        Intent cancel = intents.getValue();
+        Assert.assertEquals(AndroidGeocodingProvider.class.getCanonicalName() + ".CANCEL_ACTION", cancel.getAction());
+        Assert.assertEquals(firstOwner, cancel.getStringExtra("owner"));
+    }
+
+    @Test
+    public void test_service_batches_share_one_engine() throws InterruptedException {
+        AndroidGeocodingProvider.setSharedBackend(backend);
+        backend.latch = new CountDownLatch(1);
+        AndroidGeocodingProvider first = new AndroidGeocodingProvider(Locale.US);
+        first.init(context, mock(Logger.class));
+        AndroidGeocodingProvider second = new AndroidGeocodingProvider(Locale.US);
+        second.init(context, mock(Logger.class));
+        first.addLocation(location(39.4745, -0.3583), 1);
+        first.start(null, null);
+        second.addLocation(location(39.4745, -0.3583), 1);
+        second.start(null, null);
+        ArgumentCaptor<Intent> intents = ArgumentCaptor.forClass(Intent.class);
+        verify(context, times(2)).startService(intents.capture());
+
+        final List<Intent> broadcasts = Collections.synchronizedList(new ArrayList<Intent>());
+        AndroidGeocodingProvider.AndroidGeocodingService service = new AndroidGeocodingProvider.AndroidGeocodingService() {
+            @Override
+            public void sendBroadcast(Intent intent) {
+                broadcasts.add(intent);
+            }
+        };
+        // Both batches reach the service while the first lookup is still running
+        for (Intent intent : intents.getAllValues()) {
+            service.submit(intent);
+        }
+        backend.latch.countDown();
+        for (Intent intent : intents.getAllValues()) {
+            service.onHandleIntent(intent);
+        }
+
+        Assert.assertEquals(1, backend.calls.get());
+        Assert.assertEquals(2, broadcasts.size());
+        Set<String> owners = new HashSet<>();
+        for (Intent broadcast : broadcasts) {
+            owners.add(broadcast.getStringExtra("owner"));
+        }
+        Assert.assertEquals(2, owners.size());
+        AndroidGeocodingProvider.setSharedBackend(null);
+    }
+
+    private static Location location(double latitude, double longitude) {
+        Location location = new Location("test");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        return location;
+    }
+
+    private static class FakeBackend implements GeocoderBackend {
+        private volatile CountDownLatch latch;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public List<Address> getFromLocation(double latitude, double longitude, int maxResults) throws IOException {
+            calls.incrementAndGet();
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+            }
+            Address address = new Address(Locale.US);
+            address.setLatitude(latitude);
+            address.setLongitude(longitude);
+            return Collections.singletonList(address);
+        }
+
+        @Override
+        public List<Address> getFromLocationName(String name, int maxResults) throws IOException {
+            Address address = new Address(Locale.US);
+            address.setFeatureName(name);
+            return Collections.singletonList(address);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package io.nlopez.smartlocation.geocoding.providers;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnGeocodingListener;
+import io.nlopez.smartlocation.OnReverseGeocodingListener;
+import io.nlopez.smartlocation.geocoding.GeocodingProvider;
+import io.nlopez.smartlocation.geocoding.utils.LocationAddress;
+import io.nlopez.smartlocation.utils.Logger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures direct lookups of {@link CachedGeocodingProvider}: cold ones read the disk cache of a new
+ * provider, warm ones are answered from memory. The wrapped provider answers instantly, so the figures are
+ * the overhead of the cache itself.
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CachedGeocodingBenchmarkTest {
+
+    private static final int NAMES = 500;
+    private static final int ROUNDS = 20;
+
+    // Everything in the test thread, so the figures do not include thread hops
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int resolved;
+
+    @Test
+    public void test_warm_lookups_are_faster_than_cold_ones() {
+        Context context = mock(Context.class);
+        when(context.getCacheDir()).thenReturn(folder.getRoot());
+        InstantGeocodingProvider delegate = new InstantGeocodingProvider();
+
+        CachedGeocodingProvider filler = newProvider(context, delegate);
+        long miss = lookups(filler);
+
+        long cold = 0;
+        CachedGeocodingProvider provider = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            provider = newProvider(context, delegate);
+            cold += lookups(provider);
+        }
+        cold /= ROUNDS;
+
+        long warm = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            warm += lookups(provider);
+        }
+        warm /= ROUNDS;
+
+        System.out.println(String.format("miss: %d ns/lookup, cold: %d ns/lookup, warm: %d ns/lookup",
+                miss / NAMES, cold / NAMES, warm / NAMES));
+
+        Assert.assertEquals(NAMES, delegate.queries);
+        Assert.assertEquals(NAMES * (ROUNDS * 2 + 1), resolved);
+        Assert.assertEquals(NAMES * (ROUNDS + 1), provider.getHitCount());
+        Assert.assertTrue(warm < cold);
+    }
+
+    private CachedGeocodingProvider newProvider(Context context, GeocodingProvider delegate) {
+        CachedGeocodingProvider provider = new CachedGeocodingProvider(delegate, Locale.US);
+        provider.setCacheLimits(NAMES, 0);
+        provider.setDiskCacheEnabled(true);
+        provider.setDiskExecutor(DIRECT);
+        provider.setCallbackExecutor(DIRECT);
+        provider.init(context, mock(Logger.class));
+        return provider;
+    }
+
+    private final OnGeocodingListener listener = new OnGeocodingListener() {
+        @Override
+        public void onLocationResolved(String name, List<LocationAddress> results) {
+            resolved++;
+        }
+    };
+
+    private long lookups(CachedGeocodingProvider provider) {
+        long start = System.nanoTime();
+        for (int i = 0; i < NAMES; i++) {
+            provider.addName("Calle Mayor " + i + ", Madrid", 1);
+        }
+        provider.start(listener, null);
+        return System.nanoTime() - start;
+    }
+
+    private static class InstantGeocodingProvider implements GeocodingProvider {
+        private final List<String> pending = new ArrayList<>();
+        private int queries;
+
+        @Override
+        public void init(Context context, Logger logger) {
+        }
+
+        @Override
+        public void addName(String name, int maxResults) {
+            pending.add(name);
+        }
+
+        @Override
+        public void addLocation(Location location, int maxResults) {
+        }
+
+        @Override
+        public void start(OnGeocodingListener geocodingListener, OnReverseGeocodingListener reverseGeocodingListener) {
+            for (String name : pending) {
+                queries++;
+                Address address = new Address(Locale.US);
+                address.setAddressLine(0, name);
+                address.setLocality("Madrid");
+                address.setCountryCode("ES");
+                address.setLatitude(40.4153);
+                address.setLongitude(-3.7074);
+                geocodingListener.onLocationResolved(name, Collections.singletonList(new LocationAddress(address)));
+            }
+            pending.clear();
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+}
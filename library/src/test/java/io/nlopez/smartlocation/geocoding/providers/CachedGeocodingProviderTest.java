@@ -0,0 +1,329 @@
+package io.nlopez.smartlocation.geocoding.providers;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnGeocodingListener;
+import io.nlopez.smartlocation.OnReverseGeocodingListener;
+import io.nlopez.smartlocation.geocoding.GeocodingProvider;
+import io.nlopez.smartlocation.geocoding.utils.LocationAddress;
+import io.nlopez.smartlocation.geocoding.utils.NameNormalizer;
+import io.nlopez.smartlocation.utils.Logger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link CachedGeocodingProvider}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CachedGeocodingProviderTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Context context;
+    private FakeGeocodingProvider delegate;
+    private List<Location> resolved;
+    private List<String> resolvedNames;
+    private String addressLine;
+    private List<Integer> resultCounts;
+
+    @Before
+    public void setup() {
+        context = mock(Context.class);
+        when(context.getCacheDir()).thenReturn(folder.getRoot());
+        delegate = new FakeGeocodingProvider();
+        resolved = new ArrayList<>();
+        resolvedNames = new ArrayList<>();
+        resultCounts = new ArrayList<>();
+    }
+
+    @Test
+    public void test_nearby_locations_share_cached_results() {
+        CachedGeocodingProvider provider = newProvider();
+
+        provider.addLocation(location(40.41680, -3.70380), 1);
+        provider.start(null, reverseListener());
+        Assert.assertEquals(1, delegate.reverseQueries);
+        Assert.assertEquals(1, resolved.size());
+
+        provider.addLocation(location(40.41685, -3.70385), 1);
+        provider.start(null, reverseListener());
+        Assert.assertEquals(1, delegate.reverseQueries);
+        Assert.assertEquals(2, resolved.size());
+        Assert.assertEquals(1, provider.getHitCount());
+        Assert.assertEquals(1, provider.getMissCount());
+    }
+
+    @Test
+    public void test_cache_key_includes_max_results_and_cell() {
+        CachedGeocodingProvider provider = newProvider();
+
+        provider.addLocation(location(40.41680, -3.70380), 1);
+        provider.addLocation(location(40.41680, -3.70380), 5);
+        provider.addLocation(location(41.38790, 2.16990), 1);
+        provider.start(null, reverseListener());
+        Assert.assertEquals(3, delegate.reverseQueries);
+        Assert.assertEquals(0, provider.getHitCount());
+    }
+
+    @Test
+    public void test_empty_results_are_not_cached() {
+        CachedGeocodingProvider provider = newProvider();
+        delegate.empty = true;
+
+        provider.addLocation(location(40.41680, -3.70380), 1);
+        provider.start(null, reverseListener());
+        provider.addLocation(location(40.41680, -3.70380), 1);
+        provider.start(null, reverseListener());
+        Assert.assertEquals(2, delegate.reverseQueries);
+    }
+
+    @Test
+    public void test_disk_cache_survives_new_provider() {
+        CachedGeocodingProvider provider = newProvider();
+        provider.setDiskCacheEnabled(true);
+        provider.addLocation(location(40.41680, -3.70380), 1);
+        provider.start(null, reverseListener());
+
+        CachedGeocodingProvider other = newProvider();
+        other.setDiskCacheEnabled(true);
+        other.addLocation(location(40.41681, -3.70381), 1);
+        other.start(null, reverseListener());
+        Assert.assertEquals(1, delegate.reverseQueries);
+        Assert.assertEquals(1, other.getHitCount());
+        Assert.assertEquals(2, resolved.size());
+        Assert.assertEquals("Address 1", addressLine);
+    }
+
+    @Test
+    public void test_direct_queries_are_normalized() {
+        Assert.assertEquals("plaza de espana madrid",
+                NameNormalizer.normalize("  Plaza de  Espa\u00f1a\tMADRID "));
+        Assert.assertEquals("estadi de mestalla", NameNormalizer.normalize("Estadi de Mestall\u00e0"));
+
+        CachedGeocodingProvider provider = newProvider();
+        provider.addName("Estadi de Mestalla", 1);
+        provider.start(directListener(), null);
+        provider.addName("estadi  de MESTALLA", 1);
+        provider.addName("Estadi de Mestalla", 3);
+        provider.start(directListener(), null);
+
+        Assert.assertEquals(2, delegate.directQueries);
+        Assert.assertEquals(1, provider.getHitCount());
+        Assert.assertEquals(3, resolvedNames.size());
+        Assert.assertEquals("estadi  de MESTALLA", resolvedNames.get(2));
+    }
+
+    @Test
+    public void test_direct_disk_cache_loads_on_first_lookup() {
+        CachedGeocodingProvider provider = newProvider();
+        provider.setDiskCacheEnabled(true);
+        provider.addName("Big Ben", 1);
+        provider.start(directListener(), null);
+
+        CachedGeocodingProvider other = newProvider();
+        other.setDiskCacheEnabled(true);
+        other.addName("big ben", 1);
+        other.start(directListener(), null);
+        Assert.assertEquals(1, delegate.directQueries);
+        Assert.assertEquals(1, other.getHitCount());
+
+        // Not read when initializing, so removing the file before the first lookup leaves it empty
+        CachedGeocodingProvider lazy = newProvider();
+        lazy.setDiskCacheEnabled(true);
+        for (File file : folder.getRoot().listFiles()) {
+            Assert.assertTrue(file.delete());
+        }
+        lazy.addName("Big Ben", 1);
+        lazy.start(directListener(), null);
+        Assert.assertEquals(2, delegate.directQueries);
+    }
+
+    @Test
+    public void test_pending_lookups_are_matched_by_max_results() {
+        CachedGeocodingProvider provider = newProvider();
+        delegate.resultsPerQuery = 5;
+
+        provider.addLocation(location(40.41680, -3.70380), 1);
+        provider.addLocation(location(40.41680, -3.70380), 5);
+        provider.start(null, reverseListener());
+        Assert.assertEquals(2, delegate.reverseQueries);
+
+        // Only the five results are known to belong to the lookup of five
+        provider.addLocation(location(40.41680, -3.70380), 5);
+        provider.addLocation(location(40.41680, -3.70380), 1);
+        provider.start(null, reverseListener());
+        Assert.assertEquals(3, delegate.reverseQueries);
+        Assert.assertEquals(1, provider.getHitCount());
+        Assert.assertEquals(1, (int) resultCounts.get(2));
+        Assert.assertEquals(5, (int) resultCounts.get(3));
+    }
+
+    @Test
+    public void test_disk_and_hits_go_through_executors() {
+        List<Runnable> disk = new ArrayList<>();
+        List<Runnable> callbacks = new ArrayList<>();
+        CachedGeocodingProvider provider = newProvider();
+        provider.setDiskCacheEnabled(true);
+        provider.addName("Big Ben", 1);
+        provider.start(directListener(), null);
+
+        CachedGeocodingProvider other = newProvider();
+        other.setDiskCacheEnabled(true);
+        other.setDiskExecutor(queue(disk));
+        other.setCallbackExecutor(queue(callbacks));
+        other.addName("big ben", 1);
+        other.addName("Westminster Abbey", 1);
+        other.start(directListener(), null);
+        Assert.assertEquals(1, disk.size());
+        Assert.assertEquals(1, delegate.directQueries);
+        Assert.assertEquals(1, resolvedNames.size());
+
+        disk.remove(0).run();
+        Assert.assertEquals(2, delegate.directQueries);
+        Assert.assertEquals(2, resolvedNames.size());
+        // The new result is written in the disk executor, the cached one delivered in the callback one
+        Assert.assertEquals(1, disk.size());
+        Assert.assertEquals(1, callbacks.size());
+        callbacks.remove(0).run();
+        Assert.assertEquals(3, resolvedNames.size());
+        Assert.assertEquals("big ben", resolvedNames.get(2));
+        Assert.assertEquals(1, other.getHitCount());
+
+        // Memory hits are not delivered inside start either
+        other.addName("big ben", 1);
+        other.start(directListener(), null);
+        Assert.assertEquals(3, resolvedNames.size());
+        callbacks.remove(0).run();
+        Assert.assertEquals(4, resolvedNames.size());
+    }
+
+    private CachedGeocodingProvider newProvider() {
+        CachedGeocodingProvider provider = new CachedGeocodingProvider(delegate, Locale.US);
+        provider.setDiskExecutor(DIRECT);
+        provider.setCallbackExecutor(DIRECT);
+        provider.init(context, mock(Logger.class));
+        return provider;
+    }
+
+    private static Executor queue(final List<Runnable> tasks) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+    }
+
+    private OnReverseGeocodingListener reverseListener() {
+        return new OnReverseGeocodingListener() {
+            @Override
+            public void onAddressResolved(Location original, List<Address> results) {
+                resolved.add(original);
+                resultCounts.add(results.size());
+                addressLine = results.isEmpty() ? null : results.get(0).getAddressLine(0);
+            }
+        };
+    }
+
+    private OnGeocodingListener directListener() {
+        return new OnGeocodingListener() {
+            @Override
+            public void onLocationResolved(String name, List<LocationAddress> results) {
+                resolvedNames.add(name);
+            }
+        };
+    }
+
+    private static Location location(double latitude, double longitude) {
+        Location location = new Location("test");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        return location;
+    }
+
+    private static class FakeGeocodingProvider implements GeocodingProvider {
+        private final List<Location> pending = new ArrayList<>();
+        private final List<Integer> pendingMaxResults = new ArrayList<>();
+        private final List<String> pendingNames = new ArrayList<>();
+        private int resultsPerQuery = 1;
+        private int reverseQueries;
+        private int directQueries;
+        private boolean empty;
+
+        @Override
+        public void init(Context context, Logger logger) {
+        }
+
+        @Override
+        public void addName(String name, int maxResults) {
+            pendingNames.add(name);
+        }
+
+        @Override
+        public void addLocation(Location location, int maxResults) {
+            pending.add(location);
+            pendingMaxResults.add(maxResults);
+        }
+
+        @Override
+        public void start(OnGeocodingListener geocodingListener, OnReverseGeocodingListener reverseGeocodingListener) {
+            for (int i = 0; i < pending.size(); i++) {
+                Location location = pending.get(i);
+                reverseQueries++;
+                List<Address> results = new ArrayList<>();
+                int count = empty ? 0 : Math.min(resultsPerQuery, pendingMaxResults.get(i));
+                for (int j = 0; j < count; j++) {
+                    Address address = new Address(Locale.US);
+                    address.setAddressLine(0, "Address " + reverseQueries);
+                    address.setLatitude(location.getLatitude());
+                    address.setLongitude(location.getLongitude());
+                    results.add(address);
+                }
+                reverseGeocodingListener.onAddressResolved(location, results);
+            }
+            pending.clear();
+            pendingMaxResults.clear();
+            for (String name : pendingNames) {
+                directQueries++;
+                Address address = new Address(Locale.US);
+                address.setAddressLine(0, name);
+                address.setLatitude(51.5007);
+                address.setLongitude(-0.1246);
+                geocodingListener.onLocationResolved(name, Collections.singletonList(new LocationAddress(address)));
+            }
+            pendingNames.clear();
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+}
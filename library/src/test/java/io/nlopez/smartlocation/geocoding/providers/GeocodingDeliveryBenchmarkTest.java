@@ -0,0 +1,123 @@
+package io.nlopez.smartlocation.geocoding.providers;
+
+import android.content.Context;
+import android.content.Intent;
+import android.location.Address;
+import android.location.Location;
+import android.os.Parcel;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnReverseGeocodingListener;
+import io.nlopez.smartlocation.geocoding.engine.GeocoderBackend;
+import io.nlopez.smartlocation.utils.Logger;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Measures the per result delivery overhead of {@link AndroidGeocodingProvider} with an instant geocoder:
+ * in process mode against the parcel round trip every broadcast result goes through (once to the system
+ * and once back, so the real cost is at least twice the one printed).
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GeocodingDeliveryBenchmarkTest {
+
+    private static final int RESULTS = 2000;
+
+    @Test
+    public void test_delivery_overhead_per_result() throws InterruptedException {
+        long inProcess = inProcessDelivery();
+        long parcel = parcelRoundTrip();
+        System.out.println(String.format("in process: %d ns/result, broadcast parcel round trip: %d ns/result",
+                inProcess / RESULTS, parcel / RESULTS));
+    }
+
+    private long inProcessDelivery() throws InterruptedException {
+        AndroidGeocodingProvider provider = new AndroidGeocodingProvider(Locale.US);
+        provider.init(mock(Context.class), mock(Logger.class));
+        provider.setInProcess(true);
+        provider.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        provider.setBackend(new InstantBackend());
+
+        final CountDownLatch latch = new CountDownLatch(RESULTS);
+        long start = System.nanoTime();
+        for (int i = 0; i < RESULTS; i++) {
+            provider.addLocation(location(i), 1);
+        }
+        provider.start(null, new OnReverseGeocodingListener() {
+            @Override
+            public void onAddressResolved(Location original, List<Address> results) {
+                latch.countDown();
+            }
+        });
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        return System.nanoTime() - start;
+    }
+
+    @SuppressWarnings("unchecked")
+    private long parcelRoundTrip() {
+        InstantBackend backend = new InstantBackend();
+        long start = System.nanoTime();
+        for (int i = 0; i < RESULTS; i++) {
+            Location location = location(i);
+            ArrayList<Address> results = new ArrayList<>(backend.getFromLocation(location.getLatitude(),
+                    location.getLongitude(), 1));
+            Intent intent = new Intent("reverse");
+            intent.putExtra("location", location);
+            intent.putExtra("result", results);
+
+            Parcel parcel = Parcel.obtain();
+            intent.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            Intent received = Intent.CREATOR.createFromParcel(parcel);
+            parcel.recycle();
+
+            Assert.assertNotNull(received.getParcelableExtra("location"));
+            Assert.assertEquals(1, ((List<Address>) received.getSerializableExtra("result")).size());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static Location location(int i) {
+        Location location = new Location("test");
+        location.setLatitude(39.4745 + i * 0.0001);
+        location.setLongitude(-0.3583);
+        return location;
+    }
+
+    private static class InstantBackend implements GeocoderBackend {
+        @Override
+        public List<Address> getFromLocation(double latitude, double longitude, int maxResults) {
+            Address address = new Address(Locale.US);
+            address.setAddressLine(0, "Avinguda de Suecia, s/n");
+            address.setLocality("Valencia");
+            address.setCountryCode("ES");
+            address.setLatitude(latitude);
+            address.setLongitude(longitude);
+            return Collections.singletonList(address);
+        }
+
+        @Override
+        public List<Address> getFromLocationName(String name, int maxResults) {
+            return Collections.emptyList();
+        }
+    }
+}
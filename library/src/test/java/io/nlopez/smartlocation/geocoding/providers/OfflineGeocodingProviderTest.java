@@ -0,0 +1,144 @@
+package io.nlopez.smartlocation.geocoding.providers;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnGeocodingListener;
+import io.nlopez.smartlocation.OnReverseGeocodingListener;
+import io.nlopez.smartlocation.geocoding.offline.PlaceIndexBuilder;
+import io.nlopez.smartlocation.geocoding.offline.PlaceIndexTest;
+import io.nlopez.smartlocation.geocoding.utils.LocationAddress;
+import io.nlopez.smartlocation.utils.Logger;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests {@link OfflineGeocodingProvider}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class OfflineGeocodingProviderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File indexFile;
+    private List<Location> originals;
+    private List<List<Address>> results;
+
+    @Before
+    public void setup() throws IOException {
+        indexFile = PlaceIndexTest.buildFixture(folder.newFile("places.idx"), PlaceIndexBuilder.DEFAULT_CELL_SIZE);
+        originals = new ArrayList<>();
+        results = new ArrayList<>();
+    }
+
+    @Test
+    public void test_reverse_geocoding_from_index() {
+        OfflineGeocodingProvider provider = new OfflineGeocodingProvider(indexFile, Locale.US);
+        provider.init(mock(Context.class), mock(Logger.class));
+
+        Location valencia = location(39.4745, -0.3583);
+        Location ocean = location(30, -40);
+        provider.addLocation(valencia, 1);
+        provider.addLocation(ocean, 1);
+        provider.start(null, listener());
+
+        Assert.assertEquals(2, results.size());
+        Assert.assertSame(valencia, originals.get(0));
+        Address address = results.get(0).get(0);
+        Assert.assertEquals("Val\u00e8ncia", address.getLocality());
+        Assert.assertEquals("Comunitat Valenciana", address.getAdminArea());
+        Assert.assertEquals("ES", address.getCountryCode());
+        Assert.assertEquals(Locale.US, address.getLocale());
+        Assert.assertTrue(results.get(1).isEmpty());
+    }
+
+    @Test
+    public void test_max_distance() {
+        OfflineGeocodingProvider provider = new OfflineGeocodingProvider(indexFile, Locale.US);
+        provider.init(mock(Context.class), mock(Logger.class));
+        provider.setMaxDistance(1000);
+
+        provider.addLocation(location(39.4745, -0.3583), 1);
+        provider.start(null, listener());
+        Assert.assertTrue(results.get(0).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_max_distance_must_be_positive() {
+        new OfflineGeocodingProvider(indexFile, Locale.US).setMaxDistance(0);
+    }
+
+    @Test
+    public void test_direct_geocoding_from_index() {
+        OfflineGeocodingProvider provider = new OfflineGeocodingProvider(indexFile, Locale.US);
+        provider.init(mock(Context.class), mock(Logger.class));
+
+        final List<String> names = new ArrayList<>();
+        final List<List<LocationAddress>> addresses = new ArrayList<>();
+        provider.addName("barcelna", 1);
+        provider.addName("lo", 5);
+        provider.addName("Atlantis", 5);
+        provider.start(new OnGeocodingListener() {
+            @Override
+            public void onLocationResolved(String name, List<LocationAddress> results) {
+                names.add(name);
+                addresses.add(results);
+            }
+        }, null);
+
+        Assert.assertEquals(3, names.size());
+        Assert.assertEquals("barcelna", names.get(0));
+        Assert.assertEquals(1, addresses.get(0).size());
+        LocationAddress barcelona = addresses.get(0).get(0);
+        Assert.assertEquals("Barcelona", barcelona.getAddress().getLocality());
+        Assert.assertEquals(41.3874, barcelona.getLocation().getLatitude(), 1e-6);
+        Assert.assertEquals(2, addresses.get(1).size());
+        Assert.assertEquals("London", addresses.get(1).get(0).getAddress().getLocality());
+        Assert.assertTrue(addresses.get(2).isEmpty());
+    }
+
+    @Test
+    public void test_missing_index_resolves_to_no_results() {
+        OfflineGeocodingProvider provider = new OfflineGeocodingProvider(new File(folder.getRoot(), "missing"));
+        provider.init(mock(Context.class), mock(Logger.class));
+
+        provider.addLocation(location(39.4745, -0.3583), 1);
+        provider.start(null, listener());
+        Assert.assertTrue(results.get(0).isEmpty());
+    }
+
+    private OnReverseGeocodingListener listener() {
+        return new OnReverseGeocodingListener() {
+            @Override
+            public void onAddressResolved(Location original, List<Address> addresses) {
+                originals.add(original);
+                results.add(addresses);
+            }
+        };
+    }
+
+    private static Location location(double latitude, double longitude) {
+        Location location = new Location("test");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        return location;
+    }
+}
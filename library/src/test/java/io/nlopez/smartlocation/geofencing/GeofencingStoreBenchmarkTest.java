@@ -0,0 +1,101 @@
+package io.nlopez.smartlocation.geofencing;
+
+import android.content.Context;
+
+import com.google.android.gms.location.Geofence;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.common.BinaryFileStore;
+import io.nlopez.smartlocation.common.StoreBackend;
+import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+import io.nlopez.smartlocation.util.CountingSharedPreferences;
+
+/**
+ * Measures the registration of 100, 1k and 10k geofences in {@link GeofencingStore}, one by one and in a
+ * single batch. Every SharedPreferences commit rewrites the whole XML file, so writing one by one grows
+ * quadratically and is only measured up to 1k fences.
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GeofencingStoreBenchmarkTest {
+
+    private static final int[] SIZES = {100, 1000, 10000};
+    private static final int MAX_SINGLE_SIZE = 1000;
+
+    @Test
+    public void test_batch_registration_writes_once() {
+        Context context = RuntimeEnvironment.application;
+        for (int size : SIZES) {
+            Map<String, GeofenceModel> geofences = geofences(size);
+
+            CountingSharedPreferences preferences = preferences(context);
+            GeofencingStore store = new GeofencingStore(context, StoreBackend.SHARED_PREFERENCES);
+            store.setPreferences(preferences);
+            long start = System.nanoTime();
+            store.putAll(geofences);
+            long batchMillis = (System.nanoTime() - start) / 1000000;
+            Assert.assertEquals(1, preferences.getCommits());
+            Assert.assertEquals(size, store.getAll().size());
+            long batchBytes = preferences.getBytesWritten();
+
+            BinaryFileStore.clearSharedStores();
+            context.deleteFile("GEOFENCING_STORE.bin");
+            GeofencingStore binaryStore = new GeofencingStore(context, StoreBackend.BINARY_FILE);
+            binaryStore.setPreferences(preferences(context));
+            start = System.nanoTime();
+            binaryStore.putAll(geofences);
+            BinaryFileStore.awaitWrites();
+            long binaryMillis = (System.nanoTime() - start) / 1000000;
+            Assert.assertEquals(size, binaryStore.getAll().size());
+
+            String single = "skipped";
+            if (size <= MAX_SINGLE_SIZE) {
+                preferences = preferences(context);
+                store.setPreferences(preferences);
+                start = System.nanoTime();
+                for (Map.Entry<String, GeofenceModel> entry : geofences.entrySet()) {
+                    store.put(entry.getKey(), entry.getValue());
+                }
+                long singleMillis = (System.nanoTime() - start) / 1000000;
+                Assert.assertEquals(size, preferences.getCommits());
+                Assert.assertTrue(batchBytes * 10 < preferences.getBytesWritten());
+                single = String.format("%d ms, %d commits, %d KB", singleMillis, preferences.getCommits(),
+                        preferences.getBytesWritten() / 1024);
+            }
+
+            System.out.println(String.format("%5d fences: one by one %s | batch %d ms, 1 commit, %d KB | binary batch %d ms",
+                    size, single, batchMillis, batchBytes / 1024, binaryMillis));
+        }
+    }
+
+    private static CountingSharedPreferences preferences(Context context) {
+        CountingSharedPreferences preferences = new CountingSharedPreferences(
+                context.getSharedPreferences("benchmark_geofencing", Context.MODE_PRIVATE));
+        preferences.edit().clear().commit();
+        preferences.reset();
+        return preferences;
+    }
+
+    private static Map<String, GeofenceModel> geofences(int size) {
+        Map<String, GeofenceModel> geofences = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            String id = "store" + i;
+            geofences.put(id, new GeofenceModel.Builder(id)
+                    .setLatitude(39 + (i % 100) / 1000.0)
+                    .setLongitude(-0.4 + (i / 100) / 1000.0)
+                    .setRadius(150)
+                    .setTransition(Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT)
+                    .build());
+        }
+        return geofences;
+    }
+}
@@ -12,8 +12,13 @@ import org.junit.runner.RunWith;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import io.nlopez.smartlocation.CustomTestRunner;
 import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+import io.nlopez.smartlocation.util.CountingSharedPreferences;
 
 /**
  * Created by nacho on 1/9/15.
@@ -60,6 +65,35 @@ public class GeofencingStoreTest {
         Assert.assertNull(store.get(TEST_GEOFENCE_ID));
     }
 
+    @Test
+    public void test_geofencing_store_batches_use_single_commit() {
+        CountingSharedPreferences preferences = new CountingSharedPreferences(getSharedPreferences());
+        GeofencingStore store = new GeofencingStore(RuntimeEnvironment.application.getApplicationContext());
+        store.setPreferences(preferences);
+
+        Map<String, GeofenceModel> geofences = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            geofences.put("batch" + i, new GeofenceModel.Builder("batch" + i)
+                    .setLatitude(i)
+                    .setLongitude(-i)
+                    .setRadius(100 + i)
+                    .setTransition(Geofence.GEOFENCE_TRANSITION_EXIT)
+                    .build());
+        }
+        store.putAll(geofences);
+        Assert.assertEquals(1, preferences.getCommits());
+
+        Map<String, GeofenceModel> stored = store.getAll();
+        Assert.assertEquals(10, stored.size());
+        Assert.assertEquals(105, stored.get("batch5").getRadius(), DELTA);
+        Assert.assertEquals(-7, stored.get("batch7").getLongitude(), DELTA);
+
+        store.removeAll(Arrays.asList("batch0", "batch1", "batch2"));
+        Assert.assertEquals(2, preferences.getCommits());
+        Assert.assertNull(store.get("batch1"));
+        Assert.assertEquals(7, store.getAll().size());
+    }
+
     private SharedPreferences getSharedPreferences() {
         return RuntimeEnvironment.application.getApplicationContext().getSharedPreferences("test_prefs",
                                                                                            Context.MODE_PRIVATE);
@@ -0,0 +1,88 @@
+package io.nlopez.smartlocation.geofencing.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Measures the containment tests per second of {@link PolygonGeofenceModel} with 10 to 10k vertices, against
+ * the crossing number over every edge. The polygons are noisy stars, like a traced delivery zone, and the
+ * points are spread over their bounding box.
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PolygonGeofenceBenchmarkTest {
+
+    private static final int[] VERTEX_COUNTS = {10, 100, 1000, 10000};
+    private static final int POINTS = 20000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void test_containment_tests_per_second() {
+        for (int vertexCount : VERTEX_COUNTS) {
+            Random random = new Random(17);
+            PolygonGeofenceModel.Builder builder = new PolygonGeofenceModel.Builder("zone");
+            double[] latitudes = new double[vertexCount];
+            double[] longitudes = new double[vertexCount];
+            for (int i = 0; i < vertexCount; i++) {
+                double angle = 2 * Math.PI * i / vertexCount;
+                double radius = 0.05 * (1 + 0.3 * Math.sin(angle * 7) + 0.1 * random.nextDouble());
+                latitudes[i] = 41.39 + radius * Math.sin(angle);
+                longitudes[i] = 2.17 + radius * Math.cos(angle) * 1.3;
+                builder.addVertex(latitudes[i], longitudes[i]);
+            }
+            PolygonGeofenceModel polygon = builder.build();
+
+            double[] pointLatitudes = new double[POINTS];
+            double[] pointLongitudes = new double[POINTS];
+            for (int i = 0; i < POINTS; i++) {
+                pointLatitudes[i] = polygon.getMinLatitude()
+                        + random.nextDouble() * (polygon.getMaxLatitude() - polygon.getMinLatitude());
+                pointLongitudes[i] = polygon.getMinLongitude()
+                        + random.nextDouble() * (polygon.getMaxLongitude() - polygon.getMinLongitude());
+            }
+
+            int inside = 0;
+            int linearInside = 0;
+            long indexedTime = Long.MAX_VALUE;
+            long linearTime = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                inside = 0;
+                for (int i = 0; i < POINTS; i++) {
+                    if (polygon.contains(pointLatitudes[i], pointLongitudes[i])) {
+                        inside++;
+                    }
+                }
+                indexedTime = Math.min(indexedTime, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                linearInside = 0;
+                for (int i = 0; i < POINTS; i++) {
+                    if (PolygonGeofenceModelTest.crossings(latitudes, longitudes, pointLatitudes[i],
+                            pointLongitudes[i])) {
+                        linearInside++;
+                    }
+                }
+                linearTime = Math.min(linearTime, System.nanoTime() - start);
+            }
+
+            long indexedRate = POINTS * 1000000000L / Math.max(1, indexedTime);
+            long linearRate = POINTS * 1000000000L / Math.max(1, linearTime);
+            System.out.println(String.format("%5d vertices: %8d tests/s with the slab index, %8d tests/s over every edge (%d%% inside)",
+                    vertexCount, indexedRate, linearRate, inside * 100 / POINTS));
+
+            // Points right on the edges may land on either side with the projection, so allow a few
+            Assert.assertEquals(linearInside, inside, POINTS / 1000);
+            Assert.assertTrue(inside > POINTS / 4);
+            if (vertexCount >= 1000) {
+                Assert.assertTrue(indexedRate > linearRate * 5);
+            }
+        }
+    }
+}
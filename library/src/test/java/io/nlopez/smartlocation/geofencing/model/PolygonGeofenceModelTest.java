@@ -0,0 +1,188 @@
+package io.nlopez.smartlocation.geofencing.model;
+
+import com.google.android.gms.location.Geofence;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Tests {@link PolygonGeofenceModel} and {@link CorridorGeofenceModel}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PolygonGeofenceModelTest {
+
+    private static final double DELTA = 1e-7;
+
+    @Test
+    public void test_concave_polygon() {
+        // U shape, open to the north
+        PolygonGeofenceModel polygon = new PolygonGeofenceModel.Builder("u")
+                .addVertex(10, 10)
+                .addVertex(10, 10.3)
+                .addVertex(10.3, 10.3)
+                .addVertex(10.3, 10.2)
+                .addVertex(10.1, 10.2)
+                .addVertex(10.1, 10.1)
+                .addVertex(10.3, 10.1)
+                .addVertex(10.3, 10)
+                .setTransition(Geofence.GEOFENCE_TRANSITION_ENTER)
+                .build();
+
+        Assert.assertEquals(8, polygon.getVertexCount());
+        Assert.assertEquals(10, polygon.getMinLatitude(), DELTA);
+        Assert.assertEquals(10.3, polygon.getMaxLatitude(), DELTA);
+        Assert.assertEquals(10, polygon.getMinLongitude(), DELTA);
+        Assert.assertEquals(10.3, polygon.getMaxLongitude(), DELTA);
+        Assert.assertEquals(10.15, polygon.getLatitude(), DELTA);
+        Assert.assertEquals(10.15, polygon.getLongitude(), DELTA);
+
+        Assert.assertTrue(polygon.contains(10.05, 10.15));
+        Assert.assertTrue(polygon.contains(10.25, 10.05));
+        Assert.assertTrue(polygon.contains(10.25, 10.25));
+        Assert.assertFalse(polygon.contains(10.25, 10.15));
+        Assert.assertFalse(polygon.contains(9.99, 10.15));
+        Assert.assertFalse(polygon.contains(10.15, 10.31));
+
+        // The enclosing circle contains every vertex
+        for (double[] vertex : new double[][]{{10, 10}, {10, 10.3}, {10.3, 10.3}, {10.3, 10}}) {
+            Assert.assertTrue(new GeofenceModel.Builder("circle")
+                    .setLatitude(polygon.getLatitude())
+                    .setLongitude(polygon.getLongitude())
+                    .setRadius(polygon.getRadius())
+                    .build()
+                    .contains(vertex[0], vertex[1]));
+        }
+
+        // 0.05 degrees are about 5.56 km of latitude and 5.47 km of longitude
+        Assert.assertEquals(-5559.8, polygon.getEdgeDistance(10.05, 10.15), 10);
+        Assert.assertEquals(5472.7, polygon.getEdgeDistance(10.25, 10.15), 10);
+    }
+
+    @Test
+    public void test_polygon_across_antimeridian() {
+        PolygonGeofenceModel polygon = new PolygonGeofenceModel.Builder("pacific")
+                .addVertex(-10, 179)
+                .addVertex(-10, -179)
+                .addVertex(10, -179)
+                .addVertex(10, 179)
+                .build();
+
+        Assert.assertEquals(179, polygon.getMinLongitude(), DELTA);
+        Assert.assertEquals(-179, polygon.getMaxLongitude(), DELTA);
+        Assert.assertTrue(polygon.contains(0, 180));
+        Assert.assertTrue(polygon.contains(5, -179.5));
+        Assert.assertTrue(polygon.contains(-5, 179.5));
+        Assert.assertFalse(polygon.contains(0, 0));
+        Assert.assertFalse(polygon.contains(0, 178.9));
+    }
+
+    @Test
+    public void test_polygon_matches_crossing_number() {
+        Random random = new Random(5);
+        for (int vertices : new int[]{3, 10, 100, 1000}) {
+            PolygonGeofenceModel.Builder builder = new PolygonGeofenceModel.Builder("star" + vertices);
+            double[] latitudes = new double[vertices];
+            double[] longitudes = new double[vertices];
+            for (int i = 0; i < vertices; i++) {
+                double angle = 2 * Math.PI * i / vertices;
+                double radius = 0.02 + random.nextDouble() * 0.08;
+                latitudes[i] = 45 + radius * Math.sin(angle);
+                longitudes[i] = 7 + radius * Math.cos(angle);
+                builder.addVertex(latitudes[i], longitudes[i]);
+            }
+            PolygonGeofenceModel polygon = builder.build();
+            for (int i = 0; i < 2000; i++) {
+                double latitude = 44.88 + random.nextDouble() * 0.24;
+                double longitude = 6.88 + random.nextDouble() * 0.24;
+                Assert.assertEquals(crossings(latitudes, longitudes, latitude, longitude),
+                        polygon.contains(latitude, longitude));
+            }
+        }
+    }
+
+    @Test
+    public void test_corridor() {
+        // Route going east and then north
+        CorridorGeofenceModel corridor = new CorridorGeofenceModel.Builder("route")
+                .addPoint(40, -4)
+                .addPoint(40, -3.9)
+                .addPoint(40.1, -3.9)
+                .setDistance(100)
+                .build();
+
+        Assert.assertEquals(3, corridor.getPointCount());
+        Assert.assertEquals(100, corridor.getDistance(), DELTA);
+        Assert.assertTrue(corridor.contains(40.0008, -3.95));
+        Assert.assertFalse(corridor.contains(40.0010, -3.95));
+        Assert.assertTrue(corridor.contains(40.05, -3.8990));
+        Assert.assertFalse(corridor.contains(40.05, -3.8985));
+        Assert.assertFalse(corridor.contains(40.05, -3.95));
+        Assert.assertTrue(corridor.contains(39.9995, -4.0005));
+        Assert.assertFalse(corridor.contains(40.1012, -3.9));
+
+        Assert.assertEquals(-100, corridor.getEdgeDistance(40, -3.95), 0.5);
+        Assert.assertEquals(11.2, corridor.getEdgeDistance(40.001, -3.95), 0.5);
+    }
+
+    @Test
+    public void test_corridor_matches_linear_scan() {
+        Random random = new Random(8);
+        CorridorGeofenceModel.Builder builder = new CorridorGeofenceModel.Builder("walk").setDistance(30);
+        int points = 2000;
+        double[] latitudes = new double[points];
+        double[] longitudes = new double[points];
+        double latitude = 51.5;
+        double longitude = -0.1;
+        for (int i = 0; i < points; i++) {
+            latitude += (random.nextDouble() - 0.45) * 0.001;
+            longitude += (random.nextDouble() - 0.4) * 0.001;
+            latitudes[i] = latitude;
+            longitudes[i] = longitude;
+            builder.addPoint(latitude, longitude);
+        }
+        CorridorGeofenceModel corridor = builder.build();
+        int inside = 0;
+        for (int i = 0; i < 5000; i++) {
+            int point = random.nextInt(points);
+            double testLatitude = latitudes[point] + (random.nextDouble() - 0.5) * 0.002;
+            double testLongitude = longitudes[point] + (random.nextDouble() - 0.5) * 0.002;
+            boolean expected = corridor.getEdgeDistance(testLatitude, testLongitude) <= 0;
+            Assert.assertEquals(expected, corridor.contains(testLatitude, testLongitude));
+            inside += expected ? 1 : 0;
+        }
+        Assert.assertTrue(inside > 500);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void test_shapes_can_not_be_registered_in_play_services() {
+        new PolygonGeofenceModel.Builder("triangle")
+                .addVertex(0, 0)
+                .addVertex(0, 1)
+                .addVertex(1, 0)
+                .build()
+                .toGeofence();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_polygon_needs_three_vertices() {
+        new PolygonGeofenceModel.Builder("segment").addVertex(0, 0).addVertex(0, 1).build();
+    }
+
+    static boolean crossings(double[] latitudes, double[] longitudes, double latitude, double longitude) {
+        boolean inside = false;
+        for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+            if ((latitudes[i] > latitude) != (latitudes[j] > latitude) && longitude < (longitudes[j] - longitudes[i])
+                    * (latitude - latitudes[i]) / (latitudes[j] - latitudes[i]) + longitudes[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,156 @@
+package io.nlopez.smartlocation.geofencing.providers;
+
+import android.content.Context;
+
+import com.google.android.gms.location.Geofence;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnGeofencingTransitionListener;
+import io.nlopez.smartlocation.common.Store;
+import io.nlopez.smartlocation.geofencing.GeofencingStore;
+import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+import io.nlopez.smartlocation.geofencing.model.PolygonGeofenceModel;
+import io.nlopez.smartlocation.geofencing.utils.TransitionGeofence;
+import io.nlopez.smartlocation.util.CountingSharedPreferences;
+import io.nlopez.smartlocation.utils.Logger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests {@link GeofencingGooglePlayServicesProvider}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GeofencingGooglePlayServicesProviderTest {
+
+    private static final int GEOFENCES = 50;
+
+    private CountingSharedPreferences preferences;
+    private Map<String, GeofenceModel> geofences;
+    private List<String> ids;
+    private OnGeofencingTransitionListener listener;
+    private Logger logger;
+
+    @Before
+    public void setup() {
+        Context context = RuntimeEnvironment.application;
+        preferences = new CountingSharedPreferences(
+                context.getSharedPreferences("test_geofencing_provider", Context.MODE_PRIVATE));
+        preferences.edit().clear().commit();
+
+        geofences = new LinkedHashMap<>();
+        ids = new ArrayList<>();
+        for (int i = 0; i < GEOFENCES; i++) {
+            String id = "fence" + i;
+            geofences.put(id, new GeofenceModel.Builder(id)
+                    .setLatitude(40 + i / 1000.0)
+                    .setLongitude(-3)
+                    .setRadius(100)
+                    .setTransition(Geofence.GEOFENCE_TRANSITION_ENTER)
+                    .build());
+            ids.add(id);
+        }
+        listener = mock(OnGeofencingTransitionListener.class);
+        logger = mock(Logger.class);
+    }
+
+    @Test
+    public void test_transition_batch_does_not_read_preferences() {
+        GeofencingStore store = newStore();
+        store.putAll(geofences);
+        preferences.reset();
+
+        GeofencingGooglePlayServicesProvider.notifyTransitions(store, listener, logger,
+                Geofence.GEOFENCE_TRANSITION_ENTER, ids);
+
+        verify(listener, times(GEOFENCES)).onGeofenceTransition(any(TransitionGeofence.class));
+        Assert.assertEquals(0, preferences.getReads());
+    }
+
+    @Test
+    public void test_persisted_geofences_are_loaded_once() {
+        newStore().putAll(geofences);
+        GeofencingStore store = newStore();
+        preferences.reset();
+
+        GeofencingGooglePlayServicesProvider.notifyTransitions(store, listener, logger,
+                Geofence.GEOFENCE_TRANSITION_ENTER, ids);
+        GeofencingGooglePlayServicesProvider.notifyTransitions(store, listener, logger,
+                Geofence.GEOFENCE_TRANSITION_EXIT, ids);
+
+        verify(listener, times(GEOFENCES * 2)).onGeofenceTransition(any(TransitionGeofence.class));
+        Assert.assertEquals(1, preferences.getReads());
+        Assert.assertEquals(-3, store.get("fence7").getLongitude(), 1e-9);
+    }
+
+    @Test
+    public void test_removed_geofences_are_not_notified() {
+        GeofencingStore store = newStore();
+        store.putAll(geofences);
+        store.removeAll(ids.subList(0, 10));
+        preferences.reset();
+
+        GeofencingGooglePlayServicesProvider.notifyTransitions(store, listener, logger,
+                Geofence.GEOFENCE_TRANSITION_ENTER, ids);
+
+        verify(listener, times(GEOFENCES - 10)).onGeofenceTransition(any(TransitionGeofence.class));
+        verify(logger, times(10)).w(anyString());
+        Assert.assertEquals(0, preferences.getReads());
+    }
+
+    @Test
+    public void test_plain_stores_are_written_one_by_one() {
+        Store<GeofenceModel> plainStore = mock(Store.class);
+        GeofencingGooglePlayServicesProvider.putAll(plainStore, geofences);
+        GeofencingGooglePlayServicesProvider.removeAll(plainStore, ids.subList(0, 10));
+        verify(plainStore, times(GEOFENCES)).put(anyString(), any(GeofenceModel.class));
+        verify(plainStore).put("fence7", geofences.get("fence7"));
+        verify(plainStore, times(10)).remove(anyString());
+
+        GeofencingStore store = newStore();
+        preferences.reset();
+        GeofencingGooglePlayServicesProvider.putAll(store, geofences);
+        GeofencingGooglePlayServicesProvider.removeAll(store, ids.subList(0, 10));
+        Assert.assertEquals(2, preferences.getCommits());
+        Assert.assertEquals(GEOFENCES - 10, store.getAll().size());
+    }
+
+    @Test
+    public void test_shape_geofences_are_rejected_with_their_id() {
+        GeofencingGooglePlayServicesProvider provider = new GeofencingGooglePlayServicesProvider();
+        List<GeofenceModel> fences = new ArrayList<>(geofences.values());
+        fences.add(new PolygonGeofenceModel.Builder("zone")
+                .addVertex(39.47, -0.38)
+                .addVertex(39.47, -0.35)
+                .addVertex(39.49, -0.36)
+                .build());
+        try {
+            provider.addGeofences(fences);
+            Assert.fail("Polygons can not be registered in Google Play Services");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("zone"));
+        }
+    }
+
+    private GeofencingStore newStore() {
+        GeofencingStore store = new GeofencingStore(RuntimeEnvironment.application);
+        store.setPreferences(preferences);
+        return store;
+    }
+}
@@ -0,0 +1,127 @@
+package io.nlopez.smartlocation.geofencing.providers;
+
+import android.content.Context;
+import android.location.Location;
+
+import com.google.android.gms.location.Geofence;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnGeofencingTransitionListener;
+import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+import io.nlopez.smartlocation.geofencing.utils.TransitionGeofence;
+import io.nlopez.smartlocation.location.LocationProvider;
+import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.location.utils.GeoDistance;
+import io.nlopez.smartlocation.utils.Logger;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Measures the fixes per second {@link LocalGeofencingProvider} evaluates with 1k, 10k and 100k fences the
+ * size of stores, clustered in cities over a country sized area, against testing every fence on every fix.
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocalGeofencingBenchmarkTest {
+
+    private static final int[] FENCE_COUNTS = {1000, 10000, 100000};
+    private static final int CITIES = 200;
+    private static final int FIXES = 50000;
+
+    @Test
+    public void test_fixes_per_second() {
+        for (int fenceCount : FENCE_COUNTS) {
+            Random random = new Random(42);
+            double[] cities = new double[CITIES * 2];
+            for (int i = 0; i < CITIES; i++) {
+                cities[i * 2] = 36 + random.nextDouble() * 8;
+                cities[i * 2 + 1] = -9 + random.nextDouble() * 12;
+            }
+            List<GeofenceModel> fences = new ArrayList<>(fenceCount);
+            for (int i = 0; i < fenceCount; i++) {
+                int city = random.nextInt(CITIES);
+                fences.add(new GeofenceModel.Builder("store" + i)
+                        .setLatitude(cities[city * 2] + random.nextGaussian() * 0.05)
+                        .setLongitude(cities[city * 2 + 1] + random.nextGaussian() * 0.05)
+                        .setRadius(100 + random.nextInt(200))
+                        .setTransition(Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT
+                                | Geofence.GEOFENCE_TRANSITION_DWELL)
+                        .setLoiteringDelay(60000)
+                        .build());
+            }
+            // Someone driving around the cities, a fix every second
+            List<Location> fixes = new ArrayList<>(FIXES);
+            int city = 0;
+            double latitude = cities[0];
+            double longitude = cities[1];
+            for (int i = 0; i < FIXES; i++) {
+                if (i % 1000 == 0) {
+                    city = random.nextInt(CITIES);
+                    latitude = cities[city * 2];
+                    longitude = cities[city * 2 + 1];
+                }
+                latitude += random.nextGaussian() * 0.0002;
+                longitude += random.nextGaussian() * 0.0002;
+                Location fix = new Location("test");
+                fix.setLatitude(latitude);
+                fix.setLongitude(longitude);
+                fix.setTime(i * 1000L);
+                fixes.add(fix);
+            }
+
+            final int[] transitions = new int[1];
+            LocalGeofencingProvider provider = new LocalGeofencingProvider(mock(LocationProvider.class),
+                    LocationParams.NAVIGATION);
+            provider.init(mock(Context.class), mock(Logger.class));
+            provider.start(new OnGeofencingTransitionListener() {
+                @Override
+                public void onGeofenceTransition(TransitionGeofence transitionGeofence) {
+                    transitions[0]++;
+                }
+            });
+            provider.addGeofences(fences);
+
+            // Warm up
+            for (int i = 0; i < FIXES / 10; i++) {
+                provider.onLocationUpdated(fixes.get(i));
+            }
+            transitions[0] = 0;
+            long start = System.nanoTime();
+            for (Location fix : fixes) {
+                provider.onLocationUpdated(fix);
+            }
+            long indexed = System.nanoTime() - start;
+
+            int linearFixes = FIXES / 50;
+            int linearInside = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < linearFixes; i++) {
+                Location fix = fixes.get(i);
+                for (GeofenceModel fence : fences) {
+                    if (GeoDistance.meters(fix.getLatitude(), fix.getLongitude(), fence.getLatitude(),
+                            fence.getLongitude()) <= fence.getRadius()) {
+                        linearInside++;
+                    }
+                }
+            }
+            long linear = System.nanoTime() - start;
+
+            long indexedRate = FIXES * 1000000000L / indexed;
+            long linearRate = linearFixes * 1000000000L / linear;
+            System.out.println(String.format("%d fences: %d fixes/s indexed, %d fixes/s testing every fence, "
+                    + "%d transitions", fenceCount, indexedRate, linearRate, transitions[0]));
+            Assert.assertTrue(transitions[0] > 0);
+            Assert.assertTrue(indexedRate > linearRate);
+            Assert.assertTrue(indexedRate > 10000);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package io.nlopez.smartlocation.geofencing.providers;
+
+import android.content.Context;
+import android.location.Location;
+
+import com.google.android.gms.location.Geofence;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnGeofencingTransitionListener;
+import io.nlopez.smartlocation.OnLocationUpdatedListener;
+import io.nlopez.smartlocation.geofencing.model.CorridorGeofenceModel;
+import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+import io.nlopez.smartlocation.geofencing.model.PolygonGeofenceModel;
+import io.nlopez.smartlocation.geofencing.utils.ProximityBands;
+import io.nlopez.smartlocation.geofencing.utils.TransitionGeofence;
+import io.nlopez.smartlocation.location.LocationProvider;
+import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.utils.Logger;
+
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests {@link LocalGeofencingProvider}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocalGeofencingProviderTest {
+
+    private static final int ALL = Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT
+            | Geofence.GEOFENCE_TRANSITION_DWELL;
+
+    private LocationProvider locationProvider;
+    private LocalGeofencingProvider provider;
+    private List<String> transitions;
+
+    @Before
+    public void setup() {
+        locationProvider = mock(LocationProvider.class);
+        provider = new LocalGeofencingProvider(locationProvider, LocationParams.NAVIGATION);
+        provider.init(mock(Context.class), mock(Logger.class));
+        transitions = new ArrayList<>();
+        provider.start(new OnGeofencingTransitionListener() {
+            @Override
+            public void onGeofenceTransition(TransitionGeofence transitionGeofence) {
+                transitions.add(transitionGeofence.getGeofenceModel().getRequestId() + ":"
+                        + transitionGeofence.getTransitionType());
+            }
+        });
+    }
+
+    @Test
+    public void test_starts_location_updates() {
+        verify(locationProvider).start(eq((OnLocationUpdatedListener) provider), eq(LocationParams.NAVIGATION),
+                eq(false));
+        provider.stop();
+        verify(locationProvider).stop();
+    }
+
+    @Test
+    public void test_enter_dwell_exit() {
+        provider.addGeofence(fence("store", 39.4745, -0.3583, 200, ALL, 60000));
+
+        provider.onLocationUpdated(fix(39.48, -0.36, 0));
+        Assert.assertTrue(transitions.isEmpty());
+
+        provider.onLocationUpdated(fix(39.4746, -0.3584, 1000));
+        Assert.assertEquals("store:" + Geofence.GEOFENCE_TRANSITION_ENTER, transitions.remove(0));
+
+        provider.onLocationUpdated(fix(39.4747, -0.3582, 30000));
+        Assert.assertTrue(transitions.isEmpty());
+
+        provider.onLocationUpdated(fix(39.4745, -0.3583, 61000));
+        Assert.assertEquals("store:" + Geofence.GEOFENCE_TRANSITION_DWELL, transitions.remove(0));
+
+        provider.onLocationUpdated(fix(39.4745, -0.3583, 200000));
+        Assert.assertTrue(transitions.isEmpty());
+
+        provider.onLocationUpdated(fix(39.50, -0.3583, 201000));
+        Assert.assertEquals("store:" + Geofence.GEOFENCE_TRANSITION_EXIT, transitions.remove(0));
+        Assert.assertTrue(transitions.isEmpty());
+    }
+
+    @Test
+    public void test_transition_flags_are_respected() {
+        provider.addGeofence(fence("enter", 10, 10, 1000, Geofence.GEOFENCE_TRANSITION_ENTER, 0));
+        provider.addGeofence(fence("exit", 10, 10, 1000, Geofence.GEOFENCE_TRANSITION_EXIT, 0));
+
+        provider.onLocationUpdated(fix(10, 10, 0));
+        provider.onLocationUpdated(fix(11, 11, 1000));
+        provider.onLocationUpdated(fix(10, 10, 2000));
+        Assert.assertEquals(3, transitions.size());
+        Assert.assertEquals("enter:" + Geofence.GEOFENCE_TRANSITION_ENTER, transitions.get(0));
+        Assert.assertEquals("exit:" + Geofence.GEOFENCE_TRANSITION_EXIT, transitions.get(1));
+        Assert.assertEquals("enter:" + Geofence.GEOFENCE_TRANSITION_ENTER, transitions.get(2));
+    }
+
+    @Test
+    public void test_removed_fences_do_not_exit() {
+        provider.addGeofence(fence("a", 10, 10, 1000, ALL, 0));
+        provider.onLocationUpdated(fix(10, 10, 0));
+        Assert.assertEquals(2, transitions.size());
+
+        provider.removeGeofence("a");
+        Assert.assertEquals(0, provider.getGeofenceCount());
+        provider.onLocationUpdated(fix(11, 11, 1000));
+        Assert.assertEquals(2, transitions.size());
+    }
+
+    @Test
+    public void test_expired_fences_are_removed() {
+        long now = System.currentTimeMillis();
+        provider.addGeofence(new GeofenceModel.Builder("temporary").setLatitude(10).setLongitude(10).setRadius(1000)
+                .setTransition(ALL).setExpiration(60000).build());
+        provider.addGeofence(fence("permanent", 10, 10, 1000, Geofence.GEOFENCE_TRANSITION_ENTER, 0));
+        Assert.assertEquals(2, provider.getGeofenceCount());
+
+        provider.onLocationUpdated(fix(10, 10, now + 120000));
+        Assert.assertEquals(1, provider.getGeofenceCount());
+        Assert.assertEquals(1, transitions.size());
+        Assert.assertEquals("permanent:" + Geofence.GEOFENCE_TRANSITION_ENTER, transitions.get(0));
+    }
+
+    @Test
+    public void test_no_transitions_after_stop() {
+        provider.addGeofence(fence("a", 10, 10, 1000, ALL, 0));
+        provider.stop();
+        provider.onLocationUpdated(fix(10, 10, 0));
+        Assert.assertTrue(transitions.isEmpty());
+    }
+
+    @Test
+    public void test_polygon_and_corridor_fences() {
+        // L shaped delivery zone, and a route going east along its bottom edge
+        provider.addGeofence(new PolygonGeofenceModel.Builder("zone")
+                .addVertex(40.00, -3.00)
+                .addVertex(40.00, -2.98)
+                .addVertex(40.01, -2.98)
+                .addVertex(40.01, -2.99)
+                .addVertex(40.02, -2.99)
+                .addVertex(40.02, -3.00)
+                .setTransition(Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT)
+                .build());
+        provider.addGeofence(new CorridorGeofenceModel.Builder("route")
+                .addPoint(39.9998, -3.01)
+                .addPoint(39.9998, -2.97)
+                .setDistance(50)
+                .setTransition(Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT)
+                .build());
+
+        // Inside the bounding box of the zone but in its notch
+        provider.onLocationUpdated(fix(40.015, -2.985, 0));
+        Assert.assertTrue(transitions.isEmpty());
+
+        provider.onLocationUpdated(fix(40.015, -2.995, 1000));
+        Assert.assertEquals("zone:" + Geofence.GEOFENCE_TRANSITION_ENTER, transitions.remove(0));
+
+        // Bottom edge of the zone, 33 meters from the route
+        provider.onLocationUpdated(fix(40.0001, -2.99, 2000));
+        Assert.assertEquals("route:" + Geofence.GEOFENCE_TRANSITION_ENTER, transitions.remove(0));
+        Assert.assertTrue(transitions.isEmpty());
+
+        provider.onLocationUpdated(fix(39.9998, -2.975, 3000));
+        Assert.assertEquals("zone:" + Geofence.GEOFENCE_TRANSITION_EXIT, transitions.remove(0));
+        Assert.assertTrue(transitions.isEmpty());
+
+        provider.onLocationUpdated(fix(39.998, -2.975, 4000));
+        Assert.assertEquals("route:" + Geofence.GEOFENCE_TRANSITION_EXIT, transitions.remove(0));
+    }
+
+    @Test
+    public void test_proximity_bands_switch_params() {
+        provider.setProximityBands(ProximityBands.DEFAULT);
+        provider.addGeofence(fence("store", 39.4745, -0.3583, 200, ALL, 60000));
+
+        // About 5.7 km away
+        provider.onLocationUpdated(fix(39.5255, -0.3583, 0));
+        verify(locationProvider).start(eq((OnLocationUpdatedListener) provider), eq(LocationParams.LAZY), eq(false));
+        Assert.assertEquals(LocationParams.LAZY, provider.getCurrentParams());
+
+        // About 900 m away
+        provider.onLocationUpdated(fix(39.4844, -0.3583, 1000));
+        Assert.assertEquals(LocationParams.BEST_EFFORT, provider.getCurrentParams());
+
+        // Inside, 100 m from the boundary
+        provider.onLocationUpdated(fix(39.4754, -0.3583, 2000));
+        Assert.assertEquals(LocationParams.NAVIGATION, provider.getCurrentParams());
+        Assert.assertEquals(3, provider.getParamsChangeCount());
+
+        // Still near, no restart
+        provider.onLocationUpdated(fix(39.4755, -0.3583, 3000));
+        Assert.assertEquals(3, provider.getParamsChangeCount());
+    }
+
+    private static GeofenceModel fence(String id, double latitude, double longitude, float radius, int transition,
+                                       int loiteringDelay) {
+        return new GeofenceModel.Builder(id)
+                .setLatitude(latitude)
+                .setLongitude(longitude)
+                .setRadius(radius)
+                .setTransition(transition)
+                .setLoiteringDelay(loiteringDelay)
+                .build();
+    }
+
+    private static Location fix(double latitude, double longitude, long time) {
+        Location location = new Location("test");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setTime(time);
+        return location;
+    }
+}
@@ -0,0 +1,241 @@
+package io.nlopez.smartlocation.geofencing.providers;
+
+import android.content.Context;
+import android.location.Location;
+
+import com.google.android.gms.location.Geofence;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnGeofencingTransitionListener;
+import io.nlopez.smartlocation.OnLocationUpdatedListener;
+import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+import io.nlopez.smartlocation.geofencing.utils.ProximityBands;
+import io.nlopez.smartlocation.geofencing.utils.TransitionGeofence;
+import io.nlopez.smartlocation.location.LocationProvider;
+import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.location.utils.GeoDistance;
+import io.nlopez.smartlocation.utils.Logger;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Replays a simulated day of someone driving and walking between fences in several towns, with a location
+ * provider that only delivers the fixes allowed by the interval and distance of the params requested, and
+ * compares the fixes requested and the transitions missed by {@link LocalGeofencingProvider} with fixed
+ * {@link LocationParams#NAVIGATION}, fixed {@link LocationParams#LAZY} and the default {@link ProximityBands}.
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocalGeofencingSamplingTest {
+
+    private static final int TOWNS = 6;
+    private static final int FENCES_PER_TOWN = 25;
+    private static final int SECONDS = 24 * 3600;
+    private static final double METERS_PER_DEGREE = 111195;
+
+    @Test
+    public void test_proximity_bands_save_fixes_without_missing_transitions() {
+        Random random = new Random(7);
+        List<GeofenceModel> fences = createFences(random);
+        List<Location> trace = createTrace(random, fences);
+
+        Map<String, Integer> expected = new HashMap<>();
+        replay(fences, trace, null, null, expected);
+
+        Map<String, Integer> navigation = new HashMap<>();
+        int navigationFixes = replay(fences, trace, LocationParams.NAVIGATION, null, navigation);
+        Map<String, Integer> lazy = new HashMap<>();
+        int lazyFixes = replay(fences, trace, LocationParams.LAZY, null, lazy);
+        Map<String, Integer> adaptive = new HashMap<>();
+        int adaptiveFixes = replay(fences, trace, LocationParams.NAVIGATION, ProximityBands.DEFAULT, adaptive);
+
+        int transitions = count(expected);
+        int navigationMissed = missed(expected, navigation);
+        int lazyMissed = missed(expected, lazy);
+        int adaptiveMissed = missed(expected, adaptive);
+        System.out.println(String.format("%d transitions in %d seconds: navigation %d fixes, %d missed; "
+                        + "lazy %d fixes, %d missed; proximity bands %d fixes, %d missed", transitions, trace.size(),
+                navigationFixes, navigationMissed, lazyFixes, lazyMissed, adaptiveFixes, adaptiveMissed));
+
+        Assert.assertTrue(transitions > 200);
+        Assert.assertEquals(0, navigationMissed);
+        Assert.assertEquals(0, adaptiveMissed);
+        Assert.assertTrue(lazyMissed > transitions / 10);
+        Assert.assertTrue(adaptiveFixes < navigationFixes / 2);
+    }
+
+    /**
+     * Replays the trace and counts the transitions of every fence.
+     *
+     * @param params params requested at start, or null for delivering every point of the trace
+     * @param bands  bands set in the provider, or null for using the params all the time
+     * @return number of fixes delivered
+     */
+    private static int replay(List<GeofenceModel> fences, List<Location> trace, LocationParams params,
+                              ProximityBands bands, final Map<String, Integer> transitions) {
+        SampledLocationProvider locationProvider = new SampledLocationProvider();
+        LocalGeofencingProvider provider = new LocalGeofencingProvider(locationProvider,
+                params != null ? params : LocationParams.NAVIGATION);
+        provider.init(mock(Context.class), mock(Logger.class));
+        provider.setProximityBands(bands);
+        provider.addGeofences(fences);
+        provider.start(new OnGeofencingTransitionListener() {
+            @Override
+            public void onGeofenceTransition(TransitionGeofence transitionGeofence) {
+                String key = transitionGeofence.getGeofenceModel().getRequestId() + ":"
+                        + transitionGeofence.getTransitionType();
+                Integer count = transitions.get(key);
+                transitions.put(key, count != null ? count + 1 : 1);
+            }
+        });
+        for (Location location : trace) {
+            if (params == null) {
+                provider.onLocationUpdated(location);
+            } else {
+                locationProvider.offer(location);
+            }
+        }
+        provider.stop();
+        return params == null ? trace.size() : locationProvider.delivered;
+    }
+
+    private static int count(Map<String, Integer> transitions) {
+        int count = 0;
+        for (Integer value : transitions.values()) {
+            count += value;
+        }
+        return count;
+    }
+
+    private static int missed(Map<String, Integer> expected, Map<String, Integer> actual) {
+        int missed = 0;
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            Integer count = actual.get(entry.getKey());
+            missed += Math.max(0, entry.getValue() - (count != null ? count : 0));
+        }
+        return missed;
+    }
+
+    /**
+     * Towns about 20 km apart, with fences the size of shops and parks around their centers.
+     */
+    private static List<GeofenceModel> createFences(Random random) {
+        List<GeofenceModel> fences = new ArrayList<>();
+        for (int town = 0; town < TOWNS; town++) {
+            double latitude = 39.4 + (town / 3) * 0.18;
+            double longitude = -0.5 + (town % 3) * 0.24;
+            for (int i = 0; i < FENCES_PER_TOWN; i++) {
+                fences.add(new GeofenceModel.Builder("fence" + town + "_" + i)
+                        .setLatitude(latitude + random.nextGaussian() * 0.012)
+                        .setLongitude(longitude + random.nextGaussian() * 0.015)
+                        .setRadius(80 + random.nextInt(220))
+                        .setTransition(Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT)
+                        .build());
+            }
+        }
+        return fences;
+    }
+
+    /**
+     * A point per second, going to a random fence (or a random point of the area now and then), driving or
+     * walking, and staying there for a while.
+     */
+    private static List<Location> createTrace(Random random, List<GeofenceModel> fences) {
+        List<Location> trace = new ArrayList<>(SECONDS);
+        double latitude = fences.get(0).getLatitude();
+        double longitude = fences.get(0).getLongitude();
+        int second = 0;
+        while (second < SECONDS) {
+            double targetLatitude;
+            double targetLongitude;
+            if (random.nextInt(5) == 0) {
+                targetLatitude = 39.35 + random.nextDouble() * 0.28;
+                targetLongitude = -0.55 + random.nextDouble() * 0.58;
+            } else {
+                GeofenceModel fence = fences.get(random.nextInt(fences.size()));
+                targetLatitude = fence.getLatitude();
+                targetLongitude = fence.getLongitude();
+            }
+            double distance = GeoDistance.meters(latitude, longitude, targetLatitude, targetLongitude);
+            double speed = distance < 1500 && random.nextBoolean() ? 1.4 : 8 + random.nextDouble() * 8;
+            int steps = Math.max(1, (int) (distance / speed));
+            double startLatitude = latitude;
+            double startLongitude = longitude;
+            for (int i = 1; i <= steps && second < SECONDS; i++, second++) {
+                latitude = startLatitude + (targetLatitude - startLatitude) * i / steps;
+                longitude = startLongitude + (targetLongitude - startLongitude) * i / steps;
+                trace.add(point(latitude, longitude, second));
+            }
+            int stay = 30 + random.nextInt(300);
+            for (int i = 0; i < stay && second < SECONDS; i++, second++) {
+                trace.add(point(latitude + random.nextGaussian() * 5 / METERS_PER_DEGREE,
+                        longitude + random.nextGaussian() * 5 / METERS_PER_DEGREE, second));
+            }
+        }
+        return trace;
+    }
+
+    private static Location point(double latitude, double longitude, int second) {
+        Location location = new Location("test");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setTime(second * 1000L);
+        return location;
+    }
+
+    /**
+     * Delivers a point of the trace only once the interval of the requested params has elapsed and the
+     * device has moved their distance since the last fix delivered.
+     */
+    private static class SampledLocationProvider implements LocationProvider {
+        private OnLocationUpdatedListener listener;
+        private LocationParams params;
+        private Location last;
+        private int delivered;
+
+        @Override
+        public void init(Context context, Logger logger) {
+        }
+
+        @Override
+        public void start(OnLocationUpdatedListener listener, LocationParams params, boolean singleUpdate) {
+            this.listener = listener;
+            this.params = params;
+        }
+
+        @Override
+        public void stop() {
+            listener = null;
+        }
+
+        @Override
+        public Location getLastLocation() {
+            return last;
+        }
+
+        void offer(Location location) {
+            if (listener == null) {
+                return;
+            }
+            if (last != null && (location.getTime() - last.getTime() < params.getInterval()
+                    || GeoDistance.meters(last.getLatitude(), last.getLongitude(), location.getLatitude(),
+                    location.getLongitude()) < params.getDistance())) {
+                return;
+            }
+            last = location;
+            delivered++;
+            listener.onLocationUpdated(location);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package io.nlopez.smartlocation.geofencing.providers;
+
+import android.content.Context;
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnGeofencingTransitionListener;
+import io.nlopez.smartlocation.geofencing.GeofencingProvider;
+import io.nlopez.smartlocation.geofencing.model.CorridorGeofenceModel;
+import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+import io.nlopez.smartlocation.location.LocationProvider;
+import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.location.utils.GeoDistance;
+import io.nlopez.smartlocation.utils.Logger;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests {@link NearestGeofencesProvider}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class NearestGeofencesProviderTest {
+
+    private static final int STORES = 20000;
+    private static final int MAX_REGISTERED = 50;
+
+    private FakeGeofencingApi api;
+    private NearestGeofencesProvider provider;
+    private List<GeofenceModel> stores;
+
+    @Before
+    public void setup() {
+        api = new FakeGeofencingApi();
+        provider = new NearestGeofencesProvider(api, mock(LocationProvider.class), LocationParams.BEST_EFFORT);
+        provider.setMaxRegistered(MAX_REGISTERED);
+        provider.setRefreshDistance(1000);
+        provider.init(mock(Context.class), mock(Logger.class));
+        provider.start(mock(OnGeofencingTransitionListener.class));
+
+        Random random = new Random(3);
+        stores = new ArrayList<>();
+        for (int i = 0; i < STORES; i++) {
+            stores.add(new GeofenceModel.Builder("store" + i)
+                    .setLatitude(36 + random.nextDouble() * 8)
+                    .setLongitude(-9 + random.nextDouble() * 12)
+                    .setRadius(150)
+                    .build());
+        }
+        provider.addGeofences(stores);
+    }
+
+    @Test
+    public void test_shape_geofences_are_rejected_for_play_services() {
+        NearestGeofencesProvider playServices = new NearestGeofencesProvider(
+                new GeofencingGooglePlayServicesProvider(), mock(LocationProvider.class), LocationParams.BEST_EFFORT);
+        GeofenceModel route = new CorridorGeofenceModel.Builder("route")
+                .addPoint(39.47, -0.38)
+                .addPoint(39.48, -0.40)
+                .setDistance(50)
+                .build();
+        try {
+            playServices.addGeofence(route);
+            Assert.fail("Corridors can not be registered in Google Play Services");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("route"));
+        }
+        Assert.assertEquals(0, playServices.getGeofenceCount());
+
+        // Other providers get them
+        provider.addGeofence(route);
+        Assert.assertEquals(STORES + 1, provider.getGeofenceCount());
+    }
+
+    @Test
+    public void test_nothing_registered_before_first_fix() {
+        Assert.assertEquals(STORES, provider.getGeofenceCount());
+        Assert.assertEquals(0, api.registered.size());
+        Assert.assertEquals(0, api.addCalls);
+    }
+
+    @Test
+    public void test_registers_nearest_in_one_batch() {
+        provider.onLocationUpdated(fix(40, -3));
+
+        Assert.assertEquals(1, api.addCalls);
+        Assert.assertEquals(0, api.removeCalls);
+        Assert.assertEquals(MAX_REGISTERED, api.registered.size());
+
+        double farthestRegistered = 0;
+        for (GeofenceModel store : api.registered.values()) {
+            farthestRegistered = Math.max(farthestRegistered, distance(store, 40, -3));
+        }
+        for (GeofenceModel store : stores) {
+            if (!api.registered.containsKey(store.getRequestId())) {
+                Assert.assertTrue(distance(store, 40, -3) >= farthestRegistered);
+            }
+        }
+    }
+
+    @Test
+    public void test_no_churn_within_refresh_distance() {
+        provider.onLocationUpdated(fix(40, -3));
+        provider.onLocationUpdated(fix(40.005, -3.005));
+        provider.onLocationUpdated(fix(39.995, -2.995));
+
+        Assert.assertEquals(1, api.addCalls);
+        Assert.assertEquals(0, api.removeCalls);
+    }
+
+    @Test
+    public void test_churn_is_bounded_while_moving() {
+        // Driving north at a fix every 100 meters
+        double latitude = 38;
+        for (int i = 0; i < 500; i++) {
+            latitude += 100 / (Math.toRadians(1) * GeoDistance.EARTH_RADIUS);
+            provider.onLocationUpdated(fix(latitude, -3));
+            Assert.assertTrue(api.registered.size() <= MAX_REGISTERED);
+            Assert.assertEquals(api.maxRegistered, MAX_REGISTERED);
+        }
+
+        // A refresh per kilometer, each one a single batched remove and add
+        Assert.assertTrue(api.addCalls <= 51);
+        Assert.assertTrue(api.removeCalls <= 50);
+        // Every refresh only swaps the fences that left the window, far fewer than the window itself
+        Assert.assertEquals(provider.getAddedCount() - MAX_REGISTERED, provider.getRemovedCount());
+        Assert.assertTrue(provider.getRemovedCount() < api.removeCalls * MAX_REGISTERED / 2);
+        Assert.assertEquals(provider.getRemovedCount(), api.removedIds);
+    }
+
+    @Test
+    public void test_remove_and_add_refill_the_window() {
+        provider.onLocationUpdated(fix(40, -3));
+        String nearestId = api.lastAdded.get(0).getRequestId();
+
+        provider.removeGeofence(nearestId);
+        Assert.assertFalse(api.registered.containsKey(nearestId));
+        Assert.assertEquals(MAX_REGISTERED, api.registered.size());
+        Assert.assertEquals(1, api.removeCalls);
+        Assert.assertEquals(2, api.addCalls);
+
+        provider.addGeofence(new GeofenceModel.Builder("here").setLatitude(40).setLongitude(-3).setRadius(100).build());
+        Assert.assertTrue(api.registered.containsKey("here"));
+        Assert.assertEquals(MAX_REGISTERED, api.registered.size());
+        Assert.assertEquals(1, api.lastAdded.size());
+    }
+
+    private static double distance(GeofenceModel store, double latitude, double longitude) {
+        return GeoDistance.meters(latitude, longitude, store.getLatitude(), store.getLongitude())
+                - store.getRadius();
+    }
+
+    private static Location fix(double latitude, double longitude) {
+        Location location = new Location("test");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        return location;
+    }
+
+    /**
+     * Records the registrations like the platform GeofencingApi would keep them.
+     */
+    private static class FakeGeofencingApi implements GeofencingProvider {
+        private final Map<String, GeofenceModel> registered = new HashMap<>();
+        private List<GeofenceModel> lastAdded;
+        private int maxRegistered;
+        private int addCalls;
+        private int removeCalls;
+        private long removedIds;
+
+        @Override
+        public void init(Context context, Logger logger) {
+        }
+
+        @Override
+        public void start(OnGeofencingTransitionListener listener) {
+        }
+
+        @Override
+        public void addGeofence(GeofenceModel geofence) {
+            throw new AssertionError("Registrations must be batched");
+        }
+
+        @Override
+        public void addGeofences(List<GeofenceModel> geofenceList) {
+            addCalls++;
+            lastAdded = new ArrayList<>(geofenceList);
+            for (GeofenceModel geofence : geofenceList) {
+                registered.put(geofence.getRequestId(), geofence);
+            }
+            maxRegistered = Math.max(maxRegistered, registered.size());
+        }
+
+        @Override
+        public void removeGeofence(String geofenceId) {
+            throw new AssertionError("Registrations must be batched");
+        }
+
+        @Override
+        public void removeGeofences(List<String> geofenceIds) {
+            removeCalls++;
+            removedIds += geofenceIds.size();
+            for (String id : geofenceIds) {
+                Assert.assertNotNull(registered.remove(id));
+            }
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package io.nlopez.smartlocation.geofencing.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+import io.nlopez.smartlocation.location.utils.GeoDistance;
+
+/**
+ * Tests {@link GeofenceIndex}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GeofenceIndexTest {
+
+    @Test
+    public void test_find_containing() {
+        GeofenceIndex index = new GeofenceIndex();
+        index.put(fence("mestalla", 39.4745, -0.3583, 500));
+        index.put(fence("valencia", 39.4699, -0.3763, 10000));
+        index.put(fence("madrid", 40.4168, -3.7038, 10000));
+
+        Assert.assertEquals(set("mestalla", "valencia"), find(index, 39.4746, -0.3584));
+        Assert.assertEquals(set("valencia"), find(index, 39.47, -0.37));
+        Assert.assertEquals(set(), find(index, 41, 0));
+        Assert.assertEquals(3, index.size());
+    }
+
+    @Test
+    public void test_put_replaces_and_remove() {
+        GeofenceIndex index = new GeofenceIndex();
+        index.put(fence("a", 10, 10, 100));
+        index.put(fence("a", 20, 20, 100));
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(set(), find(index, 10, 10));
+        Assert.assertEquals(set("a"), find(index, 20, 20));
+        Assert.assertEquals(20, index.get("a").getLatitude(), 0);
+
+        Assert.assertNotNull(index.remove("a"));
+        Assert.assertNull(index.remove("a"));
+        Assert.assertNull(index.get("a"));
+        Assert.assertEquals(set(), find(index, 20, 20));
+        Assert.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void test_antimeridian_and_poles() {
+        GeofenceIndex index = new GeofenceIndex();
+        index.put(fence("fiji", -16.85, 179.999, 5000));
+        index.put(fence("pole", 89.99, 0, 50000));
+        index.put(fence("huge", 0, 0, 5000000));
+
+        Assert.assertEquals(set("fiji"), find(index, -16.85, -179.99));
+        Assert.assertEquals(set("pole"), find(index, 89.9, 180));
+        Assert.assertEquals(set("huge"), find(index, 10, 30));
+
+        // Larger than any grid level
+        index.put(fence("world", 0, 0, 20000000));
+        Assert.assertEquals(set("world"), find(index, -10, 170));
+        index.remove("world");
+        Assert.assertEquals(set(), find(index, -10, 170));
+    }
+
+    @Test
+    public void test_matches_linear_scan() {
+        Random random = new Random(7);
+        GeofenceIndex index = new GeofenceIndex();
+        List<GeofenceModel> fences = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            double radius = Math.pow(10, 1 + random.nextDouble() * 5);
+            GeofenceModel fence = fence("f" + i, random.nextDouble() * 178 - 89, random.nextDouble() * 360 - 180,
+                    (float) radius);
+            fences.add(fence);
+            index.put(fence);
+        }
+        for (int i = 0; i < 500; i += 3) {
+            index.remove("f" + i);
+        }
+        for (int i = 0; i < 2000; i++) {
+            double latitude = random.nextDouble() * 178 - 89;
+            double longitude = random.nextDouble() * 360 - 180;
+            Set<String> expected = new HashSet<>();
+            for (int j = 0; j < fences.size(); j++) {
+                GeofenceModel fence = fences.get(j);
+                if ((j >= 500 || j % 3 != 0) && GeoDistance.meters(latitude, longitude, fence.getLatitude(),
+                        fence.getLongitude()) <= fence.getRadius()) {
+                    expected.add(fence.getRequestId());
+                }
+            }
+            Assert.assertEquals(expected, find(index, latitude, longitude));
+        }
+    }
+
+    @Test
+    public void test_find_nearest() {
+        GeofenceIndex index = new GeofenceIndex();
+        index.put(fence("mestalla", 39.4745, -0.3583, 500));
+        index.put(fence("valencia", 39.4699, -0.3763, 10000));
+        index.put(fence("madrid", 40.4168, -3.7038, 10000));
+        index.put(fence("fiji", -16.85, 179.999, 5000));
+
+        List<GeofenceModel> result = new ArrayList<>();
+        index.findNearest(39.48, -0.36, 3, result);
+        Assert.assertEquals(3, result.size());
+        Assert.assertEquals("valencia", result.get(0).getRequestId());
+        Assert.assertEquals("mestalla", result.get(1).getRequestId());
+        Assert.assertEquals("madrid", result.get(2).getRequestId());
+
+        result.clear();
+        index.findNearest(-16.85, -179.9, 1, result);
+        Assert.assertEquals("fiji", result.get(0).getRequestId());
+
+        result.clear();
+        index.findNearest(0, 0, 10, result);
+        Assert.assertEquals(4, result.size());
+    }
+
+    @Test
+    public void test_find_nearest_matches_linear_scan() {
+        Random random = new Random(11);
+        for (int round = 0; round < 4; round++) {
+            GeofenceIndex index = new GeofenceIndex();
+            final List<GeofenceModel> fences = new ArrayList<>();
+            int count = round % 2 == 0 ? 50 : 3000;
+            for (int i = 0; i < count; i++) {
+                // Stores in a few cities, with some large fences spread all over
+                double radius = i % 50 == 0 ? Math.pow(10, 3 + random.nextDouble() * 3.5) : 50 + random.nextInt(300);
+                double latitude = round < 2 ? 40 + random.nextGaussian() : random.nextDouble() * 178 - 89;
+                double longitude = round < 2 ? random.nextGaussian() : random.nextDouble() * 360 - 180;
+                GeofenceModel fence = fence("f" + i, latitude, longitude, (float) radius);
+                fences.add(fence);
+                index.put(fence);
+            }
+            for (int i = 0; i < 100; i++) {
+                final double latitude = round < 2 ? 40 + random.nextGaussian() * 2 : random.nextDouble() * 178 - 89;
+                final double longitude = round < 2 ? random.nextGaussian() * 2 : random.nextDouble() * 360 - 180;
+                List<GeofenceModel> expected = new ArrayList<>(fences);
+                Collections.sort(expected, new Comparator<GeofenceModel>() {
+                    @Override
+                    public int compare(GeofenceModel lhs, GeofenceModel rhs) {
+                        return Double.compare(edgeDistance(lhs, latitude, longitude),
+                                edgeDistance(rhs, latitude, longitude));
+                    }
+                });
+                List<GeofenceModel> result = new ArrayList<>();
+                index.findNearest(latitude, longitude, 20, result);
+                Assert.assertEquals(20, result.size());
+                for (int j = 0; j < 20; j++) {
+                    Assert.assertEquals(edgeDistance(expected.get(j), latitude, longitude),
+                            edgeDistance(result.get(j), latitude, longitude), 1e-6);
+                }
+            }
+        }
+    }
+
+    private static double edgeDistance(GeofenceModel fence, double latitude, double longitude) {
+        return GeoDistance.meters(latitude, longitude, fence.getLatitude(), fence.getLongitude()) - fence.getRadius();
+    }
+
+    static GeofenceModel fence(String id, double latitude, double longitude, float radius) {
+        return new GeofenceModel.Builder(id).setLatitude(latitude).setLongitude(longitude).setRadius(radius).build();
+    }
+
+    private static Set<String> find(GeofenceIndex index, double latitude, double longitude) {
+        List<GeofenceModel> result = new ArrayList<>();
+        index.findContaining(latitude, longitude, result);
+        Set<String> ids = new HashSet<>();
+        for (GeofenceModel fence : result) {
+            Assert.assertTrue(ids.add(fence.getRequestId()));
+        }
+        return ids;
+    }
+
+    private static Set<String> set(String... ids) {
+        Set<String> set = new HashSet<>();
+        for (String id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+}
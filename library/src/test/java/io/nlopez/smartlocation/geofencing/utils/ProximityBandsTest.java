@@ -0,0 +1,62 @@
+package io.nlopez.smartlocation.geofencing.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.location.config.LocationParams;
+
+/**
+ * Tests {@link ProximityBands}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ProximityBandsTest {
+
+    @Test
+    public void test_default_bands() {
+        ProximityBands bands = ProximityBands.DEFAULT;
+        Assert.assertEquals(3, bands.getBandCount());
+        Assert.assertEquals(LocationParams.NAVIGATION, bands.getParams(bands.getBand(0, -1)));
+        Assert.assertEquals(LocationParams.NAVIGATION, bands.getParams(bands.getBand(299, -1)));
+        Assert.assertEquals(LocationParams.BEST_EFFORT, bands.getParams(bands.getBand(300, -1)));
+        Assert.assertEquals(LocationParams.BEST_EFFORT, bands.getParams(bands.getBand(1499, -1)));
+        Assert.assertEquals(LocationParams.LAZY, bands.getParams(bands.getBand(1500, -1)));
+        Assert.assertEquals(LocationParams.LAZY, bands.getParams(bands.getBand(Double.POSITIVE_INFINITY, -1)));
+    }
+
+    @Test
+    public void test_closer_band_is_immediate_and_farther_band_has_hysteresis() {
+        ProximityBands bands = ProximityBands.DEFAULT;
+        Assert.assertEquals(0, bands.getBand(299, 2));
+        Assert.assertEquals(1, bands.getBand(1499, 2));
+
+        Assert.assertEquals(0, bands.getBand(300, 0));
+        Assert.assertEquals(0, bands.getBand(359, 0));
+        Assert.assertEquals(1, bands.getBand(360, 0));
+        Assert.assertEquals(1, bands.getBand(1799, 1));
+        Assert.assertEquals(2, bands.getBand(1800, 1));
+        Assert.assertEquals(1, bands.getBand(1799, 0));
+    }
+
+    @Test
+    public void test_custom_bands() {
+        LocationParams near = new LocationParams.Builder().setInterval(1000).setDistance(10).build();
+        ProximityBands bands = new ProximityBands.Builder()
+                .addBand(100, near)
+                .setFarParams(LocationParams.BEST_EFFORT)
+                .build();
+        Assert.assertEquals(2, bands.getBandCount());
+        Assert.assertEquals(near, bands.getParams(bands.getBand(50, -1)));
+        Assert.assertEquals(LocationParams.BEST_EFFORT, bands.getParams(bands.getBand(5000, -1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_bands_must_be_sorted() {
+        new ProximityBands.Builder()
+                .addBand(1000, LocationParams.BEST_EFFORT)
+                .addBand(100, LocationParams.NAVIGATION);
+    }
+}
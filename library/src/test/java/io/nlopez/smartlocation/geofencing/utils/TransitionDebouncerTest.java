@@ -0,0 +1,211 @@
+package io.nlopez.smartlocation.geofencing.utils;
+
+import com.google.android.gms.location.Geofence;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnGeofencingTransitionsListener;
+import io.nlopez.smartlocation.geofencing.model.GeofenceModel;
+
+/**
+ * Tests {@link TransitionDebouncer}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class TransitionDebouncerTest {
+
+    private static final long WINDOW = TransitionDebouncer.DEFAULT_WINDOW;
+    private static final long MIN_DWELL = TransitionDebouncer.DEFAULT_MIN_DWELL_TIME;
+
+    private RecordingListener listener;
+    private TransitionDebouncer debouncer;
+
+    @Before
+    public void setup() {
+        listener = new RecordingListener();
+        debouncer = new TransitionDebouncer(listener);
+    }
+
+    @Test
+    public void test_burst_is_delivered_in_one_batch() {
+        for (int i = 0; i < 10; i++) {
+            debouncer.onGeofenceTransition(transition("fence" + i, Geofence.GEOFENCE_TRANSITION_ENTER), i * 100);
+        }
+        debouncer.flush(WINDOW - 1);
+        Assert.assertEquals(0, listener.batches.size());
+
+        debouncer.flush(WINDOW);
+        Assert.assertEquals(1, listener.batches.size());
+        Assert.assertEquals(10, listener.batches.get(0).size());
+        Assert.assertEquals("fence3", listener.batches.get(0).get(3).getGeofenceModel().getRequestId());
+        Assert.assertEquals(1, debouncer.getBatchCount());
+        Assert.assertEquals(10, debouncer.getDeliveredCount());
+    }
+
+    @Test
+    public void test_enter_and_exit_in_same_window_cancel() {
+        debouncer.onGeofenceTransition(transition("a", Geofence.GEOFENCE_TRANSITION_ENTER), 0);
+        debouncer.onGeofenceTransition(transition("a", Geofence.GEOFENCE_TRANSITION_EXIT), 500);
+        debouncer.onGeofenceTransition(transition("b", Geofence.GEOFENCE_TRANSITION_ENTER), 600);
+        debouncer.onGeofenceTransition(transition("b", Geofence.GEOFENCE_TRANSITION_ENTER), 700);
+        debouncer.flush(WINDOW);
+
+        Assert.assertEquals(1, listener.batches.size());
+        Assert.assertEquals("b", listener.batches.get(0).get(0).getGeofenceModel().getRequestId());
+        Assert.assertEquals(1, listener.batches.get(0).size());
+        Assert.assertEquals(1, debouncer.getSuppressedFlapCount());
+        Assert.assertEquals(1, debouncer.getDuplicateCount());
+        Assert.assertEquals(1, debouncer.getFlapCount("a"));
+        Assert.assertEquals(0, debouncer.getFlapCount("b"));
+    }
+
+    @Test
+    public void test_early_exit_is_held_until_min_dwell() {
+        debouncer.onGeofenceTransition(transition("a", Geofence.GEOFENCE_TRANSITION_ENTER), 0);
+        debouncer.flush(WINDOW);
+        debouncer.onGeofenceTransition(transition("a", Geofence.GEOFENCE_TRANSITION_EXIT), 5000);
+
+        debouncer.flush(5000 + WINDOW);
+        debouncer.flush(MIN_DWELL - 1);
+        Assert.assertEquals(1, listener.batches.size());
+        Assert.assertEquals(1, debouncer.getDeferredExitCount());
+
+        debouncer.flush(MIN_DWELL);
+        Assert.assertEquals(2, listener.batches.size());
+        Assert.assertEquals(Geofence.GEOFENCE_TRANSITION_EXIT, listener.batches.get(1).get(0).getTransitionType());
+    }
+
+    @Test
+    public void test_enter_cancels_held_exit() {
+        debouncer.onGeofenceTransition(transition("a", Geofence.GEOFENCE_TRANSITION_ENTER), 0);
+        debouncer.flush(WINDOW);
+        debouncer.onGeofenceTransition(transition("a", Geofence.GEOFENCE_TRANSITION_EXIT), 5000);
+        debouncer.onGeofenceTransition(transition("a", Geofence.GEOFENCE_TRANSITION_ENTER), 9000);
+        debouncer.flushAll();
+
+        Assert.assertEquals(1, listener.batches.size());
+        Assert.assertEquals(1, debouncer.getSuppressedFlapCount());
+        Assert.assertEquals(1, debouncer.getFlapCount("a"));
+
+        // Once the fence was entered for long enough, exits count after the window
+        debouncer.onGeofenceTransition(transition("a", Geofence.GEOFENCE_TRANSITION_EXIT), MIN_DWELL + 1000);
+        debouncer.flush(MIN_DWELL + 1000 + WINDOW);
+        Assert.assertEquals(2, listener.batches.size());
+    }
+
+    @Test
+    public void test_flapping_fences_are_delivered_consistently() {
+        Random random = new Random(11);
+        Map<String, Boolean> inside = new HashMap<>();
+        long time = 0;
+        int received = 0;
+        while (received < 20000) {
+            // Crossing the boundary of a fence, with some flapping before settling on the other side
+            time += random.nextInt(10000);
+            String id = "fence" + random.nextInt(500);
+            int toggles = 1 + 2 * random.nextInt(4);
+            for (int i = 0; i < toggles; i++) {
+                time += random.nextInt(600);
+                Boolean current = inside.get(id);
+                boolean enter = current == null || !current;
+                inside.put(id, enter);
+                debouncer.onGeofenceTransition(transition(id, enter ? Geofence.GEOFENCE_TRANSITION_ENTER
+                        : Geofence.GEOFENCE_TRANSITION_EXIT), time);
+                received++;
+            }
+            debouncer.flush(time);
+        }
+        debouncer.flushAll();
+
+        // Every fence alternates enter and exit, ending in the last state received
+        Map<String, Integer> delivered = new HashMap<>();
+        for (List<TransitionGeofence> batch : listener.batches) {
+            for (TransitionGeofence transition : batch) {
+                String id = transition.getGeofenceModel().getRequestId();
+                Integer last = delivered.get(id);
+                Assert.assertNotEquals(last, Integer.valueOf(transition.getTransitionType()));
+                if (last == null) {
+                    Assert.assertEquals(Geofence.GEOFENCE_TRANSITION_ENTER, transition.getTransitionType());
+                }
+                delivered.put(id, transition.getTransitionType());
+            }
+        }
+        for (Map.Entry<String, Boolean> entry : inside.entrySet()) {
+            Integer last = delivered.get(entry.getKey());
+            int expected = entry.getValue() ? Geofence.GEOFENCE_TRANSITION_ENTER : Geofence.GEOFENCE_TRANSITION_EXIT;
+            Assert.assertTrue(entry.getValue() ? Integer.valueOf(expected).equals(last)
+                    : last == null || last == expected);
+        }
+
+        Assert.assertEquals(500, debouncer.getFenceCount());
+        Assert.assertEquals(received, debouncer.getReceivedCount());
+        Assert.assertEquals(debouncer.getReceivedCount(),
+                debouncer.getDeliveredCount() + 2 * debouncer.getSuppressedFlapCount() + debouncer.getDuplicateCount());
+        Assert.assertTrue(debouncer.getDeliveredCount() < debouncer.getReceivedCount() / 2);
+        Assert.assertTrue(debouncer.getBatchCount() < debouncer.getDeliveredCount());
+    }
+
+    @Test
+    public void test_batch_is_posted_after_window() {
+        ShadowLooper.pauseMainLooper();
+        debouncer.onGeofenceTransition(transition("a", Geofence.GEOFENCE_TRANSITION_ENTER));
+        debouncer.onGeofenceTransition(transition("b", Geofence.GEOFENCE_TRANSITION_ENTER));
+        Assert.assertEquals(0, listener.batches.size());
+
+        ShadowLooper.idleMainLooper(WINDOW);
+        Assert.assertEquals(1, listener.batches.size());
+        Assert.assertEquals(2, listener.batches.get(0).size());
+    }
+
+    @Test
+    public void test_due_transitions_are_posted_to_the_looper() {
+        ShadowLooper.pauseMainLooper();
+        debouncer.onGeofenceTransition(transition("a", Geofence.GEOFENCE_TRANSITION_ENTER), 0);
+        // The window of the first transition is over when the second one arrives
+        debouncer.onGeofenceTransition(transition("b", Geofence.GEOFENCE_TRANSITION_ENTER), WINDOW + 1);
+        Assert.assertEquals(0, listener.batches.size());
+
+        ShadowLooper.idleMainLooper(WINDOW);
+        Assert.assertEquals(1, listener.batches.get(0).size());
+        Assert.assertEquals("a", listener.batches.get(0).get(0).getGeofenceModel().getRequestId());
+    }
+
+    @Test
+    public void test_no_window_delivers_in_calling_thread() {
+        ShadowLooper.pauseMainLooper();
+        debouncer.setWindow(0);
+        debouncer.onGeofenceTransition(transition("a", Geofence.GEOFENCE_TRANSITION_ENTER), 0);
+        Assert.assertEquals(1, listener.batches.size());
+    }
+
+    private static TransitionGeofence transition(String id, int transitionType) {
+        GeofenceModel geofence = new GeofenceModel.Builder(id)
+                .setLatitude(40)
+                .setLongitude(-3)
+                .setRadius(100)
+                .setTransition(Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT)
+                .build();
+        return new TransitionGeofence(geofence, transitionType);
+    }
+
+    private static class RecordingListener implements OnGeofencingTransitionsListener {
+        private final List<List<TransitionGeofence>> batches = new ArrayList<>();
+
+        @Override
+        public void onGeofenceTransitions(List<TransitionGeofence> transitions) {
+            batches.add(new ArrayList<>(transitions));
+        }
+    }
+}
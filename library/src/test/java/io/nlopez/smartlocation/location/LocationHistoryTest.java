@@ -0,0 +1,111 @@
+package io.nlopez.smartlocation.location;
+
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Tests {@link LocationHistory}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocationHistoryTest {
+
+    private static final double DELTA = 1e-7;
+    private static final int CAPACITY = 4;
+
+    @Test
+    public void test_history_keeps_last_fixes() {
+        LocationHistory history = new LocationHistory(CAPACITY);
+        for (int i = 0; i < 6; i++) {
+            history.add(i, -i, i, i, i, i * 1000);
+        }
+
+        Assert.assertEquals(CAPACITY, history.size());
+        Assert.assertEquals(2000, history.getTime(0));
+        Assert.assertEquals(5000, history.getTime(CAPACITY - 1));
+        Assert.assertEquals(5, history.getLatitude(CAPACITY - 1), DELTA);
+        Assert.assertEquals(-5, history.getLongitude(CAPACITY - 1), DELTA);
+    }
+
+    @Test
+    public void test_history_time_queries() {
+        LocationHistory history = new LocationHistory(CAPACITY);
+        Assert.assertEquals(-1, history.indexOfNearest(0));
+
+        for (int i = 0; i < 6; i++) {
+            history.add(i, i, 0, 0, 0, i * 1000);
+        }
+
+        // Stored times: 2000, 3000, 4000, 5000
+        Assert.assertEquals(0, history.indexOfNearest(0));
+        Assert.assertEquals(1, history.indexOfNearest(3400));
+        Assert.assertEquals(2, history.indexOfNearest(3600));
+        Assert.assertEquals(3, history.indexOfNearest(10000));
+
+        Assert.assertEquals(1, history.indexOfFirstAtOrAfter(2500));
+        Assert.assertEquals(1, history.indexOfFirstAtOrAfter(3000));
+        Assert.assertEquals(CAPACITY, history.indexOfFirstAtOrAfter(5001));
+        Assert.assertEquals(2, history.indexOfLastAtOrBefore(4500));
+        Assert.assertEquals(-1, history.indexOfLastAtOrBefore(1999));
+    }
+
+    @Test
+    public void test_history_keeps_out_of_order_fixes_sorted() {
+        LocationHistory history = new LocationHistory(CAPACITY);
+        history.add(1, 1, 0, 0, 0, 1000);
+        history.add(3, 3, 0, 0, 0, 3000);
+        history.add(2, 2, 0, 0, 0, 2000);
+        Assert.assertEquals(3, history.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals((i + 1) * 1000, history.getTime(i));
+            Assert.assertEquals(i + 1, history.getLatitude(i), DELTA);
+        }
+
+        // Full, so the oldest one is dropped to make room
+        history.add(5, 5, 0, 0, 0, 5000);
+        history.add(4, 4, 0, 0, 0, 4000);
+        Assert.assertEquals(CAPACITY, history.size());
+        for (int i = 0; i < CAPACITY; i++) {
+            Assert.assertEquals((i + 2) * 1000, history.getTime(i));
+            Assert.assertEquals(i + 2, history.getLatitude(i), DELTA);
+        }
+
+        // Older than every fix of a full history
+        history.add(0, 0, 0, 0, 0, 500);
+        Assert.assertEquals(2000, history.getTime(0));
+        Assert.assertEquals(1, history.indexOfNearest(3100));
+        Assert.assertEquals(2, history.indexOfLastAtOrBefore(4999));
+        Assert.assertEquals(3, history.indexOfFirstAtOrAfter(4001));
+    }
+
+    @Test
+    public void test_history_location_round_trip() {
+        LocationHistory history = new LocationHistory(CAPACITY);
+        Location location = new Location("test");
+        location.setLatitude(39.4745312);
+        location.setLongitude(-0.3580658);
+        location.setAccuracy(12);
+        location.setSpeed(3);
+        location.setBearing(90);
+        location.setTime(1234);
+        history.add(location);
+
+        Location copy = new Location("copy");
+        history.copyTo(0, copy);
+        Assert.assertEquals(location.getLatitude(), copy.getLatitude(), DELTA);
+        Assert.assertEquals(location.getLongitude(), copy.getLongitude(), DELTA);
+        Assert.assertEquals(location.getAccuracy(), copy.getAccuracy(), DELTA);
+        Assert.assertEquals(location.getSpeed(), copy.getSpeed(), DELTA);
+        Assert.assertEquals(location.getBearing(), copy.getBearing(), DELTA);
+        Assert.assertEquals(location.getTime(), copy.getTime());
+
+        history.clear();
+        Assert.assertEquals(0, history.size());
+    }
+}
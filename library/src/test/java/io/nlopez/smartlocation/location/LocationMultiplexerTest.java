@@ -0,0 +1,190 @@
+package io.nlopez.smartlocation.location;
+
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnLocationUpdatedListener;
+import io.nlopez.smartlocation.location.config.LocationAccuracy;
+import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.util.MockLocationProvider;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests {@link LocationMultiplexer}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocationMultiplexerTest {
+
+    private static final double LATITUDE = 39.4745312;
+    private static final double LONGITUDE = -0.3580658;
+    private static final double METER = 1 / 111195.0;
+
+    private static final LocationParams FAST = new LocationParams.Builder()
+            .setAccuracy(LocationAccuracy.HIGH).setInterval(1000).setDistance(0).build();
+    private static final LocationParams SLOW = new LocationParams.Builder()
+            .setAccuracy(LocationAccuracy.LOW).setInterval(5000).setDistance(50).build();
+
+    private MockLocationProvider provider;
+    private LocationMultiplexer multiplexer;
+    private RecordingListener fastListener;
+    private RecordingListener slowListener;
+
+    @Before
+    public void setup() {
+        provider = spy(new MockLocationProvider());
+        multiplexer = new LocationMultiplexer(provider);
+        fastListener = new RecordingListener();
+        slowListener = new RecordingListener();
+    }
+
+    @Test
+    public void test_single_registration_with_merged_params() {
+        multiplexer.subscribe(slowListener, SLOW, false);
+        verify(provider).start(multiplexer, new LocationParams.Builder()
+                .setAccuracy(LocationAccuracy.LOW).setInterval(5000).setDistance(50).build(), false);
+
+        multiplexer.subscribe(fastListener, FAST, false);
+        LocationParams merged = multiplexer.getMergedParams();
+        Assert.assertEquals(LocationAccuracy.HIGH, merged.getAccuracy());
+        Assert.assertEquals(1000, merged.getInterval());
+        Assert.assertEquals(0, merged.getDistance(), 0);
+        verify(provider).start(multiplexer, merged, false);
+
+        // Same params again, no new registration
+        multiplexer.subscribe(fastListener, FAST, false);
+        verify(provider, times(2)).start(any(OnLocationUpdatedListener.class), any(LocationParams.class),
+                anyBoolean());
+    }
+
+    @Test
+    public void test_subscribers_are_throttled_to_their_params() {
+        multiplexer.subscribe(fastListener, FAST, false);
+        multiplexer.subscribe(slowListener, SLOW, false);
+
+        // One fix per second, moving 20 meters each
+        for (int i = 0; i < 20; i++) {
+            provider.fakeEmitLocation(fix(i * 20, i * 1000));
+        }
+
+        Assert.assertEquals(20, fastListener.locations.size());
+        // Every 5 seconds (100 meters)
+        Assert.assertEquals(4, slowListener.locations.size());
+        Assert.assertEquals(5000, slowListener.locations.get(1).getTime());
+    }
+
+    @Test
+    public void test_distance_throttling() {
+        multiplexer.subscribe(slowListener, SLOW, false);
+
+        // Standing still
+        for (int i = 0; i < 20; i++) {
+            provider.fakeEmitLocation(fix(i, i * 1000));
+        }
+        Assert.assertEquals(1, slowListener.locations.size());
+
+        provider.fakeEmitLocation(fix(60, 21000));
+        Assert.assertEquals(2, slowListener.locations.size());
+    }
+
+    @Test
+    public void test_last_unsubscribe_stops_provider() {
+        multiplexer.subscribe(fastListener, FAST, false);
+        multiplexer.subscribe(slowListener, SLOW, false);
+
+        multiplexer.unsubscribe(fastListener);
+        verify(provider, never()).stop();
+        Assert.assertEquals(SLOW.getInterval(), multiplexer.getMergedParams().getInterval());
+        verify(provider).start(eq(multiplexer), eq(multiplexer.getMergedParams()), eq(false));
+
+        provider.fakeEmitLocation(fix(0, 0));
+        Assert.assertTrue(fastListener.locations.isEmpty());
+
+        multiplexer.unsubscribe(slowListener);
+        verify(provider).stop();
+        Assert.assertNull(multiplexer.getMergedParams());
+        Assert.assertEquals(0, multiplexer.getSubscriberCount());
+    }
+
+    @Test
+    public void test_single_update_subscription() {
+        multiplexer.subscribe(slowListener, SLOW, false);
+        multiplexer.subscribe(fastListener, FAST, true);
+
+        ShadowLooper.pauseMainLooper();
+        try {
+            provider.fakeEmitLocation(fix(0, 0));
+            provider.fakeEmitLocation(fix(1000, 60000));
+
+            Assert.assertEquals(1, fastListener.locations.size());
+            Assert.assertEquals(2, slowListener.locations.size());
+            // The provider is not restarted from inside its own callback
+            Assert.assertEquals(2, multiplexer.getSubscriberCount());
+            verify(provider, times(2)).start(eq(multiplexer), any(LocationParams.class), eq(false));
+        } finally {
+            ShadowLooper.unPauseMainLooper();
+        }
+
+        Assert.assertEquals(1, multiplexer.getSubscriberCount());
+        Assert.assertEquals(SLOW.getInterval(), multiplexer.getMergedParams().getInterval());
+        verify(provider, times(3)).start(eq(multiplexer), any(LocationParams.class), eq(false));
+    }
+
+    @Test
+    public void test_callback_executor_per_subscriber() {
+        final List<Runnable> pending = new ArrayList<>();
+        LocationParams params = new LocationParams.Builder()
+                .setAccuracy(LocationAccuracy.HIGH)
+                .setCallbackExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        pending.add(command);
+                    }
+                }).build();
+        multiplexer.subscribe(fastListener, params, false);
+
+        provider.fakeEmitLocation(fix(0, 0));
+        Assert.assertTrue(fastListener.locations.isEmpty());
+        Assert.assertEquals(1, pending.size());
+
+        // No callbacks after unsubscribing
+        multiplexer.unsubscribe(fastListener);
+        pending.get(0).run();
+        Assert.assertTrue(fastListener.locations.isEmpty());
+    }
+
+    private static Location fix(double metersNorth, long time) {
+        Location location = new Location("test");
+        location.setLatitude(LATITUDE + metersNorth * METER);
+        location.setLongitude(LONGITUDE);
+        location.setTime(time);
+        return location;
+    }
+
+    private static class RecordingListener implements OnLocationUpdatedListener {
+        private final List<Location> locations = new ArrayList<>();
+
+        @Override
+        public void onLocationUpdated(Location location) {
+            locations.add(location);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package io.nlopez.smartlocation.location;
+
+import android.content.Context;
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.util.CountingSharedPreferences;
+
+/**
+ * Compares the write-through and the coalescing modes of {@link LocationStore} under a burst of fixes.
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocationStoreBenchmarkTest {
+
+    private static final String ID = "benchmark";
+    private static final int FIXES = 2000;
+    private static final long FLUSH_INTERVAL = 5000;
+
+    private final Location location = new Location("benchmark");
+
+    @Before
+    public void setup() {
+        location.setLatitude(39.4745312);
+        location.setLongitude(-0.3580658);
+        location.setAccuracy(10);
+    }
+
+    @Test
+    public void test_coalescing_writes_less_than_write_through() {
+        Result writeThrough = run(0);
+        Result coalescing = run(FLUSH_INTERVAL);
+
+        System.out.println(String.format("write-through: %d fixes/s, %d commits, %d bytes",
+                writeThrough.fixesPerSecond, writeThrough.commits, writeThrough.bytes));
+        System.out.println(String.format("coalescing:    %d fixes/s, %d commits, %d bytes",
+                coalescing.fixesPerSecond, coalescing.commits, coalescing.bytes));
+
+        Assert.assertEquals(FIXES, writeThrough.commits);
+        Assert.assertTrue(coalescing.commits <= 2);
+        Assert.assertTrue(coalescing.bytes * 100 < writeThrough.bytes);
+    }
+
+    private Result run(long flushInterval) {
+        CountingSharedPreferences preferences = new CountingSharedPreferences(
+                RuntimeEnvironment.application.getSharedPreferences("benchmark_" + flushInterval, Context.MODE_PRIVATE));
+        LocationStore store = new LocationStore(RuntimeEnvironment.application);
+        store.setPreferences(preferences);
+        store.setFlushInterval(flushInterval);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < FIXES; i++) {
+            location.setTime(i);
+            store.put(ID, location);
+        }
+        store.flush();
+        long elapsed = Math.max(1, System.nanoTime() - start);
+
+        Assert.assertEquals(FIXES - 1, store.get(ID).getTime());
+
+        Result result = new Result();
+        result.fixesPerSecond = FIXES * 1000000000L / elapsed;
+        result.commits = preferences.getCommits();
+        result.bytes = preferences.getBytesWritten();
+        return result;
+    }
+
+    private static class Result {
+        long fixesPerSecond;
+        int commits;
+        long bytes;
+    }
+}
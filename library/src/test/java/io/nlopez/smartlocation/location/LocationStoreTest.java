@@ -12,6 +12,9 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.common.BinaryFileStore;
+import io.nlopez.smartlocation.common.StoreBackend;
+import io.nlopez.smartlocation.util.CountingSharedPreferences;
 
 /**
  * Created by nacho on 1/9/15.
@@ -65,6 +68,84 @@ public class LocationStoreTest {
         Assert.assertNull(store.get(TEST_LOCATION_ID));
     }
 
+    @Test
+    public void test_location_store_coalescing() {
+        CountingSharedPreferences preferences = new CountingSharedPreferences(getSharedPreferences());
+        LocationStore store = new LocationStore(RuntimeEnvironment.application.getApplicationContext());
+        store.setPreferences(preferences);
+        store.setFlushInterval(10000);
+        store.put(TEST_LOCATION_ID, testLocation);
+        preferences.reset();
+
+        Location updated = new Location(testLocation);
+        updated.setLatitude(LONGITUDE);
+        store.put(TEST_LOCATION_ID, updated);
+        store.put(TEST_LOCATION_ID, updated);
+        Assert.assertEquals(0, preferences.getCommits());
+        Assert.assertEquals(LONGITUDE, store.get(TEST_LOCATION_ID).getLatitude(), DELTA);
+
+        store.flush();
+        Assert.assertEquals(1, preferences.getCommits());
+        store.setPreferences(getSharedPreferences());
+        Assert.assertEquals(LONGITUDE, store.get(TEST_LOCATION_ID).getLatitude(), DELTA);
+
+        store.remove(TEST_LOCATION_ID);
+        Assert.assertNull(store.get(TEST_LOCATION_ID));
+    }
+
+    @Test
+    public void test_location_store_trim_flushes_only_coalescing_stores() {
+        CountingSharedPreferences preferences = new CountingSharedPreferences(getSharedPreferences());
+        LocationStore store = new LocationStore(RuntimeEnvironment.application.getApplicationContext());
+        store.setPreferences(preferences);
+        Assert.assertFalse(LocationStore.isCoalescing(store));
+
+        store.setFlushInterval(10000);
+        Assert.assertTrue(LocationStore.isCoalescing(store));
+        store.put(TEST_LOCATION_ID, testLocation);
+        preferences.reset();
+        store.put(TEST_LOCATION_ID, testLocation);
+        LocationStore.flushCoalescingStores();
+        Assert.assertEquals(1, preferences.getCommits());
+
+        store.setFlushInterval(0);
+        Assert.assertFalse(LocationStore.isCoalescing(store));
+        store.remove(TEST_LOCATION_ID);
+    }
+
+    @Test
+    public void test_location_store_binary_migration() {
+        Context context = RuntimeEnvironment.application.getApplicationContext();
+        new LocationStore(context, StoreBackend.SHARED_PREFERENCES).put(TEST_LOCATION_ID, testLocation);
+
+        LocationStore store = new LocationStore(context, StoreBackend.BINARY_FILE);
+        Location storedLocation = store.get(TEST_LOCATION_ID);
+        Assert.assertEquals(storedLocation.getLatitude(), testLocation.getLatitude(), DELTA);
+        Assert.assertEquals(storedLocation.getLongitude(), testLocation.getLongitude(), DELTA);
+        Assert.assertEquals(storedLocation.getAltitude(), testLocation.getAltitude(), DELTA);
+        Assert.assertEquals(storedLocation.getTime(), testLocation.getTime());
+        Assert.assertNull(new LocationStore(context, StoreBackend.SHARED_PREFERENCES).get(TEST_LOCATION_ID));
+
+        store.remove(TEST_LOCATION_ID);
+        Assert.assertNull(new LocationStore(context, StoreBackend.BINARY_FILE).get(TEST_LOCATION_ID));
+    }
+
+    @Test
+    public void test_location_stores_share_the_binary_file() {
+        Context context = RuntimeEnvironment.application.getApplicationContext();
+        LocationStore first = new LocationStore(context, StoreBackend.BINARY_FILE);
+        LocationStore second = new LocationStore(context, StoreBackend.BINARY_FILE);
+        first.put("first", testLocation);
+        second.put("second", testLocation);
+
+        BinaryFileStore.clearSharedStores();
+        LocationStore reloaded = new LocationStore(context, StoreBackend.BINARY_FILE);
+        Assert.assertNotNull(reloaded.get("first"));
+        Assert.assertNotNull(reloaded.get("second"));
+        reloaded.remove("first");
+        reloaded.remove("second");
+    }
+
     private SharedPreferences getSharedPreferences() {
         return RuntimeEnvironment.application.getApplicationContext().getSharedPreferences("test_prefs",
                                                                                            Context.MODE_PRIVATE);
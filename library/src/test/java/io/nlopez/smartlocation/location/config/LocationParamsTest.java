@@ -5,7 +5,13 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.annotation.Config;
 
+import java.util.List;
+
 import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.location.filter.KalmanLocationFilter;
+import io.nlopez.smartlocation.location.filter.LocationFilter;
+import io.nlopez.smartlocation.location.filter.LocationFilters;
+import io.nlopez.smartlocation.location.filter.RedundantFixFilter;
 
 /**
  * Created by mrm on 10/1/15.
@@ -27,5 +33,32 @@ public class LocationParamsTest {
         Assert.assertEquals(locationParams.getAccuracy(), ACCURACY);
         Assert.assertEquals(locationParams.getDistance(), DISTANCE, DELTA);
         Assert.assertEquals(locationParams.getInterval(), INTERVAL);
+        Assert.assertTrue(locationParams.getFilterFactories().isEmpty());
+    }
+
+    @Test
+    public void test_location_params_filters() {
+        LocationFilter.Factory first = new KalmanLocationFilter.Factory();
+        LocationFilter.Factory second = new RedundantFixFilter.Factory();
+        LocationParams locationParams = new LocationParams.Builder()
+                .setAccuracy(ACCURACY).addFilter(first).addFilter(second).build();
+
+        Assert.assertEquals(2, locationParams.getFilterFactories().size());
+        Assert.assertSame(first, locationParams.getFilterFactories().get(0));
+        Assert.assertSame(second, locationParams.getFilterFactories().get(1));
+    }
+
+    @Test
+    public void test_location_params_filters_are_created_per_start() {
+        LocationParams locationParams = new LocationParams.Builder()
+                .setAccuracy(ACCURACY).addFilter(new KalmanLocationFilter.Factory()).build();
+        List<LocationFilter> first = LocationFilters.create(locationParams);
+        List<LocationFilter> second = LocationFilters.create(locationParams);
+
+        Assert.assertEquals(1, first.size());
+        Assert.assertTrue(first.get(0) instanceof KalmanLocationFilter);
+        Assert.assertNotSame(first.get(0), second.get(0));
+        Assert.assertEquals(locationParams, new LocationParams.Builder()
+                .setAccuracy(ACCURACY).addFilter(new KalmanLocationFilter.Factory()).build());
     }
 }
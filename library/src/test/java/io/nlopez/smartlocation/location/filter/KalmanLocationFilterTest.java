@@ -0,0 +1,132 @@
+package io.nlopez.smartlocation.location.filter;
+
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.location.config.LocationParams;
+
+/**
+ * Tests {@link KalmanLocationFilter} replaying noisy synthetic traces
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class KalmanLocationFilterTest {
+
+    private static final double METERS_PER_DEGREE = 111319.49;
+    private static final double START_LATITUDE = 39.4745312;
+    private static final double START_LONGITUDE = -0.3580658;
+    private static final float ACCURACY = 15;
+    private static final int FIXES = 2000;
+
+    @Test
+    public void test_kalman_reduces_error_walking() {
+        double[] errors = replay(new KalmanLocationFilter(), 1.4, FIXES);
+        System.out.println(String.format("walking: raw %.2f m, filtered %.2f m", errors[0], errors[1]));
+        Assert.assertTrue(errors[1] < errors[0] * 0.6);
+    }
+
+    @Test
+    public void test_kalman_reduces_error_driving() {
+        double[] errors = replay(new KalmanLocationFilter(2), 15, FIXES);
+        System.out.println(String.format("driving: raw %.2f m, filtered %.2f m", errors[0], errors[1]));
+        Assert.assertTrue(errors[1] < errors[0] * 0.7);
+    }
+
+    @Test
+    public void test_kalman_reduces_error_stationary() {
+        double[] errors = replay(new KalmanLocationFilter(), 0, FIXES);
+        System.out.println(String.format("stationary: raw %.2f m, filtered %.2f m", errors[0], errors[1]));
+        Assert.assertTrue(errors[1] < errors[0] * 0.6);
+    }
+
+    @Test
+    public void test_kalman_restarts_after_time_gap() {
+        KalmanLocationFilter filter = new KalmanLocationFilter();
+        filter.reset(LocationParams.NAVIGATION);
+        Location location = fix(START_LATITUDE, START_LONGITUDE, 0);
+        Assert.assertTrue(filter.accept(location));
+        Assert.assertTrue(filter.accept(fix(START_LATITUDE, START_LONGITUDE, 1000)));
+
+        // A fix far away after a long pause is taken as it comes
+        Location later = fix(START_LATITUDE + 0.1, START_LONGITUDE, 10 * 60 * 1000);
+        Assert.assertTrue(filter.accept(later));
+        Assert.assertEquals(START_LATITUDE + 0.1, later.getLatitude(), 1e-9);
+        Assert.assertEquals(ACCURACY, later.getAccuracy(), 1e-6);
+    }
+
+    @Test
+    public void test_kalman_update_time() {
+        KalmanLocationFilter filter = new KalmanLocationFilter();
+        filter.reset(LocationParams.NAVIGATION);
+        Location location = new Location("test");
+        location.setAccuracy(ACCURACY);
+        int updates = 200000;
+        long start = System.nanoTime();
+        for (int i = 0; i < updates; i++) {
+            location.setTime(i * 1000L);
+            location.setLatitude(START_LATITUDE + (i % 10) * 1e-5);
+            location.setLongitude(START_LONGITUDE);
+            filter.accept(location);
+        }
+        long nanosPerUpdate = (System.nanoTime() - start) / updates;
+        System.out.println(String.format("kalman: %d ns/update", nanosPerUpdate));
+        // The estimate stays within the jitter of the fixes after many updates
+        Assert.assertTrue(location.getLatitude() >= START_LATITUDE - 1e-5);
+        Assert.assertTrue(location.getLatitude() <= START_LATITUDE + 1e-4);
+        Assert.assertEquals(START_LONGITUDE, location.getLongitude(), 1e-5);
+    }
+
+    /**
+     * Moves north-east at the given speed with a gentle turn, adding gaussian noise to every fix.
+     *
+     * @return RMS error in meters of the raw and the filtered fixes
+     */
+    private double[] replay(LocationFilter filter, double speed, int fixes) {
+        Random random = new Random(42);
+        filter.reset(LocationParams.NAVIGATION);
+        double northing = 0;
+        double easting = 0;
+        double rawError = 0;
+        double filteredError = 0;
+        for (int i = 0; i < fixes; i++) {
+            double heading = Math.toRadians(45 + 30 * Math.sin(i / 200.0));
+            northing += speed * Math.cos(heading);
+            easting += speed * Math.sin(heading);
+            double latitude = START_LATITUDE + northing / METERS_PER_DEGREE;
+            double longitude = START_LONGITUDE + easting / metersPerDegreeLongitude();
+
+            Location location = fix(latitude + random.nextGaussian() * ACCURACY / METERS_PER_DEGREE,
+                    longitude + random.nextGaussian() * ACCURACY / metersPerDegreeLongitude(), i * 1000L);
+            rawError += squaredDistance(location, latitude, longitude);
+            Assert.assertTrue(filter.accept(location));
+            filteredError += squaredDistance(location, latitude, longitude);
+        }
+        return new double[]{Math.sqrt(rawError / fixes), Math.sqrt(filteredError / fixes)};
+    }
+
+    private static Location fix(double latitude, double longitude, long time) {
+        Location location = new Location("test");
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setAccuracy(ACCURACY);
+        location.setTime(time);
+        return location;
+    }
+
+    private static double metersPerDegreeLongitude() {
+        return METERS_PER_DEGREE * Math.cos(Math.toRadians(START_LATITUDE));
+    }
+
+    private static double squaredDistance(Location location, double latitude, double longitude) {
+        double north = (location.getLatitude() - latitude) * METERS_PER_DEGREE;
+        double east = (location.getLongitude() - longitude) * metersPerDegreeLongitude();
+        return north * north + east * east;
+    }
+}
@@ -0,0 +1,114 @@
+package io.nlopez.smartlocation.location.filter;
+
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.location.config.LocationAccuracy;
+import io.nlopez.smartlocation.location.config.LocationParams;
+
+/**
+ * Tests {@link RedundantFixFilter}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RedundantFixFilterTest {
+
+    private static final double LATITUDE = 39.4745312;
+    private static final double LONGITUDE = -0.3580658;
+    // About a meter north
+    private static final double METER = 1 / 111195.0;
+
+    private RedundantFixFilter filter;
+
+    @Before
+    public void setup() {
+        filter = new RedundantFixFilter();
+        filter.reset(new LocationParams.Builder()
+                .setAccuracy(LocationAccuracy.HIGH).setInterval(5000).setDistance(20).build());
+    }
+
+    @Test
+    public void test_first_fix_is_delivered() {
+        Assert.assertTrue(filter.accept(fix(0, 10, 0)));
+        Assert.assertEquals(1, filter.getDeliveredCount());
+        Assert.assertEquals(0, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void test_nearby_fix_within_interval_is_suppressed() {
+        Assert.assertTrue(filter.accept(fix(0, 10, 0)));
+        Assert.assertFalse(filter.accept(fix(15, 10, 1000)));
+        Assert.assertFalse(filter.accept(fix(19, 9, 4999)));
+        Assert.assertEquals(1, filter.getDeliveredCount());
+        Assert.assertEquals(2, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void test_fix_after_interval_is_delivered() {
+        Assert.assertTrue(filter.accept(fix(0, 10, 0)));
+        Assert.assertTrue(filter.accept(fix(0, 10, 5000)));
+    }
+
+    @Test
+    public void test_fix_moving_beyond_distance_is_delivered() {
+        Assert.assertTrue(filter.accept(fix(0, 10, 0)));
+        Assert.assertTrue(filter.accept(fix(25, 10, 1000)));
+        // Compared with the last delivered fix
+        Assert.assertFalse(filter.accept(fix(30, 10, 2000)));
+    }
+
+    @Test
+    public void test_accuracy_radius_wins_over_distance() {
+        Assert.assertTrue(filter.accept(fix(0, 50, 0)));
+        Assert.assertFalse(filter.accept(fix(45, 50, 1000)));
+        Assert.assertTrue(filter.accept(fix(55, 50, 2000)));
+    }
+
+    @Test
+    public void test_accuracy_improvement_is_delivered() {
+        Assert.assertTrue(filter.accept(fix(0, 40, 0)));
+        Assert.assertFalse(filter.accept(fix(0, 35, 1000)));
+        Assert.assertTrue(filter.accept(fix(0, 20, 2000)));
+        Assert.assertEquals(2, filter.getDeliveredCount());
+        Assert.assertEquals(1, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void test_reset_forgets_last_fix() {
+        Assert.assertTrue(filter.accept(fix(0, 10, 0)));
+        filter.reset(LocationParams.NAVIGATION);
+        Assert.assertTrue(filter.accept(fix(0, 10, 100)));
+        Assert.assertEquals(2, filter.getDeliveredCount());
+    }
+
+    @Test
+    public void test_factory_creates_independent_filters_and_counts_them() {
+        RedundantFixFilter.Factory factory = new RedundantFixFilter.Factory();
+        LocationParams params = new LocationParams.Builder()
+                .setAccuracy(LocationAccuracy.HIGH).setInterval(5000).setDistance(20).addFilter(factory).build();
+        LocationFilter first = LocationFilters.create(params).get(0);
+        LocationFilter second = LocationFilters.create(params).get(0);
+
+        Assert.assertTrue(first.accept(fix(0, 10, 0)));
+        Assert.assertFalse(first.accept(fix(5, 10, 1000)));
+        // The second one does not know the fixes of the first one
+        Assert.assertTrue(second.accept(fix(5, 10, 1000)));
+        Assert.assertEquals(2, factory.getDeliveredCount());
+        Assert.assertEquals(1, factory.getSuppressedCount());
+    }
+
+    private static Location fix(double metersNorth, float accuracy, long time) {
+        Location location = new Location("test");
+        location.setLatitude(LATITUDE + metersNorth * METER);
+        location.setLongitude(LONGITUDE);
+        location.setAccuracy(accuracy);
+        location.setTime(time);
+        return location;
+    }
+}
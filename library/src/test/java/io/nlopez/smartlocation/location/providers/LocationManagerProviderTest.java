@@ -0,0 +1,166 @@
+package io.nlopez.smartlocation.location.providers;
+
+import android.content.Context;
+import android.location.Criteria;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+import io.nlopez.smartlocation.OnLocationUpdatedListener;
+import io.nlopez.smartlocation.location.config.LocationAccuracy;
+import io.nlopez.smartlocation.location.config.LocationParams;
+import io.nlopez.smartlocation.location.filter.LocationFilter;
+import io.nlopez.smartlocation.location.utils.BackgroundLooper;
+import io.nlopez.smartlocation.location.utils.MainThreadExecutor;
+import io.nlopez.smartlocation.utils.Logger;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyFloat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link LocationManagerProvider}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LocationManagerProviderTest {
+
+    private static final int FIXES = 10;
+
+    private LocationManager locationManager;
+    private OnLocationUpdatedListener listener;
+    private LocationManagerProvider provider;
+
+    @Before
+    public void setup() {
+        locationManager = mock(LocationManager.class);
+        Context context = mock(Context.class);
+        when(context.getSystemService(Context.LOCATION_SERVICE)).thenReturn(locationManager);
+        when(context.getSharedPreferences(anyString(), anyInt())).thenReturn(
+                RuntimeEnvironment.application.getSharedPreferences("test_prefs", Context.MODE_PRIVATE));
+
+        listener = mock(OnLocationUpdatedListener.class);
+        provider = new LocationManagerProvider();
+        provider.init(context, mock(Logger.class));
+    }
+
+    @Test
+    public void test_default_params_use_main_looper() {
+        provider.start(listener, LocationParams.BEST_EFFORT, false);
+        verify(locationManager).requestLocationUpdates(anyLong(), anyFloat(), any(Criteria.class), eq(provider),
+                eq(Looper.getMainLooper()));
+    }
+
+    @Test
+    public void test_background_looper_is_used_for_updates() {
+        Looper looper = BackgroundLooper.get();
+        provider.start(listener, backgroundParams(null), false);
+        verify(locationManager).requestLocationUpdates(anyLong(), anyFloat(), any(Criteria.class), eq(provider),
+                eq(looper));
+    }
+
+    @Test
+    public void test_background_delivery_does_not_post_to_main_looper() {
+        ShadowLooper.pauseMainLooper();
+        provider.start(listener, backgroundParams(null), false);
+
+        ArgumentCaptor<Looper> looperCaptor = ArgumentCaptor.forClass(Looper.class);
+        verify(locationManager).requestLocationUpdates(anyLong(), anyFloat(), any(Criteria.class), eq(provider),
+                looperCaptor.capture());
+        Looper looper = looperCaptor.getValue();
+        Assert.assertNotSame(Looper.getMainLooper(), looper);
+        Assert.assertNotSame(Looper.getMainLooper().getThread(), looper.getThread());
+
+        // Deliver the fixes like LocationManager does, posting them to the looper of the request
+        final Location location = new Location("test");
+        ShadowLooper.pauseLooper(looper);
+        try {
+            Handler handler = new Handler(looper);
+            for (int i = 0; i < FIXES; i++) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        provider.onLocationChanged(location);
+                    }
+                });
+            }
+            verify(listener, never()).onLocationUpdated(location);
+        } finally {
+            // Unpausing runs the posted tasks
+            ShadowLooper.unPauseLooper(looper);
+        }
+
+        verify(listener, times(FIXES)).onLocationUpdated(location);
+        Assert.assertEquals(0, Robolectric.getForegroundThreadScheduler().size());
+    }
+
+    @Test
+    public void test_callback_executor_hops_to_main_looper() {
+        ShadowLooper.pauseMainLooper();
+        provider.start(listener, backgroundParams(new MainThreadExecutor()), false);
+
+        Location location = new Location("test");
+        for (int i = 0; i < FIXES; i++) {
+            provider.onLocationChanged(location);
+        }
+
+        verify(listener, never()).onLocationUpdated(location);
+        Assert.assertEquals(FIXES, Robolectric.getForegroundThreadScheduler().size());
+
+        ShadowLooper.runUiThreadTasks();
+        verify(listener, times(FIXES)).onLocationUpdated(location);
+    }
+
+    @Test
+    public void test_filters_run_before_listener() {
+        LocationFilter filter = mock(LocationFilter.class);
+        LocationFilter.Factory filterFactory = mock(LocationFilter.Factory.class);
+        when(filterFactory.create()).thenReturn(filter);
+        Location accepted = new Location("test");
+        Location dropped = new Location("test");
+        when(filter.accept(accepted)).thenReturn(true);
+        when(filter.accept(dropped)).thenReturn(false);
+        LocationParams params = new LocationParams.Builder()
+                .setAccuracy(LocationAccuracy.HIGH)
+                .addFilter(filterFactory)
+                .build();
+
+        provider.start(listener, params, false);
+        verify(filter).reset(params);
+
+        provider.onLocationChanged(accepted);
+        provider.onLocationChanged(dropped);
+        verify(listener).onLocationUpdated(accepted);
+        verify(listener, never()).onLocationUpdated(dropped);
+    }
+
+    private LocationParams backgroundParams(MainThreadExecutor executor) {
+        return new LocationParams.Builder()
+                .setAccuracy(LocationAccuracy.HIGH)
+                .setInterval(500)
+                .setDistance(0)
+                .setLooper(BackgroundLooper.get())
+                .setCallbackExecutor(executor)
+                .build();
+    }
+}
@@ -0,0 +1,74 @@
+package io.nlopez.smartlocation.location.track;
+
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Measures the size and the encode and decode throughput of {@link TrackCodec} on a synthetic driving trace,
+ * compared with the 48 bytes per fix of the raw records written by {@link TrackRecorder}.
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class TrackCodecBenchmarkTest {
+
+    private static final int FIXES = 20000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void test_codec_bytes_per_fix() throws IOException {
+        List<Location> track = TrackCodecTest.trace(FIXES);
+
+        double defaults = benchmark("default", new TrackCodec.Builder().build(), track);
+        double all = benchmark("all fields", new TrackCodec.Builder()
+                .setAltitude(true).setSpeed(true).setBearing(true).build(), track);
+        benchmark("precision 7", new TrackCodec.Builder().setPrecision(7).build(), track);
+
+        Assert.assertTrue(defaults < 8);
+        Assert.assertTrue(all < TrackFormat.RECORD_SIZE / 4);
+    }
+
+    private double benchmark(String name, TrackCodec codec, List<Location> track) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(track.size() * 16);
+        long encodeTime = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            output.reset();
+            long start = System.nanoTime();
+            TrackCodec.Encoder encoder = codec.newEncoder(output);
+            for (Location location : track) {
+                encoder.write(location);
+            }
+            encodeTime += System.nanoTime() - start;
+        }
+        byte[] data = output.toByteArray();
+
+        Location location = new Location("test");
+        long decodeTime = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            TrackCodec.Decoder decoder = TrackCodec.newDecoder(new ByteArrayInputStream(data));
+            int count = 0;
+            while (decoder.read(location)) {
+                count++;
+            }
+            decodeTime += System.nanoTime() - start;
+            Assert.assertEquals(track.size(), count);
+        }
+
+        double bytesPerFix = (double) data.length / track.size();
+        long fixes = (long) track.size() * ROUNDS * 1000000000L;
+        System.out.println(String.format("%-12s %.2f bytes/fix, %d fixes/s encode, %d fixes/s decode", name,
+                bytesPerFix, fixes / Math.max(1, encodeTime), fixes / Math.max(1, decodeTime)));
+        return bytesPerFix;
+    }
+}
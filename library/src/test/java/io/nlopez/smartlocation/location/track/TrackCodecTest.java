@@ -0,0 +1,142 @@
+package io.nlopez.smartlocation.location.track;
+
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Tests {@link TrackCodec}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class TrackCodecTest {
+
+    @Test
+    public void test_codec_round_trip_default_precision() throws IOException {
+        TrackCodec codec = new TrackCodec.Builder().build();
+        List<Location> track = trace(500);
+
+        List<Location> decoded = TrackCodec.decode(codec.encode(track));
+
+        Assert.assertEquals(track.size(), decoded.size());
+        for (int i = 0; i < track.size(); i++) {
+            Location expected = track.get(i);
+            Location location = decoded.get(i);
+            Assert.assertEquals(expected.getTime(), location.getTime());
+            Assert.assertEquals(expected.getLatitude(), location.getLatitude(), 0.5e-5);
+            Assert.assertEquals(expected.getLongitude(), location.getLongitude(), 0.5e-5);
+            Assert.assertEquals(Math.round(expected.getAccuracy()), location.getAccuracy(), 0);
+        }
+    }
+
+    @Test
+    public void test_codec_round_trip_all_fields() throws IOException {
+        TrackCodec codec = new TrackCodec.Builder()
+                .setPrecision(TrackCodec.MAX_PRECISION)
+                .setAltitude(true)
+                .setSpeed(true)
+                .setBearing(true)
+                .build();
+        List<Location> track = trace(100);
+
+        List<Location> decoded = TrackCodec.decode(codec.encode(track));
+
+        Assert.assertEquals(track.size(), decoded.size());
+        for (int i = 0; i < track.size(); i++) {
+            Location expected = track.get(i);
+            Location location = decoded.get(i);
+            Assert.assertEquals(expected.getLatitude(), location.getLatitude(), 0.5e-7);
+            Assert.assertEquals(expected.getLongitude(), location.getLongitude(), 0.5e-7);
+            Assert.assertEquals(expected.getAltitude(), location.getAltitude(), 0.5);
+            Assert.assertEquals(expected.getSpeed(), location.getSpeed(), 0.05);
+            Assert.assertEquals(expected.getBearing(), location.getBearing(), 0.5);
+        }
+    }
+
+    @Test
+    public void test_codec_irregular_times_and_extremes() throws IOException {
+        List<Location> track = new ArrayList<>();
+        long[] times = {0, 1000, 1000, 5000, 4000, Long.MAX_VALUE / 2, 7};
+        double[][] coordinates = {{0, 0}, {90, 180}, {-90, -180}, {45.5, -179.99999}, {0, 0}, {-0.00001, 0.00001},
+                {12.34567, 76.54321}};
+        for (int i = 0; i < times.length; i++) {
+            Location location = new Location("test");
+            location.setTime(times[i]);
+            location.setLatitude(coordinates[i][0]);
+            location.setLongitude(coordinates[i][1]);
+            track.add(location);
+        }
+
+        List<Location> decoded = TrackCodec.decode(new TrackCodec.Builder().build().encode(track));
+
+        for (int i = 0; i < track.size(); i++) {
+            Assert.assertEquals(times[i], decoded.get(i).getTime());
+            Assert.assertEquals(coordinates[i][0], decoded.get(i).getLatitude(), 0.5e-5);
+            Assert.assertEquals(coordinates[i][1], decoded.get(i).getLongitude(), 0.5e-5);
+        }
+    }
+
+    @Test
+    public void test_codec_empty_track() throws IOException {
+        byte[] data = new TrackCodec.Builder().build().encode(new ArrayList<Location>());
+        Assert.assertEquals(3, data.length);
+        Assert.assertTrue(TrackCodec.decode(data).isEmpty());
+    }
+
+    @Test(expected = EOFException.class)
+    public void test_codec_truncated_track() throws IOException {
+        byte[] data = new TrackCodec.Builder().build().encode(trace(10));
+        TrackCodec.Decoder decoder = TrackCodec.newDecoder(
+                new ByteArrayInputStream(Arrays.copyOf(data, data.length - 1)));
+        Location location = new Location("test");
+        while (decoder.read(location)) {
+            // Fails in the last fix
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_codec_invalid_precision() {
+        new TrackCodec.Builder().setPrecision(TrackCodec.MAX_PRECISION + 1);
+    }
+
+    /**
+     * Synthetic driving trace: one fix per second with some jitter, changing speed and heading.
+     */
+    static List<Location> trace(int size) {
+        List<Location> track = new ArrayList<>(size);
+        double latitude = 39.4745312;
+        double longitude = -0.3580658;
+        double bearing = 30;
+        long time = 1500000000000L;
+        for (int i = 0; i < size; i++) {
+            double speed = 12 + 8 * Math.sin(i / 40.0);
+            bearing = (bearing + 15 * Math.sin(i / 25.0) + 360) % 360;
+            latitude += speed * Math.cos(Math.toRadians(bearing)) / 111320;
+            longitude += speed * Math.sin(Math.toRadians(bearing)) / (111320 * Math.cos(Math.toRadians(latitude)));
+            time += 1000 + (i % 7 == 0 ? 3 : 0);
+
+            Location location = new Location("test");
+            location.setTime(time);
+            location.setLatitude(latitude);
+            location.setLongitude(longitude);
+            location.setAltitude(20 + 5 * Math.sin(i / 60.0));
+            location.setAccuracy(4 + i % 5);
+            location.setSpeed((float) speed);
+            location.setBearing((float) bearing);
+            track.add(location);
+        }
+        return track;
+    }
+}
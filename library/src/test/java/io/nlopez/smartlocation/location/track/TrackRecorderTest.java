@@ -0,0 +1,168 @@
+package io.nlopez.smartlocation.location.track;
+
+import android.location.Location;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Tests {@link TrackRecorder} and {@link TrackReader}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class TrackRecorderTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setup() {
+        directory = new File(folder.getRoot(), "track");
+    }
+
+    @Test
+    public void test_track_round_trip() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(directory);
+        record(recorder, 0, 100);
+        recorder.flush();
+
+        assertTrack(0, 100);
+    }
+
+    @Test
+    public void test_track_rotates_segments_by_size() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(directory);
+        recorder.setMaxSegmentSize(TrackFormat.HEADER_SIZE + 10 * TrackFormat.RECORD_SIZE);
+        record(recorder, 0, 35);
+        recorder.close();
+
+        File[] segments = TrackFormat.listSegments(directory);
+        Assert.assertEquals(4, segments.length);
+        Assert.assertEquals(TrackFormat.HEADER_SIZE + 10 * TrackFormat.RECORD_SIZE, segments[0].length());
+        assertTrack(0, 35);
+    }
+
+    @Test
+    public void test_track_rotates_segments_by_time() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(directory);
+        recorder.setMaxSegmentDuration(5000);
+        record(recorder, 0, 20);
+        recorder.close();
+
+        // One fix per second
+        Assert.assertEquals(4, TrackFormat.listSegments(directory).length);
+        assertTrack(0, 20);
+    }
+
+    @Test
+    public void test_track_recovers_torn_record() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(directory);
+        record(recorder, 0, 10);
+        recorder.close();
+
+        // Simulate a process death in the middle of an append
+        File segment = TrackFormat.listSegments(directory)[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.seek(file.length());
+            file.write(new byte[TrackFormat.RECORD_SIZE / 2]);
+        } finally {
+            file.close();
+        }
+        assertTrack(0, 10);
+
+        recorder = new TrackRecorder(directory);
+        record(recorder, 10, 5);
+        recorder.close();
+
+        Assert.assertEquals(TrackFormat.HEADER_SIZE + 10 * TrackFormat.RECORD_SIZE, segment.length());
+        Assert.assertEquals(2, TrackFormat.listSegments(directory).length);
+        assertTrack(0, 15);
+    }
+
+    @Test
+    public void test_track_stops_at_corrupted_record() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(directory);
+        record(recorder, 0, 10);
+        recorder.close();
+
+        File segment = TrackFormat.listSegments(directory)[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.seek(TrackFormat.HEADER_SIZE + 6 * TrackFormat.RECORD_SIZE + 3);
+            file.write(0xff);
+        } finally {
+            file.close();
+        }
+        assertTrack(0, 6);
+
+        recorder = new TrackRecorder(directory);
+        recorder.record(location(6));
+        recorder.close();
+        Assert.assertEquals(TrackFormat.HEADER_SIZE + 6 * TrackFormat.RECORD_SIZE, segment.length());
+    }
+
+    @Test
+    public void test_track_clear() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(directory);
+        record(recorder, 0, 10);
+        recorder.clear();
+
+        Assert.assertEquals(0, TrackFormat.listSegments(directory).length);
+        assertTrack(0, 0);
+    }
+
+    private void record(TrackRecorder recorder, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            recorder.record(location(i));
+        }
+    }
+
+    private void assertTrack(int from, int count) throws IOException {
+        TrackReader reader = new TrackReader(directory);
+        Location location = new Location("test");
+        try {
+            for (int i = from; i < from + count; i++) {
+                Assert.assertTrue(reader.next(location));
+                Location expected = location(i);
+                Assert.assertEquals(expected.getTime(), location.getTime());
+                Assert.assertEquals(expected.getLatitude(), location.getLatitude(), DELTA);
+                Assert.assertEquals(expected.getLongitude(), location.getLongitude(), DELTA);
+                Assert.assertEquals(expected.getAltitude(), location.getAltitude(), DELTA);
+                Assert.assertEquals(expected.getAccuracy(), location.getAccuracy(), DELTA);
+                Assert.assertEquals(expected.getSpeed(), location.getSpeed(), DELTA);
+                Assert.assertEquals(expected.getBearing(), location.getBearing(), DELTA);
+            }
+            Assert.assertFalse(reader.next(location));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Location location(int i) {
+        Location location = new Location("test");
+        location.setTime(1000L * i);
+        location.setLatitude(39.47 + i * 1e-5);
+        location.setLongitude(-0.37 - i * 1e-5);
+        location.setAltitude(10 + i);
+        location.setAccuracy(5 + i % 3);
+        location.setSpeed(i % 7);
+        location.setBearing(i % 360);
+        return location;
+    }
+}
@@ -0,0 +1,43 @@
+package io.nlopez.smartlocation.location.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Tests {@link GeoDistance}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GeoDistanceTest {
+
+    @Test
+    public void test_approximation_matches_haversine() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            double latitude = random.nextDouble() * 160 - 80;
+            double longitude = random.nextDouble() * 360 - 180;
+            double latitude2 = latitude + random.nextDouble() * 2 - 1;
+            double longitude2 = longitude + random.nextDouble() * 2 - 1;
+
+            double expected = GeoDistance.haversine(latitude, longitude, latitude2, longitude2);
+            double actual = GeoDistance.meters(latitude, longitude, latitude2, longitude2);
+            Assert.assertEquals(expected, actual, Math.max(0.01, expected * 0.001));
+        }
+    }
+
+    @Test
+    public void test_known_distances() {
+        // One degree of latitude
+        Assert.assertEquals(111195, GeoDistance.meters(0, 0, 1, 0), 1);
+        // Across the antimeridian
+        Assert.assertEquals(GeoDistance.meters(0, 179.9, 0, 180), GeoDistance.meters(0, 179.9, 0, -179.9) / 2, 0.01);
+        // Madrid - Barcelona
+        Assert.assertEquals(505000, GeoDistance.meters(40.4168, -3.7038, 41.3874, 2.1686), 2000);
+    }
+}
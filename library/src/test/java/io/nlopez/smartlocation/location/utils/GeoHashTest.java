@@ -0,0 +1,30 @@
+package io.nlopez.smartlocation.location.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+/**
+ * Tests {@link GeoHash}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GeoHashTest {
+
+    @Test
+    public void test_geohash_known_values() {
+        Assert.assertEquals("u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+        Assert.assertEquals("ezjmgtw", GeoHash.encode(40.41680, -3.70380, 7));
+        Assert.assertEquals("s", GeoHash.encode(0, 0, 1));
+    }
+
+    @Test
+    public void test_geohash_prefix_of_longer_hash() {
+        String hash = GeoHash.encode(-33.8688, 151.2093, GeoHash.MAX_PRECISION);
+        Assert.assertEquals(GeoHash.MAX_PRECISION, hash.length());
+        Assert.assertEquals(hash.substring(0, 6), GeoHash.encode(-33.8688, 151.2093, 6));
+    }
+}
@@ -0,0 +1,183 @@
+package io.nlopez.smartlocation.util;
+
+import android.content.SharedPreferences;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link SharedPreferences} wrapper that counts the commits and estimates the bytes that the real
+ * implementation would write, as every commit rewrites the full XML file.
+ */
+public class CountingSharedPreferences implements SharedPreferences {
+
+    // Rough size of the XML markup around every entry (<long name="..." value="..." />)
+    private static final int ENTRY_OVERHEAD = 24;
+
+    private final SharedPreferences delegate;
+    private int commits;
+    private long bytesWritten;
+    private int reads;
+
+    public CountingSharedPreferences(SharedPreferences delegate) {
+        this.delegate = delegate;
+    }
+
+    public int getCommits() {
+        return commits;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getReads() {
+        return reads;
+    }
+
+    public void reset() {
+        commits = 0;
+        bytesWritten = 0;
+        reads = 0;
+    }
+
+    private void onCommit() {
+        commits++;
+        for (Map.Entry<String, ?> entry : delegate.getAll().entrySet()) {
+            bytesWritten += ENTRY_OVERHEAD + entry.getKey().length() + String.valueOf(entry.getValue()).length();
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        reads++;
+        return delegate.getAll();
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        reads++;
+        return delegate.getString(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        reads++;
+        return delegate.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        reads++;
+        return delegate.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        reads++;
+        return delegate.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        reads++;
+        return delegate.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        reads++;
+        return delegate.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        reads++;
+        return delegate.contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new CountingEditor(delegate.edit());
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        delegate.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        delegate.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    private class CountingEditor implements Editor {
+
+        private final Editor editor;
+
+        CountingEditor(Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            editor.putString(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            editor.putStringSet(key, values);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            editor.putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            editor.putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            editor.putFloat(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            editor.putBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            editor.remove(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            editor.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            boolean result = editor.commit();
+            onCommit();
+            return result;
+        }
+
+        @Override
+        public void apply() {
+            editor.apply();
+            onCommit();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package io.nlopez.smartlocation.utils;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.google.android.gms.common.api.Api;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.ActivityRecognition;
+import com.google.android.gms.location.LocationServices;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.nlopez.smartlocation.CustomTestRunner;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link GoogleApiClientPool}
+ */
+@RunWith(CustomTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GoogleApiClientPoolTest {
+
+    private static final long IDLE_TIMEOUT = 1000;
+
+    private GoogleApiClientPool pool;
+    private Context context;
+    private List<GoogleApiClient> clients;
+    private List<GoogleApiClient.ConnectionCallbacks> poolCallbacks;
+
+    @Before
+    public void setup() {
+        context = RuntimeEnvironment.application;
+        clients = new ArrayList<>();
+        poolCallbacks = new ArrayList<>();
+        pool = new GoogleApiClientPool();
+        pool.setIdleTimeout(IDLE_TIMEOUT);
+        pool.setClientFactory(new GoogleApiClientPool.ClientFactory() {
+            @Override
+            public GoogleApiClient create(Context context, Api<? extends Api.ApiOptions.NotRequiredOptions>[] apis,
+                                          GoogleApiClient.ConnectionCallbacks callbacks,
+                                          GoogleApiClient.OnConnectionFailedListener failedListener) {
+                GoogleApiClient client = mock(GoogleApiClient.class);
+                clients.add(client);
+                poolCallbacks.add(callbacks);
+                return client;
+            }
+        });
+    }
+
+    @Test
+    public void test_same_apis_share_one_connection() {
+        User first = new User();
+        User second = new User();
+        GoogleApiClient client = first.acquire(LocationServices.API);
+        when(client.isConnecting()).thenReturn(true);
+        Assert.assertSame(client, second.acquire(LocationServices.API));
+
+        verify(client).connect();
+        verify(client).registerConnectionCallbacks(first);
+        verify(client).registerConnectionCallbacks(second);
+        verify(client).registerConnectionFailedListener(second);
+        Assert.assertEquals(1, pool.getClientCount());
+        Assert.assertEquals(1, pool.getConnectCount());
+        Assert.assertEquals(2, pool.getAcquireCount());
+    }
+
+    @Test
+    public void test_different_apis_use_different_clients() {
+        GoogleApiClient location = new User().acquire(LocationServices.API);
+        GoogleApiClient activity = new User().acquire(ActivityRecognition.API);
+
+        Assert.assertNotSame(location, activity);
+        Assert.assertEquals(2, pool.getClientCount());
+    }
+
+    @Test
+    public void test_disconnects_after_idle_timeout() {
+        User first = new User();
+        User second = new User();
+        GoogleApiClient client = first.acquire(LocationServices.API);
+        when(client.isConnected()).thenReturn(true);
+        second.acquire(LocationServices.API);
+
+        first.release(client);
+        verify(client).unregisterConnectionCallbacks(first);
+        verify(client).unregisterConnectionFailedListener(first);
+        ShadowLooper.idleMainLooper(IDLE_TIMEOUT * 2);
+        verify(client, never()).disconnect();
+
+        second.release(client);
+        ShadowLooper.idleMainLooper(IDLE_TIMEOUT / 2);
+        verify(client, never()).disconnect();
+        ShadowLooper.idleMainLooper(IDLE_TIMEOUT);
+        verify(client).disconnect();
+    }
+
+    @Test
+    public void test_reacquire_during_grace_period_keeps_connection() {
+        User user = new User();
+        GoogleApiClient client = user.acquire(LocationServices.API);
+        when(client.isConnected()).thenReturn(true);
+        user.release(client);
+
+        ShadowLooper.idleMainLooper(IDLE_TIMEOUT / 2);
+        Assert.assertSame(client, user.acquire(LocationServices.API));
+        ShadowLooper.idleMainLooper(IDLE_TIMEOUT * 2);
+
+        verify(client, never()).disconnect();
+        verify(client, times(1)).connect();
+        verify(client, times(2)).registerConnectionCallbacks(user);
+    }
+
+    @Test
+    public void test_connect_time_metric() {
+        GoogleApiClient client = new User().acquire(LocationServices.API);
+        verify(client).connect();
+
+        SystemClock.sleep(300);
+        poolCallbacks.get(0).onConnected(null);
+
+        Assert.assertTrue(pool.getAverageConnectTime() >= 300);
+    }
+
+    private class User implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+
+        GoogleApiClient acquire(Api<? extends Api.ApiOptions.NotRequiredOptions> api) {
+            return pool.acquire(context, this, this, api);
+        }
+
+        void release(GoogleApiClient client) {
+            pool.release(client, this, this);
+        }
+
+        @Override
+        public void onConnected(android.os.Bundle bundle) {
+        }
+
+        @Override
+        public void onConnectionSuspended(int i) {
+        }
+
+        @Override
+        public void onConnectionFailed(com.google.android.gms.common.ConnectionResult connectionResult) {
+        }
+    }
+}
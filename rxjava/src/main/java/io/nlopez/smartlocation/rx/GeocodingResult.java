@@ -0,0 +1,34 @@
+package io.nlopez.smartlocation.rx;
+
+/**
+ * Result of a geocoding lookup emitted by the streaming methods of {@link ObservableFactory}, with the input
+ * it was requested for.
+ *
+ * @param <I> input type, a location or a name
+ * @param <R> result type, a list of addresses
+ */
+public class GeocodingResult<I, R> {
+    private final I input;
+    private final R results;
+
+    public GeocodingResult(I input, R results) {
+        this.input = input;
+        this.results = results;
+    }
+
+    /**
+     * @return location or name the lookup was requested for, the same instance the stream received
+     */
+    public I getInput() {
+        return input;
+    }
+
+    public R getResults() {
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return "GeocodingResult{input=" + input + ", results=" + results + "}";
+    }
+}
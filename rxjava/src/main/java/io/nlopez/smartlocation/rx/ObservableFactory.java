@@ -6,7 +6,11 @@ import android.location.Location;
 
 import com.google.android.gms.location.DetectedActivity;
 
+import org.reactivestreams.Publisher;
+
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
 
 import io.nlopez.smartlocation.OnActivityUpdatedListener;
 import io.nlopez.smartlocation.OnGeocodingListener;
@@ -14,8 +18,11 @@ import io.nlopez.smartlocation.OnGeofencingTransitionListener;
 import io.nlopez.smartlocation.OnLocationUpdatedListener;
 import io.nlopez.smartlocation.OnReverseGeocodingListener;
 import io.nlopez.smartlocation.SmartLocation;
+import io.nlopez.smartlocation.geocoding.engine.AndroidGeocoderBackend;
+import io.nlopez.smartlocation.geocoding.engine.GeocodingEngine;
 import io.nlopez.smartlocation.geocoding.utils.LocationAddress;
 import io.nlopez.smartlocation.geofencing.utils.TransitionGeofence;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.ObservableOnSubscribe;
@@ -23,6 +30,9 @@ import io.reactivex.Single;
 import io.reactivex.SingleEmitter;
 import io.reactivex.SingleOnSubscribe;
 import io.reactivex.functions.Action;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
 import io.reactivex.subjects.SingleSubject;
 
 /**
@@ -155,4 +165,160 @@ public class ObservableFactory {
         });
     }
 
+    /**
+     * Returns a RxJava Flowable that reverse geocodes a stream of locations, for bulk jobs. The lookups run in a
+     * {@link GeocodingEngine} created for the subscription and shut down when it terminates.
+     *
+     * @param context        caller context
+     * @param locations      locations to resolve
+     * @param maxResults     max number of addresses for each location
+     * @param maxConcurrency max number of lookups running at the same time
+     * @return Flowable emitting every location with its addresses as soon as they are resolved, so not in order
+     * @see #fromLocations(GeocodingEngine, Publisher, int, int)
+     */
+    public static Flowable<GeocodingResult<Location, List<Address>>> fromLocations(
+            final Context context, final Publisher<Location> locations, final int maxResults,
+            final int maxConcurrency) {
+        return Flowable.using(newEngine(context, maxConcurrency),
+                new Function<GeocodingEngine, Publisher<GeocodingResult<Location, List<Address>>>>() {
+                    @Override
+                    public Publisher<GeocodingResult<Location, List<Address>>> apply(
+                            GeocodingEngine engine) {
+                        return fromLocations(engine, locations, maxResults, maxConcurrency);
+                    }
+                }, SHUTDOWN);
+    }
+
+    public static Flowable<GeocodingResult<Location, List<Address>>> fromLocations(
+            Context context, Iterable<Location> locations, int maxResults, int maxConcurrency) {
+        return fromLocations(context, Flowable.fromIterable(locations), maxResults, maxConcurrency);
+    }
+
+    /**
+     * Returns a RxJava Flowable that reverse geocodes a stream of locations with an existing engine. At most
+     * maxConcurrency lookups are in flight, and new locations are only requested from upstream when the
+     * resolved ones are requested from downstream, so slow consumers do not make results pile up. Cancelling
+     * the subscription cancels the lookups in flight.
+     *
+     * @param engine         engine doing the lookups, its own concurrency is shared with other callers
+     * @param locations      locations to resolve
+     * @param maxResults     max number of addresses for each location
+     * @param maxConcurrency max number of lookups of this stream running at the same time
+     * @return Flowable emitting every location with its addresses as soon as they are resolved, so not in order
+     */
+    public static Flowable<GeocodingResult<Location, List<Address>>> fromLocations(
+            final GeocodingEngine engine, Publisher<Location> locations, final int maxResults,
+            int maxConcurrency) {
+        return Flowable.fromPublisher(locations).flatMapSingle(
+                new Function<Location, Single<GeocodingResult<Location, List<Address>>>>() {
+                    @Override
+                    public Single<GeocodingResult<Location, List<Address>>> apply(final Location location) {
+                        return Single.create(new SingleOnSubscribe<GeocodingResult<Location, List<Address>>>() {
+                            @Override
+                            public void subscribe(
+                                    final SingleEmitter<GeocodingResult<Location, List<Address>>> emitter) {
+                                final Object owner = new Object();
+                                emitter.setCancellable(cancel(engine, owner));
+                                engine.resolve(owner, location, maxResults, new OnReverseGeocodingListener() {
+                                    @Override
+                                    public void onAddressResolved(Location original, List<Address> results) {
+                                        emitter.onSuccess(new GeocodingResult<>(location, results));
+                                    }
+                                });
+                            }
+                        });
+                    }
+                }, false, maxConcurrency);
+    }
+
+    /**
+     * Returns a RxJava Flowable that geocodes a stream of names or addresses, for bulk jobs. The lookups run in
+     * a {@link GeocodingEngine} created for the subscription and shut down when it terminates.
+     *
+     * @param context        caller context
+     * @param names          names or addresses to resolve
+     * @param maxResults     max number of results for each name
+     * @param maxConcurrency max number of lookups running at the same time
+     * @return Flowable emitting every name with its results as soon as they are resolved, so not in order
+     * @see #fromNames(GeocodingEngine, Publisher, int, int)
+     */
+    public static Flowable<GeocodingResult<String, List<LocationAddress>>> fromNames(
+            final Context context, final Publisher<String> names, final int maxResults,
+            final int maxConcurrency) {
+        return Flowable.using(newEngine(context, maxConcurrency),
+                new Function<GeocodingEngine, Publisher<GeocodingResult<String, List<LocationAddress>>>>() {
+                    @Override
+                    public Publisher<GeocodingResult<String, List<LocationAddress>>> apply(
+                            GeocodingEngine engine) {
+                        return fromNames(engine, names, maxResults, maxConcurrency);
+                    }
+                }, SHUTDOWN);
+    }
+
+    public static Flowable<GeocodingResult<String, List<LocationAddress>>> fromNames(
+            Context context, Iterable<String> names, int maxResults, int maxConcurrency) {
+        return fromNames(context, Flowable.fromIterable(names), maxResults, maxConcurrency);
+    }
+
+    /**
+     * Returns a RxJava Flowable that geocodes a stream of names or addresses with an existing engine, with the
+     * same concurrency and backpressure handling as
+     * {@link #fromLocations(GeocodingEngine, Publisher, int, int)}.
+     *
+     * @param engine         engine doing the lookups, its own concurrency is shared with other callers
+     * @param names          names or addresses to resolve
+     * @param maxResults     max number of results for each name
+     * @param maxConcurrency max number of lookups of this stream running at the same time
+     * @return Flowable emitting every name with its results as soon as they are resolved, so not in order
+     */
+    public static Flowable<GeocodingResult<String, List<LocationAddress>>> fromNames(
+            final GeocodingEngine engine, Publisher<String> names, final int maxResults,
+            int maxConcurrency) {
+        return Flowable.fromPublisher(names).flatMapSingle(
+                new Function<String, Single<GeocodingResult<String, List<LocationAddress>>>>() {
+                    @Override
+                    public Single<GeocodingResult<String, List<LocationAddress>>> apply(final String name) {
+                        return Single.create(new SingleOnSubscribe<GeocodingResult<String, List<LocationAddress>>>() {
+                            @Override
+                            public void subscribe(
+                                    final SingleEmitter<GeocodingResult<String, List<LocationAddress>>> emitter) {
+                                final Object owner = new Object();
+                                emitter.setCancellable(cancel(engine, owner));
+                                engine.resolve(owner, name, maxResults, new OnGeocodingListener() {
+                                    @Override
+                                    public void onLocationResolved(String original, List<LocationAddress> results) {
+                                        emitter.onSuccess(new GeocodingResult<>(name, results));
+                                    }
+                                });
+                            }
+                        });
+                    }
+                }, false, maxConcurrency);
+    }
+
+    private static final Consumer<GeocodingEngine> SHUTDOWN = new Consumer<GeocodingEngine>() {
+        @Override
+        public void accept(GeocodingEngine engine) {
+            engine.shutdown();
+        }
+    };
+
+    private static Callable<GeocodingEngine> newEngine(final Context context, final int concurrency) {
+        return new Callable<GeocodingEngine>() {
+            @Override
+            public GeocodingEngine call() {
+                return new GeocodingEngine(new AndroidGeocoderBackend(context, Locale.getDefault()), concurrency,
+                        GeocodingEngine.DEFAULT_TIMEOUT);
+            }
+        };
+    }
+
+    private static Cancellable cancel(final GeocodingEngine engine, final Object owner) {
+        return new Cancellable() {
+            @Override
+            public void cancel() {
+                engine.cancel(owner);
+            }
+        };
+    }
 }
@@ -0,0 +1,184 @@
+package io.nlopez.smartlocation.rx;
+
+import android.location.Address;
+import android.location.Location;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.nlopez.smartlocation.geocoding.engine.GeocoderBackend;
+import io.nlopez.smartlocation.geocoding.engine.GeocodingEngine;
+import io.nlopez.smartlocation.geocoding.utils.LocationAddress;
+import io.reactivex.Flowable;
+import io.reactivex.subscribers.TestSubscriber;
+
+/**
+ * Tests the streaming geocoding methods of {@link ObservableFactory}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GeocodingStreamTest {
+
+    private static final int LOCATIONS = 40;
+    private static final long LATENCY = 20;
+
+    private CountingGeocoder geocoder;
+    private GeocodingEngine engine;
+
+    @Before
+    public void setup() {
+        geocoder = new CountingGeocoder();
+        engine = new GeocodingEngine(geocoder, 8, 0);
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void test_emits_every_location_with_its_result() throws InterruptedException {
+        List<Location> locations = locations(LOCATIONS);
+        TestSubscriber<GeocodingResult<Location, List<Address>>> subscriber =
+                ObservableFactory.fromLocations(engine, Flowable.fromIterable(locations), 1, 4).test();
+
+        Assert.assertTrue(subscriber.await(5, TimeUnit.SECONDS));
+        subscriber.assertNoErrors();
+        subscriber.assertValueCount(LOCATIONS);
+        Set<Location> inputs = new HashSet<>();
+        for (GeocodingResult<Location, List<Address>> result : subscriber.values()) {
+            inputs.add(result.getInput());
+            Assert.assertEquals(result.getInput().getLatitude(), result.getResults().get(0).getLatitude(), 0);
+        }
+        Assert.assertEquals(new HashSet<>(locations), inputs);
+    }
+
+    @Test
+    public void test_concurrency_is_bounded() throws InterruptedException {
+        TestSubscriber<GeocodingResult<Location, List<Address>>> subscriber =
+                ObservableFactory.fromLocations(engine, Flowable.fromIterable(locations(LOCATIONS)), 1, 3).test();
+
+        Assert.assertTrue(subscriber.await(5, TimeUnit.SECONDS));
+        subscriber.assertValueCount(LOCATIONS);
+        Assert.assertEquals(3, geocoder.maxRunning.get());
+    }
+
+    @Test
+    public void test_lookups_follow_downstream_demand() throws InterruptedException {
+        TestSubscriber<GeocodingResult<Location, List<Address>>> subscriber =
+                ObservableFactory.fromLocations(engine, Flowable.fromIterable(locations(LOCATIONS)), 1, 2).test(0);
+
+        Thread.sleep(LATENCY * 10);
+        // Only the first lookups run, their results wait for demand
+        Assert.assertEquals(2, geocoder.calls.get());
+        subscriber.assertNoValues();
+
+        subscriber.request(5);
+        Thread.sleep(LATENCY * 20);
+        subscriber.assertValueCount(5);
+        Assert.assertEquals(7, geocoder.calls.get());
+
+        subscriber.requestMore(LOCATIONS);
+        Assert.assertTrue(subscriber.await(5, TimeUnit.SECONDS));
+        subscriber.assertValueCount(LOCATIONS);
+    }
+
+    @Test
+    public void test_cancel_stops_lookups() throws InterruptedException {
+        TestSubscriber<GeocodingResult<Location, List<Address>>> subscriber =
+                ObservableFactory.fromLocations(engine, Flowable.fromIterable(locations(LOCATIONS)), 1, 2).test();
+
+        Thread.sleep(LATENCY * 3);
+        subscriber.cancel();
+        int calls = geocoder.calls.get();
+        Thread.sleep(LATENCY * 5);
+        Assert.assertTrue(geocoder.calls.get() <= calls + 2);
+        Assert.assertTrue(geocoder.calls.get() < LOCATIONS);
+        Assert.assertEquals(0, engine.getActiveCount());
+    }
+
+    @Test
+    public void test_emits_every_name_with_its_result() throws InterruptedException {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < LOCATIONS; i++) {
+            names.add("Place " + i);
+        }
+        TestSubscriber<GeocodingResult<String, List<LocationAddress>>> subscriber =
+                ObservableFactory.fromNames(engine, Flowable.fromIterable(names), 1, 4).test();
+
+        Assert.assertTrue(subscriber.await(5, TimeUnit.SECONDS));
+        subscriber.assertValueCount(LOCATIONS);
+        Set<String> inputs = new HashSet<>();
+        for (GeocodingResult<String, List<LocationAddress>> result : subscriber.values()) {
+            inputs.add(result.getInput());
+            Assert.assertEquals(result.getInput(), result.getResults().get(0).getAddress().getFeatureName());
+        }
+        Assert.assertEquals(new HashSet<>(names), inputs);
+    }
+
+    private static List<Location> locations(int count) {
+        List<Location> locations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Location location = new Location("test");
+            location.setLatitude(i);
+            location.setLongitude(i);
+            locations.add(location);
+        }
+        return locations;
+    }
+
+    private static class CountingGeocoder implements GeocoderBackend {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        @Override
+        public List<Address> getFromLocation(double latitude, double longitude, int maxResults) throws IOException {
+            Address address = new Address(Locale.US);
+            address.setLatitude(latitude);
+            address.setLongitude(longitude);
+            return lookup(address);
+        }
+
+        @Override
+        public List<Address> getFromLocationName(String name, int maxResults) throws IOException {
+            Address address = new Address(Locale.US);
+            address.setFeatureName(name);
+            return lookup(address);
+        }
+
+        private List<Address> lookup(Address address) throws IOException {
+            calls.incrementAndGet();
+            int current = running.incrementAndGet();
+            while (true) {
+                int max = maxRunning.get();
+                if (current <= max || maxRunning.compareAndSet(max, current)) {
+                    break;
+                }
+            }
+            try {
+                Thread.sleep(LATENCY);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+            return Collections.singletonList(address);
+        }
+    }
+}